@@ -0,0 +1,207 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.czentral.dvb.io.ts.TSPacket;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the native read paths of <code>NativeDVBIO</code> against a
+ * locally built <code>libNativeDVBIO</code>. The stream is a recording of
+ * the synthetic multiplex opened by the <code>file:</code> device of the
+ * native library, so no tuner is needed; the native code is the same as with
+ * a DVR device except for the system call reading the data. With the
+ * <code>frequency</code> parameter set (in Hz) the plain reads are measured
+ * on a DVB-T tuner of the default registry instead, opened directly (not
+ * through a shared multiplex):
+ * <code>-p frequency=506000000 NativeReadBenchmark.readArray</code>.
+ *
+ * The read-ahead benchmarks report the time per native call of the reader
+ * thread as <code>nativeCalls</code>, its ratio to the time per packet is
+ * the number of packets a native call returns.
+ *
+ * Run with the directory of the library on <code>java.library.path</code>,
+ * the forked JVMs inherit it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NativeReadBenchmark {
+
+	/**
+	 * The open native stream.
+	 */
+	@State(Scope.Thread)
+	public static class Source {
+
+		/**
+		 * Frequency of the tuner, empty for the recording.
+		 */
+		@Param({""})
+		String frequency;
+
+		DVBInputStream stream;
+
+		TunerLease lease;
+
+		@Setup(Level.Trial)
+		public void open() throws IOException {
+			if (frequency.isEmpty()) {
+				File file = SyntheticMultiplex.writeTemporary(SyntheticMultiplex.build(10000));
+				stream = NativeDVBIO.openStream(new DVBTStreamLocator(), "file:" + file.getPath());
+			} else {
+				DVBTStreamLocator locator = new DVBTStreamLocator();
+				locator.setFrequency(Long.parseLong(frequency));
+				lease = DeviceRegistry.getDefaultRegistry().getTunerPool().lease(locator);
+				stream = lease.getDevice().openStreamAt(locator);
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws IOException {
+			stream.close();
+			if (lease != null)
+				lease.release();
+		}
+	}
+
+	/**
+	 * The native stream read ahead, counting the native calls of an
+	 * iteration.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class ReadAhead {
+
+		ReadAheadInputStream stream;
+
+		long chunks;
+
+		@Setup(Level.Trial)
+		public void open() throws IOException {
+			File file = SyntheticMultiplex.writeTemporary(SyntheticMultiplex.build(10000));
+			stream = new ReadAheadInputStream(NativeDVBIO.openStream(new DVBTStreamLocator(), "file:" + file.getPath()));
+		}
+
+		@Setup(Level.Iteration)
+		public void mark() {
+			chunks = stream.getChunkCount();
+		}
+
+		public long nativeCalls() {
+			return stream.getChunkCount() - chunks;
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws IOException {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Buffers of a chunk size.
+	 */
+	@State(Scope.Thread)
+	public static class Chunk {
+
+		@Param({"188", "1316", "18800", "188000"})
+		int size;
+
+		byte[] array;
+
+		ByteBuffer direct;
+
+		@Setup(Level.Trial)
+		public void allocate() {
+			array = new byte[size];
+			direct = ByteBuffer.allocateDirect(size);
+		}
+	}
+
+	/**
+	 * A single byte: a JNI call (and the allocation of the target) per byte.
+	 */
+	@Benchmark
+	public int readByte(Source source) throws IOException {
+		return source.stream.read();
+	}
+
+	@Benchmark
+	public int readArray(Source source, Chunk chunk) throws IOException {
+		return source.stream.read(chunk.array, 0, chunk.array.length);
+	}
+
+	@Benchmark
+	public int readDirect(Source source, Chunk chunk) throws IOException {
+		chunk.direct.clear();
+		return source.stream.read(chunk.direct);
+	}
+
+	/**
+	 * A single byte served from the chunks of the read-ahead.
+	 */
+	@Benchmark
+	public int readAheadByte(ReadAhead source) throws IOException {
+		return source.stream.read();
+	}
+
+	@Benchmark
+	public int readAheadArray(ReadAhead source, Chunk chunk) throws IOException {
+		return source.stream.read(chunk.array, 0, chunk.array.length);
+	}
+
+	/**
+	 * The pre-read buffer is full after the first call, the rest measure the
+	 * cost of asking.
+	 */
+	@Benchmark
+	public int available(Source source) throws IOException {
+		return source.stream.available();
+	}
+
+	/**
+	 * Drains the pre-read buffer filled by <code>available</code> packet by
+	 * packet, the usual pattern of a reader polling before it reads.
+	 */
+	@Benchmark
+	public int availableThenRead(Source source, Chunk chunk) throws IOException {
+		int available = source.stream.available();
+		return source.stream.read(chunk.array, 0, Math.min(chunk.array.length, Math.max(available, TSPacket.SIZE)));
+	}
+
+}
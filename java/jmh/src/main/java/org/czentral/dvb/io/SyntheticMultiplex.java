@@ -0,0 +1,319 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.czentral.dvb.io.psi.Crc32;
+import org.czentral.dvb.io.psi.Section;
+import org.czentral.dvb.io.ts.TSPacket;
+
+/**
+ * Software data source of the benchmarks.
+ *
+ * The program multiplex has four programs with a PAT and the PMTs every 200
+ * packets, two elementary PIDs per program (0x200 + 16 * program and the
+ * next one), the first of them carrying a PCR about every 40 packets. The PCR
+ * values stand for a 20 Mbit/s multiplex. The PMT of program 2 gets a third
+ * PID in the second half, so the filters following the tables see a version
+ * change.
+ *
+ * The paced multiplex is made of four PIDs (0x100 - 0x103), the first one
+ * carrying a PCR of the position of the packet at the given rate, to be
+ * replayed or sent in real time.
+ *
+ * The packet and section writers are public for the benchmarks building
+ * tables of their own.
+ */
+public final class SyntheticMultiplex {
+
+	/**
+	 * Number of programs of the multiplex.
+	 */
+	public static final int PROGRAMS = 4;
+
+	/**
+	 * Rate of a full DVB-T multiplex (about 24 Mbit/s), in bytes per second.
+	 */
+	public static final double MUX_RATE = 24e6 / 8;
+
+	/**
+	 * Duration of a packet in 27 MHz units at 20 Mbit/s.
+	 */
+	private static final long PACKET_PCR_UNITS = 27000000L * 188 * 8 / 20000000;
+
+	private SyntheticMultiplex() {
+	}
+
+	/**
+	 * Builds the program multiplex.
+	 *
+	 * @param count Number of packets.
+	 * @return The packets.
+	 */
+	public static byte[] build(int count) {
+		byte[] mux = new byte[count * TSPacket.SIZE];
+		int[] counters = new int[8192];
+		for (int i=0; i<count; i++) {
+			int p = i * TSPacket.SIZE;
+			int slot = i % 200;
+			boolean changed = i >= count / 2;
+			if (slot == 0) {
+				section(mux, p, Section.PID_PAT, counters, pat());
+			} else if (slot <= PROGRAMS) {
+				section(mux, p, 0x100 + slot, counters, pmt(slot, changed && slot == 2));
+			} else {
+				int program = 1 + i % PROGRAMS;
+				int pid = 0x200 + 16 * program + (i / PROGRAMS) % (changed && program == 2 ? 3 : 2);
+				for (int q=p + 4; q<p + TSPacket.SIZE; q++)
+					mux[q] = (byte)q;
+				if ((i / PROGRAMS) % 10 == 0)
+					pcr(mux, p, pid, counters[pid]++, i * PACKET_PCR_UNITS, true);
+				else
+					packet(mux, p, pid, counters[pid]++);
+			}
+		}
+		return mux;
+	}
+
+	/**
+	 * Builds the paced multiplex.
+	 *
+	 * @param byteRate Rate of the multiplex in bytes per second.
+	 * @param seconds Duration of the multiplex.
+	 * @param pcrSeconds Interval of the PCRs.
+	 * @return The packets.
+	 */
+	public static byte[] buildPaced(double byteRate, double seconds, double pcrSeconds) {
+		int count = (int)(byteRate * seconds / TSPacket.SIZE);
+		long pcrInterval = Math.max((long)(byteRate * pcrSeconds / TSPacket.SIZE) / 4 * 4, 4);
+		byte[] mux = new byte[count * TSPacket.SIZE];
+		Arrays.fill(mux, (byte)0xff);
+		for (int i=0; i<count; i++) {
+			int p = i * TSPacket.SIZE;
+			int pid = 0x100 + i % 4;
+			if (i % pcrInterval == 0)
+				pcr(mux, p, pid, i / 4, (long)(p / byteRate * 27000000), true);
+			else
+				packet(mux, p, pid, i / 4);
+		}
+		return mux;
+	}
+
+	/**
+	 * Writes a recording of the paced multiplex at the rate of a DVB-T
+	 * multiplex.
+	 *
+	 * @param file The recording.
+	 * @param seconds Duration of the recording.
+	 * @param pcrSeconds Interval of the PCRs.
+	 * @throws IOException If the file can not be written.
+	 */
+	public static void writeRecording(File file, int seconds, double pcrSeconds) throws IOException {
+		write(file, buildPaced(MUX_RATE, seconds, pcrSeconds));
+	}
+
+	/**
+	 * Writes the packets to a temporary file, deleted when the JVM exits.
+	 *
+	 * @param mux The packets.
+	 * @return The file.
+	 * @throws IOException If the file can not be written.
+	 */
+	public static File writeTemporary(byte[] mux) throws IOException {
+		File file = File.createTempFile("multiplex", ".ts");
+		file.deleteOnExit();
+		write(file, mux);
+		return file;
+	}
+
+	private static void write(File file, byte[] mux) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(mux);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the header of a packet with payload only (the payload is left
+	 * as it is).
+	 */
+	public static void packet(byte[] mux, int p, int pid, int counter) {
+		mux[p] = TSPacket.SYNC_BYTE;
+		mux[p + 1] = (byte)(pid >> 8);
+		mux[p + 2] = (byte)pid;
+		mux[p + 3] = (byte)(0x10 | (counter & 0x0f));
+	}
+
+	/**
+	 * Writes a packet with a PCR in its adaptation field. With a payload the
+	 * adaptation field holds the PCR only (the payload is left as it is),
+	 * without one it fills the packet.
+	 *
+	 * @param pcr The PCR in 27 MHz units.
+	 */
+	public static void pcr(byte[] mux, int p, int pid, int counter, long pcr, boolean payload) {
+		long base = pcr / 300;
+		int extension = (int)(pcr % 300);
+		packet(mux, p, pid, counter);
+		mux[p + 3] = (byte)((payload ? 0x30 : 0x20) | (counter & 0x0f));
+		mux[p + 4] = (byte)(payload ? 7 : TSPacket.SIZE - 5);
+		mux[p + 5] = 0x10;
+		mux[p + 6] = (byte)(base >> 25);
+		mux[p + 7] = (byte)(base >> 17);
+		mux[p + 8] = (byte)(base >> 9);
+		mux[p + 9] = (byte)(base >> 1);
+		mux[p + 10] = (byte)(((base & 1) << 7) | 0x7e | (extension >> 8));
+		mux[p + 11] = (byte)extension;
+		if (!payload)
+			Arrays.fill(mux, p + 12, p + TSPacket.SIZE, (byte)0xff);
+	}
+
+	/**
+	 * Writes a packet carrying a section fitting a single packet, stuffed
+	 * after the section.
+	 *
+	 * @param counters Continuity counters by PID, advanced.
+	 */
+	public static void section(byte[] mux, int p, int pid, int[] counters, byte[] section) {
+		packet(mux, p, pid, counters[pid]++);
+		mux[p + 1] |= 0x40;
+		mux[p + 4] = 0;
+		System.arraycopy(section, 0, mux, p + 5, section.length);
+		Arrays.fill(mux, p + 5 + section.length, p + TSPacket.SIZE, (byte)0xff);
+	}
+
+	/**
+	 * Writes the header of a long form section (current, section 0 of 0),
+	 * its length is that of the array.
+	 */
+	public static void header(byte[] s, int tableId, int extension, int version) {
+		s[0] = (byte)tableId;
+		s[1] = (byte)(0xb0 | ((s.length - 3) >> 8));
+		s[2] = (byte)(s.length - 3);
+		s[3] = (byte)(extension >> 8);
+		s[4] = (byte)extension;
+		s[5] = (byte)(0xc1 | (version << 1));
+		s[6] = 0;
+		s[7] = 0;
+	}
+
+	/**
+	 * Writes the CRC to the last four bytes of a section.
+	 *
+	 * @return The section.
+	 */
+	public static byte[] crc(byte[] s) {
+		int crc = Crc32.compute(s, 0, s.length - 4);
+		s[s.length - 4] = (byte)(crc >>> 24);
+		s[s.length - 3] = (byte)(crc >>> 16);
+		s[s.length - 2] = (byte)(crc >>> 8);
+		s[s.length - 1] = (byte)crc;
+		return s;
+	}
+
+	private static byte[] pat() {
+		byte[] s = new byte[8 + 4 * PROGRAMS + 4];
+		header(s, Section.TABLE_PAT, 0x1234, 0);
+		for (int i=0; i<PROGRAMS; i++) {
+			int program = i + 1;
+			s[8 + i * 4] = 0;
+			s[9 + i * 4] = (byte)program;
+			s[10 + i * 4] = (byte)(0xe0 | ((0x100 + program) >> 8));
+			s[11 + i * 4] = (byte)(0x100 + program);
+		}
+		return crc(s);
+	}
+
+	private static byte[] pmt(int program, boolean extraAudio) {
+		int streams = extraAudio ? 3 : 2;
+		byte[] s = new byte[12 + 5 * streams + 4];
+		header(s, Section.TABLE_PMT, program, extraAudio ? 1 : 0);
+		int pcrPid = 0x200 + 16 * program;
+		s[8] = (byte)(0xe0 | (pcrPid >> 8));
+		s[9] = (byte)pcrPid;
+		s[10] = (byte)0xf0;
+		s[11] = 0;
+		for (int i=0; i<streams; i++) {
+			int q = 12 + i * 5;
+			int pid = pcrPid + i;
+			s[q] = (byte)(i == 0 ? 0x02 : 0x04);
+			s[q + 1] = (byte)(0xe0 | (pid >> 8));
+			s[q + 2] = (byte)pid;
+			s[q + 3] = (byte)0xf0;
+			s[q + 4] = 0;
+		}
+		return crc(s);
+	}
+
+	/**
+	 * Serves the packets from memory in an endless loop, so the stages on top
+	 * of it are measured without the cost of a device. Reads return up to the
+	 * end of the buffer, so read sizes not dividing it give chunks not aligned
+	 * to the packets.
+	 */
+	public static class MemorySource extends DVBInputStream {
+
+		private final byte[] data;
+
+		private int position;
+
+		public MemorySource(byte[] data) {
+			this.data = data;
+		}
+
+		public int read() {
+			int b = data[position] & 0xff;
+			position = (position + 1) % data.length;
+			return b;
+		}
+
+		public int read(byte[] buffer, int offset, int length) {
+			int n = Math.min(length, data.length - position);
+			System.arraycopy(data, position, buffer, offset, n);
+			position = (position + n) % data.length;
+			return n;
+		}
+
+		public int available() {
+			return data.length - position;
+		}
+
+		public boolean isSignalPresent() {
+			return true;
+		}
+
+		public boolean isSignalLocked() {
+			return true;
+		}
+
+		public int getSignalStrength() {
+			return -1;
+		}
+
+		public int getSignalQuality() {
+			return -1;
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.czentral.dvb.io.replay.ReplayDeviceRegistry;
+import org.czentral.dvb.io.ts.TSPacket;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures channel changes, from the start of the change to the first packet
+ * of the new transponder: closing the stream and opening a new one,
+ * retuning the stream in place, and retuning to a warm standby tuner put on
+ * the next frequency while the previous one was watched. Every iteration is
+ * a single change, after the channel was watched for 300 ms.
+ *
+ * Without the <code>frequencies</code> parameter two replay tuners play
+ * recordings of the paced synthetic multiplex with a PCR every 2 ms (the
+ * tuning and the lock cost nothing, only the overhead of the library is
+ * measured); with a comma separated list of frequencies (in Hz) the devices
+ * of the default registry are used.
+ *
+ * A retuned stream measures the change itself, from the retune to the first
+ * data without the wait of the benchmark for the packet; it is reported as
+ * <code>zapLatency</code> (zero when reopened).
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Thread)
+public class ZapBenchmark {
+
+	private static final long[] REPLAY_FREQUENCIES = {506000000L, 514000000L, 522000000L};
+
+	/**
+	 * Time a channel is watched before the next change, in milliseconds.
+	 */
+	private static final int WATCH = 300;
+
+	@Param({"reopen", "retune", "standby"})
+	String method;
+
+	@Param({""})
+	String frequencies;
+
+	private long[] tuned;
+
+	private File directory;
+
+	private DeviceRegistry registry;
+
+	private MultiplexSubscriber in;
+
+	private int zaps;
+
+	/**
+	 * The zap latency of the stream of an iteration, in milliseconds.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Latency {
+
+		public long zapLatency;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		if (frequencies.isEmpty()) {
+			directory = File.createTempFile("zap", "");
+			directory.delete();
+			directory.mkdirs();
+			for (int i=0; i<REPLAY_FREQUENCIES.length; i++)
+				SyntheticMultiplex.writeRecording(new File(directory, REPLAY_FREQUENCIES[i] + ".ts"), 2, 0.002);
+			registry = new ReplayDeviceRegistry(directory, 2);
+			tuned = REPLAY_FREQUENCIES;
+		} else {
+			registry = DeviceRegistry.getDefaultRegistry();
+			String[] list = frequencies.split(",");
+			tuned = new long[list.length];
+			for (int i=0; i<list.length; i++)
+				tuned[i] = Long.parseLong(list[i].trim());
+		}
+		in = subscribe(tuned[0]);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		in.close();
+		if (directory != null) {
+			for (int i=0; i<REPLAY_FREQUENCIES.length; i++)
+				new File(directory, REPLAY_FREQUENCIES[i] + ".ts").delete();
+			directory.delete();
+		}
+	}
+
+	/**
+	 * Watches the channel, putting the standby tuner on the next one.
+	 */
+	@Setup(Level.Iteration)
+	public void watch() throws Exception {
+		if (method.equals("standby"))
+			registry.getTunerPool().addStandby(locator(next()));
+		Thread.sleep(WATCH);
+	}
+
+	@TearDown(Level.Iteration)
+	public void advance(Latency latency) throws IOException {
+		latency.zapLatency = Math.max(in.getZapLatency(), 0);
+		if (method.equals("standby"))
+			registry.getTunerPool().removeStandby(locator(next()));
+		zaps++;
+	}
+
+	@Benchmark
+	public void zap() throws IOException {
+		if (method.equals("reopen")) {
+			in.close();
+			in = subscribe(next());
+		} else {
+			in.retune(locator(next()));
+			firstPacket(in);
+		}
+	}
+
+	private long next() {
+		return tuned[(zaps + 1) % tuned.length];
+	}
+
+	/**
+	 * Subscribes to the whole multiplex of a frequency and waits for the
+	 * first packet.
+	 */
+	private MultiplexSubscriber subscribe(long frequency) throws IOException {
+		MultiplexSubscriber subscriber = registry.subscribe(locator(frequency), MultiplexSubscriber.DROP_OLDEST);
+		firstPacket(subscriber);
+		return subscriber;
+	}
+
+	private static StreamLocator locator(long frequency) {
+		DVBTStreamLocator locator = new DVBTStreamLocator();
+		locator.setFrequency(frequency);
+		return locator;
+	}
+
+	private static void firstPacket(MultiplexSubscriber in) throws IOException {
+		in.setReadTimeout(5000);
+		byte[] packet = new byte[TSPacket.SIZE];
+		if (in.read(packet, 0, packet.length) <= 0)
+			throw new IOException("Stream ended.");
+	}
+
+}
@@ -0,0 +1,132 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.psi;
+
+import java.util.concurrent.TimeUnit;
+
+import org.czentral.dvb.io.SyntheticMultiplex;
+import org.czentral.dvb.io.ts.TSPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the PSI layer: the CRC32 of a 1 KB block (slicing-by-8 and the
+ * byte-wise algorithm as the reference), and the section
+ * assembler fed with the packets of the synthetic multiplex (the PAT and the
+ * PMTs are followed, the results are per packet).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SectionBenchmark {
+
+	private static final int PACKETS = 10000;
+
+	/**
+	 * Data of the CRC.
+	 */
+	@State(Scope.Thread)
+	public static class Block {
+
+		byte[] data;
+
+		int[] table;
+
+		@Setup(Level.Trial)
+		public void fill() {
+			data = new byte[1024];
+			for (int i=0; i<data.length; i++)
+				data[i] = (byte)(i * 31 + 7);
+
+			table = new int[256];
+			for (int i=0; i<256; i++) {
+				int crc = i << 24;
+				for (int j=0; j<8; j++)
+					crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04c11db7 : crc << 1;
+				table[i] = crc;
+			}
+		}
+	}
+
+	/**
+	 * The multiplex and the assembler following its tables.
+	 */
+	@State(Scope.Thread)
+	public static class Assembly {
+
+		@Param({"false", "true"})
+		boolean skipUnchanged;
+
+		byte[] mux;
+
+		SectionAssembler assembler;
+
+		@Setup(Level.Trial)
+		public void setUp(final Blackhole blackhole) {
+			mux = SyntheticMultiplex.build(PACKETS);
+			assembler = new SectionAssembler(new SectionHandler() {
+				public void section(int pid, byte[] buffer, int offset, int length) {
+					blackhole.consume(length);
+				}
+			});
+			assembler.setSkipUnchanged(skipUnchanged);
+			assembler.addPid(Section.PID_PAT);
+			for (int program=1; program<=SyntheticMultiplex.PROGRAMS; program++)
+				assembler.addPid(0x100 + program);
+		}
+	}
+
+	@Benchmark
+	public int crc1k(Block block) {
+		return Crc32.compute(block.data, 0, block.data.length);
+	}
+
+	@Benchmark
+	public int crc1kBytewise(Block block) {
+		byte[] data = block.data;
+		int[] table = block.table;
+		int crc = 0xffffffff;
+		for (int p=0; p<data.length; p++)
+			crc = (crc << 8) ^ table[((crc >>> 24) ^ data[p]) & 0xff];
+		return crc;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PACKETS)
+	public long assemble(Assembly assembly) {
+		byte[] mux = assembly.mux;
+		for (int p=0; p<mux.length; p+=TSPacket.SIZE)
+			assembly.assembler.feed(mux, p);
+		return assembly.assembler.getSectionCount();
+	}
+
+}
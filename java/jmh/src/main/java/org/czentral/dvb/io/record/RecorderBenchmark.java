@@ -0,0 +1,182 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.record;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.czentral.dvb.io.SyntheticMultiplex;
+import org.czentral.dvb.io.ts.TSPacket;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the recorder writing the synthetic multiplex as fast as possible,
+ * compared to copying the chunks to a <code>FileOutputStream</code>. An
+ * operation is a chunk of 100 packets; the time is sampled, so the largest
+ * sample is the longest stall of the reader feeding the recorder.
+ *
+ * The recorder is not throttled, the packets the disk could not take are
+ * dropped: the rate written is the sustainable rate. It is reported for every
+ * iteration in multiplexes (<code>writtenMultiplexes</code>, the sum of the
+ * iterations in the summary), with the packets dropped. The directory
+ * defaults to a tmpfs and the temporary directory (empty parameter).
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecorderBenchmark {
+
+	private static final int CHUNK_PACKETS = 100;
+
+	/**
+	 * The packets written.
+	 */
+	@State(Scope.Thread)
+	public static class Chunk {
+
+		byte[] packets;
+
+		TSPacket packet;
+
+		@Setup(Level.Trial)
+		public void build() {
+			packets = SyntheticMultiplex.build(CHUNK_PACKETS);
+			packet = new TSPacket(packets, 0);
+		}
+	}
+
+	/**
+	 * A plain file.
+	 */
+	@State(Scope.Thread)
+	public static class Stream {
+
+		@Param({"/dev/shm", ""})
+		String directory;
+
+		File file;
+
+		FileOutputStream out;
+
+		@Setup(Level.Trial)
+		public void open() throws IOException {
+			file = new File(directory(directory), "bench-stream.ts");
+			out = new FileOutputStream(file);
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws IOException {
+			out.close();
+			file.delete();
+		}
+	}
+
+	/**
+	 * The recorder, counting the data written and dropped in an iteration.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Recorder {
+
+		/**
+		 * Rate written over the rate of a DVB-T multiplex.
+		 */
+		public double writtenMultiplexes;
+
+		public long droppedPackets;
+
+		@Param({"/dev/shm", ""})
+		String directory;
+
+		@Param({"" + StreamRecorder.SYNC_NONE, "" + StreamRecorder.SYNC_EVERY_BLOCK})
+		int syncPolicy;
+
+		StreamRecorder recorder;
+
+		long start;
+
+		long written;
+
+		long dropped;
+
+		@Setup(Level.Trial)
+		public void open() {
+			recorder = new StreamRecorder(directory(directory), "bench-recorder");
+			recorder.setSyncPolicy(syncPolicy);
+			recorder.setRolloverSize(256L * 1024 * 1024);
+		}
+
+		@Setup(Level.Iteration)
+		public void mark() {
+			start = System.nanoTime();
+			written = recorder.getWrittenBytes();
+			dropped = recorder.getDroppedPackets();
+		}
+
+		@TearDown(Level.Iteration)
+		public void count() {
+			double rate = (recorder.getWrittenBytes() - written) / ((System.nanoTime() - start) / 1e9);
+			writtenMultiplexes = rate / SyntheticMultiplex.MUX_RATE;
+			droppedPackets = recorder.getDroppedPackets() - dropped;
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws IOException {
+			recorder.close();
+			for (File file : directory(directory).listFiles())
+				if (file.getName().startsWith("bench-recorder-"))
+					file.delete();
+		}
+	}
+
+	@Benchmark
+	public void outputStream(Stream stream, Chunk chunk) throws IOException {
+		stream.out.write(chunk.packets);
+	}
+
+	@Benchmark
+	public void recorder(Recorder recorder, Chunk chunk) throws IOException {
+		TSPacket packet = chunk.packet;
+		for (int p=0; p<chunk.packets.length; p+=TSPacket.SIZE) {
+			packet.wrap(chunk.packets, p);
+			recorder.recorder.write(packet);
+		}
+	}
+
+	private static File directory(String path) {
+		return new File(path.isEmpty() ? System.getProperty("java.io.tmpdir") : path);
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.remote;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.czentral.dvb.io.DVBDevice;
+import org.czentral.dvb.io.DVBInputStream;
+import org.czentral.dvb.io.DVBTStreamLocator;
+import org.czentral.dvb.io.SyntheticMultiplex;
+import org.czentral.dvb.io.replay.ReplayDeviceRegistry;
+import org.czentral.dvb.io.replay.ReplayInputStream;
+import org.czentral.dvb.io.ts.TSPacket;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Serves a recording of the paced synthetic multiplex by a
+ * <code>TunerServer</code> on localhost, played as fast as possible, and
+ * reads it through a <code>RemoteDeviceRegistry</code>: the whole multiplex
+ * or a single PID, by one stream or by two streams on different tuners over
+ * the one connection at the same time. The results are per packet read;
+ * <code>newConnections</code> counts the connections opened while reading,
+ * zero as long as the streams share the connection of the registry.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RemoteBenchmark {
+
+	private static final long[] FREQUENCIES = {506000000L, 514000000L};
+
+	private static final int CHUNK_PACKETS = 100;
+
+	/**
+	 * The server and the registry connected to it.
+	 */
+	@State(Scope.Benchmark)
+	public static class Server {
+
+		File recording;
+
+		TunerServer server;
+
+		RemoteDeviceRegistry remote;
+
+		DVBDevice[] devices;
+
+		@Setup(Level.Trial)
+		public void start() throws IOException {
+			recording = File.createTempFile("remote", ".ts");
+			SyntheticMultiplex.writeRecording(recording, 10, 0.04);
+
+			ReplayDeviceRegistry replay = new ReplayDeviceRegistry(FREQUENCIES.length);
+			for (int i=0; i<FREQUENCIES.length; i++)
+				replay.addRecording(FREQUENCIES[i], recording);
+			replay.setMode(ReplayInputStream.FAST);
+
+			server = new TunerServer(replay, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			server.start();
+			remote = new RemoteDeviceRegistry("localhost", server.getPort());
+			devices = remote.getDevices();
+		}
+
+		@TearDown(Level.Trial)
+		public void stop() throws IOException {
+			remote.close();
+			server.close();
+			recording.delete();
+		}
+	}
+
+	/**
+	 * A stream of a thread, on the tuner of its index. The connections are
+	 * counted by the first thread.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Stream {
+
+		public int newConnections;
+
+		/**
+		 * PID of the locator, all the multiplex when negative.
+		 */
+		@Param({"-1", "256"})
+		int pid;
+
+		DVBInputStream in;
+
+		byte[] buffer = new byte[CHUNK_PACKETS * TSPacket.SIZE];
+
+		TunerServer server;
+
+		boolean counting;
+
+		int connections;
+
+		@Setup(Level.Trial)
+		public void open(Server server, ThreadParams thread) throws IOException {
+			this.server = server.server;
+			counting = thread.getThreadIndex() == 0;
+			int index = thread.getThreadIndex() % FREQUENCIES.length;
+			DVBTStreamLocator locator = new DVBTStreamLocator();
+			locator.setFrequency(FREQUENCIES[index]);
+			if (pid >= 0)
+				locator.addPid(pid);
+			in = server.devices[index].openStreamAt(locator);
+		}
+
+		@Setup(Level.Iteration)
+		public void mark() {
+			connections = server.getConnectionCount();
+		}
+
+		@TearDown(Level.Iteration)
+		public void count() {
+			newConnections = counting ? server.getConnectionCount() - connections : 0;
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CHUNK_PACKETS)
+	public int read(Stream stream) throws IOException {
+		return stream.in.read(stream.buffer, 0, stream.buffer.length);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CHUNK_PACKETS)
+	@Threads(2)
+	public int readParallel(Stream stream) throws IOException {
+		return stream.in.read(stream.buffer, 0, stream.buffer.length);
+	}
+
+}
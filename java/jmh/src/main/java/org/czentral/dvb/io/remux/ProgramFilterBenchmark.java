@@ -0,0 +1,104 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.remux;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.czentral.dvb.io.SyntheticMultiplex;
+import org.czentral.dvb.io.ts.TSPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the single program filter on the synthetic multiplex: the
+ * decision per packet, and the in-place compaction of
+ * <code>ProgramInputStream</code>, compared to reading the multiplex
+ * without it. The PMT of the program changes in the middle of the
+ * multiplex. The results are per multiplex packet.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProgramFilterBenchmark {
+
+	private static final int PACKETS = 10000;
+
+	private static final int CHUNK_PACKETS = 100;
+
+	private byte[] mux;
+
+	private ProgramFilter filter;
+
+	private ProgramInputStream program;
+
+	private SyntheticMultiplex.MemorySource plain;
+
+	private byte[] chunk;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		mux = SyntheticMultiplex.build(PACKETS);
+		filter = new ProgramFilter(2);
+		program = new ProgramInputStream(new SyntheticMultiplex.MemorySource(mux), 2);
+		plain = new SyntheticMultiplex.MemorySource(mux);
+		chunk = new byte[CHUNK_PACKETS * TSPacket.SIZE];
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PACKETS)
+	public int process() {
+		int forwarded = 0;
+		for (int p=0; p<mux.length; p+=TSPacket.SIZE)
+			forwarded += filter.process(mux, p);
+		return forwarded;
+	}
+
+	/**
+	 * A quarter of the packets pass, a read of 100 packets reads about 400
+	 * of the multiplex: the operation count is an estimate.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(CHUNK_PACKETS * SyntheticMultiplex.PROGRAMS)
+	public int read() throws IOException {
+		return program.read(chunk, 0, chunk.length);
+	}
+
+	/**
+	 * Copying the multiplex, the floor of <code>read</code>.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(CHUNK_PACKETS)
+	public int copy() throws IOException {
+		return plain.read(chunk, 0, chunk.length);
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.czentral.dvb.io.DVBInputStream;
+import org.czentral.dvb.io.DVBTStreamLocator;
+import org.czentral.dvb.io.SyntheticMultiplex;
+import org.czentral.dvb.io.ts.TSPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Plays a recording of the paced synthetic multiplex (24 Mbit/s, a PCR
+ * every 40 ms): as fast as possible, with and without PID filtering (the
+ * results are per packet read), then paced by the PCR, where a second of the
+ * recording should take a second.
+ */
+@Fork(1)
+public class ReplayBenchmark {
+
+	private static final long FREQUENCY = 506000000;
+
+	private static final int CHUNK_PACKETS = 100;
+
+	/**
+	 * The recording, played by a replay tuner in the given mode.
+	 */
+	@State(Scope.Thread)
+	public abstract static class Player {
+
+		/**
+		 * PID of the locator, all the multiplex when negative.
+		 */
+		@Param({"-1", "256"})
+		int pid;
+
+		DVBInputStream in;
+
+		byte[] buffer = new byte[CHUNK_PACKETS * TSPacket.SIZE];
+
+		private File directory;
+
+		private File recording;
+
+		@Setup(Level.Trial)
+		public void open() throws IOException {
+			directory = File.createTempFile("replay", "");
+			directory.delete();
+			directory.mkdirs();
+			recording = new File(directory, FREQUENCY + ".ts");
+			SyntheticMultiplex.writeRecording(recording, 10, 0.04);
+
+			ReplayDeviceRegistry replay = new ReplayDeviceRegistry(directory, 1);
+			replay.setMode(getMode());
+			DVBTStreamLocator locator = new DVBTStreamLocator();
+			locator.setFrequency(FREQUENCY);
+			if (pid >= 0)
+				locator.addPid(pid);
+			in = replay.getDevices()[0].openStreamAt(locator);
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws IOException {
+			in.close();
+			recording.delete();
+			directory.delete();
+		}
+
+		abstract int getMode();
+	}
+
+	@State(Scope.Thread)
+	public static class Fast extends Player {
+
+		int getMode() {
+			return ReplayInputStream.FAST;
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Realtime extends Player {
+
+		int getMode() {
+			return ReplayInputStream.REALTIME;
+		}
+	}
+
+	/**
+	 * A chunk of 100 packets, of 400 packets of the multiplex with the PID
+	 * filter.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	@OperationsPerInvocation(CHUNK_PACKETS)
+	public int fast(Fast player) throws IOException {
+		return player.in.read(player.buffer, 0, player.buffer.length);
+	}
+
+	/**
+	 * A second of the stream.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 5)
+	public long realtime(Realtime player) throws IOException {
+		long bytes = (long)(SyntheticMultiplex.MUX_RATE / (player.pid >= 0 ? 4 : 1));
+		long red = 0;
+		while (red < bytes) {
+			int n = player.in.read(player.buffer, 0, (int)Math.min(player.buffer.length, bytes - red));
+			if (n < 0)
+				throw new IOException("Stream ended.");
+			red += n;
+		}
+		return red;
+	}
+
+}
@@ -0,0 +1,282 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.scan;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.czentral.dvb.io.SyntheticMultiplex;
+import org.czentral.dvb.io.psi.NetworkInformationSection;
+import org.czentral.dvb.io.psi.Section;
+import org.czentral.dvb.io.psi.ServiceDescriptionSection;
+import org.czentral.dvb.io.replay.ReplayDeviceRegistry;
+import org.czentral.dvb.io.replay.ReplayInputStream;
+import org.czentral.dvb.io.ts.TSPacket;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scans the UHF band of a replay registry holding six synthetic multiplexes
+ * (four services each, PAT every 100 ms, SDT every second, NIT every 2
+ * seconds, played in real time), with a single tuner and with four.
+ *
+ * The replay tuners fail to open the frequencies without a recording, so the
+ * empty channels cost nothing here: the times are those of collecting the
+ * tables. The transponders locked and complete, the services and the scan
+ * time of the slowest multiplex are counted for every scan.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class ScanBenchmark {
+
+	private static final long[] FREQUENCIES = {490000000L, 522000000L, 578000000L, 634000000L, 690000000L, 778000000L};
+
+	private static final int SERVICES = 4;
+
+	private static final int NETWORK_ID = 0x3001;
+
+	private static final double MUX_RATE = 2e6 / 8;
+
+	@Param({"1", "4"})
+	int tuners;
+
+	private File directory;
+
+	private ChannelScanner scanner;
+
+	private ScanResult result;
+
+	/**
+	 * What a scan found.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Found {
+
+		public int locked;
+
+		public int complete;
+
+		public int services;
+
+		/**
+		 * Scan time of the slowest multiplex, in milliseconds.
+		 */
+		public long slowestMultiplex;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		directory = File.createTempFile("scan", "");
+		directory.delete();
+		directory.mkdirs();
+		for (int i=0; i<FREQUENCIES.length; i++)
+			write(new File(directory, FREQUENCIES[i] + ".ts"), i, 4);
+
+		ReplayDeviceRegistry replay = new ReplayDeviceRegistry(directory, tuners);
+		replay.setMode(ReplayInputStream.REALTIME);
+		scanner = new ChannelScanner(replay);
+		scanner.setMaxTuners(tuners);
+	}
+
+	@TearDown(Level.Iteration)
+	public void count(Found found) {
+		TransponderInfo[] locked = result.getLockedTransponders();
+		found.locked = locked.length;
+		found.complete = 0;
+		found.slowestMultiplex = 0;
+		for (int i=0; i<locked.length; i++) {
+			found.slowestMultiplex = Math.max(found.slowestMultiplex, locked[i].getScanTime());
+			if (locked[i].getState() == TransponderInfo.COMPLETE)
+				found.complete++;
+		}
+		found.services = result.getServiceMap().size();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		for (int i=0; i<FREQUENCIES.length; i++)
+			new File(directory, FREQUENCIES[i] + ".ts").delete();
+		directory.delete();
+	}
+
+	@Benchmark
+	public ScanResult scan() throws IOException {
+		result = scanner.scan(ChannelScanner.getUhfFrequencies());
+		return result;
+	}
+
+	/**
+	 * Writes a multiplex: a PCR every 40 ms on PID 0x100, the tables at
+	 * their repetition rates (the SDT and the NIT shifted by the index, so
+	 * the multiplexes are at different phases when the scan starts), null
+	 * packets otherwise.
+	 */
+	private static void write(File file, int index, int seconds) throws IOException {
+		int perSecond = (int)(MUX_RATE / TSPacket.SIZE);
+		long packets = (long)perSecond * seconds;
+		int pcrInterval = perSecond / 25;
+		int patInterval = perSecond / 10;
+		int sdtInterval = perSecond;
+		int nitInterval = perSecond * 2;
+		int tsid = 0x100 + index;
+
+		byte[] pat = pat(tsid);
+		byte[] sdt = sdt(tsid, index);
+		byte[] nit = nit();
+		int[] counters = new int[8192];
+		byte[] packet = new byte[TSPacket.SIZE];
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			for (long i=0; i<packets; i++) {
+				if (i % patInterval == 1) {
+					SyntheticMultiplex.section(packet, 0, Section.PID_PAT, counters, pat);
+				} else if ((i + index * sdtInterval / FREQUENCIES.length) % sdtInterval == 2) {
+					SyntheticMultiplex.section(packet, 0, Section.PID_SDT, counters, sdt);
+				} else if ((i + index * nitInterval / FREQUENCIES.length) % nitInterval == 3) {
+					SyntheticMultiplex.section(packet, 0, Section.PID_NIT, counters, nit);
+				} else if (i % pcrInterval == 0) {
+					SyntheticMultiplex.pcr(packet, 0, 0x100, counters[0x100], (long)(i * TSPacket.SIZE / MUX_RATE * 27000000), false);
+				} else {
+					Arrays.fill(packet, (byte)0xff);
+					SyntheticMultiplex.packet(packet, 0, 0x1fff, 0);
+				}
+				out.write(packet);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * A PAT referring to the NIT (program 0) and the PMTs 0x101 - 0x104.
+	 */
+	private static byte[] pat(int tsid) {
+		byte[] s = new byte[8 + 4 * (SERVICES + 1) + 4];
+		SyntheticMultiplex.header(s, Section.TABLE_PAT, tsid, 0);
+		s[10] = (byte)(0xe0 | (Section.PID_NIT >> 8));
+		s[11] = (byte)Section.PID_NIT;
+		for (int i=1; i<=SERVICES; i++) {
+			int sid = service(tsid, i);
+			int pid = 0x100 + i;
+			s[8 + i * 4] = (byte)(sid >> 8);
+			s[9 + i * 4] = (byte)sid;
+			s[10 + i * 4] = (byte)(0xe0 | (pid >> 8));
+			s[11 + i * 4] = (byte)pid;
+		}
+		return SyntheticMultiplex.crc(s);
+	}
+
+	private static byte[] sdt(int tsid, int index) {
+		byte[][] names = new byte[SERVICES][];
+		int length = 11;
+		for (int i=0; i<SERVICES; i++) {
+			names[i] = ("Channel " + (index * SERVICES + i + 1)).getBytes();
+			length += 5 + 5 + "Bench".length() + names[i].length;
+		}
+		byte[] s = new byte[length + 4];
+		SyntheticMultiplex.header(s, ServiceDescriptionSection.TABLE_SDT_ACTUAL, tsid, 0);
+		s[8] = (byte)(NETWORK_ID >> 8);
+		s[9] = (byte)NETWORK_ID;
+		s[10] = (byte)0xff;
+		int p = 11;
+		for (int i=0; i<SERVICES; i++) {
+			int sid = service(tsid, i + 1);
+			int descriptors = 5 + "Bench".length() + names[i].length;
+			s[p] = (byte)(sid >> 8);
+			s[p + 1] = (byte)sid;
+			s[p + 2] = (byte)0xfd;
+			s[p + 3] = (byte)(0x80 | (descriptors >> 8));
+			s[p + 4] = (byte)descriptors;
+			s[p + 5] = (byte)ServiceDescriptionSection.SERVICE_DESCRIPTOR;
+			s[p + 6] = (byte)(descriptors - 2);
+			s[p + 7] = (byte)(i == SERVICES - 1 ? 0x02 : 0x01);
+			s[p + 8] = (byte)"Bench".length();
+			System.arraycopy("Bench".getBytes(), 0, s, p + 9, "Bench".length());
+			int q = p + 9 + "Bench".length();
+			s[q] = (byte)names[i].length;
+			System.arraycopy(names[i], 0, s, q + 1, names[i].length);
+			p += 5 + descriptors;
+		}
+		return SyntheticMultiplex.crc(s);
+	}
+
+	/**
+	 * A NIT with the network name and a terrestrial delivery descriptor per
+	 * multiplex.
+	 */
+	private static byte[] nit() {
+		byte[] name = "Bench network".getBytes();
+		int networkDescriptors = 2 + name.length;
+		int streams = FREQUENCIES.length * (6 + 13);
+		byte[] s = new byte[10 + networkDescriptors + 2 + streams + 4];
+		SyntheticMultiplex.header(s, NetworkInformationSection.TABLE_NIT_ACTUAL, NETWORK_ID, 0);
+		s[8] = (byte)(0xf0 | (networkDescriptors >> 8));
+		s[9] = (byte)networkDescriptors;
+		s[10] = (byte)NetworkInformationSection.NETWORK_NAME_DESCRIPTOR;
+		s[11] = (byte)name.length;
+		System.arraycopy(name, 0, s, 12, name.length);
+		int p = 10 + networkDescriptors;
+		s[p] = (byte)(0xf0 | (streams >> 8));
+		s[p + 1] = (byte)streams;
+		p += 2;
+		for (int i=0; i<FREQUENCIES.length; i++) {
+			int tsid = 0x100 + i;
+			long centre = FREQUENCIES[i] / 10;
+			s[p] = (byte)(tsid >> 8);
+			s[p + 1] = (byte)tsid;
+			s[p + 2] = (byte)(NETWORK_ID >> 8);
+			s[p + 3] = (byte)NETWORK_ID;
+			s[p + 4] = (byte)0xf0;
+			s[p + 5] = 13;
+			s[p + 6] = (byte)NetworkInformationSection.TERRESTRIAL_DELIVERY_DESCRIPTOR;
+			s[p + 7] = 11;
+			s[p + 8] = (byte)(centre >> 24);
+			s[p + 9] = (byte)(centre >> 16);
+			s[p + 10] = (byte)(centre >> 8);
+			s[p + 11] = (byte)centre;
+			Arrays.fill(s, p + 12, p + 19, (byte)0xff);
+			p += 19;
+		}
+		return SyntheticMultiplex.crc(s);
+	}
+
+	private static int service(int tsid, int number) {
+		return (tsid - 0x100) * 0x10 + number;
+	}
+
+}
@@ -0,0 +1,113 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.ts;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.czentral.dvb.io.SyntheticMultiplex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the packet framing of <code>TransportStreamReader</code> and the
+ * per-PID accounting of <code>StreamAnalyzer</code> on the synthetic
+ * multiplex served from memory. The results are per packet; the cost of the
+ * analyzer is the difference of <code>analyzerRead</code> and
+ * <code>plainRead</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FramingBenchmark {
+
+	private static final int CHUNK_PACKETS = 100;
+
+	private TransportStreamReader reader;
+
+	private StreamAnalyzer analyzer;
+
+	private SyntheticMultiplex.MemorySource plain;
+
+	private byte[] chunk;
+
+	private byte[] packets;
+
+	private TSPacket packet;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		byte[] mux = SyntheticMultiplex.build(10000);
+		reader = new TransportStreamReader(new SyntheticMultiplex.MemorySource(mux));
+		analyzer = new StreamAnalyzer(new SyntheticMultiplex.MemorySource(mux));
+		plain = new SyntheticMultiplex.MemorySource(mux);
+		chunk = new byte[CHUNK_PACKETS * TSPacket.SIZE];
+		packets = mux;
+		packet = new TSPacket(mux, 0);
+	}
+
+	@Benchmark
+	public TSPacket readerNext() throws IOException {
+		return reader.next();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CHUNK_PACKETS)
+	public int analyzerRead() throws IOException {
+		return analyzer.read(chunk, 0, chunk.length);
+	}
+
+	/**
+	 * The same reads without the analyzer.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(CHUNK_PACKETS)
+	public int plainRead() throws IOException {
+		return plain.read(chunk, 0, chunk.length);
+	}
+
+	/**
+	 * The header accessors of a wrapped packet, the floor of every stage.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(CHUNK_PACKETS)
+	public int packetHeaders() {
+		int sum = 0;
+		for (int i=0; i<CHUNK_PACKETS; i++) {
+			packet.wrap(packets, i * TSPacket.SIZE);
+			sum += packet.getPid() + packet.getContinuityCounter();
+			if (packet.hasPCR())
+				sum += (int)packet.getPCR();
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,323 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.udp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.czentral.dvb.io.SyntheticMultiplex;
+import org.czentral.dvb.io.ts.TSPacket;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sends the paced synthetic multiplex over loopback with
+ * <code>UdpStreamer</code>: a single stream as fast as possible (the result
+ * is per packet), then many streams paced by their PCR at the same time,
+ * each received by a socket of its own, where two seconds of the streams
+ * should take two seconds.
+ *
+ * The datagrams sent and lost are counted for every iteration, and of the
+ * paced streams the rate sent relative to the nominal rate and the largest
+ * burst a receiver saw. JMH sums the counters of the iterations, the values
+ * of the single iterations are in the detailed output.
+ */
+@Fork(1)
+public class UdpBenchmark {
+
+	private static final int CHUNK_PACKETS = 100 * UdpStreamer.PACKETS_PER_DATAGRAM;
+
+	private static final int PACED_SECONDS = 2;
+
+	/**
+	 * Bytes sent per byte of the multiplex: the RTP header of every datagram
+	 * is counted by the streamers, not by the nominal rate.
+	 */
+	private static final double RTP_OVERHEAD = (double)(UdpStreamer.RTP_HEADER_SIZE + UdpStreamer.PACKETS_PER_DATAGRAM * TSPacket.SIZE)
+			/ (UdpStreamer.PACKETS_PER_DATAGRAM * TSPacket.SIZE);
+
+	/**
+	 * An unpaced streamer and its receiver.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Unpaced {
+
+		public long sentDatagrams;
+
+		public long lostDatagrams;
+
+		byte[] mux;
+
+		TSPacket packet;
+
+		int position;
+
+		Receiver receiver;
+
+		UdpStreamer streamer;
+
+		long sent;
+
+		long received;
+
+		@Setup(Level.Trial)
+		public void open() throws IOException {
+			mux = SyntheticMultiplex.buildPaced(80e6 / 8, 1, 0.04);
+			packet = new TSPacket(mux, 0);
+			receiver = new Receiver();
+			streamer = new UdpStreamer(receiver.getAddress(), true);
+			streamer.setPaced(false);
+		}
+
+		@Setup(Level.Iteration)
+		public void mark() {
+			sent = streamer.getSentDatagrams();
+			received = receiver.datagrams;
+		}
+
+		/**
+		 * Counts the iteration, after the receiver caught up.
+		 */
+		@TearDown(Level.Iteration)
+		public void count() throws InterruptedException {
+			Thread.sleep(100);
+			sentDatagrams = streamer.getSentDatagrams() - sent;
+			lostDatagrams = sentDatagrams - (receiver.datagrams - received);
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws IOException {
+			streamer.close();
+			receiver.close();
+		}
+	}
+
+	/**
+	 * The paced streamers and their receivers, new ones for every iteration.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Paced {
+
+		public long sentDatagrams;
+
+		public long lostDatagrams;
+
+		/**
+		 * Rate of all the streams over the nominal rate.
+		 */
+		public double rateRatio;
+
+		/**
+		 * Most datagrams a receiver got in a millisecond.
+		 */
+		public long burstDatagrams;
+
+		@Param({"8"})
+		int streams;
+
+		/**
+		 * Rate of a stream in Mbit/s.
+		 */
+		@Param({"80"})
+		double mbits;
+
+		byte[] mux;
+
+		Receiver[] receivers;
+
+		UdpStreamer[] streamers;
+
+		long start;
+
+		@Setup(Level.Trial)
+		public void build() {
+			mux = SyntheticMultiplex.buildPaced(mbits * 1e6 / 8, PACED_SECONDS, 0.04);
+		}
+
+		@Setup(Level.Iteration)
+		public void open() throws IOException {
+			receivers = new Receiver[streams];
+			streamers = new UdpStreamer[streams];
+			for (int i=0; i<streams; i++) {
+				receivers[i] = new Receiver();
+				streamers[i] = new UdpStreamer(receivers[i].getAddress(), true);
+			}
+			start = System.nanoTime();
+		}
+
+		@TearDown(Level.Iteration)
+		public void close() throws Exception {
+			double wall = (System.nanoTime() - start) / 1e9;
+			Thread.sleep(100);
+			long sent = 0;
+			long received = 0;
+			sentDatagrams = 0;
+			burstDatagrams = 0;
+			for (int i=0; i<streams; i++) {
+				sent += streamers[i].getSentBytes();
+				sentDatagrams += streamers[i].getSentDatagrams();
+				received += receivers[i].datagrams;
+				burstDatagrams = Math.max(burstDatagrams, receivers[i].maxPerMillisecond);
+				receivers[i].close();
+			}
+			lostDatagrams = sentDatagrams - received;
+			rateRatio = sent * 8 / wall / 1e6 / (streams * mbits * RTP_OVERHEAD);
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	@OperationsPerInvocation(CHUNK_PACKETS)
+	public void unpaced(Unpaced state) throws IOException {
+		TSPacket packet = state.packet;
+		byte[] mux = state.mux;
+		int p = state.position;
+		for (int i=0; i<CHUNK_PACKETS; i++) {
+			packet.wrap(mux, p);
+			state.streamer.write(packet);
+			p += TSPacket.SIZE;
+			if (p == mux.length)
+				p = 0;
+		}
+		state.position = p;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 3)
+	public void paced(Paced state) throws IOException, InterruptedException {
+		final byte[] mux = state.mux;
+		Thread[] writers = new Thread[state.streams];
+		final IOException[] failures = new IOException[writers.length];
+		for (int i=0; i<writers.length; i++) {
+			final UdpStreamer streamer = state.streamers[i];
+			final int index = i;
+			writers[i] = new Thread() {
+				public void run() {
+					try {
+						TSPacket packet = new TSPacket(mux, 0);
+						for (int p=0; p<mux.length; p+=TSPacket.SIZE) {
+							packet.wrap(mux, p);
+							streamer.write(packet);
+						}
+						streamer.close();
+					} catch (IOException e) {
+						failures[index] = e;
+					}
+				}
+			};
+		}
+		for (int i=0; i<writers.length; i++)
+			writers[i].start();
+		for (int i=0; i<writers.length; i++)
+			writers[i].join();
+
+		// a stream cut short would still give a time
+		for (int i=0; i<failures.length; i++)
+			if (failures[i] != null)
+				throw failures[i];
+	}
+
+	/**
+	 * Counts the datagrams arriving on a loopback port, and the most in a
+	 * millisecond after the warm-up.
+	 */
+	static class Receiver extends Thread {
+
+		/**
+		 * Milliseconds not counted in the bursts: the sender shares the CPU
+		 * with the writer not compiled yet.
+		 */
+		private static final long WARM_UP = 200;
+
+		private final DatagramChannel channel;
+
+		volatile long datagrams;
+
+		volatile long maxPerMillisecond;
+
+		Receiver() throws IOException {
+			channel = DatagramChannel.open();
+			channel.setOption(StandardSocketOptions.SO_RCVBUF, Integer.valueOf(8 * 1024 * 1024));
+			channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			setDaemon(true);
+			start();
+		}
+
+		InetSocketAddress getAddress() throws IOException {
+			return (InetSocketAddress)channel.getLocalAddress();
+		}
+
+		public void run() {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(2048);
+			long millisecond = 0;
+			long first = 0;
+			long inMillisecond = 0;
+			try {
+				while (true) {
+					buffer.clear();
+					channel.receive(buffer);
+					datagrams++;
+					long now = System.nanoTime() / 1000000;
+					if (first == 0)
+						first = now;
+					if (now - first < WARM_UP)
+						continue;
+					if (now != millisecond) {
+						millisecond = now;
+						inMillisecond = 0;
+					}
+					if (++inMillisecond > maxPerMillisecond)
+						maxPerMillisecond = inMillisecond;
+				}
+			} catch (IOException e) {
+				// closed
+			}
+		}
+
+		void close() throws IOException {
+			channel.close();
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Non-blocking channel reading the DVR device of a tuned stream. A read
+ * returns whatever data is available, zero if there is none, so a single
+ * thread can service any number of channels registered to a
+ * <code>DVBSelector</code>.
+ *
+ * Data pre-read by <code>available()</code> of the stream is returned by the
+ * next read of the channel, but it does not make the channel selected. Do not
+ * mix the two when using a selector.
+ */
+public class DVBChannel implements ReadableByteChannel {
+	
+	private NativeDVBIO stream;
+	
+	/**
+	 * Object attached by the application.
+	 */
+	private volatile Object attachment;
+	
+	/**
+	 * The selector this channel is registered to (if any).
+	 */
+	DVBSelector selector;
+	
+	/**
+	 * File descriptor registered, -1 if not registered.
+	 */
+	int descriptor = -1;
+	
+	/**
+	 * Index of the channel in its selector.
+	 */
+	int token = -1;
+	
+	private volatile boolean closed;
+	
+	DVBChannel(NativeDVBIO stream) {
+		this.stream = stream;
+	}
+	
+	/**
+	 * Reads the data available without waiting.
+	 *
+	 * @param buffer The buffer to fill.
+	 * @return The number of bytes red, possibly zero.
+	 * @throws IOException If the device can not be red.
+	 */
+	public int read(ByteBuffer buffer) throws IOException {
+		if (closed)
+			throw new ClosedChannelException();
+		if (buffer.isReadOnly())
+			throw new ReadOnlyBufferException();
+		
+		int bytesRed;
+		if (buffer.isDirect()) {
+			bytesRed = stream.readAvailableDirect(buffer, buffer.position(), buffer.remaining());
+		} else {
+			bytesRed = stream.readAvailable(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		}
+		if (bytesRed > 0)
+			buffer.position(buffer.position() + bytesRed);
+		return bytesRed;
+	}
+	
+	/**
+	 * Registers this channel to a selector. Same as
+	 * <code>selector.register(this, attachment)</code>.
+	 *
+	 * @param selector The selector.
+	 * @param attachment Object returned by <code>attachment()</code>, may be
+	 * <code>null</code>.
+	 * @throws IOException If the channel can not be registered.
+	 */
+	public void register(DVBSelector selector, Object attachment) throws IOException {
+		selector.register(this, attachment);
+	}
+	
+	/**
+	 * Attaches an object to the channel.
+	 *
+	 * @param attachment The object, may be <code>null</code>.
+	 */
+	public void attach(Object attachment) {
+		this.attachment = attachment;
+	}
+	
+	/**
+	 * Gets the object attached.
+	 *
+	 * @return The object attached, or <code>null</code>.
+	 */
+	public Object attachment() {
+		return attachment;
+	}
+	
+	/**
+	 * Gets the stream of this channel, for the signal information and PID
+	 * filtering.
+	 *
+	 * @return The stream.
+	 */
+	public DVBInputStream getStream() {
+		return stream;
+	}
+	
+	int getDescriptor() throws IOException {
+		return stream.getDescriptor();
+	}
+	
+	public boolean isOpen() {
+		return !closed;
+	}
+	
+	/**
+	 * Deregisters the channel and closes the stream.
+	 *
+	 * @throws IOException If closing the device fails.
+	 */
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		
+		DVBSelector current = selector;
+		if (current != null)
+			current.deregister(this);
+		stream.close();
+	}
+}
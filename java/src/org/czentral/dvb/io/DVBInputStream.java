@@ -18,7 +18,9 @@ along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
 package org.czentral.dvb.io;
 
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Provides the means to access an MPEG 2
@@ -31,6 +33,17 @@ import java.io.IOException;
  */
 public abstract class DVBInputStream extends InputStream {
 	
+	/**
+	 * Maximal size of the temporary array used by <code>read(ByteBuffer)</code>
+	 * when the buffer has no accessible backing array (100 TS packets).
+	 */
+	private static final int FALLBACK_CHUNK_SIZE = 100 * 188;
+	
+	/**
+	 * Maximal time a read waits for data in milliseconds, zero for no limit.
+	 */
+	protected int readTimeout;
+	
 	/**
 	 * Optional returns if there is a signal present above noise level.
 	 * 
@@ -64,4 +77,287 @@ public abstract class DVBInputStream extends InputStream {
 	 */
 	public abstract int getSignalQuality() throws IOException;
 	
+	/**
+	 * Optional, reads all the reception values at once. Readers wanting them
+	 * regularly should use a <code>SignalSampler</code> instead of polling.
+	 *
+	 * Implementations backed by native code are encouraged to override this
+	 * method and read the values by a single call (the DVBv5 statistics on
+	 * Linux). This default implementation calls the four getters.
+	 *
+	 * @return The reception values.
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 */
+	public SignalStatistics getSignalStatistics() throws IOException {
+		return new SignalStatistics(isSignalPresent(), isSignalLocked(), getSignalStrength(), getSignalQuality());
+	}
+	
+	/**
+	 * Reads up to <code>buffer.remaining()</code> bytes into the buffer
+	 * starting at its current position. The position is advanced by the
+	 * number of bytes red.
+	 *
+	 * Implementations backed by native code are encouraged to override this
+	 * method and write directly into the memory of direct buffers. This
+	 * default implementation falls back to <code>read(byte[], int, int)</code>.
+	 *
+	 * @param buffer The buffer to fill.
+	 * @return The number of bytes red, or -1 if the end of the stream has been reached.
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 */
+	public int read(ByteBuffer buffer) throws IOException {
+		return readViaArray(buffer);
+	}
+	
+	/**
+	 * The default <code>read(ByteBuffer)</code>: reads by
+	 * <code>read(byte[], int, int)</code>, into the backing array of the
+	 * buffer or a temporary one. For stream stages processing the data in
+	 * their array reads.
+	 *
+	 * @param buffer The buffer to fill.
+	 * @return The number of bytes red, or -1 if the end of the stream has been reached.
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 */
+	protected final int readViaArray(ByteBuffer buffer) throws IOException {
+		int bytesRed;
+		
+		// heap buffers: read straight into the backing array
+		if (buffer.hasArray()) {
+			bytesRed = read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			if (bytesRed > 0)
+				buffer.position(buffer.position() + bytesRed);
+			return bytesRed;
+		}
+		
+		// any other buffer: read to a temporary array and copy
+		byte[] chunk = new byte[Math.min(buffer.remaining(), FALLBACK_CHUNK_SIZE)];
+		bytesRed = read(chunk, 0, chunk.length);
+		if (bytesRed > 0)
+			buffer.put(chunk, 0, bytesRed);
+		return bytesRed;
+	}
+	
+	/**
+	 * Reads a chunk of at least <code>minLength</code> bytes (if the buffer
+	 * has room for it): waits for the first data like a simple read, then
+	 * reads on until the chunk is complete or <code>maxWaitMillis</code>
+	 * passed, and completes the last TS packet (counted from the start of the
+	 * chunk). The position of the buffer is advanced by the number of bytes
+	 * red.
+	 *
+	 * Readers fetching the stream in large portions (see
+	 * <code>ReadAheadInputStream</code>) use this to cross into the native
+	 * code once per chunk. This default implementation reads in a loop,
+	 * implementations backed by native code are encouraged to override it.
+	 *
+	 * @param buffer The buffer to fill.
+	 * @param minLength Number of bytes enough to return.
+	 * @param maxWaitMillis Time after which the data red so far is returned,
+	 * in milliseconds.
+	 * @return The number of bytes red, or -1 if the end of the stream has been reached.
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 */
+	public int readChunk(ByteBuffer buffer, int minLength, int maxWaitMillis) throws IOException {
+		return readChunkViaReads(buffer, minLength, maxWaitMillis);
+	}
+	
+	/**
+	 * The default <code>readChunk</code>: calls <code>read(ByteBuffer)</code>
+	 * until the chunk is complete.
+	 *
+	 * @param buffer The buffer to fill.
+	 * @param minLength Number of bytes enough to return.
+	 * @param maxWaitMillis Time after which the data red so far is returned,
+	 * in milliseconds.
+	 * @return The number of bytes red, or -1 if the end of the stream has been reached.
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 */
+	protected final int readChunkViaReads(ByteBuffer buffer, int minLength, int maxWaitMillis) throws IOException {
+		long deadline = System.nanoTime() + maxWaitMillis * 1000000L;
+		int total = 0;
+		while (buffer.hasRemaining()) {
+			int bytesRed;
+			try {
+				bytesRed = read(buffer);
+			} catch (InterruptedIOException e) {
+				if (total == 0)
+					throw e;
+				break;
+			}
+			if (bytesRed < 0)
+				return total > 0 ? total : -1;
+			total += bytesRed;
+			
+			boolean complete = total >= minLength || System.nanoTime() - deadline >= 0;
+			if (complete && total % 188 == 0)
+				break;
+		}
+		return total;
+	}
+	
+	/**
+	 * Optional, adds a PID to the demultiplexer filter of the open stream. No
+	 * retuning is done, packets of the PID start to appear in the stream
+	 * shortly.
+	 *
+	 * @param pid PID to receive (0 - 8191), or <code>StreamLocator.ALL_PIDS</code>
+	 * for the whole multiplex.
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 * @throws UnsupportedOperationException If the implementation has no PID filtering.
+	 */
+	public void addPid(int pid) throws IOException {
+		throw new UnsupportedOperationException("PID filtering is not supported.");
+	}
+	
+	/**
+	 * Optional, removes a PID from the demultiplexer filter of the open
+	 * stream. Removing <code>StreamLocator.ALL_PIDS</code> leaves only the
+	 * PIDs added explicitly.
+	 *
+	 * @param pid PID previously added.
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 * @throws UnsupportedOperationException If the implementation has no PID filtering.
+	 */
+	public void removePid(int pid) throws IOException {
+		throw new UnsupportedOperationException("PID filtering is not supported.");
+	}
+	
+	/**
+	 * Optional, sets the maximal time a read waits for data. A read running
+	 * out of time throws <code>InterruptedIOException</code>, the stream
+	 * remains usable.
+	 *
+	 * @param millis Timeout in milliseconds, zero to wait forever (the default).
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 * @throws UnsupportedOperationException If the implementation has no read timeouts.
+	 */
+	public void setReadTimeout(int millis) throws IOException {
+		throw new UnsupportedOperationException("Read timeouts are not supported.");
+	}
+	
+	/**
+	 * Gets the maximal time a read waits for data.
+	 *
+	 * @return Timeout in milliseconds, zero if reads wait forever.
+	 */
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+	
+	/**
+	 * Optional, gets a non-blocking channel reading this stream. Channels of
+	 * many streams can be serviced by a single thread with a
+	 * <code>DVBSelector</code>.
+	 *
+	 * @return The channel.
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 * @throws UnsupportedOperationException If the implementation has no channel.
+	 */
+	public DVBChannel getChannel() throws IOException {
+		throw new UnsupportedOperationException("Channels are not supported.");
+	}
+	
+	/**
+	 * Optional, sets the size of the buffer of the driver receiving the
+	 * stream. A larger buffer survives longer pauses of the reader (garbage
+	 * collection etc.) without losing data.
+	 *
+	 * @param bytes Size of the buffer in bytes, zero for the default of the
+	 * driver.
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 * @throws UnsupportedOperationException If the buffer size can not be set.
+	 */
+	public void setBufferSize(int bytes) throws IOException {
+		throw new UnsupportedOperationException("Setting the buffer size is not supported.");
+	}
+	
+	/**
+	 * Optional, gets the number of times data was lost because the buffer of
+	 * the driver overflowed. The stream goes on after an overflow: the packet
+	 * cut by the gap is padded, so the stream stays packet-aligned.
+	 *
+	 * @return Number of overflows, or -1 if not supported.
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 */
+	public long getOverflowCount() throws IOException {
+		return -1;
+	}
+	
+	/**
+	 * Optional, gets the number of bytes lost by overflows. The driver does
+	 * not report the exact amount, this is a lower estimate.
+	 *
+	 * @return Number of bytes lost, or -1 if not supported.
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 */
+	public long getLostBytes() throws IOException {
+		return -1;
+	}
+	
+	/**
+	 * Optional, tunes the open stream to another transponder. The device is
+	 * not closed and the PID filter is kept (the PIDs of the locator are not
+	 * applied), the data of the old transponder is dropped: the next read
+	 * returns data of the new one. Much faster than closing the stream and
+	 * opening another one, only the lock of the new transponder is waited
+	 * for.
+	 *
+	 * @param locator The new transponder.
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 * @throws UnsupportedOperationException If the implementation can not retune.
+	 */
+	public void retune(StreamLocator locator) throws IOException {
+		throw new UnsupportedOperationException("Retuning is not supported.");
+	}
+	
+	/**
+	 * Optional, gets the time from the last <code>retune</code> to the first
+	 * data of the new transponder (the zap time).
+	 *
+	 * @return Milliseconds, or -1 if not retuned, no data arrived yet or not
+	 * supported.
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 */
+	public long getZapLatency() throws IOException {
+		return -1;
+	}
+	
+	/**
+	 * Optional, opens a section filter on the demultiplexer of the device
+	 * of this stream, sharing its frontend. The sections are filtered and
+	 * reassembled by the driver, the PID does not need to be in the stream:
+	 * tables like the EIT can be collected without receiving the packets.
+	 * The filter has to be closed by itself, but it is not tuned on its own:
+	 * after a <code>retune</code> of the stream it delivers the sections of
+	 * the new transponder.
+	 *
+	 * @param pid PID of the sections.
+	 * @param filter Filter bytes, see <code>SectionInputStream</code>.
+	 * @param mask Mask bytes, as many as filter bytes.
+	 * @return The sections.
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 * @throws UnsupportedOperationException If the implementation has no section filters.
+	 */
+	public SectionInputStream openSectionStream(int pid, byte[] filter, byte[] mask) throws IOException {
+		throw new UnsupportedOperationException("Section filters are not supported.");
+	}
+	
+	/**
+	 * Optional, opens a section filter matching the table_id only, see
+	 * <code>openSectionStream(int, byte[], byte[])</code>.
+	 *
+	 * @param pid PID of the sections.
+	 * @param tableId The table_id.
+	 * @param mask The bits of the table_id compared, <code>0xff</code> for
+	 * the exact table_id.
+	 * @return The sections.
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 * @throws UnsupportedOperationException If the implementation has no section filters.
+	 */
+	public SectionInputStream openSectionStream(int pid, int tableId, int mask) throws IOException {
+		byte[][] filter = SectionInputStream.getTableFilter(tableId, mask);
+		return openSectionStream(pid, filter[0], filter[1]);
+	}
+	
 }
@@ -0,0 +1,31 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+/**
+ * Stream locator for the DVB-S2 network. The parameters of DVB-S are used,
+ * the modulation, and the stream ID selecting the input stream of a multi
+ * stream transponder.
+ */
+public class DVBS2StreamLocator extends DVBSStreamLocator {
+	
+	public long getRequiredCapabilities() {
+		return DeviceCapabilities.CAPABLE_DVBS2;
+	}
+	
+}
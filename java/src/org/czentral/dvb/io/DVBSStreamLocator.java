@@ -0,0 +1,35 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+/**
+ * Stream locator for the DVB-S network. The symbol rate, the FEC and the
+ * polarization are used.
+ *
+ * The frequency is that of the transponder for a universal LNB (local
+ * oscillators of 9.75 and 10.6 GHz, high band above 11.7 GHz selected by
+ * the 22 kHz tone). With any other LNB the intermediate frequency (below 3
+ * GHz) is given instead.
+ */
+public class DVBSStreamLocator extends StreamLocator {
+	
+	public long getRequiredCapabilities() {
+		return DeviceCapabilities.CAPABLE_DVBS;
+	}
+	
+}
@@ -0,0 +1,301 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+
+/**
+ * Waits for data on any number of <code>DVBChannel</code>s with a single
+ * thread (epoll on Linux).
+ *
+ * <pre>
+ *     DVBSelector selector = new DVBSelector();
+ *     stream.getChannel().register(selector, null);
+ *     while (true) {
+ *         int count = selector.select(1000);
+ *         for (int i=0; i&lt;count; i++) {
+ *             DVBChannel channel = selector.selected(i);
+ *             channel.read(buffer);
+ *             ...
+ *         }
+ *     }
+ * </pre>
+ *
+ * Channels can be registered and deregistered from any thread, the result of
+ * <code>select</code> is only valid in the selecting thread until the next
+ * call.
+ */
+public class DVBSelector {
+	
+	static {
+		System.loadLibrary("NativeDVBIO");
+	}
+	
+	/**
+	 * Maximal number of channels reported by a single select.
+	 */
+	private static final int MAX_SELECTED = 64;
+	
+	private int epoll;
+	
+	private int wakeup;
+	
+	/**
+	 * Channels by token.
+	 */
+	private DVBChannel[] channels = new DVBChannel[16];
+	
+	private int channelCount;
+	
+	/**
+	 * Tokens reported by the last select.
+	 */
+	private int[] tokens = new int[MAX_SELECTED];
+	
+	/**
+	 * Channels reported by the last select.
+	 */
+	private DVBChannel[] selected = new DVBChannel[MAX_SELECTED];
+	
+	private volatile boolean closed;
+	
+	/**
+	 * Number of threads waiting in the native code, the descriptors are only
+	 * closed when it drops to zero.
+	 */
+	private int selecting;
+	
+	/**
+	 * Creates a selector.
+	 *
+	 * @throws IOException If the native resources can not be allocated.
+	 */
+	public DVBSelector() throws IOException {
+		epoll = create();
+		try {
+			wakeup = createWakeup(epoll);
+		} catch (IOException e) {
+			closeDescriptor(epoll);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Starts watching a channel. A channel can be registered to a single
+	 * selector at a time.
+	 *
+	 * @param channel The channel.
+	 * @param attachment Object returned by <code>channel.attachment()</code>,
+	 * may be <code>null</code>.
+	 * @throws IOException If the channel can not be registered.
+	 */
+	public synchronized void register(DVBChannel channel, Object attachment) throws IOException {
+		if (closed)
+			throw new ClosedSelectorException();
+		if (channel.selector != null)
+			throw new IllegalStateException("Channel already registered.");
+		
+		// first free token
+		int token = 0;
+		while (token < channels.length && channels[token] != null)
+			token++;
+		if (token == channels.length) {
+			DVBChannel[] grown = new DVBChannel[channels.length * 2];
+			System.arraycopy(channels, 0, grown, 0, channels.length);
+			channels = grown;
+		}
+		
+		int descriptor = channel.getDescriptor();
+		register(epoll, descriptor, token);
+		
+		channels[token] = channel;
+		channelCount++;
+		channel.selector = this;
+		channel.descriptor = descriptor;
+		channel.token = token;
+		channel.attach(attachment);
+	}
+	
+	/**
+	 * Stops watching a channel.
+	 *
+	 * @param channel The channel registered.
+	 * @throws IOException If the channel can not be deregistered.
+	 */
+	public synchronized void deregister(DVBChannel channel) throws IOException {
+		if (channel.selector != this)
+			return;
+		
+		channels[channel.token] = null;
+		channelCount--;
+		channel.selector = null;
+		channel.token = -1;
+		
+		int descriptor = channel.descriptor;
+		channel.descriptor = -1;
+		if (!closed)
+			deregister(epoll, descriptor);
+	}
+	
+	/**
+	 * Waits until at least one channel has data.
+	 *
+	 * @param timeout Maximal time to wait in milliseconds, zero to wait
+	 * forever.
+	 * @return The number of channels selected (zero if the timeout expired,
+	 * <code>wakeup()</code> was called or the selector was closed).
+	 * @throws IOException If waiting fails.
+	 */
+	public int select(long timeout) throws IOException {
+		if (timeout < 0)
+			throw new IllegalArgumentException("Negative timeout: " + timeout);
+		return doSelect(timeout == 0 ? -1 : (int)Math.min(timeout, Integer.MAX_VALUE));
+	}
+	
+	/**
+	 * Checks the channels without waiting.
+	 *
+	 * @return The number of channels selected.
+	 * @throws IOException If checking fails.
+	 */
+	public int selectNow() throws IOException {
+		return doSelect(0);
+	}
+	
+	private int doSelect(int timeout) throws IOException {
+		synchronized (this) {
+			if (closed)
+				throw new ClosedSelectorException();
+			selecting++;
+		}
+		
+		int count;
+		try {
+			count = await(epoll, wakeup, tokens, timeout);
+		} finally {
+			synchronized (this) {
+				selecting--;
+				if (closed)
+					notifyAll();
+			}
+		}
+		
+		int found = 0;
+		synchronized (this) {
+			
+			// closed while waiting: the descriptors are gone, nothing selected
+			if (closed)
+				count = 0;
+			for (int i=0; i<count; i++) {
+				DVBChannel channel = channels[tokens[i]];
+				
+				// deregistered while waiting
+				if (channel != null)
+					selected[found++] = channel;
+			}
+		}
+		for (int i=found; i<selected.length && selected[i] != null; i++)
+			selected[i] = null;
+		return found;
+	}
+	
+	/**
+	 * Gets a channel selected by the last <code>select</code>.
+	 *
+	 * @param index Index of the channel (less than the number returned by
+	 * <code>select</code>).
+	 * @return The channel.
+	 */
+	public DVBChannel selected(int index) {
+		return selected[index];
+	}
+	
+	/**
+	 * Makes a running (or the next) <code>select</code> return immediately.
+	 *
+	 * @throws IOException If signalling fails.
+	 */
+	public synchronized void wakeup() throws IOException {
+		if (!closed)
+			signal(wakeup);
+	}
+	
+	/**
+	 * Gets the number of channels registered.
+	 *
+	 * @return Number of channels.
+	 */
+	public synchronized int getChannelCount() {
+		return channelCount;
+	}
+	
+	/**
+	 * Deregisters all the channels (without closing them) and releases the
+	 * native resources. A <code>select</code> running in another thread is
+	 * woken up (returning zero), the descriptors are closed once it left the
+	 * native code.
+	 *
+	 * @throws IOException If closing fails.
+	 */
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		
+		// the waiting threads still use the descriptors
+		boolean interrupted = false;
+		while (selecting > 0) {
+			signal(wakeup);
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		
+		for (int i=0; i<channels.length; i++) {
+			if (channels[i] != null) {
+				channels[i].selector = null;
+				channels[i].token = -1;
+				channels[i].descriptor = -1;
+				channels[i] = null;
+			}
+		}
+		channelCount = 0;
+		
+		closeDescriptor(wakeup);
+		closeDescriptor(epoll);
+	}
+	
+	private static native int create() throws IOException;
+	
+	private static native int createWakeup(int epoll) throws IOException;
+	
+	private static native void register(int epoll, int descriptor, int token) throws IOException;
+	
+	private static native void deregister(int epoll, int descriptor) throws IOException;
+	
+	private static native int await(int epoll, int wakeup, int[] tokens, int timeout) throws IOException;
+	
+	private static native void signal(int wakeup) throws IOException;
+	
+	private static native void closeDescriptor(int descriptor) throws IOException;
+}
@@ -18,8 +18,13 @@ along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
 package org.czentral.dvb.io;
 
 /**
- * Stream locator for the DVB-T network.
+ * Stream locator for the DVB-T network. The bandwidth, the modulation, the
+ * FEC, the guard interval and the transmission mode are used.
  */
 public class DVBTStreamLocator extends StreamLocator {
 	
+	public long getRequiredCapabilities() {
+		return DeviceCapabilities.CAPABLE_DVBT;
+	}
+	
 }
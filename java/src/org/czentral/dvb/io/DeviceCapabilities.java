@@ -42,12 +42,48 @@ public abstract class DeviceCapabilities {
 	 */
 	public static int CAPABLE_DVBT = 4;
 	
+	/**
+	 * DVB-T2, the second generation terrestrial system.
+	 */
+	public static int CAPABLE_DVBT2 = 8;
+	
+	/**
+	 * DVB-S2, the second generation satellite system.
+	 */
+	public static int CAPABLE_DVBS2 = 16;
+	
+	/**
+	 * ATSC system used by the North American terrestrial receivers.
+	 */
+	public static int CAPABLE_ATSC = 32;
+	
+	/**
+	 * ISDB-T system used by the Japanese and South American terrestrial
+	 * receivers.
+	 */
+	public static int CAPABLE_ISDBT = 64;
+	
+	/**
+	 * DTMB system used by the Chinese terrestrial receivers.
+	 */
+	public static int CAPABLE_DTMB = 128;
+	
 	
 	/**
 	 * Capability contants packed with binary OR operation.
 	 */
 	protected long capabilities;
 	
+	/**
+	 * Lowest tunable frequency in Hertz (0 if unknown).
+	 */
+	protected long minFrequency;
+	
+	/**
+	 * Highest tunable frequency in Hertz (0 if unknown).
+	 */
+	protected long maxFrequency;
+	
 	
 	/**
 	 * Checks if the device is capable of receiving DVB-S trasponders.
@@ -76,4 +112,86 @@ public abstract class DeviceCapabilities {
 		return (capabilities & CAPABLE_DVBT) != 0;
 	}
 
+	/**
+	 * Checks if the device is capable of receiving DVB-T2 trasponders.
+	 *
+	 * @return <code>True</code> if the device has the capabilility.
+	 */
+	public boolean isDVBT2Capable() {
+		return (capabilities & CAPABLE_DVBT2) != 0;
+	}
+
+	/**
+	 * Checks if the device is capable of receiving DVB-S2 trasponders.
+	 *
+	 * @return <code>True</code> if the device has the capabilility.
+	 */
+	public boolean isDVBS2Capable() {
+		return (capabilities & CAPABLE_DVBS2) != 0;
+	}
+
+	/**
+	 * Checks if the device is capable of receiving ATSC channels.
+	 *
+	 * @return <code>True</code> if the device has the capabilility.
+	 */
+	public boolean isATSCCapable() {
+		return (capabilities & CAPABLE_ATSC) != 0;
+	}
+
+	/**
+	 * Checks if the device is capable of receiving ISDB-T channels.
+	 *
+	 * @return <code>True</code> if the device has the capabilility.
+	 */
+	public boolean isISDBTCapable() {
+		return (capabilities & CAPABLE_ISDBT) != 0;
+	}
+
+	/**
+	 * Checks if the device is capable of receiving DTMB channels.
+	 *
+	 * @return <code>True</code> if the device has the capabilility.
+	 */
+	public boolean isDTMBCapable() {
+		return (capabilities & CAPABLE_DTMB) != 0;
+	}
+
+	/**
+	 * Checks if the device has all the given capabilities.
+	 *
+	 * @param required Capability constants packed with binary OR operation.
+	 * @return <code>True</code> if the device has all the capabililities.
+	 */
+	public boolean hasCapabilities(long required) {
+		return (capabilities & required) == required;
+	}
+	
+	/**
+	 * Gets the capabilities as a bit mask.
+	 *
+	 * @return Capability contants packed with binary OR operation.
+	 */
+	public long getCapabilities() {
+		return capabilities;
+	}
+
+	/**
+	 * Gets the lowest frequency the device can tune to.
+	 *
+	 * @return Frequency in Hertz, or 0 if unknown.
+	 */
+	public long getMinFrequency() {
+		return minFrequency;
+	}
+	
+	/**
+	 * Gets the highest frequency the device can tune to.
+	 *
+	 * @return Frequency in Hertz, or 0 if unknown.
+	 */
+	public long getMaxFrequency() {
+		return maxFrequency;
+	}
+
 }
@@ -0,0 +1,39 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+/**
+ * Receives notifications about devices plugged in or removed.
+ */
+public interface DeviceListener {
+	
+	/**
+	 * A new device is available.
+	 *
+	 * @param device The device added.
+	 */
+	public void deviceAdded(DVBDevice device);
+	
+	/**
+	 * A device disappeared. Streams open on it fail.
+	 *
+	 * @param device The device removed.
+	 */
+	public void deviceRemoved(DVBDevice device);
+
+}
@@ -22,6 +22,9 @@ import java.io.File;
 import java.util.Vector;
 import java.util.StringTokenizer;
 
+import org.czentral.dvb.io.remote.RemoteDeviceRegistry;
+import org.czentral.dvb.io.replay.ReplayDeviceRegistry;
+
 /**
  * Maintains the list of available DVB devices.
  */
@@ -38,9 +41,19 @@ public class DeviceRegistry {
 	private static DeviceRegistry instance;
 	
 	/**
-	 * Presence of native support.
+	 * Registries merged by this one.
 	 */
 	private Vector<DeviceRegistry> registries;
+	
+	/**
+	 * Allocation of the devices of this registry.
+	 */
+	private TunerPool tunerPool;
+	
+	/**
+	 * Listeners notified about devices added and removed.
+	 */
+	private Vector<DeviceListener> listeners = new Vector<DeviceListener>();
 
 	
 	/**
@@ -77,11 +90,99 @@ public class DeviceRegistry {
 	 * @return The deafult <code>DeviceRegistry</code> object.
 	 */
 	public static DeviceRegistry getDefaultRegistry() {
-		if (instance == null)
-			instance = new LocalDeviceRegistry();
+		if (instance == null) {
+			instance = new DeviceRegistry();
+			instance.addRegistry(new LocalDeviceRegistry());
+			
+			// recordings played as devices, see ReplayDeviceRegistry
+			DeviceRegistry replay = ReplayDeviceRegistry.fromSystemProperties();
+			if (replay != null)
+				instance.addRegistry(replay);
+			
+			// tuners of other hosts, see RemoteDeviceRegistry
+			RemoteDeviceRegistry[] remote = RemoteDeviceRegistry.fromSystemProperties();
+			for (int i=0; i<remote.length; i++)
+				instance.addRegistry(remote[i]);
+		}
 		return instance;
 	}
 	
+	/**
+	 * Adds a registry whose devices are listed (and used) by this registry.
+	 *
+	 * @param registry The registry to merge.
+	 */
+	public void addRegistry(DeviceRegistry registry) {
+		registries.add(registry);
+		registry.addDeviceListener(new Forwarder());
+		if (tunerPool != null)
+			tunerPool.refresh();
+	}
+	
+	/**
+	 * Registers a listener to be notified when devices are plugged in or
+	 * removed.
+	 *
+	 * @param listener The listener.
+	 */
+	public void addDeviceListener(DeviceListener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Unregisters a listener.
+	 *
+	 * @param listener The listener previously added.
+	 */
+	public void removeDeviceListener(DeviceListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Notifies the listeners about a new device.
+	 *
+	 * @param device The device added.
+	 */
+	protected void fireDeviceAdded(DVBDevice device) {
+		DeviceListener[] current = listeners.toArray(new DeviceListener[0]);
+		for (int i=0; i<current.length; i++)
+			current[i].deviceAdded(device);
+	}
+	
+	/**
+	 * Notifies the listeners about a device removed.
+	 *
+	 * @param device The device removed.
+	 */
+	protected void fireDeviceRemoved(DVBDevice device) {
+		DeviceListener[] current = listeners.toArray(new DeviceListener[0]);
+		for (int i=0; i<current.length; i++)
+			current[i].deviceRemoved(device);
+	}
+	
+	/**
+	 * Updates the list of devices. Registries watching the system for
+	 * changes do this by themselves, calling this method is only needed if
+	 * the changes can not be detected.
+	 */
+	public void refresh() {
+		for (int i=0; i<registries.size(); i++)
+			registries.get(i).refresh();
+	}
+	
+	/**
+	 * Gets the pool allocating the devices of this registry.
+	 *
+	 * @return The tuner pool.
+	 */
+	public synchronized TunerPool getTunerPool() {
+		if (tunerPool == null) {
+			tunerPool = new TunerPool(this);
+			addDeviceListener(tunerPool);
+		}
+		return tunerPool;
+	}
+	
 	/**
 	 * Returns a list of dvb devices known by this device registry.
 	 *
@@ -115,17 +216,74 @@ public class DeviceRegistry {
 	/**
 	 * Finds the first applicable device, tunes it to the transponder specified
 	 * by the <code>locator</code> parameter and returns a DVBInputStream to
-	 * access data.
+	 * access data. A device already tuned to the transponder is shared (a
+	 * subscriber with the <code>BLOCK</code> policy, see <code>subscribe</code>),
+	 * otherwise an idle device is taken from the tuner pool and its own
+	 * stream is returned (see <code>TunerLease.openStream</code>).
 	 *
 	 * @return Input stream containing raw MPEG2 Transport stream.
+	 * @throws IOException If no suitable devices found or devices are busy.
 	 */
 	public DVBInputStream openStreamAt(StreamLocator locator) throws IOException {
-		if (hasNativeSupport()) {
-			NativeDVBIO io = new NativeDVBIO();
-			io.open(locator.getFrequency(), null);
-			return io;
+		TunerPool pool = getTunerPool();
+		
+		// retrying other devices as subscribe does
+		IOException failure = new IOException("No suitable devices.");
+		for (int attempt = pool.getDevices().length; attempt >= 0; attempt--) {
+			TunerLease lease = pool.lease(locator);
+			try {
+				return lease.openStream();
+			} catch (IOException e) {
+				failure = e;
+				lease.release();
+			}
 		}
+		throw failure;
+	}
+	
+	/**
+	 * Subscribes to the multiplex specified by the <code>locator</code>
+	 * parameter. If a device is already tuned to the same transponder it is
+	 * shared, otherwise an idle device is tuned. The device is leased from the
+	 * tuner pool until the stream is closed.
+	 *
+	 * @param locator The multiplex, and the PIDs to receive.
+	 * @param policy Backpressure policy (<code>MultiplexSubscriber.DROP_OLDEST</code> etc.)
+	 * @return Input stream containing the PIDs of the locator.
+	 * @throws IOException If no suitable devices found or devices are busy.
+	 */
+	public MultiplexSubscriber subscribe(StreamLocator locator, int policy) throws IOException {
+		TunerPool pool = getTunerPool();
 		
-		throw new IOException("No suitable devices.");
+		// devices opened by other processes fail, they are moved to the end
+		// of the idle list by the release so the next attempt tries another one
+		IOException failure = new IOException("No suitable devices.");
+		for (int attempt = pool.getDevices().length; attempt >= 0; attempt--) {
+			TunerLease lease = pool.lease(locator);
+			try {
+				MultiplexSubscriber subscriber = lease.subscribe(locator.getPids(), policy);
+				subscriber.lease = lease;
+				return subscriber;
+			} catch (IOException e) {
+				failure = e;
+				lease.release();
+			}
+		}
+		throw failure;
+	}
+	
+	/**
+	 * Passes the notifications of a merged registry to the listeners of
+	 * this one.
+	 */
+	class Forwarder implements DeviceListener {
+		
+		public void deviceAdded(DVBDevice device) {
+			fireDeviceAdded(device);
+		}
+		
+		public void deviceRemoved(DVBDevice device) {
+			fireDeviceRemoved(device);
+		}
 	}
 }
@@ -0,0 +1,158 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A stream stage on top of an other <code>DVBInputStream</code>. Every method
+ * is passed to the underlying stream, subclasses override the ones they
+ * process (like <code>java.io.FilterInputStream</code>).
+ *
+ * The buffer reads, the chunk reads and the channel are passed on as well, so
+ * a stage that only watches the stream keeps the direct paths of a native
+ * stream. Stages changing or inspecting the data have to override
+ * <code>read(ByteBuffer)</code> and <code>readChunk</code> too (see
+ * <code>readViaArray</code>), and refuse <code>getChannel</code>: the
+ * channel reads the device directly.
+ */
+public class FilterDVBInputStream extends DVBInputStream {
+	
+	/**
+	 * The underlying stream.
+	 */
+	protected DVBInputStream in;
+	
+	/**
+	 * Creates a stage on top of a stream.
+	 *
+	 * @param in The underlying stream.
+	 */
+	public FilterDVBInputStream(DVBInputStream in) {
+		if (in == null)
+			throw new NullPointerException("No underlying stream.");
+		this.in = in;
+	}
+	
+	public int read() throws IOException {
+		return in.read();
+	}
+	
+	public int read(byte[] buffer) throws IOException {
+		return read(buffer, 0, buffer.length);
+	}
+	
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		return in.read(buffer, offset, length);
+	}
+	
+	public int read(ByteBuffer buffer) throws IOException {
+		return in.read(buffer);
+	}
+	
+	public int readChunk(ByteBuffer buffer, int minLength, int maxWaitMillis) throws IOException {
+		return in.readChunk(buffer, minLength, maxWaitMillis);
+	}
+	
+	public long skip(long n) throws IOException {
+		return in.skip(n);
+	}
+	
+	public int available() throws IOException {
+		return in.available();
+	}
+	
+	public void close() throws IOException {
+		in.close();
+	}
+	
+	public boolean isSignalPresent() throws IOException {
+		return in.isSignalPresent();
+	}
+	
+	public boolean isSignalLocked() throws IOException {
+		return in.isSignalLocked();
+	}
+	
+	public int getSignalStrength() throws IOException {
+		return in.getSignalStrength();
+	}
+	
+	public int getSignalQuality() throws IOException {
+		return in.getSignalQuality();
+	}
+	
+	public SignalStatistics getSignalStatistics() throws IOException {
+		return in.getSignalStatistics();
+	}
+	
+	public void addPid(int pid) throws IOException {
+		in.addPid(pid);
+	}
+	
+	public void removePid(int pid) throws IOException {
+		in.removePid(pid);
+	}
+	
+	public void setReadTimeout(int millis) throws IOException {
+		in.setReadTimeout(millis);
+	}
+	
+	public int getReadTimeout() {
+		return in.getReadTimeout();
+	}
+	
+	public void setBufferSize(int bytes) throws IOException {
+		in.setBufferSize(bytes);
+	}
+	
+	public long getOverflowCount() throws IOException {
+		return in.getOverflowCount();
+	}
+	
+	public long getLostBytes() throws IOException {
+		return in.getLostBytes();
+	}
+	
+	public void retune(StreamLocator locator) throws IOException {
+		in.retune(locator);
+	}
+	
+	public long getZapLatency() throws IOException {
+		return in.getZapLatency();
+	}
+	
+	public DVBChannel getChannel() throws IOException {
+		return in.getChannel();
+	}
+	
+	public SectionInputStream openSectionStream(int pid, byte[] filter, byte[] mask) throws IOException {
+		return in.openSectionStream(pid, filter, mask);
+	}
+	
+	/**
+	 * Gets the underlying stream.
+	 *
+	 * @return The stream this stage reads.
+	 */
+	public DVBInputStream getUnderlyingStream() {
+		return in;
+	}
+	
+}
@@ -22,5 +22,11 @@ class GeneralDeviceCapabilities extends DeviceCapabilities {
 	public GeneralDeviceCapabilities(long capabilities) {
 		this.capabilities = capabilities;
 	}
+	
+	public GeneralDeviceCapabilities(long capabilities, long minFrequency, long maxFrequency) {
+		this.capabilities = capabilities;
+		this.minFrequency = minFrequency;
+		this.maxFrequency = maxFrequency;
+	}
 
 }
@@ -60,9 +60,7 @@ class LocalDVBDevice implements DVBDevice {
 	}
 	
 	public DVBInputStream openStreamAt(StreamLocator locator) throws IOException {
-		NativeDVBIO io = new NativeDVBIO();
-		io.open(locator.getFrequency(), path);
-		return io;
+		return NativeDVBIO.openStream(locator, path);
 	}
 
 }
@@ -19,72 +19,213 @@ package org.czentral.dvb.io;
 
 import java.io.IOException;
 import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
 import java.util.Vector;
 import java.util.StringTokenizer;
 
 /**
  * Maintains the list of local DVB devices (thru the native implementation).
+ *
+ * The devices are enumerated once, then only when the content of /dev/dvb
+ * changes (watched by a background thread), so listing the devices does not
+ * wake up the frontends every time.
  */
 class LocalDeviceRegistry extends DeviceRegistry {
 	
+	/**
+	 * Directory of the adapters.
+	 */
+	private static final String DEVICE_ROOT = "/dev/dvb";
+	
+	/**
+	 * Time given to udev to create all the nodes of an adapter before it is
+	 * enumerated, in milliseconds.
+	 */
+	private static final long SETTLE_TIME = 250;
+	
+	/**
+	 * Devices found by the last enumeration, <code>null</code> before the
+	 * first one.
+	 */
+	private volatile DVBDevice[] devices;
+	
+	/**
+	 * Thread watching the device nodes.
+	 */
+	private Thread watcher;
+	
 	/**
 	 * Returns a list of dvb devices known by this device registry.
 	 *
 	 * @return An array containing all the known devices.
 	 */
 	public DVBDevice[] getDevices() {
+		DVBDevice[] cached = devices;
+		if (cached == null) {
+			refresh();
+			cached = devices;
+		}
+		return cached.clone();
+	}
+	
+	/**
+	 * Enumerates the devices again and notifies the listeners about the
+	 * differences.
+	 */
+	public synchronized void refresh() {
+		DVBDevice[] previous = devices;
+		DVBDevice[] found = enumerate();
+		
+		if (previous == null) {
+			devices = found;
+			startWatcher();
+			return;
+		}
+		
+		// keeping the objects of the devices still present
+		HashMap<String, DVBDevice> known = new HashMap<String, DVBDevice>();
+		for (int i=0; i<previous.length; i++)
+			known.put(previous[i].getPath(), previous[i]);
+		
+		Vector<DVBDevice> added = new Vector<DVBDevice>();
+		for (int i=0; i<found.length; i++) {
+			DVBDevice old = known.remove(found[i].getPath());
+			if (old != null && old.getName().equals(found[i].getName())) {
+				found[i] = old;
+			} else {
+				if (old != null)
+					known.put(old.getPath(), old);
+				added.add(found[i]);
+			}
+		}
+		devices = found;
+		
+		for (DVBDevice device : known.values())
+			fireDeviceRemoved(device);
+		for (int i=0; i<added.size(); i++)
+			fireDeviceAdded(added.get(i));
+	}
+	
+	/**
+	 * Asks the native library for the devices.
+	 */
+	private DVBDevice[] enumerate() {
+		if (!hasNativeSupport())
+			return new DVBDevice[0];
+		
+		try {
+			NativeDeviceInfo[] infos = NativeDVBIO.queryDevices();
+			DVBDevice[] result = new DVBDevice[infos.length];
+			for (int i=0; i<infos.length; i++) {
+				DeviceCapabilities capabilities = new GeneralDeviceCapabilities(infos[i].getCapabilities(),
+						infos[i].frequencyMin, infos[i].frequencyMax);
+				result[i] = new LocalDVBDevice(infos[i].name, infos[i].path, capabilities);
+			}
+			return result;
+			
+		} catch (UnsatisfiedLinkError e) {
+			// native implementations without structured enumeration
+			return enumerateList();
+		} catch (IOException e) {
+			return devices != null ? devices : new DVBDevice[0];
+		}
+	}
+	
+	/**
+	 * Parses the tab separated device list of the native library.
+	 */
+	private DVBDevice[] enumerateList() {
 		Vector<DVBDevice>v = new Vector<DVBDevice>(10);
 		
-		if (hasNativeSupport()) {
-			try {
-				String devideList = NativeDVBIO.listDevices();
-				
-				char typeChar;
-				String name;
-				String path;
-				long capabilities;
+		try {
+			String devideList = NativeDVBIO.listDevices();
+			
+			char typeChar;
+			String name;
+			String path;
+			long capabilities;
+			
+			StringTokenizer st = new StringTokenizer(devideList, "\t");
+			while (st.hasMoreTokens()) {
+				name = st.nextToken();
+				path = st.nextToken();
+				typeChar = st.nextToken().charAt(0);
 				
-				StringTokenizer st = new StringTokenizer(devideList, "\t");
-				while (st.hasMoreTokens()) {
-					name = st.nextToken();
-					path = st.nextToken();
-					typeChar = st.nextToken().charAt(0);
-					
-					if (typeChar == '0') {
-						capabilities = DeviceCapabilities.CAPABLE_DVBS;
-					} else if (typeChar == '1') {
-						capabilities = DeviceCapabilities.CAPABLE_DVBC;
-					} else if (typeChar == '2') {
-						capabilities = DeviceCapabilities.CAPABLE_DVBT;
-					} else {
-						capabilities = DeviceCapabilities.CAPABLE_NONE;
-					}
-					
-					v.add(new LocalDVBDevice(name, path, new GeneralDeviceCapabilities(capabilities)));
-					
+				if (typeChar == '0') {
+					capabilities = DeviceCapabilities.CAPABLE_DVBS;
+				} else if (typeChar == '1') {
+					capabilities = DeviceCapabilities.CAPABLE_DVBC;
+				} else if (typeChar == '2') {
+					capabilities = DeviceCapabilities.CAPABLE_DVBT;
+				} else {
+					capabilities = DeviceCapabilities.CAPABLE_NONE;
 				}
-			} catch (IOException e) {
+				
+				v.add(new LocalDVBDevice(name, path, new GeneralDeviceCapabilities(capabilities)));
+				
 			}
+		} catch (IOException e) {
 		}
 
 		return v.toArray(new DVBDevice[0]);
 	}
 	
 	/**
-	 * Finds the first applicable device, tunes it to the transponder specified
-	 * by the <code>locator</code> parameter and returns a DVBInputStream to
-	 * access data.
-	 *
-	 * @return Input stream containing raw MPEG2 Transport stream.
-	 * @throws IOException If no suitable devices found or devices are busy.
+	 * Starts watching the device nodes (only where there is a /dev).
 	 */
-	public DVBInputStream openStreamAt(StreamLocator locator) throws IOException {
-		if (hasNativeSupport()) {
-			NativeDVBIO io = new NativeDVBIO();
-			io.open(locator.getFrequency(), null);
-			return io;
-		}
+	private void startWatcher() {
+		if (watcher != null || !new File(DEVICE_ROOT).getParentFile().isDirectory())
+			return;
 		
-		throw new IOException("No suitable devices.");
+		watcher = new Thread(new Watcher(), "LocalDeviceRegistry watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+	
+	/**
+	 * Waits for changes under /dev/dvb (or for /dev/dvb itself to appear) and
+	 * enumerates the devices again.
+	 */
+	class Watcher implements Runnable {
+		public void run() {
+			WatchService service = null;
+			try {
+				service = FileSystems.getDefault().newWatchService();
+				
+				while (true) {
+					File root = new File(DEVICE_ROOT);
+					Path watched = (root.isDirectory() ? root : root.getParentFile()).toPath();
+					WatchKey key = watched.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+					
+					service.take();
+					
+					// letting the burst of events of a single plug pass
+					Thread.sleep(SETTLE_TIME);
+					WatchKey pending;
+					while ((pending = service.poll()) != null) {
+						pending.pollEvents();
+						pending.reset();
+					}
+					key.pollEvents();
+					key.reset();
+					
+					refresh();
+				}
+			} catch (InterruptedException e) {
+			} catch (IOException e) {
+				// no watching possible, the list is only updated by refresh()
+			} finally {
+				try {
+					if (service != null)
+						service.close();
+				} catch (IOException e) {
+				}
+			}
+		}
 	}
 }
@@ -0,0 +1,661 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.czentral.dvb.io.ts.TSPacket;
+
+/**
+ * A stream receiving a set of PIDs of a <code>SharedMultiplex</code>. Every
+ * subscriber has its own ring of packets filled by the reader thread of the
+ * multiplex and emptied by the thread reading this stream (a single producer,
+ * single consumer queue without locks).
+ *
+ * The stream always returns whole packets if the buffer passed to
+ * <code>read</code> is large enough.
+ *
+ * What happens when the ring gets full is controlled by the backpressure
+ * policy of the subscriber, a slow subscriber never delays the others more
+ * than its block timeout.
+ *
+ * A subscriber can be retuned: it moves to another transponder with its
+ * PIDs, see <code>retune</code>.
+ */
+public class MultiplexSubscriber extends DVBInputStream {
+	
+	/**
+	 * Policy: when the ring is full the oldest packets are overwritten. The
+	 * reader of the stream sees a gap (counted by <code>getDroppedCount()</code>).
+	 */
+	public static final int DROP_OLDEST = 0;
+	
+	/**
+	 * Policy: when the ring is full the reader thread of the multiplex waits
+	 * for free space (holding up all the subscribers). If no space is freed in
+	 * the block timeout the subscriber is disconnected.
+	 */
+	public static final int BLOCK = 1;
+	
+	/**
+	 * Policy: when the ring is full the subscriber is disconnected. Reading
+	 * the stream fails once the packets already received are consumed.
+	 */
+	public static final int DISCONNECT = 2;
+	
+	/**
+	 * Default number of packet slots in the ring (about 770 kB).
+	 */
+	public static final int DEFAULT_CAPACITY = 4096;
+	
+	/**
+	 * Default time the reader thread waits for a <code>BLOCK</code> subscriber
+	 * in milliseconds.
+	 */
+	public static final int DEFAULT_BLOCK_TIMEOUT = 200;
+	
+	/**
+	 * How long waiting threads sleep between checks, in nanoseconds.
+	 */
+	private static final long PARK_NANOS = 1000000L;
+	
+	/**
+	 * The multiplex delivering the packets, replaced when retuned.
+	 */
+	private volatile SharedMultiplex multiplex;
+	
+	/**
+	 * PIDs received, guarded by the lock of the multiplex.
+	 */
+	BitSet pids;
+	
+	private int policy;
+	
+	private long blockTimeout = DEFAULT_BLOCK_TIMEOUT * 1000000L;
+	
+	/**
+	 * The ring, <code>capacity</code> packet slots.
+	 */
+	private byte[] ring;
+	
+	private int capacity;
+	
+	/**
+	 * Sequence number of the next packet written. Only modified by the
+	 * producer.
+	 */
+	private volatile long head;
+	
+	/**
+	 * Sequence number of the oldest packet not consumed yet. Advanced by the
+	 * consumer and (when dropping packets) by the producer, always with
+	 * compare-and-set. The producer only overwrites a slot after moving the
+	 * tail past it, so a consumer finding the tail unchanged after copying
+	 * knows that the data copied is intact.
+	 */
+	private AtomicLong tail = new AtomicLong();
+	
+	/**
+	 * Thread waiting for data, if any.
+	 */
+	private volatile Thread waiter;
+	
+	/**
+	 * A single packet taken from the ring for reads shorter than a packet.
+	 */
+	private byte[] pending = new byte[TSPacket.SIZE];
+	
+	private int pendingOffset = TSPacket.SIZE;
+	
+	private volatile long droppedCount;
+	
+	private volatile boolean disconnected;
+	
+	private volatile boolean ended;
+	
+	private volatile IOException error;
+	
+	private volatile boolean closed;
+	
+	/**
+	 * Time of the last retune (<code>System.nanoTime()</code>), zero once the
+	 * first packet after it arrived.
+	 */
+	private volatile long retuneTime;
+	
+	/**
+	 * Time from the last retune to the first packet in milliseconds, -1 if
+	 * none.
+	 */
+	private volatile long zapLatency = -1;
+	
+	/**
+	 * Lease released when the subscriber is closed (if subscribed through a
+	 * registry).
+	 */
+	volatile TunerLease lease;
+	
+	MultiplexSubscriber(SharedMultiplex multiplex, BitSet pids, int policy, int capacity) {
+		if (policy < DROP_OLDEST || policy > DISCONNECT)
+			throw new IllegalArgumentException("Invalid policy: " + policy);
+		if (capacity < 2)
+			throw new IllegalArgumentException("Capacity too small: " + capacity);
+		
+		this.multiplex = multiplex;
+		this.pids = pids;
+		this.policy = policy;
+		this.capacity = capacity;
+		ring = new byte[capacity * TSPacket.SIZE];
+	}
+	
+	/**
+	 * Called by the reader thread of the multiplex for every packet of the
+	 * PIDs subscribed. Packets of a multiplex the subscriber moved away from
+	 * are ignored (<code>moveTo</code> waits for the last one of them before
+	 * attaching to the new multiplex, so the ring has one producer at a time).
+	 */
+	void offer(SharedMultiplex source, byte[] buffer, int offset) {
+		if (disconnected || closed || source != multiplex)
+			return;
+		
+		long h = head;
+		long deadline = 0;
+		while (true) {
+			long t = tail.get();
+			if (h - t < capacity)
+				break;
+			
+			if (policy == DROP_OLDEST) {
+				if (tail.compareAndSet(t, t + 1))
+					droppedCount++;
+				
+			} else if (policy == BLOCK) {
+				long now = System.nanoTime();
+				if (deadline == 0) {
+					deadline = now + blockTimeout;
+				} else if (now - deadline > 0) {
+					disconnect();
+					return;
+				}
+				LockSupport.parkNanos(PARK_NANOS / 10);
+				if (closed || source != multiplex)
+					return;
+				
+			} else {
+				disconnect();
+				return;
+			}
+		}
+		
+		System.arraycopy(buffer, offset, ring, (int)(h % capacity) * TSPacket.SIZE, TSPacket.SIZE);
+		head = h + 1;
+		
+		long retuned = retuneTime;
+		if (retuned != 0) {
+			zapLatency = (System.nanoTime() - retuned) / 1000000;
+			retuneTime = 0;
+		}
+		
+		Thread w = waiter;
+		if (w != null)
+			LockSupport.unpark(w);
+	}
+	
+	private void disconnect() {
+		disconnected = true;
+		wakeUp();
+	}
+	
+	/**
+	 * Drops the packets received (of the old transponder) and starts timing
+	 * the first packet of the new one.
+	 */
+	void retuned() {
+		zapLatency = -1;
+		retuneTime = Math.max(System.nanoTime(), 1);
+		tail.set(head);
+	}
+	
+	/**
+	 * Moves the subscriber to another multiplex. Called by the pool holding
+	 * its lock. The old reader is detached and its current packet finished
+	 * before the new one is attached, the two never write the ring at the
+	 * same time. If attaching fails the stream ends. The lease is handed over
+	 * holding the lock of the subscriber, <code>close</code> releases either
+	 * the old one or the new one.
+	 */
+	void moveTo(SharedMultiplex target, TunerLease targetLease) throws IOException {
+		SharedMultiplex old = multiplex;
+		multiplex = target;
+		try {
+			old.unsubscribe(this);
+		} catch (IOException e) {
+			// the old filter keeps the PIDs until its tuner is released
+		}
+		old.awaitDispatch();
+		
+		retuned();
+		synchronized (this) {
+			if (closed)
+				throw new IOException("Stream closed.");
+			try {
+				target.attach(this);
+			} catch (IOException e) {
+				end(target, e);
+				throw e;
+			}
+			lease = targetLease;
+		}
+	}
+	
+	/**
+	 * Called by the multiplex when the source stream ended or failed. A
+	 * multiplex the subscriber moved away from is ignored.
+	 */
+	void end(SharedMultiplex source, IOException error) {
+		if (source != multiplex)
+			return;
+		this.error = error;
+		ended = true;
+		wakeUp();
+	}
+	
+	private void wakeUp() {
+		Thread w = waiter;
+		if (w != null)
+			LockSupport.unpark(w);
+	}
+	
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (length == 0)
+			return 0;
+		
+		// rest of a packet taken by a short read
+		if (pendingOffset < TSPacket.SIZE) {
+			int bytes = Math.min(length, TSPacket.SIZE - pendingOffset);
+			System.arraycopy(pending, pendingOffset, buffer, offset, bytes);
+			pendingOffset += bytes;
+			return bytes;
+		}
+		
+		long deadline = readTimeout > 0 ? System.nanoTime() + readTimeout * 1000000L : 0;
+		while (true) {
+			long t = await(deadline);
+			if (t < 0)
+				return -1;
+			
+			// less than a packet requested: taking one packet to the side
+			if (length < TSPacket.SIZE) {
+				copy(t, pending, 0, 1);
+				if (!tail.compareAndSet(t, t + 1))
+					continue;
+				pendingOffset = 0;
+				return read(buffer, offset, length);
+			}
+			
+			int packets = (int)Math.min(head - t, length / TSPacket.SIZE);
+			copy(t, buffer, offset, packets);
+			if (!tail.compareAndSet(t, t + packets))
+				continue;
+			return packets * TSPacket.SIZE;
+		}
+	}
+	
+	/**
+	 * Copies the packets from the ring straight into direct buffers, other
+	 * buffers are filled through their arrays.
+	 */
+	public int read(ByteBuffer buffer) throws IOException {
+		if (buffer.hasArray() || buffer.remaining() < TSPacket.SIZE || pendingOffset < TSPacket.SIZE)
+			return readViaArray(buffer);
+		
+		long deadline = readTimeout > 0 ? System.nanoTime() + readTimeout * 1000000L : 0;
+		while (true) {
+			long t = await(deadline);
+			if (t < 0)
+				return -1;
+			
+			int start = buffer.position();
+			int packets = (int)Math.min(head - t, buffer.remaining() / TSPacket.SIZE);
+			copy(t, buffer, packets);
+			if (!tail.compareAndSet(t, t + packets)) {
+				buffer.position(start);
+				continue;
+			}
+			return packets * TSPacket.SIZE;
+		}
+	}
+	
+	/**
+	 * Waits until the ring has packets.
+	 *
+	 * @param deadline Time the wait ends (<code>System.nanoTime()</code>),
+	 * zero for none.
+	 * @return The tail, with packets after it, or -1 at the end of the stream.
+	 */
+	private long await(long deadline) throws IOException {
+		while (true) {
+			long t = tail.get();
+			if (head - t > 0)
+				return t;
+			
+			if (closed)
+				return -1;
+			if (disconnected)
+				throw new IOException("Subscriber disconnected (not read fast enough).");
+			if (ended) {
+				if (head != t)
+					continue;
+				if (error != null)
+					throw new IOException("Multiplex source failed: " + error.getMessage());
+				return -1;
+			}
+			
+			if (deadline != 0 && System.nanoTime() - deadline > 0)
+				throw new InterruptedIOException("Read timed out");
+			
+			waiter = Thread.currentThread();
+			if (head == t && !closed && !disconnected && !ended)
+				LockSupport.parkNanos(PARK_NANOS);
+			waiter = null;
+		}
+	}
+	
+	/**
+	 * Copies packets from the ring, handling the wrap-around.
+	 */
+	private void copy(long sequence, byte[] buffer, int offset, int packets) {
+		int slot = (int)(sequence % capacity);
+		int first = Math.min(packets, capacity - slot);
+		System.arraycopy(ring, slot * TSPacket.SIZE, buffer, offset, first * TSPacket.SIZE);
+		if (first < packets)
+			System.arraycopy(ring, 0, buffer, offset + first * TSPacket.SIZE, (packets - first) * TSPacket.SIZE);
+	}
+	
+	private void copy(long sequence, ByteBuffer buffer, int packets) {
+		int slot = (int)(sequence % capacity);
+		int first = Math.min(packets, capacity - slot);
+		buffer.put(ring, slot * TSPacket.SIZE, first * TSPacket.SIZE);
+		if (first < packets)
+			buffer.put(ring, 0, (packets - first) * TSPacket.SIZE);
+	}
+	
+	public int read(byte[] buffer) throws IOException {
+		return read(buffer, 0, buffer.length);
+	}
+	
+	/**
+	 * Not supported: the packets come from the reader thread of the
+	 * multiplex, not from a descriptor.
+	 */
+	public DVBChannel getChannel() throws IOException {
+		throw new UnsupportedOperationException("Subscribers have no channels.");
+	}
+	
+	public int read() throws IOException {
+		if (pendingOffset == TSPacket.SIZE) {
+			if (read(pending, 0, TSPacket.SIZE) < 0)
+				return -1;
+			pendingOffset = 0;
+		}
+		return pending[pendingOffset++] & 0xff;
+	}
+	
+	public int available() throws IOException {
+		long packets = head - tail.get();
+		return (int)Math.min(Integer.MAX_VALUE, packets * TSPacket.SIZE + (TSPacket.SIZE - pendingOffset));
+	}
+	
+	/**
+	 * Leaves the multiplex. The tuner is released when the last subscriber
+	 * is closed.
+	 */
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		wakeUp();
+		
+		// not in the middle of a move (see moveTo)
+		TunerLease current;
+		synchronized (this) {
+			current = lease;
+		}
+		try {
+			multiplex.unsubscribe(this);
+		} finally {
+			if (current != null)
+				current.release();
+		}
+	}
+	
+	/**
+	 * Gets if a signal is present.
+	 */
+	public boolean isSignalPresent() throws IOException {
+		return multiplex.getSignalSampler().isSignalPresent();
+	}
+	
+	/**
+	 * Gets if the signal is locked.
+	 */
+	public boolean isSignalLocked() throws IOException {
+		return multiplex.getSignalSampler().isSignalLocked();
+	}
+	
+	/**
+	 * Gets the signal strength.
+	 */
+	public int getSignalStrength() throws IOException {
+		return multiplex.getSignalSampler().getSignalStrength();
+	}
+	
+	/**
+	 * Gets the signal quality.
+	 */
+	public int getSignalQuality() throws IOException {
+		return multiplex.getSignalSampler().getSignalQuality();
+	}
+	
+	/**
+	 * Gets the last sample of the multiplex's <code>SignalSampler</code>.
+	 * The signal getters above answer from the same sample, none of them
+	 * queries the tuner.
+	 */
+	public SignalStatistics getSignalStatistics() throws IOException {
+		return multiplex.getSignalSampler().getStatistics();
+	}
+	
+	public void setReadTimeout(int millis) throws IOException {
+		if (millis < 0)
+			throw new IllegalArgumentException("Negative timeout: " + millis);
+		readTimeout = millis;
+	}
+	
+	/**
+	 * Sets the buffer size of the tuner, shared by all the subscribers.
+	 */
+	public void setBufferSize(int bytes) throws IOException {
+		multiplex.getSource().setBufferSize(bytes);
+	}
+	
+	/**
+	 * Gets the number of overflows of the tuner's buffer. Packets dropped
+	 * from the ring of this subscriber are counted by
+	 * <code>getDroppedCount()</code>.
+	 */
+	public long getOverflowCount() throws IOException {
+		return multiplex.getSource().getOverflowCount();
+	}
+	
+	/**
+	 * Gets the number of bytes lost by the overflows of the tuner's buffer.
+	 */
+	public long getLostBytes() throws IOException {
+		return multiplex.getSource().getLostBytes();
+	}
+	
+	/**
+	 * Adds a PID to the subscription. The filter of the tuner is extended if
+	 * no other subscriber receives the PID.
+	 *
+	 * @param pid PID to receive (0 - 8191), or <code>StreamLocator.ALL_PIDS</code>.
+	 */
+	public void addPid(int pid) throws IOException {
+		multiplex.addPid(this, pid);
+	}
+	
+	/**
+	 * Removes a PID from the subscription.
+	 *
+	 * @param pid PID previously added.
+	 */
+	public void removePid(int pid) throws IOException {
+		multiplex.removePid(this, pid);
+	}
+	
+	/**
+	 * Tunes the stream to another transponder, keeping its PIDs (the PIDs of
+	 * the locator are not applied). The packets of the old transponder not
+	 * yet red are dropped.
+	 *
+	 * A subscriber of a registry moves to the tuner already on the
+	 * transponder if there is one (a warm standby tuner, see
+	 * <code>TunerPool.addStandby</code>). Otherwise its own tuner is retuned
+	 * in place if nobody else uses it and the device supports it, or an idle
+	 * tuner is taken. A subscriber not of a registry can only retune a
+	 * multiplex it is alone on.
+	 *
+	 * @param locator The new transponder.
+	 * @throws IOException If the stream is closed, no tuner is available or
+	 * tuning fails. The stream stays on the old transponder.
+	 */
+	public void retune(StreamLocator locator) throws IOException {
+		if (closed)
+			throw new IOException("Stream closed.");
+		
+		TunerLease current = lease;
+		if (current != null) {
+			current.retune(this, locator);
+			return;
+		}
+		
+		SharedMultiplex shared = multiplex;
+		if (shared.getSubscriberCount() > 1)
+			throw new IOException("Multiplex shared with other subscribers.");
+		shared.retune(locator);
+	}
+	
+	/**
+	 * Opens a section filter on the tuner of the multiplex. The filter stays
+	 * on the transponder of the tuner, it does not follow a
+	 * <code>retune</code> of this subscriber.
+	 */
+	public SectionInputStream openSectionStream(int pid, byte[] filter, byte[] mask) throws IOException {
+		if (closed)
+			throw new IOException("Stream closed.");
+		return multiplex.getSource().openSectionStream(pid, filter, mask);
+	}
+	
+	/**
+	 * Gets the time from the last <code>retune</code> to the first packet of
+	 * the new transponder received.
+	 *
+	 * @return Milliseconds, -1 if not retuned or no packet arrived yet.
+	 */
+	public long getZapLatency() {
+		return zapLatency;
+	}
+	
+	/**
+	 * Gets the multiplex this stream is subscribed to.
+	 *
+	 * @return The multiplex.
+	 */
+	public SharedMultiplex getMultiplex() {
+		return multiplex;
+	}
+	
+	/**
+	 * Gets the device of the multiplex.
+	 *
+	 * @return The device, <code>null</code> if not subscribed through a
+	 * registry.
+	 */
+	public DVBDevice getDevice() {
+		TunerLease current = lease;
+		return current == null ? null : current.getDevice();
+	}
+	
+	/**
+	 * Gets the backpressure policy.
+	 *
+	 * @return <code>DROP_OLDEST</code>, <code>BLOCK</code> or <code>DISCONNECT</code>.
+	 */
+	public int getPolicy() {
+		return policy;
+	}
+	
+	/**
+	 * Sets how long the reader thread of the multiplex may wait for free
+	 * space in the ring of a <code>BLOCK</code> subscriber.
+	 *
+	 * @param millis Timeout in milliseconds.
+	 */
+	public void setBlockTimeout(int millis) {
+		blockTimeout = millis * 1000000L;
+	}
+	
+	/**
+	 * Gets the number of packet slots in the ring.
+	 *
+	 * @return The capacity in packets.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Gets the number of packets overwritten before being read (only with
+	 * the <code>DROP_OLDEST</code> policy).
+	 *
+	 * @return Number of packets.
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+	
+	/**
+	 * Gets if the subscriber has been disconnected for not keeping up with
+	 * the stream.
+	 *
+	 * @return <code>True</code> if disconnected.
+	 */
+	public boolean isDisconnected() {
+		return disconnected;
+	}
+	
+	public String toString() {
+		return "MultiplexSubscriber(policy: " + policy + ", capacity: " + capacity + ", dropped: " + droppedCount + ")";
+	}
+}
@@ -18,6 +18,8 @@ along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
 package org.czentral.dvb.io;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 
 class NativeDVBIO extends DVBInputStream {
 	
@@ -25,13 +27,100 @@ class NativeDVBIO extends DVBInputStream {
 		System.loadLibrary("NativeDVBIO");
 	}
 	
-	private int resourceID = 0;
+	/**
+	 * Number of values of <code>readStatistics</code>.
+	 */
+	private static final int STATISTICS_COUNT = 11;
 	
-	public NativeDVBIO() {
-		Runtime.getRuntime().addShutdownHook(new ShutdownHook());
+	/**
+	 * Frontend status bits of the Linux DVB API.
+	 */
+	private static final int FE_HAS_SIGNAL = 0x01;
+	
+	private static final int FE_HAS_LOCK = 0x10;
+	
+	private long resourceID = 0;
+	
+	/**
+	 * Channel of the stream, created on demand.
+	 */
+	private DVBChannel channel;
+	
+	/**
+	 * Tracking of the native resource, <code>null</code> if not open.
+	 */
+	private NativeResourceManager.Resource resource;
+	
+	/**
+	 * Target of the single byte reads.
+	 */
+	private final byte[] single = new byte[1];
+	
+	private NativeDVBIO() {
+	}
+	
+	/**
+	 * Tunes a device and opens its stream.
+	 *
+	 * @param locator The transponder, the PIDs to receive and the size of
+	 * the DVR buffer of the driver.
+	 * @param adapter Native path of the device, <code>null</code> for the
+	 * first device of the delivery system of the locator, or
+	 * <code>file:</code> and the path of a recording to read it in a loop
+	 * instead of a tuner (benchmarks).
+	 * @return The stream.
+	 * @throws IOException If the device can not be opened or tuned.
+	 */
+	public static NativeDVBIO openStream(StreamLocator locator, String adapter) throws IOException {
+		NativeDVBIO io = new NativeDVBIO();
+		io.open(locator.getTuning(), adapter, locator.getPids(), locator.getBufferSize());
+		io.resource = NativeResourceManager.track(io, io.resourceID);
+		return io;
+	}
+	
+	private native void open(long[] tuning, String adapter, int[] pids, int bufferSize) throws IOException;
+	
+	/**
+	 * Tunes a device and opens a section filter on its demultiplexer,
+	 * without a stream. The buffer size of the locator is applied to the
+	 * filter, its PIDs are ignored.
+	 *
+	 * @param locator The transponder.
+	 * @param adapter Native path of the device, <code>null</code> for the
+	 * first device of the delivery system of the locator.
+	 * @param pid PID of the sections.
+	 * @param filter Filter bytes, see <code>SectionInputStream</code>.
+	 * @param mask Mask bytes, as many as filter bytes.
+	 * @return The sections.
+	 * @throws IOException If the device can not be opened or tuned.
+	 */
+	public static SectionInputStream openSectionStream(StreamLocator locator, String adapter, int pid, byte[] filter, byte[] mask) throws IOException {
+		return NativeSectionStream.open(locator.getTuning(), adapter, pid, filter, mask, locator.getBufferSize());
+	}
+	
+	/**
+	 * Opens a section filter on the device of this stream, the frontend is
+	 * left as the stream tunes it (a retune moves the filter as well).
+	 */
+	public SectionInputStream openSectionStream(int pid, byte[] filter, byte[] mask) throws IOException {
+		String path = getDevicePath();
+		if (path == null)
+			throw new UnsupportedOperationException("Section filters need a tuner.");
+		return NativeSectionStream.open(null, path, pid, filter, mask, 0);
 	}
-
-	public native void open(long freq, String adapter) throws IOException;
+	
+	/**
+	 * Gets the path of the device opened, <code>null</code> for a recording.
+	 */
+	private native String getDevicePath() throws IOException;
+	
+	static native long openSections(long[] tuning, String adapter, int pid, byte[] filter, byte[] mask, int bufferSize) throws IOException;
+	
+	static native int readSection(long handle, byte[] buffer, int offset, int length) throws IOException;
+	
+	static native void setSectionReadTimeout(long handle, int millis) throws IOException;
+	
+	static native long getSectionOverflowCount(long handle) throws IOException;
 	
 	public native int available() throws IOException;
 
@@ -43,12 +132,66 @@ class NativeDVBIO extends DVBInputStream {
 
 	public native int getSignalQuality() throws IOException;
 
-	public native void close() throws IOException;
+	/**
+	 * Reads the status and the statistics of the frontend by one native call.
+	 */
+	public SignalStatistics getSignalStatistics() throws IOException {
+		long[] values = new long[STATISTICS_COUNT];
+		readStatistics(values);
+		
+		long status = values[0];
+		return new SignalStatistics(System.currentTimeMillis(), (status & FE_HAS_SIGNAL) != 0, (status & FE_HAS_LOCK) != 0,
+				(int)available(values[1], -1), (int)available(values[2], -1), values[3], values[4],
+				available(values[5], SignalStatistics.NOT_AVAILABLE), available(values[6], SignalStatistics.NOT_AVAILABLE),
+				available(values[7], SignalStatistics.NOT_AVAILABLE), available(values[8], SignalStatistics.NOT_AVAILABLE),
+				available(values[9], SignalStatistics.NOT_AVAILABLE), available(values[10], SignalStatistics.NOT_AVAILABLE));
+	}
+	
+	/**
+	 * Maps the native marker of the values not available.
+	 */
+	private static long available(long value, long notAvailable) {
+		return value == Long.MIN_VALUE ? notAvailable : value;
+	}
+	
+	/**
+	 * Fills the values of <code>dvbres_readstats</code>: status bits,
+	 * strength, quality, level, C/N, then the error counters.
+	 * <code>Long.MIN_VALUE</code> marks the values not available.
+	 */
+	private native void readStatistics(long[] values) throws IOException;
+
+	public void close() throws IOException {
+		closeNative();
+		
+		NativeResourceManager.Resource current = resource;
+		resource = null;
+		if (current != null)
+			current.closed();
+	}
+	
+	private native void closeNative() throws IOException;
+	
+	/**
+	 * Closes a resource by its handle (for the resource manager). Handles
+	 * already closed are ignored.
+	 */
+	static native void closeResource(long handle) throws IOException;
+	
+	public native void addPid(int pid) throws IOException;
 	
+	public native void removePid(int pid) throws IOException;
+	
+	/**
+	 * Reads a single byte, a JNI call for every byte. Wrap the stream in a
+	 * <code>ReadAheadInputStream</code> to read it byte by byte.
+	 */
 	public int read() throws IOException {
-		byte[] buffer = new byte[1];
-		read(buffer, 0, 1);
-		return buffer[0] & 0xff;
+		int bytesRed;
+		do {
+			bytesRed = read(single, 0, 1);
+		} while (bytesRed == 0);
+		return bytesRed < 0 ? -1 : single[0] & 0xff;
 	}
 	
 	public int read(byte[] buffer) throws IOException {
@@ -57,20 +200,111 @@ class NativeDVBIO extends DVBInputStream {
 
 	public native int read(byte[] buffer, int offset, int length) throws IOException;
 	
+	public int read(ByteBuffer buffer) throws IOException {
+		
+		// heap buffers can not be accessed by their address
+		if (!buffer.isDirect())
+			return super.read(buffer);
+		
+		if (buffer.isReadOnly())
+			throw new ReadOnlyBufferException();
+		
+		int bytesRed = readDirect(buffer, buffer.position(), buffer.remaining());
+		if (bytesRed > 0)
+			buffer.position(buffer.position() + bytesRed);
+		return bytesRed;
+	}
+	
+	/**
+	 * Reads from the DVR device straight into the memory of a direct buffer.
+	 * Neither the buffer's position nor its limit is modified.
+	 */
+	private native int readDirect(ByteBuffer buffer, int offset, int length) throws IOException;
+	
+	public int readChunk(ByteBuffer buffer, int minLength, int maxWaitMillis) throws IOException {
+		if (!buffer.isDirect())
+			return super.readChunk(buffer, minLength, maxWaitMillis);
+		
+		if (buffer.isReadOnly())
+			throw new ReadOnlyBufferException();
+		
+		int bytesRed = readChunkDirect(buffer, buffer.position(), minLength, buffer.remaining(), maxWaitMillis);
+		if (bytesRed > 0)
+			buffer.position(buffer.position() + bytesRed);
+		return bytesRed;
+	}
+	
+	/**
+	 * Reads a chunk by a single native call: the native code reads the DVR
+	 * device until the chunk is complete.
+	 */
+	private native int readChunkDirect(ByteBuffer buffer, int offset, int minLength, int maxLength, int maxWaitMillis) throws IOException;
+	
+	
+	public void setReadTimeout(int millis) throws IOException {
+		if (millis < 0)
+			throw new IllegalArgumentException("Negative timeout: " + millis);
+		setNativeReadTimeout(millis);
+		readTimeout = millis;
+	}
+	
+	private native void setNativeReadTimeout(int millis) throws IOException;
+	
+	public void setBufferSize(int bytes) throws IOException {
+		if (bytes < 0)
+			throw new IllegalArgumentException("Negative buffer size: " + bytes);
+		setNativeBufferSize(bytes);
+	}
+	
+	private native void setNativeBufferSize(int bytes) throws IOException;
+	
+	public native long getOverflowCount() throws IOException;
+	
+	public native long getLostBytes() throws IOException;
+	
+	public void retune(StreamLocator locator) throws IOException {
+		retuneNative(locator.getTuning());
+	}
+	
+	/**
+	 * Retunes the frontend, the demux and the DVR device stay open.
+	 */
+	private native void retuneNative(long[] tuning) throws IOException;
+	
+	public native long getZapLatency() throws IOException;
+	
+	public synchronized DVBChannel getChannel() throws IOException {
+		if (channel == null)
+			channel = new DVBChannel(this);
+		return channel;
+	}
+	
+	/**
+	 * Reads the data available without waiting (used by the channel).
+	 */
+	native int readAvailable(byte[] buffer, int offset, int length) throws IOException;
+	
+	/**
+	 * Reads the data available into the memory of a direct buffer without
+	 * waiting (used by the channel). Neither the buffer's position nor its
+	 * limit is modified.
+	 */
+	native int readAvailableDirect(ByteBuffer buffer, int offset, int length) throws IOException;
+	
+	/**
+	 * Gets the file descriptor of the DVR device (used by the selector).
+	 */
+	native int getDescriptor() throws IOException;
 	
 	public static native String listDevices() throws IOException;
 	
+	/**
+	 * Describes the devices under /dev/dvb. The frontends are opened
+	 * read-only, devices in use are not disturbed.
+	 */
+	public static native NativeDeviceInfo[] queryDevices() throws IOException;
+	
 	public String toString() {
 		return "NativeDVBIO(resourceID: " + resourceID + ")";
 	}
-	
-	class ShutdownHook extends Thread {
-		public void run() {
-			try {
-				close();
-			} catch (Exception e) {
-				throw new RuntimeException(e);
-			}
-		}
-	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,162 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+/**
+ * Description of a local device as reported by the native library.
+ */
+class NativeDeviceInfo {
+	
+	/*
+	 * Delivery systems of the Linux DVB API (enum fe_delivery_system).
+	 */
+	static final int SYS_DVBC_ANNEX_A = 1;
+	static final int SYS_DVBC_ANNEX_B = 2;
+	static final int SYS_DVBT = 3;
+	static final int SYS_DVBS = 5;
+	static final int SYS_DVBS2 = 6;
+	static final int SYS_DVBH = 7;
+	static final int SYS_ISDBT = 8;
+	static final int SYS_ATSC = 11;
+	static final int SYS_ATSCMH = 12;
+	static final int SYS_DTMB = 13;
+	static final int SYS_DVBT2 = 16;
+	static final int SYS_DVBC_ANNEX_C = 18;
+	
+	/**
+	 * Adapter number.
+	 */
+	int adapter;
+	
+	/**
+	 * Name reported by the driver.
+	 */
+	String name;
+	
+	/**
+	 * Native path of the device (/dev/dvb/adapterN).
+	 */
+	String path;
+	
+	/**
+	 * Frontend type of the DVBv3 API (0: DVB-S, 1: DVB-C, 2: DVB-T, 3: ATSC).
+	 */
+	int type;
+	
+	/**
+	 * Delivery systems supported (SYS_* constants).
+	 */
+	int[] deliverySystems;
+	
+	/**
+	 * Lowest frequency in Hertz.
+	 */
+	long frequencyMin;
+	
+	/**
+	 * Highest frequency in Hertz.
+	 */
+	long frequencyMax;
+	
+	/**
+	 * Called by the native code.
+	 */
+	NativeDeviceInfo(int adapter, String name, String path, int type, int[] deliverySystems, long frequencyMin, long frequencyMax) {
+		this.adapter = adapter;
+		this.name = name;
+		this.path = path;
+		this.type = type;
+		this.deliverySystems = deliverySystems;
+		this.frequencyMin = frequencyMin;
+		this.frequencyMax = frequencyMax;
+	}
+	
+	/**
+	 * Converts the delivery systems to capability constants.
+	 *
+	 * @return Capability constants packed with binary OR operation.
+	 */
+	long getCapabilities() {
+		long capabilities = DeviceCapabilities.CAPABLE_NONE;
+		for (int i=0; i<deliverySystems.length; i++) {
+			switch (deliverySystems[i]) {
+				case SYS_DVBS:
+					capabilities |= DeviceCapabilities.CAPABLE_DVBS;
+					break;
+				case SYS_DVBS2:
+					capabilities |= DeviceCapabilities.CAPABLE_DVBS | DeviceCapabilities.CAPABLE_DVBS2;
+					break;
+				case SYS_DVBC_ANNEX_A:
+				case SYS_DVBC_ANNEX_B:
+				case SYS_DVBC_ANNEX_C:
+					capabilities |= DeviceCapabilities.CAPABLE_DVBC;
+					break;
+				case SYS_DVBT:
+				case SYS_DVBH:
+					capabilities |= DeviceCapabilities.CAPABLE_DVBT;
+					break;
+				case SYS_DVBT2:
+					capabilities |= DeviceCapabilities.CAPABLE_DVBT | DeviceCapabilities.CAPABLE_DVBT2;
+					break;
+				case SYS_ATSC:
+				case SYS_ATSCMH:
+					capabilities |= DeviceCapabilities.CAPABLE_ATSC;
+					break;
+				case SYS_ISDBT:
+					capabilities |= DeviceCapabilities.CAPABLE_ISDBT;
+					break;
+				case SYS_DTMB:
+					capabilities |= DeviceCapabilities.CAPABLE_DTMB;
+					break;
+			}
+		}
+		return capabilities;
+	}
+	
+	/**
+	 * Gets the delivery system to tune a locator with: the most demanding one
+	 * of its required capabilities.
+	 *
+	 * @param required Capability constants packed with binary OR operation.
+	 * @return A <code>SYS_*</code> constant, zero (SYS_UNDEFINED) for the
+	 * system of the frontend.
+	 */
+	static int getDeliverySystem(long required) {
+		if ((required & DeviceCapabilities.CAPABLE_DVBT2) != 0)
+			return SYS_DVBT2;
+		if ((required & DeviceCapabilities.CAPABLE_DVBS2) != 0)
+			return SYS_DVBS2;
+		if ((required & DeviceCapabilities.CAPABLE_DVBT) != 0)
+			return SYS_DVBT;
+		if ((required & DeviceCapabilities.CAPABLE_DVBC) != 0)
+			return SYS_DVBC_ANNEX_A;
+		if ((required & DeviceCapabilities.CAPABLE_DVBS) != 0)
+			return SYS_DVBS;
+		if ((required & DeviceCapabilities.CAPABLE_ATSC) != 0)
+			return SYS_ATSC;
+		if ((required & DeviceCapabilities.CAPABLE_ISDBT) != 0)
+			return SYS_ISDBT;
+		if ((required & DeviceCapabilities.CAPABLE_DTMB) != 0)
+			return SYS_DTMB;
+		return 0;
+	}
+	
+	public String toString() {
+		return "NativeDeviceInfo(name: " + name + ", path: " + path + ", type: " + type + ")";
+	}
+}
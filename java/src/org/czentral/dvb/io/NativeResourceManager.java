@@ -0,0 +1,180 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+import java.lang.ref.Cleaner;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the native resources of the open streams.
+ *
+ * Streams are closed by their owners normally. A stream becoming unreachable
+ * without being closed is closed by a <code>Cleaner</code>. The streams still
+ * open when the JVM exits are closed in parallel by a single shutdown hook.
+ */
+final class NativeResourceManager {
+	
+	/**
+	 * Maximal number of threads closing resources at exit.
+	 */
+	private static final int SHUTDOWN_THREADS = 8;
+	
+	/**
+	 * Maximal time the shutdown hook waits for the resources to close, in
+	 * milliseconds.
+	 */
+	private static final long SHUTDOWN_TIMEOUT = 5000;
+	
+	private static final Cleaner cleaner = Cleaner.create();
+	
+	/**
+	 * The resources open.
+	 */
+	private static final Set<Resource> live = ConcurrentHashMap.newKeySet();
+	
+	static {
+		Thread hook = new Thread(new Runnable() {
+			public void run() {
+				closeAll();
+			}
+		}, "NativeResourceManager shutdown");
+		Runtime.getRuntime().addShutdownHook(hook);
+	}
+	
+	private NativeResourceManager() {
+	}
+	
+	/**
+	 * Starts tracking the native resource of an open stream.
+	 *
+	 * @param stream The stream (not referenced by the manager).
+	 * @param handle The native handle of the stream.
+	 * @return Object to be released when the stream is closed.
+	 */
+	static Resource track(Object stream, long handle) {
+		Resource resource = new Resource(handle);
+		live.add(resource);
+		resource.cleanable = cleaner.register(stream, resource);
+		return resource;
+	}
+	
+	/**
+	 * Gets the number of resources open.
+	 *
+	 * @return Number of resources.
+	 */
+	static int getLiveCount() {
+		return live.size();
+	}
+	
+	/**
+	 * Closes all the resources, in parallel (a tuner may take a while).
+	 */
+	static void closeAll() {
+		int count = live.size();
+		if (count == 0)
+			return;
+		
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(count, SHUTDOWN_THREADS), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "NativeResourceManager closer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		for (Iterator<Resource> it = live.iterator(); it.hasNext(); ) {
+			final Resource resource = it.next();
+			executor.execute(new Runnable() {
+				public void run() {
+					resource.release();
+				}
+			});
+		}
+		
+		executor.shutdown();
+		try {
+			executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+		}
+	}
+	
+	/**
+	 * A native resource. The cleaning action, it must not refer to the
+	 * stream.
+	 */
+	static class Resource implements Runnable {
+		
+		/**
+		 * Native handle, zero once closed.
+		 */
+		private long handle;
+		
+		private Cleaner.Cleanable cleanable;
+		
+		Resource(long handle) {
+			this.handle = handle;
+		}
+		
+		/**
+		 * Forgets the resource after the stream closed it.
+		 */
+		void closed() {
+			synchronized (this) {
+				handle = 0;
+			}
+			cleanable.clean();
+		}
+		
+		/**
+		 * Closes the resource (if the stream has not closed it yet) and
+		 * stops tracking it.
+		 */
+		void release() {
+			cleanable.clean();
+		}
+		
+		/**
+		 * The cleaning action, run once (by <code>Cleanable.clean()</code>
+		 * or by the cleaner thread).
+		 */
+		public void run() {
+			long h;
+			synchronized (this) {
+				h = handle;
+				handle = 0;
+			}
+			live.remove(this);
+			
+			if (h != 0) {
+				try {
+					NativeDVBIO.closeResource(h);
+				} catch (Exception e) {
+				} catch (LinkageError e) {
+					// native library without closeResource
+				}
+			}
+		}
+	}
+}
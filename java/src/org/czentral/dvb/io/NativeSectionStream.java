@@ -0,0 +1,115 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+
+/**
+ * Section filter of the demultiplexer of a Linux DVB device, see
+ * <code>dvbres_opensections</code> of the native library.
+ */
+class NativeSectionStream extends SectionInputStream {
+	
+	/**
+	 * Handle of the native resource, zero if closed.
+	 */
+	private volatile long handle;
+	
+	private NativeResourceManager.Resource resource;
+	
+	private NativeSectionStream(long handle) {
+		this.handle = handle;
+		resource = NativeResourceManager.track(this, handle);
+	}
+	
+	/**
+	 * Opens a section filter.
+	 *
+	 * @param tuning Tuning parameters (see <code>StreamLocator.getTuning</code>),
+	 * <code>null</code> to leave the frontend as it is.
+	 * @param adapter Native path of the device, <code>null</code> for the
+	 * first device of the delivery system (with tuning only).
+	 * @param pid PID of the sections.
+	 * @param filter Filter bytes.
+	 * @param mask Mask bytes, as many as filter bytes.
+	 * @param bufferSize Size of the buffer of the driver, zero for the
+	 * default.
+	 * @return The stream.
+	 * @throws IOException If the device can not be opened.
+	 */
+	static NativeSectionStream open(long[] tuning, String adapter, int pid, byte[] filter, byte[] mask, int bufferSize) throws IOException {
+		if (pid < 0 || pid > 0x1fff)
+			throw new IllegalArgumentException("Invalid PID: " + pid);
+		if (filter.length == 0 || filter.length > FILTER_LENGTH || mask.length != filter.length)
+			throw new IllegalArgumentException("Invalid section filter.");
+		if (tuning == null && adapter == null)
+			throw new IllegalArgumentException("No device to open.");
+		return new NativeSectionStream(NativeDVBIO.openSections(tuning, adapter, pid, filter, mask, bufferSize));
+	}
+	
+	public int readSection(byte[] buffer, int offset, int length) throws IOException {
+		if (offset < 0 || length < 0 || offset + length > buffer.length)
+			throw new IndexOutOfBoundsException();
+		try {
+			return NativeDVBIO.readSection(getHandle(), buffer, offset, length);
+		} finally {
+			// the cleaner must not close the handle during the call
+			Reference.reachabilityFence(this);
+		}
+	}
+	
+	public void setReadTimeout(int millis) throws IOException {
+		try {
+			NativeDVBIO.setSectionReadTimeout(getHandle(), millis);
+		} finally {
+			Reference.reachabilityFence(this);
+		}
+		readTimeout = millis;
+	}
+	
+	public long getOverflowCount() throws IOException {
+		try {
+			return NativeDVBIO.getSectionOverflowCount(getHandle());
+		} finally {
+			Reference.reachabilityFence(this);
+		}
+	}
+	
+	public void close() throws IOException {
+		long current = handle;
+		handle = 0;
+		if (current == 0)
+			return;
+		
+		NativeDVBIO.closeResource(current);
+		resource.closed();
+	}
+	
+	private long getHandle() throws IOException {
+		long current = handle;
+		if (current == 0)
+			throw new IOException("Stream closed.");
+		return current;
+	}
+	
+	public String toString() {
+		return "NativeSectionStream(handle: " + handle + ")";
+	}
+
+}
@@ -65,22 +65,21 @@ public class NativeTest {
 				// open the stream
 				DVBInputStream is = locator.getInputStream();
 				
-				// not an ideal solution, but so far no timeout implemented and we don't want to wait forever
-				System.out.print("\r\nWaiting 2 seconds for data ... ");
-				Thread.sleep(2000);
-				System.out.println("done");		
+				// we don't want to wait forever
+				System.out.print("\r\nWaiting up to 2 seconds for data ... ");
+				is.setReadTimeout(2000);
 				
-				// is data available?
-				if (is.available() > 0) {
+				try {
 					
 					// there is data available
 					int bytesRed = is.read(buffer);
+					System.out.println("done");
 					for (int i=0; i<Math.min(16, bytesRed); i++)
 						System.out.print(Integer.toHexString(buffer[i] & 0xff) + " ");
 				
 					System.out.println("...");
 					
-				} else {
+				} catch (InterruptedIOException e) {
 					
 					// no data
 					System.out.println("no data!");
@@ -0,0 +1,530 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads a stream ahead in large chunks on a thread of its own, and serves
+ * the reads of any size (single bytes too) from Java memory.
+ *
+ * The chunks are filled by <code>readChunk</code>, a single native call per
+ * chunk for a native stream. The size of the chunks follows the bitrate: a
+ * chunk holds about <code>FILL_INTERVAL</code> milliseconds of the stream,
+ * at least <code>MIN_CHUNK_PACKETS</code> packets (unless the stream is too
+ * slow to deliver them within the latency limit) and at most the capacity of
+ * a chunk. The chunks are used in turns (three by default), so the device is
+ * read while the consumer processes the previous chunk.
+ *
+ * A consumer falling behind holds up the reader when all the chunks are full,
+ * the data then waits in the buffer of the driver.
+ *
+ * Retuning drops the chunks red ahead from the old transponder.
+ */
+public class ReadAheadInputStream extends FilterDVBInputStream {
+
+	/**
+	 * Default capacity of a chunk in TS packets.
+	 */
+	public static final int DEFAULT_CHUNK_PACKETS = 1024;
+
+	/**
+	 * Default number of chunks.
+	 */
+	public static final int DEFAULT_CHUNK_COUNT = 3;
+
+	/**
+	 * Smallest chunk waited for in TS packets.
+	 */
+	public static final int MIN_CHUNK_PACKETS = 128;
+
+	/**
+	 * Time of the stream a chunk is sized for, in milliseconds.
+	 */
+	public static final int FILL_INTERVAL = 40;
+
+	/**
+	 * Default of the longest time the data waits for the chunk to complete,
+	 * in milliseconds.
+	 */
+	public static final int DEFAULT_MAX_LATENCY = 100;
+
+	/**
+	 * Read timeout of the underlying stream, the reader thread checks if the
+	 * stream is closed this often (in milliseconds).
+	 */
+	private static final int STOP_CHECK_INTERVAL = 250;
+
+	/**
+	 * Time given to the reader thread to stop when the stream is closed, in
+	 * milliseconds.
+	 */
+	private static final long STOP_TIMEOUT = 2000;
+
+	/**
+	 * Weight of the last chunk in the bitrate estimate.
+	 */
+	private static final double RATE_WEIGHT = 0.25;
+
+	/**
+	 * Chunks ready to be filled.
+	 */
+	private final ArrayBlockingQueue<Chunk> free;
+
+	/**
+	 * Chunks filled, in the order of the stream (the last one may be the end
+	 * marker).
+	 */
+	private final ArrayBlockingQueue<Chunk> filled;
+
+	/**
+	 * Capacity of a chunk in bytes.
+	 */
+	private final int chunkSize;
+
+	/**
+	 * The chunk being served, <code>null</code> if none.
+	 */
+	private Chunk current;
+
+	/**
+	 * Bytes of the filled chunks not yet taken by the consumer.
+	 */
+	private final AtomicInteger buffered = new AtomicInteger();
+
+	/**
+	 * Longest time the data waits for the chunk to complete.
+	 */
+	private volatile int maxLatency = DEFAULT_MAX_LATENCY;
+
+	/**
+	 * Bitrate estimate in bytes per second, zero before the first chunk.
+	 */
+	private volatile double byteRate;
+
+	/**
+	 * Number of chunks red from the underlying stream.
+	 */
+	private volatile long chunkCount;
+
+	/**
+	 * Number of bytes red from the underlying stream.
+	 */
+	private volatile long byteCount;
+
+	/**
+	 * Incremented before and after a retune, the chunks started at another
+	 * value are dropped.
+	 */
+	private volatile int generation;
+
+	private Thread reader;
+
+	private volatile boolean closed;
+
+	/**
+	 * Reading the stream ahead with the default chunks.
+	 *
+	 * @param in The stream to read.
+	 */
+	public ReadAheadInputStream(DVBInputStream in) {
+		this(in, DEFAULT_CHUNK_PACKETS, DEFAULT_CHUNK_COUNT);
+	}
+
+	/**
+	 * Reading the stream ahead.
+	 *
+	 * @param in The stream to read.
+	 * @param chunkPackets Capacity of a chunk in TS packets.
+	 * @param chunkCount Number of chunks, at least two.
+	 */
+	public ReadAheadInputStream(DVBInputStream in, int chunkPackets, int chunkCount) {
+		super(in);
+		if (chunkPackets < 1)
+			throw new IllegalArgumentException("Invalid chunk size: " + chunkPackets);
+		if (chunkCount < 2)
+			throw new IllegalArgumentException("At least two chunks needed: " + chunkCount);
+
+		chunkSize = chunkPackets * 188;
+		free = new ArrayBlockingQueue<Chunk>(chunkCount);
+		filled = new ArrayBlockingQueue<Chunk>(chunkCount + 1);
+		for (int i=0; i<chunkCount; i++)
+			free.add(new Chunk(ByteBuffer.allocateDirect(chunkSize)));
+	}
+
+	/**
+	 * Sets the longest time the data waits for a chunk to complete. Short
+	 * latencies make smaller chunks on streams of low bitrate.
+	 *
+	 * @param millis Time in milliseconds.
+	 */
+	public void setMaxLatency(int millis) {
+		if (millis < 0)
+			throw new IllegalArgumentException("Negative latency: " + millis);
+		this.maxLatency = millis;
+	}
+
+	/**
+	 * Gets the longest time the data waits for a chunk to complete.
+	 *
+	 * @return Time in milliseconds.
+	 */
+	public int getMaxLatency() {
+		return maxLatency;
+	}
+
+	/**
+	 * Gets the number of chunks red from the underlying stream (the number
+	 * of native calls for a native stream).
+	 *
+	 * @return Number of chunks.
+	 */
+	public long getChunkCount() {
+		return chunkCount;
+	}
+
+	/**
+	 * Gets the number of bytes red from the underlying stream.
+	 *
+	 * @return Number of bytes.
+	 */
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	/**
+	 * Gets the estimated bitrate of the stream.
+	 *
+	 * @return Bits per second, zero if not known yet.
+	 */
+	public long getBitrate() {
+		return (long)(byteRate * 8);
+	}
+
+	public int read() throws IOException {
+		if (!prepare(true))
+			return -1;
+		return current.buffer.get() & 0xff;
+	}
+
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (length == 0)
+			return 0;
+
+		// blocking only until the first byte, then taking what is there
+		int bytesRed = 0;
+		while (bytesRed < length && prepare(bytesRed == 0)) {
+			int n = Math.min(length - bytesRed, current.buffer.remaining());
+			current.buffer.get(buffer, offset + bytesRed, n);
+			bytesRed += n;
+		}
+		return bytesRed == 0 ? -1 : bytesRed;
+	}
+
+	public int read(ByteBuffer buffer) throws IOException {
+		if (!buffer.hasRemaining())
+			return 0;
+
+		int bytesRed = 0;
+		while (buffer.hasRemaining() && prepare(bytesRed == 0)) {
+			ByteBuffer source = current.buffer;
+			int n = Math.min(buffer.remaining(), source.remaining());
+			int limit = source.limit();
+			source.limit(source.position() + n);
+			buffer.put(source);
+			source.limit(limit);
+			bytesRed += n;
+		}
+		return bytesRed == 0 ? -1 : bytesRed;
+	}
+
+	public int readChunk(ByteBuffer buffer, int minLength, int maxWaitMillis) throws IOException {
+		return read(buffer);
+	}
+
+	/**
+	 * Not supported: the underlying stream is red by the read-ahead thread.
+	 */
+	public DVBChannel getChannel() throws IOException {
+		throw new UnsupportedOperationException("Channels are not supported by read-ahead streams.");
+	}
+
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n && prepare(skipped == 0)) {
+			int step = (int)Math.min(n - skipped, current.buffer.remaining());
+			current.buffer.position(current.buffer.position() + step);
+			skipped += step;
+		}
+		return skipped;
+	}
+
+	public int available() throws IOException {
+		if (closed)
+			throw new IOException("Stream closed.");
+		Chunk chunk = current;
+		return (chunk != null ? chunk.buffer.remaining() : 0) + buffered.get();
+	}
+
+	/**
+	 * Read timeouts are handled by this stream, the underlying stream is not
+	 * affected.
+	 */
+	public void setReadTimeout(int millis) throws IOException {
+		if (millis < 0)
+			throw new IllegalArgumentException("Negative timeout: " + millis);
+		readTimeout = millis;
+	}
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	/**
+	 * Retunes the underlying stream, the data red ahead is dropped.
+	 */
+	public void retune(StreamLocator locator) throws IOException {
+		if (closed)
+			throw new IOException("Stream closed.");
+
+		// a chunk started while retuning may hold data of either transponder
+		generation++;
+		try {
+			in.retune(locator);
+		} finally {
+			generation++;
+		}
+
+		if (current != null && current.length >= 0) {
+			free.add(current);
+			current = null;
+		}
+	}
+
+	/**
+	 * Makes sure the current chunk has data to serve.
+	 *
+	 * @param wait <code>True</code> to wait for the next chunk,
+	 * <code>false</code> to take it only if it is there already.
+	 * @return <code>False</code> if there is no data: the end of the stream
+	 * is reached (always the case if waiting), or no chunk is ready.
+	 */
+	private boolean prepare(boolean wait) throws IOException {
+		if (closed)
+			throw new IOException("Stream closed.");
+
+		if (current != null) {
+			if (current.buffer.hasRemaining())
+				return true;
+			if (current.length < 0)
+				return end();
+			free.add(current);
+			current = null;
+		}
+
+		if (reader == null)
+			start();
+
+		Chunk next;
+		try {
+			if (!wait)
+				next = filled.poll();
+			else if (readTimeout > 0)
+				next = filled.poll(readTimeout, TimeUnit.MILLISECONDS);
+			else
+				next = filled.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for data.");
+		}
+
+		if (next == null) {
+			if (wait)
+				throw new InterruptedIOException("Read timed out");
+			return false;
+		}
+
+		if (next.length >= 0) {
+			buffered.addAndGet(-next.length);
+
+			// red before a retune
+			if (next.generation != generation) {
+				free.add(next);
+				return prepare(wait);
+			}
+		}
+
+		current = next;
+		if (next.length < 0)
+			return end();
+		return true;
+	}
+
+	/**
+	 * Handles the end marker: the failure of the reader is passed on, the end
+	 * of the stream is reported every time.
+	 */
+	private boolean end() throws IOException {
+		IOException failure = current.failure;
+		if (failure != null) {
+			current.failure = null;
+			throw failure;
+		}
+		return false;
+	}
+
+	/**
+	 * Starts the reader thread.
+	 */
+	private void start() {
+		try {
+			in.setReadTimeout(STOP_CHECK_INTERVAL);
+		} catch (UnsupportedOperationException e) {
+			// closing the stream stops the reader
+		} catch (IOException e) {
+			// same as unsupported
+		}
+
+		reader = new Thread(new Reader(), "DVB read-ahead");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Stops the reader thread and closes the underlying stream.
+	 */
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+
+		Thread thread = reader;
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join(STOP_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		in.close();
+	}
+
+	/**
+	 * The size of the next chunk: the data of <code>FILL_INTERVAL</code>
+	 * milliseconds, whole packets.
+	 */
+	private int nextChunkSize() {
+		int bytes = (int)Math.min(chunkSize, byteRate * FILL_INTERVAL / 1000);
+		bytes -= bytes % 188;
+		return Math.min(chunkSize, Math.max(bytes, MIN_CHUNK_PACKETS * 188));
+	}
+
+	/**
+	 * A buffer of the stream.
+	 */
+	static class Chunk {
+
+		/**
+		 * The data, between the position and the limit while served.
+		 */
+		final ByteBuffer buffer;
+
+		/**
+		 * Number of bytes in the chunk, -1 for the end marker.
+		 */
+		int length;
+
+		/**
+		 * Error ending the stream, set only for the end marker.
+		 */
+		IOException failure;
+
+		/**
+		 * The generation of the stream when the chunk was started.
+		 */
+		int generation;
+
+		Chunk(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+	}
+
+	/**
+	 * Fills the chunks.
+	 */
+	class Reader implements Runnable {
+
+		public void run() {
+			Chunk end = new Chunk(ByteBuffer.allocate(0));
+			end.length = -1;
+
+			long last = System.nanoTime();
+			try {
+				while (!closed) {
+					Chunk chunk = free.take();
+					chunk.buffer.clear();
+					chunk.generation = generation;
+
+					int bytesRed = -2;
+					while (bytesRed == -2 && !closed) {
+						try {
+							bytesRed = in.readChunk(chunk.buffer, nextChunkSize(), maxLatency);
+						} catch (InterruptedIOException e) {
+							// no data for a while: checking if closed
+						}
+					}
+					if (bytesRed == -2)
+						break;
+					if (bytesRed < 0) {
+						filled.put(end);
+						return;
+					}
+
+					// the data arrived since the previous chunk (the data
+					// waits in the driver while no chunk is free)
+					long now = System.nanoTime();
+					double seconds = Math.max(now - last, 1000000) / 1e9;
+					last = now;
+					double rate = bytesRed / seconds;
+					byteRate = byteRate == 0 ? rate : byteRate + (rate - byteRate) * RATE_WEIGHT;
+					chunkCount++;
+					byteCount += bytesRed;
+
+					chunk.length = bytesRed;
+					chunk.buffer.flip();
+					buffered.addAndGet(bytesRed);
+					filled.put(chunk);
+				}
+			} catch (InterruptedException e) {
+				// closed
+			} catch (IOException e) {
+				if (!closed) {
+					end.failure = e;
+					filled.offer(end);
+				}
+			}
+		}
+	}
+
+}
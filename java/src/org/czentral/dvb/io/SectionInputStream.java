@@ -0,0 +1,112 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Stream of the PSI / SI sections of a PID passing a section filter of the
+ * demultiplexer. The filtering, the reassembly of the sections from the
+ * packets and the CRC check are done by the driver: only the complete
+ * sections matching the filter reach the reader, the packets of the PID are
+ * not copied to the user space.
+ *
+ * The filter is compared with the beginning of the section without its
+ * length field: the first byte with the table_id, the next ones with the
+ * bytes from the table_id_extension on. A bit of the section has to equal
+ * the bit of the filter where the bit of the mask is set.
+ */
+public abstract class SectionInputStream implements Closeable {
+	
+	/**
+	 * Maximal length of a section (private sections, the EIT etc.)
+	 */
+	public static final int MAX_SECTION_LENGTH = 4096;
+	
+	/**
+	 * Maximal number of bytes of a filter.
+	 */
+	public static final int FILTER_LENGTH = 16;
+	
+	protected int readTimeout;
+	
+	/**
+	 * Reads the next section, waits until one arrives.
+	 *
+	 * @param buffer Target of the section.
+	 * @param offset Position of the section in the buffer.
+	 * @param length Space in the buffer, at least the length of the section
+	 * (<code>MAX_SECTION_LENGTH</code> fits every section).
+	 * @return The length of the section, with the header and the CRC.
+	 * @throws java.io.InterruptedIOException If the read timeout is over.
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 */
+	public abstract int readSection(byte[] buffer, int offset, int length) throws IOException;
+	
+	/**
+	 * Sets the maximal time a read waits for a section. A read running out
+	 * of time throws <code>InterruptedIOException</code>, the stream
+	 * remains usable.
+	 *
+	 * @param millis Timeout in milliseconds, zero to wait forever (the default).
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 */
+	public abstract void setReadTimeout(int millis) throws IOException;
+	
+	/**
+	 * Gets the read timeout.
+	 *
+	 * @return Timeout in milliseconds, zero if reads wait forever.
+	 */
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+	
+	/**
+	 * Optional, gets the number of times sections were lost because the
+	 * buffer of the driver overflowed.
+	 *
+	 * @return Number of overflows, or -1 if not supported.
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 */
+	public long getOverflowCount() throws IOException {
+		return -1;
+	}
+	
+	/**
+	 * Stops the filter and releases the device.
+	 *
+	 * @throws IOException If the operation can not be executed. (Any error in the native code.)
+	 */
+	public abstract void close() throws IOException;
+	
+	/**
+	 * Builds the filter and the mask matching the table_id only.
+	 *
+	 * @param tableId The table_id.
+	 * @param mask The bits of the table_id compared (<code>0xff</code> for
+	 * the exact table_id, <code>0xf0</code> for the EIT schedule tables of
+	 * <code>0x50</code> - <code>0x5f</code> etc.)
+	 * @return The filter and the mask.
+	 */
+	static byte[][] getTableFilter(int tableId, int mask) {
+		return new byte[][] {{(byte)tableId}, {(byte)mask}};
+	}
+
+}
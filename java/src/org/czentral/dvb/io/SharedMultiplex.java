@@ -0,0 +1,462 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Vector;
+
+import org.czentral.dvb.io.ts.TSPacket;
+import org.czentral.dvb.io.ts.TransportStreamReader;
+
+/**
+ * A tuned multiplex shared by any number of subscribers. A single thread
+ * reads the source stream and copies every packet to the subscribers of its
+ * PID, found by a lookup table indexed by the PID.
+ *
+ * The demultiplexer filter of the source is kept to the union of the PIDs
+ * of the subscribers (if the source supports PID filtering). The source is
+ * closed when the last subscriber leaves.
+ *
+ * The reception values are read by a <code>SignalSampler</code> once for
+ * all the subscribers.
+ *
+ * The source can be retuned to another transponder (if it supports it), the
+ * subscribers follow with their PIDs.
+ *
+ * Instances are normally obtained through <code>DeviceRegistry.subscribe</code>
+ * which reuses the multiplex already tuned to the same transponder.
+ */
+public class SharedMultiplex {
+	
+	/**
+	 * Empty route, shared by all the PIDs nobody subscribed to.
+	 */
+	private static final MultiplexSubscriber[] NO_SUBSCRIBERS = new MultiplexSubscriber[0];
+	
+	private DVBInputStream source;
+	
+	/**
+	 * Subscribers by PID, the last element (<code>ALL_PIDS</code>) holds the
+	 * ones receiving the whole multiplex. Replaced (never modified) when the
+	 * subscriptions change.
+	 */
+	private volatile MultiplexSubscriber[][] routes;
+	
+	private Vector<MultiplexSubscriber> subscribers = new Vector<MultiplexSubscriber>();
+	
+	/**
+	 * PIDs currently passed by the filter of the source.
+	 */
+	private BitSet filtered = new BitSet(StreamLocator.ALL_PIDS + 1);
+	
+	private Thread reader;
+	
+	private volatile boolean closed;
+	
+	private volatile long packetCount;
+	
+	/**
+	 * Odd while the reader dispatches a packet, see <code>awaitDispatch</code>.
+	 */
+	private volatile long dispatchCount;
+	
+	/**
+	 * The multiplex stays open without subscribers (warm standby).
+	 */
+	private boolean keepOpen;
+	
+	/**
+	 * A retune is in progress, the packets red are of the old transponder.
+	 */
+	private volatile boolean retuning;
+	
+	/**
+	 * Number of retunes, the reader drops the data it red ahead when it
+	 * changes.
+	 */
+	private volatile int epoch;
+	
+	/**
+	 * Sampler of the reception values, created on demand.
+	 */
+	private SignalSampler sampler;
+	
+	/**
+	 * Creates a multiplex reading the source stream. The reader thread is
+	 * started with the first subscriber.
+	 *
+	 * @param source The stream of the tuned multiplex.
+	 * @param pids The PIDs the source was opened with (empty for the whole
+	 * multiplex).
+	 */
+	public SharedMultiplex(DVBInputStream source, int[] pids) {
+		this.source = source;
+		
+		if (pids.length == 0)
+			filtered.set(StreamLocator.ALL_PIDS);
+		for (int i=0; i<pids.length; i++)
+			filtered.set(pids[i]);
+		
+		MultiplexSubscriber[][] empty = new MultiplexSubscriber[StreamLocator.ALL_PIDS + 1][];
+		for (int i=0; i<empty.length; i++)
+			empty[i] = NO_SUBSCRIBERS;
+		routes = empty;
+	}
+	
+	/**
+	 * Subscribes to the multiplex with the default ring capacity.
+	 *
+	 * @param pids PIDs to receive, empty for the whole multiplex.
+	 * @param policy Backpressure policy (<code>MultiplexSubscriber.DROP_OLDEST</code> etc.)
+	 * @return The stream of the subscriber.
+	 * @throws IOException If the multiplex is closed or the filter of the
+	 * source can not be set.
+	 */
+	public MultiplexSubscriber subscribe(int[] pids, int policy) throws IOException {
+		return subscribe(pids, policy, MultiplexSubscriber.DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Subscribes to the multiplex.
+	 *
+	 * @param pids PIDs to receive, empty for the whole multiplex.
+	 * @param policy Backpressure policy (<code>MultiplexSubscriber.DROP_OLDEST</code> etc.)
+	 * @param capacity Size of the ring of the subscriber in packets.
+	 * @return The stream of the subscriber.
+	 * @throws IOException If the multiplex is closed or the filter of the
+	 * source can not be set.
+	 */
+	public synchronized MultiplexSubscriber subscribe(int[] pids, int policy, int capacity) throws IOException {
+		if (closed)
+			throw new IOException("Multiplex closed.");
+		
+		BitSet set = new BitSet(StreamLocator.ALL_PIDS + 1);
+		if (pids.length == 0)
+			set.set(StreamLocator.ALL_PIDS);
+		for (int i=0; i<pids.length; i++) {
+			if (pids[i] < 0 || pids[i] > StreamLocator.ALL_PIDS)
+				throw new IllegalArgumentException("Invalid PID: " + pids[i]);
+			set.set(pids[i]);
+		}
+		
+		MultiplexSubscriber subscriber = new MultiplexSubscriber(this, set, policy, capacity);
+		attach(subscriber);
+		return subscriber;
+	}
+	
+	/**
+	 * Adds a subscriber (a new one, or one moved from another multiplex) and
+	 * starts the reader.
+	 */
+	synchronized void attach(MultiplexSubscriber subscriber) throws IOException {
+		if (closed)
+			throw new IOException("Multiplex closed.");
+		
+		subscribers.add(subscriber);
+		updateRoutes();
+		start();
+	}
+	
+	/**
+	 * Starts the reader thread (if not running). A multiplex without
+	 * subscribers reads and drops the packets, the driver's buffer does not
+	 * overflow.
+	 */
+	synchronized void start() {
+		if (reader == null) {
+			reader = new Thread(new Reader(), "SharedMultiplex reader");
+			reader.setDaemon(true);
+			reader.start();
+		}
+	}
+	
+	synchronized void unsubscribe(MultiplexSubscriber subscriber) throws IOException {
+		if (!subscribers.remove(subscriber))
+			return;
+		
+		if (subscribers.isEmpty() && !keepOpen) {
+			close();
+		} else {
+			updateRoutes();
+		}
+	}
+	
+	/**
+	 * Waits until the reader finishes the packet it is dispatching (if any).
+	 * A subscriber removed before the call gets no more packets after it:
+	 * the reader reads the routes after marking the dispatch, the caller
+	 * checks the mark after replacing them.
+	 */
+	void awaitDispatch() {
+		long current = dispatchCount;
+		if ((current & 1) == 0 || Thread.currentThread() == reader)
+			return;
+		while (dispatchCount == current)
+			Thread.yield();
+	}
+	
+	/**
+	 * Sets if the multiplex stays open when the last subscriber leaves.
+	 */
+	synchronized void setKeepOpen(boolean keepOpen) {
+		this.keepOpen = keepOpen;
+	}
+	
+	/**
+	 * Tunes the source to another transponder, the subscribers stay with
+	 * their PIDs. The packets of the old transponder not yet delivered are
+	 * dropped.
+	 *
+	 * @param locator The new transponder.
+	 * @throws IOException If the multiplex is closed or the source fails to
+	 * retune.
+	 * @throws UnsupportedOperationException If the source can not retune.
+	 */
+	public synchronized void retune(StreamLocator locator) throws IOException {
+		if (closed)
+			throw new IOException("Multiplex closed.");
+		
+		retuning = true;
+		try {
+			source.retune(locator);
+		} catch (UnsupportedOperationException e) {
+			// nothing changed, the reader goes on
+			retuning = false;
+			throw e;
+		} finally {
+			if (retuning) {
+				epoch++;
+				retuning = false;
+			}
+		}
+		
+		for (int i=0; i<subscribers.size(); i++)
+			subscribers.get(i).retuned();
+	}
+	
+	synchronized void addPid(MultiplexSubscriber subscriber, int pid) throws IOException {
+		if (pid < 0 || pid > StreamLocator.ALL_PIDS)
+			throw new IllegalArgumentException("Invalid PID: " + pid);
+		subscriber.pids.set(pid);
+		updateRoutes();
+	}
+	
+	synchronized void removePid(MultiplexSubscriber subscriber, int pid) throws IOException {
+		if (pid < 0 || pid > StreamLocator.ALL_PIDS)
+			throw new IllegalArgumentException("Invalid PID: " + pid);
+		subscriber.pids.clear(pid);
+		updateRoutes();
+	}
+	
+	/**
+	 * Rebuilds the lookup table and adjusts the filter of the source to the
+	 * PIDs subscribed.
+	 */
+	private void updateRoutes() throws IOException {
+		BitSet wanted = new BitSet(StreamLocator.ALL_PIDS + 1);
+		for (int i=0; i<subscribers.size(); i++)
+			wanted.or(subscribers.get(i).pids);
+		
+		MultiplexSubscriber[][] table = new MultiplexSubscriber[StreamLocator.ALL_PIDS + 1][];
+		for (int pid=0; pid<table.length; pid++) {
+			if (!wanted.get(pid)) {
+				table[pid] = NO_SUBSCRIBERS;
+				continue;
+			}
+			Vector<MultiplexSubscriber> v = new Vector<MultiplexSubscriber>();
+			for (int i=0; i<subscribers.size(); i++) {
+				if (subscribers.get(i).pids.get(pid))
+					v.add(subscribers.get(i));
+			}
+			table[pid] = v.toArray(NO_SUBSCRIBERS);
+		}
+		routes = table;
+		
+		// new PIDs first, so nobody misses packets while the filter changes
+		try {
+			for (int pid = wanted.nextSetBit(0); pid >= 0; pid = wanted.nextSetBit(pid + 1)) {
+				if (!filtered.get(pid)) {
+					source.addPid(pid);
+					filtered.set(pid);
+				}
+			}
+			for (int pid = filtered.nextSetBit(0); pid >= 0; pid = filtered.nextSetBit(pid + 1)) {
+				if (!wanted.get(pid) && !wanted.isEmpty()) {
+					source.removePid(pid);
+					filtered.clear(pid);
+				}
+			}
+		} catch (UnsupportedOperationException e) {
+			// the source has no PID filtering, all the packets are dispatched anyway
+		}
+	}
+	
+	/**
+	 * Closes the multiplex: disconnects all subscribers and closes the
+	 * source.
+	 *
+	 * @throws IOException If closing the source fails.
+	 */
+	public void close() throws IOException {
+		MultiplexSubscriber[] remaining;
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			remaining = subscribers.toArray(NO_SUBSCRIBERS);
+			subscribers.clear();
+		}
+		
+		for (int i=0; i<remaining.length; i++)
+			remaining[i].end(this, null);
+		closeSampler();
+		source.close();
+	}
+	
+	/**
+	 * Gets the sampler of the reception values of the source. It is started
+	 * by the first call, at the default period, and closed with the
+	 * multiplex.
+	 *
+	 * @return The sampler.
+	 * @throws IOException If the multiplex is closed.
+	 */
+	public synchronized SignalSampler getSignalSampler() throws IOException {
+		if (closed)
+			throw new IOException("Multiplex closed.");
+		if (sampler == null) {
+			SignalSampler created = new SignalSampler(source);
+			created.start();
+			sampler = created;
+		}
+		return sampler;
+	}
+	
+	/**
+	 * Stops the sampler (if any) before the source is closed.
+	 */
+	private void closeSampler() {
+		SignalSampler current;
+		synchronized (this) {
+			current = sampler;
+		}
+		if (current != null)
+			current.close();
+	}
+	
+	/**
+	 * Gets if the multiplex has been closed (the last subscriber left or the
+	 * source ended).
+	 *
+	 * @return <code>True</code> if closed.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+	
+	/**
+	 * Gets the stream of the tuned multiplex.
+	 *
+	 * @return The source stream.
+	 */
+	public DVBInputStream getSource() {
+		return source;
+	}
+	
+	/**
+	 * Gets the number of subscribers.
+	 *
+	 * @return Number of subscribers.
+	 */
+	public synchronized int getSubscriberCount() {
+		return subscribers.size();
+	}
+	
+	/**
+	 * Gets the number of packets red from the source.
+	 *
+	 * @return Number of packets.
+	 */
+	public long getPacketCount() {
+		return packetCount;
+	}
+	
+	/**
+	 * Reads the source and dispatches the packets.
+	 */
+	class Reader implements Runnable {
+		public void run() {
+			IOException failure = null;
+			try {
+				TransportStreamReader in = new TransportStreamReader(source);
+				int seen = epoch;
+				TSPacket packet;
+				while (!closed && (packet = in.next()) != null) {
+					
+					// red before the retune completed: the old transponder
+					if (retuning)
+						continue;
+					if (epoch != seen) {
+						seen = epoch;
+						in = new TransportStreamReader(source);
+						continue;
+					}
+					
+					byte[] buffer = packet.getBuffer();
+					int offset = packet.getOffset();
+					
+					dispatchCount++;
+					try {
+						MultiplexSubscriber[][] table = routes;
+						MultiplexSubscriber[] route = table[packet.getPid()];
+						for (int i=0; i<route.length; i++)
+							route[i].offer(SharedMultiplex.this, buffer, offset);
+						route = table[StreamLocator.ALL_PIDS];
+						for (int i=0; i<route.length; i++)
+							route[i].offer(SharedMultiplex.this, buffer, offset);
+					} finally {
+						dispatchCount++;
+					}
+					
+					packetCount++;
+				}
+			} catch (IOException e) {
+				failure = e;
+			}
+			
+			if (closed)
+				return;
+			
+			// source ended or failed: the subscribers get the rest of their rings
+			MultiplexSubscriber[] remaining;
+			synchronized (SharedMultiplex.this) {
+				closed = true;
+				remaining = subscribers.toArray(NO_SUBSCRIBERS);
+				subscribers.clear();
+			}
+			for (int i=0; i<remaining.length; i++)
+				remaining[i].end(SharedMultiplex.this, failure);
+			closeSampler();
+			try {
+				source.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+}
@@ -0,0 +1,43 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+/**
+ * Receives notifications about the lock of a device watched by a
+ * <code>SignalSampler</code>. Called by the thread of the sampler, so the
+ * listeners should return quickly.
+ */
+public interface SignalListener {
+	
+	/**
+	 * The signal was locked at the previous sample and is not any more.
+	 *
+	 * @param sampler The sampler of the device.
+	 * @param statistics The sample noticing the loss.
+	 */
+	public void lockLost(SignalSampler sampler, SignalStatistics statistics);
+	
+	/**
+	 * The signal is locked, and was not at the previous sample.
+	 *
+	 * @param sampler The sampler of the device.
+	 * @param statistics The sample noticing the lock.
+	 */
+	public void lockRegained(SignalSampler sampler, SignalStatistics statistics);
+
+}
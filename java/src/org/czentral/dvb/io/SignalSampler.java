@@ -0,0 +1,306 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+import java.io.IOException;
+import java.util.Vector;
+
+/**
+ * Reads the reception values of a stream in the background at a fixed rate,
+ * so any number of readers get them without touching the device.
+ *
+ * Every sample is a single <code>getSignalStatistics</code> call (two
+ * ioctls on Linux). The getters return the last sample, the listeners are
+ * told when the lock is lost and regained, so the readers need not poll at
+ * all.
+ *
+ * The multiplexes shared through a <code>DeviceRegistry</code> have a
+ * sampler each (see <code>SharedMultiplex.getSignalSampler</code>), their
+ * subscribers answer the signal queries from it.
+ */
+public class SignalSampler {
+	
+	/**
+	 * Default time between two samples in milliseconds.
+	 */
+	public static final int DEFAULT_PERIOD = 1000;
+	
+	private final DVBInputStream source;
+	
+	private volatile int period;
+	
+	/**
+	 * The last successful sample, <code>null</code> before the first one.
+	 */
+	private volatile SignalStatistics statistics;
+	
+	/**
+	 * Error of the last sample, <code>null</code> if it succeeded.
+	 */
+	private volatile IOException failure;
+	
+	private Vector<SignalListener> listeners = new Vector<SignalListener>();
+	
+	private Thread thread;
+	
+	private volatile boolean closed;
+	
+	/**
+	 * Lock waited on between the samples.
+	 */
+	private final Object timer = new Object();
+	
+	/**
+	 * Creates a sampler reading the values every second.
+	 *
+	 * @param source The stream of the device.
+	 */
+	public SignalSampler(DVBInputStream source) {
+		this(source, DEFAULT_PERIOD);
+	}
+	
+	/**
+	 * Creates a sampler. It starts reading with the first <code>start</code>.
+	 *
+	 * @param source The stream of the device.
+	 * @param period Time between two samples in milliseconds.
+	 */
+	public SignalSampler(DVBInputStream source, int period) {
+		if (period <= 0)
+			throw new IllegalArgumentException("Invalid period: " + period);
+		this.source = source;
+		this.period = period;
+	}
+	
+	/**
+	 * Takes the first sample and starts the sampler thread. Does nothing if
+	 * the sampler is started already.
+	 *
+	 * @throws IOException If the sampler is closed.
+	 */
+	public synchronized void start() throws IOException {
+		if (closed)
+			throw new IOException("Sampler closed.");
+		if (thread != null)
+			return;
+		
+		sample();
+		thread = new Thread(new Sampler(), "SignalSampler " + source);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Sets the time between two samples. Takes effect immediately.
+	 *
+	 * @param millis Period in milliseconds.
+	 */
+	public void setPeriod(int millis) {
+		if (millis <= 0)
+			throw new IllegalArgumentException("Invalid period: " + millis);
+		period = millis;
+		synchronized (timer) {
+			timer.notifyAll();
+		}
+	}
+	
+	/**
+	 * Gets the time between two samples.
+	 *
+	 * @return Period in milliseconds.
+	 */
+	public int getPeriod() {
+		return period;
+	}
+	
+	/**
+	 * Gets the last sample.
+	 *
+	 * @return The reception values of the last sample.
+	 * @throws IOException If the last sample failed, or the sampler is not
+	 * started.
+	 */
+	public SignalStatistics getStatistics() throws IOException {
+		IOException e = failure;
+		if (e != null)
+			throw new IOException("Reading the signal failed: " + e.getMessage(), e);
+		SignalStatistics current = statistics;
+		if (current == null)
+			throw new IOException("Sampler not started.");
+		return current;
+	}
+	
+	/**
+	 * Gets if there was a signal present at the last sample.
+	 *
+	 * @return <code>True</code> if signal was present.
+	 * @throws IOException If the last sample failed.
+	 */
+	public boolean isSignalPresent() throws IOException {
+		return getStatistics().isSignalPresent();
+	}
+	
+	/**
+	 * Gets if the signal was locked at the last sample.
+	 *
+	 * @return <code>True</code> if signal was locked.
+	 * @throws IOException If the last sample failed.
+	 */
+	public boolean isSignalLocked() throws IOException {
+		return getStatistics().isSignalLocked();
+	}
+	
+	/**
+	 * Gets the signal strength of the last sample.
+	 *
+	 * @return Signal strength. 0: bad, 100: good. Or -1 if not supported.
+	 * @throws IOException If the last sample failed.
+	 */
+	public int getSignalStrength() throws IOException {
+		return getStatistics().getSignalStrength();
+	}
+	
+	/**
+	 * Gets the signal quality of the last sample.
+	 *
+	 * @return Signal quality. 0: bad, 100: good. Or -1 if not supported.
+	 * @throws IOException If the last sample failed.
+	 */
+	public int getSignalQuality() throws IOException {
+		return getStatistics().getSignalQuality();
+	}
+	
+	/**
+	 * Registers a listener to be notified when the lock is lost or regained.
+	 *
+	 * @param listener The listener.
+	 */
+	public void addSignalListener(SignalListener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Unregisters a listener.
+	 *
+	 * @param listener The listener previously added.
+	 */
+	public void removeSignalListener(SignalListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Gets the stream sampled.
+	 *
+	 * @return The stream of the device.
+	 */
+	public DVBInputStream getSource() {
+		return source;
+	}
+	
+	/**
+	 * Stops the sampler thread. The stream is not closed.
+	 */
+	public void close() {
+		Thread current;
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			current = thread;
+		}
+		
+		synchronized (timer) {
+			timer.notifyAll();
+		}
+		if (current != null && current != Thread.currentThread()) {
+			try {
+				current.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Reads the values and notifies the listeners if the lock changed. A
+	 * failed read keeps the last sample (and the lock state).
+	 */
+	private void sample() {
+		SignalStatistics sample;
+		try {
+			sample = source.getSignalStatistics();
+		} catch (IOException e) {
+			failure = e;
+			return;
+		}
+		
+		SignalStatistics previous = statistics;
+		statistics = sample;
+		failure = null;
+		
+		if (previous == null || previous.isSignalLocked() == sample.isSignalLocked())
+			return;
+		SignalListener[] current = listeners.toArray(new SignalListener[0]);
+		for (int i=0; i<current.length; i++) {
+			if (sample.isSignalLocked())
+				current[i].lockRegained(this, sample);
+			else
+				current[i].lockLost(this, sample);
+		}
+	}
+	
+	public String toString() {
+		return "SignalSampler(source: " + source + ", period: " + period + ")";
+	}
+	
+	/**
+	 * Takes a sample every period until closed.
+	 */
+	class Sampler implements Runnable {
+		
+		public void run() {
+			long next = System.currentTimeMillis() + period;
+			while (!closed) {
+				synchronized (timer) {
+					long left;
+					while (!closed && (left = next - System.currentTimeMillis()) > 0) {
+						try {
+							timer.wait(Math.min(left, period));
+						} catch (InterruptedException e) {
+							return;
+						}
+						
+						// a shorter period set meanwhile
+						next = Math.min(next, System.currentTimeMillis() + period);
+					}
+				}
+				if (closed)
+					break;
+				
+				sample();
+				
+				// a late sample restarts the schedule instead of catching up
+				next += period;
+				long now = System.currentTimeMillis();
+				if (next <= now)
+					next = now + period;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,266 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+/**
+ * The reception values of a device at a moment, read at once by
+ * <code>DVBInputStream.getSignalStatistics</code>.
+ *
+ * Besides the simple values every implementation has, the DVBv5 statistics
+ * of the Linux frontends are passed on where the driver provides them: the
+ * signal level and the carrier to noise ratio in decibels, and the error
+ * counters. The counters are cumulative, the error rates are computed
+ * between two samples.
+ */
+public final class SignalStatistics {
+	
+	/**
+	 * Value of the counters not available.
+	 */
+	public static final long NOT_AVAILABLE = -1;
+	
+	private final long time;
+	
+	private final boolean present;
+	
+	private final boolean locked;
+	
+	private final int strength;
+	
+	private final int quality;
+	
+	/**
+	 * Signal level in 0.001 dBm, <code>Long.MIN_VALUE</code> if not known.
+	 */
+	private final long level;
+	
+	/**
+	 * Carrier to noise ratio in 0.001 dB, <code>Long.MIN_VALUE</code> if not
+	 * known.
+	 */
+	private final long carrierToNoise;
+	
+	private final long preErrorBits;
+	
+	private final long preTotalBits;
+	
+	private final long postErrorBits;
+	
+	private final long postTotalBits;
+	
+	private final long errorBlocks;
+	
+	private final long totalBlocks;
+	
+	/**
+	 * Creates a sample of the simple values only, taken now.
+	 *
+	 * @param present Signal present.
+	 * @param locked Signal locked.
+	 * @param strength Signal strength 0 - 100, -1 if not supported.
+	 * @param quality Signal quality 0 - 100, -1 if not supported.
+	 */
+	public SignalStatistics(boolean present, boolean locked, int strength, int quality) {
+		this(System.currentTimeMillis(), present, locked, strength, quality, Long.MIN_VALUE, Long.MIN_VALUE,
+				NOT_AVAILABLE, NOT_AVAILABLE, NOT_AVAILABLE, NOT_AVAILABLE, NOT_AVAILABLE, NOT_AVAILABLE);
+	}
+	
+	SignalStatistics(long time, boolean present, boolean locked, int strength, int quality, long level, long carrierToNoise,
+			long preErrorBits, long preTotalBits, long postErrorBits, long postTotalBits, long errorBlocks, long totalBlocks) {
+		this.time = time;
+		this.present = present;
+		this.locked = locked;
+		this.strength = strength;
+		this.quality = quality;
+		this.level = level;
+		this.carrierToNoise = carrierToNoise;
+		this.preErrorBits = preErrorBits;
+		this.preTotalBits = preTotalBits;
+		this.postErrorBits = postErrorBits;
+		this.postTotalBits = postTotalBits;
+		this.errorBlocks = errorBlocks;
+		this.totalBlocks = totalBlocks;
+	}
+	
+	/**
+	 * Gets the time the values were red.
+	 *
+	 * @return Milliseconds since the epoch.
+	 */
+	public long getTime() {
+		return time;
+	}
+	
+	/**
+	 * Gets if there was a signal present above noise level.
+	 *
+	 * @return <code>True</code> if signal was present.
+	 */
+	public boolean isSignalPresent() {
+		return present;
+	}
+	
+	/**
+	 * Gets if the signal was locked.
+	 *
+	 * @return <code>True</code> if signal was locked.
+	 */
+	public boolean isSignalLocked() {
+		return locked;
+	}
+	
+	/**
+	 * Gets the signal strength.
+	 *
+	 * @return Signal strength. 0: bad, 100: good. Or -1 if not supported.
+	 */
+	public int getSignalStrength() {
+		return strength;
+	}
+	
+	/**
+	 * Gets the signal quality.
+	 *
+	 * @return Signal quality. 0: bad, 100: good. Or -1 if not supported.
+	 */
+	public int getSignalQuality() {
+		return quality;
+	}
+	
+	/**
+	 * Gets the signal level.
+	 *
+	 * @return Level in dBm, <code>NaN</code> if not available.
+	 */
+	public double getSignalLevel() {
+		return level == Long.MIN_VALUE ? Double.NaN : level / 1000.0;
+	}
+	
+	/**
+	 * Gets the carrier to noise ratio.
+	 *
+	 * @return Ratio in dB, <code>NaN</code> if not available.
+	 */
+	public double getCarrierToNoise() {
+		return carrierToNoise == Long.MIN_VALUE ? Double.NaN : carrierToNoise / 1000.0;
+	}
+	
+	/**
+	 * Gets the number of bit errors before the inner (Viterbi, LDPC) code.
+	 *
+	 * @return Cumulative count, <code>NOT_AVAILABLE</code> if not provided.
+	 */
+	public long getPreErrorBits() {
+		return preErrorBits;
+	}
+	
+	/**
+	 * Gets the number of bits the pre-code errors were counted on.
+	 *
+	 * @return Cumulative count, <code>NOT_AVAILABLE</code> if not provided.
+	 */
+	public long getPreTotalBits() {
+		return preTotalBits;
+	}
+	
+	/**
+	 * Gets the number of bit errors after the inner code.
+	 *
+	 * @return Cumulative count, <code>NOT_AVAILABLE</code> if not provided.
+	 */
+	public long getPostErrorBits() {
+		return postErrorBits;
+	}
+	
+	/**
+	 * Gets the number of bits the post-code errors were counted on.
+	 *
+	 * @return Cumulative count, <code>NOT_AVAILABLE</code> if not provided.
+	 */
+	public long getPostTotalBits() {
+		return postTotalBits;
+	}
+	
+	/**
+	 * Gets the number of blocks (packets) the outer code could not correct.
+	 *
+	 * @return Cumulative count, <code>NOT_AVAILABLE</code> if not provided.
+	 */
+	public long getErrorBlocks() {
+		return errorBlocks;
+	}
+	
+	/**
+	 * Gets the number of blocks the block errors were counted on.
+	 *
+	 * @return Cumulative count, <code>NOT_AVAILABLE</code> if not provided.
+	 */
+	public long getTotalBlocks() {
+		return totalBlocks;
+	}
+	
+	/**
+	 * Computes the bit error rate before the inner code since an earlier
+	 * sample.
+	 *
+	 * @param earlier A sample of the same stream taken earlier.
+	 * @return The rate, <code>NaN</code> if not available or no bits were
+	 * counted.
+	 */
+	public double getBitErrorRate(SignalStatistics earlier) {
+		return rate(preErrorBits, earlier.preErrorBits, preTotalBits, earlier.preTotalBits);
+	}
+	
+	/**
+	 * Computes the block error rate since an earlier sample.
+	 *
+	 * @param earlier A sample of the same stream taken earlier.
+	 * @return The rate, <code>NaN</code> if not available or no blocks were
+	 * counted.
+	 */
+	public double getBlockErrorRate(SignalStatistics earlier) {
+		return rate(errorBlocks, earlier.errorBlocks, totalBlocks, earlier.totalBlocks);
+	}
+	
+	/**
+	 * Divides the increase of two counters. A counter reset (retuning, a
+	 * driver wrapping around) gives <code>NaN</code>.
+	 */
+	private static double rate(long errors, long earlierErrors, long total, long earlierTotal) {
+		if (errors == NOT_AVAILABLE || earlierErrors == NOT_AVAILABLE || total == NOT_AVAILABLE || earlierTotal == NOT_AVAILABLE)
+			return Double.NaN;
+		long errorCount = errors - earlierErrors;
+		long totalCount = total - earlierTotal;
+		if (errorCount < 0 || totalCount <= 0)
+			return Double.NaN;
+		return (double)errorCount / totalCount;
+	}
+	
+	public String toString() {
+		StringBuilder builder = new StringBuilder("SignalStatistics(present: ").append(present)
+				.append(", locked: ").append(locked)
+				.append(", strength: ").append(strength)
+				.append(", quality: ").append(quality);
+		if (level != Long.MIN_VALUE)
+			builder.append(", level: ").append(getSignalLevel()).append(" dBm");
+		if (carrierToNoise != Long.MIN_VALUE)
+			builder.append(", C/N: ").append(getCarrierToNoise()).append(" dB");
+		return builder.append(")").toString();
+	}
+
+}
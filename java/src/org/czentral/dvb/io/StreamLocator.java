@@ -18,18 +18,147 @@ along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
 package org.czentral.dvb.io;
 
 import java.io.IOException;
+import java.util.BitSet;
 
 /**
  * A locator holds the parameters the tuner needs to tune to a certain
  * transponder.
+ *
+ * Only the frequency is needed, the other parameters of the transmission are
+ * detected by the frontend if not set. Detecting them takes a while on many
+ * frontends (up to seconds), setting the known parameters makes the lock
+ * faster. The subclass of the delivery system tells which parameters are
+ * used, the values of the modulation, FEC, guard interval and transmission
+ * mode constants are those of the Linux DVB API.
  */
-public abstract class StreamLocator {
+public abstract class StreamLocator implements Cloneable {
+	
+	/**
+	 * Pseudo PID standing for the whole multiplex (all the PIDs).
+	 */
+	public static final int ALL_PIDS = 8192;
+	
+	public static final int MODULATION_QPSK = 0;
+	public static final int MODULATION_QAM16 = 1;
+	public static final int MODULATION_QAM32 = 2;
+	public static final int MODULATION_QAM64 = 3;
+	public static final int MODULATION_QAM128 = 4;
+	public static final int MODULATION_QAM256 = 5;
+	public static final int MODULATION_AUTO = 6;
+	public static final int MODULATION_8PSK = 9;
+	public static final int MODULATION_16APSK = 10;
+	public static final int MODULATION_32APSK = 11;
+	
+	public static final int FEC_NONE = 0;
+	public static final int FEC_1_2 = 1;
+	public static final int FEC_2_3 = 2;
+	public static final int FEC_3_4 = 3;
+	public static final int FEC_4_5 = 4;
+	public static final int FEC_5_6 = 5;
+	public static final int FEC_6_7 = 6;
+	public static final int FEC_7_8 = 7;
+	public static final int FEC_8_9 = 8;
+	public static final int FEC_AUTO = 9;
+	public static final int FEC_3_5 = 10;
+	public static final int FEC_9_10 = 11;
+	public static final int FEC_2_5 = 12;
+	
+	public static final int GUARD_INTERVAL_1_32 = 0;
+	public static final int GUARD_INTERVAL_1_16 = 1;
+	public static final int GUARD_INTERVAL_1_8 = 2;
+	public static final int GUARD_INTERVAL_1_4 = 3;
+	public static final int GUARD_INTERVAL_AUTO = 4;
+	public static final int GUARD_INTERVAL_1_128 = 5;
+	public static final int GUARD_INTERVAL_19_128 = 6;
+	public static final int GUARD_INTERVAL_19_256 = 7;
+	
+	public static final int TRANSMISSION_MODE_2K = 0;
+	public static final int TRANSMISSION_MODE_8K = 1;
+	public static final int TRANSMISSION_MODE_AUTO = 2;
+	public static final int TRANSMISSION_MODE_4K = 3;
+	public static final int TRANSMISSION_MODE_1K = 4;
+	public static final int TRANSMISSION_MODE_16K = 5;
+	public static final int TRANSMISSION_MODE_32K = 6;
+	
+	/**
+	 * The LNB is not powered by the tuner (the voltage selecting the
+	 * polarization is left as it is).
+	 */
+	public static final int POLARIZATION_NONE = 0;
+	public static final int POLARIZATION_HORIZONTAL = 1;
+	public static final int POLARIZATION_VERTICAL = 2;
+	public static final int POLARIZATION_LEFT = 3;
+	public static final int POLARIZATION_RIGHT = 4;
+	
+	/**
+	 * No PLP / input stream is selected, the frontend takes the first one.
+	 */
+	public static final int STREAM_ID_NONE = -1;
+	
+	/**
+	 * Number of the tuning parameters, see <code>getTuning</code>.
+	 */
+	static final int TUNING_COUNT = 10;
 	
 	/**
 	 * Transponder frequency in Hertz.
 	 */
 	protected long frequency;
 	
+	/**
+	 * PIDs to be passed by the demultiplexer. Empty means the whole multiplex.
+	 */
+	protected BitSet pids = new BitSet(ALL_PIDS + 1);
+	
+	/**
+	 * Size of the buffer of the driver in bytes, zero for the default.
+	 */
+	protected int bufferSize;
+	
+	/**
+	 * Channel bandwidth in Hertz, zero if detected by the frontend.
+	 */
+	protected int bandwidth;
+	
+	/**
+	 * Modulation (constellation), a <code>MODULATION_*</code> constant.
+	 */
+	protected int modulation = MODULATION_AUTO;
+	
+	/**
+	 * Inner FEC (code rate of the high priority stream of DVB-T), a
+	 * <code>FEC_*</code> constant.
+	 */
+	protected int fec = FEC_AUTO;
+	
+	/**
+	 * Guard interval, a <code>GUARD_INTERVAL_*</code> constant.
+	 */
+	protected int guardInterval = GUARD_INTERVAL_AUTO;
+	
+	/**
+	 * Transmission mode (number of carriers), a
+	 * <code>TRANSMISSION_MODE_*</code> constant.
+	 */
+	protected int transmissionMode = TRANSMISSION_MODE_AUTO;
+	
+	/**
+	 * Symbol rate in symbols per second, zero if not known.
+	 */
+	protected int symbolRate;
+	
+	/**
+	 * Polarization of a satellite transponder, a <code>POLARIZATION_*</code>
+	 * constant.
+	 */
+	protected int polarization = POLARIZATION_NONE;
+	
+	/**
+	 * PLP ID of DVB-T2, input stream ID of DVB-S2, or
+	 * <code>STREAM_ID_NONE</code>.
+	 */
+	protected int streamId = STREAM_ID_NONE;
+	
 	/**
 	 * Sets the frequency of the transponder containing the digital stream.
 	 *
@@ -48,6 +177,273 @@ public abstract class StreamLocator {
 		return frequency;
 	}
 	
+	/**
+	 * Gets the device capabilities needed to receive this locator's
+	 * transponder.
+	 *
+	 * @return Capability constants packed with binary OR operation.
+	 */
+	public long getRequiredCapabilities() {
+		return DeviceCapabilities.CAPABLE_NONE;
+	}
+	
+	/**
+	 * Sets the size of the buffer of the driver receiving the stream. The
+	 * default buffer of the Linux driver holds about a second of a multiplex,
+	 * a few megabytes survive the pauses of a busy JVM.
+	 *
+	 * @param bytes Buffer size in bytes, zero for the default of the driver.
+	 */
+	public void setBufferSize(int bytes) {
+		if (bytes < 0)
+			throw new IllegalArgumentException("Negative buffer size: " + bytes);
+		this.bufferSize = bytes;
+	}
+	
+	/**
+	 * Gets the size of the buffer of the driver receiving the stream.
+	 *
+	 * @return Buffer size in bytes, zero for the default of the driver.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+	
+	/**
+	 * Sets the bandwidth of the channel (DVB-T, DVB-T2).
+	 *
+	 * @param hertz Bandwidth in Hertz (8000000 etc.), zero to let the
+	 * frontend detect it.
+	 */
+	public void setBandwidth(int hertz) {
+		if (hertz < 0)
+			throw new IllegalArgumentException("Negative bandwidth: " + hertz);
+		this.bandwidth = hertz;
+	}
+	
+	/**
+	 * Gets the bandwidth of the channel.
+	 *
+	 * @return Bandwidth in Hertz, zero if detected by the frontend.
+	 */
+	public int getBandwidth() {
+		return bandwidth;
+	}
+	
+	/**
+	 * Sets the modulation (DVB-T, DVB-T2, DVB-C, DVB-S2).
+	 *
+	 * @param modulation A <code>MODULATION_*</code> constant.
+	 */
+	public void setModulation(int modulation) {
+		this.modulation = modulation;
+	}
+	
+	/**
+	 * Gets the modulation.
+	 *
+	 * @return A <code>MODULATION_*</code> constant.
+	 */
+	public int getModulation() {
+		return modulation;
+	}
+	
+	/**
+	 * Sets the inner FEC, the code rate of the high priority stream on
+	 * DVB-T.
+	 *
+	 * @param fec A <code>FEC_*</code> constant.
+	 */
+	public void setFec(int fec) {
+		this.fec = fec;
+	}
+	
+	/**
+	 * Gets the inner FEC.
+	 *
+	 * @return A <code>FEC_*</code> constant.
+	 */
+	public int getFec() {
+		return fec;
+	}
+	
+	/**
+	 * Sets the guard interval (DVB-T, DVB-T2).
+	 *
+	 * @param guardInterval A <code>GUARD_INTERVAL_*</code> constant.
+	 */
+	public void setGuardInterval(int guardInterval) {
+		this.guardInterval = guardInterval;
+	}
+	
+	/**
+	 * Gets the guard interval.
+	 *
+	 * @return A <code>GUARD_INTERVAL_*</code> constant.
+	 */
+	public int getGuardInterval() {
+		return guardInterval;
+	}
+	
+	/**
+	 * Sets the transmission mode (DVB-T, DVB-T2).
+	 *
+	 * @param transmissionMode A <code>TRANSMISSION_MODE_*</code> constant.
+	 */
+	public void setTransmissionMode(int transmissionMode) {
+		this.transmissionMode = transmissionMode;
+	}
+	
+	/**
+	 * Gets the transmission mode.
+	 *
+	 * @return A <code>TRANSMISSION_MODE_*</code> constant.
+	 */
+	public int getTransmissionMode() {
+		return transmissionMode;
+	}
+	
+	/**
+	 * Sets the symbol rate (DVB-C, DVB-S, DVB-S2), needed by most cable and
+	 * satellite frontends.
+	 *
+	 * @param symbolsPerSecond Symbol rate (6900000, 27500000 etc.)
+	 */
+	public void setSymbolRate(int symbolsPerSecond) {
+		if (symbolsPerSecond < 0)
+			throw new IllegalArgumentException("Negative symbol rate: " + symbolsPerSecond);
+		this.symbolRate = symbolsPerSecond;
+	}
+	
+	/**
+	 * Gets the symbol rate.
+	 *
+	 * @return Symbols per second, zero if not known.
+	 */
+	public int getSymbolRate() {
+		return symbolRate;
+	}
+	
+	/**
+	 * Sets the polarization of a satellite transponder, selected by the
+	 * voltage powering the LNB.
+	 *
+	 * @param polarization A <code>POLARIZATION_*</code> constant.
+	 */
+	public void setPolarization(int polarization) {
+		if (polarization < POLARIZATION_NONE || polarization > POLARIZATION_RIGHT)
+			throw new IllegalArgumentException("Invalid polarization: " + polarization);
+		this.polarization = polarization;
+	}
+	
+	/**
+	 * Gets the polarization of a satellite transponder.
+	 *
+	 * @return A <code>POLARIZATION_*</code> constant.
+	 */
+	public int getPolarization() {
+		return polarization;
+	}
+	
+	/**
+	 * Selects a stream of a multi stream transponder: the PLP (physical
+	 * layer pipe) of DVB-T2, the input stream of DVB-S2.
+	 *
+	 * @param streamId PLP ID / input stream ID (0 - 255), or
+	 * <code>STREAM_ID_NONE</code>.
+	 */
+	public void setStreamId(int streamId) {
+		if (streamId < STREAM_ID_NONE || streamId > 255)
+			throw new IllegalArgumentException("Invalid stream ID: " + streamId);
+		this.streamId = streamId;
+	}
+	
+	/**
+	 * Gets the stream selected of a multi stream transponder.
+	 *
+	 * @return PLP ID / input stream ID, or <code>STREAM_ID_NONE</code>.
+	 */
+	public int getStreamId() {
+		return streamId;
+	}
+	
+	/**
+	 * Packs the parameters of the transmission in the order of the
+	 * <code>DVBRES_TUNE_*</code> indexes of the native library: delivery
+	 * system, frequency, bandwidth, modulation, FEC, guard interval,
+	 * transmission mode, symbol rate, polarization, stream ID.
+	 *
+	 * @return The tuning parameters.
+	 */
+	long[] getTuning() {
+		long[] tuning = new long[TUNING_COUNT];
+		tuning[0] = NativeDeviceInfo.getDeliverySystem(getRequiredCapabilities());
+		tuning[1] = getFrequency();
+		tuning[2] = getBandwidth();
+		tuning[3] = getModulation();
+		tuning[4] = getFec();
+		tuning[5] = getGuardInterval();
+		tuning[6] = getTransmissionMode();
+		tuning[7] = getSymbolRate();
+		tuning[8] = getPolarization();
+		tuning[9] = getStreamId();
+		return tuning;
+	}
+	
+	/**
+	 * Adds a PID to the set of PIDs the stream should contain. If no PIDs are
+	 * added the stream contains the whole multiplex. Filtering is done by the
+	 * hardware (or the driver) so the packets not needed never reach Java.
+	 *
+	 * @param pid PID to receive (0 - 8191), or <code>ALL_PIDS</code>.
+	 */
+	public void addPid(int pid) {
+		if (pid < 0 || pid > ALL_PIDS)
+			throw new IllegalArgumentException("Invalid PID: " + pid);
+		pids.set(pid);
+	}
+	
+	/**
+	 * Removes a PID from the set of PIDs the stream should contain.
+	 *
+	 * @param pid PID previously added.
+	 */
+	public void removePid(int pid) {
+		if (pid < 0 || pid > ALL_PIDS)
+			throw new IllegalArgumentException("Invalid PID: " + pid);
+		pids.clear(pid);
+	}
+	
+	/**
+	 * Gets the PIDs the stream should contain.
+	 *
+	 * @return The PIDs in ascending order. Empty if the whole multiplex is
+	 * requested.
+	 */
+	public int[] getPids() {
+		int[] result = new int[pids.cardinality()];
+		int i = 0;
+		for (int pid = pids.nextSetBit(0); pid >= 0; pid = pids.nextSetBit(pid + 1))
+			result[i++] = pid;
+		return result;
+	}
+	
+	/**
+	 * Creates a copy of the locator with a set of PIDs of its own, changing
+	 * one does not change the other.
+	 *
+	 * @return The copy, of the class of this locator.
+	 */
+	public StreamLocator copy() {
+		try {
+			StreamLocator copy = (StreamLocator)super.clone();
+			copy.pids = (BitSet)pids.clone();
+			return copy;
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+	
 	/**
 	 * Tunes the first available device to the trasnsponder and starts
 	 * receiveing the stream.
@@ -60,4 +456,18 @@ public abstract class StreamLocator {
 	public DVBInputStream getInputStream() throws IOException {
 		return DeviceRegistry.getDefaultRegistry().openStreamAt(this);
 	}
+	
+	/**
+	 * Receives the PIDs of this locator through a multiplex shared with the
+	 * other subscribers on the same transponder.
+	 *
+	 * Calling this metod is identical to <code>DeviceRegistry.
+	 * subscribe(StreamLocator, int)</code>
+	 *
+	 * @param policy Backpressure policy (<code>MultiplexSubscriber.DROP_OLDEST</code> etc.)
+	 * @return The input stream.
+	 */
+	public MultiplexSubscriber subscribe(int policy) throws IOException {
+		return DeviceRegistry.getDefaultRegistry().subscribe(this, policy);
+	}
 }
@@ -0,0 +1,127 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+import java.io.IOException;
+
+/**
+ * The right to use a tuner of a <code>TunerPool</code> tuned to a
+ * transponder. Several leases on the same transponder share the tuner.
+ */
+public class TunerLease {
+	
+	private TunerPool pool;
+	
+	TunerPool.Tuner tuner;
+	
+	/**
+	 * The transponder, replaced if the tuner is retuned in place.
+	 */
+	volatile StreamLocator locator;
+	
+	private boolean released;
+	
+	TunerLease(TunerPool pool, TunerPool.Tuner tuner, StreamLocator locator) {
+		this.pool = pool;
+		this.tuner = tuner;
+		this.locator = locator;
+	}
+	
+	/**
+	 * Gets the device leased.
+	 *
+	 * @return The device.
+	 */
+	public DVBDevice getDevice() {
+		return tuner.device;
+	}
+	
+	/**
+	 * Gets the frequency the device is tuned to.
+	 *
+	 * @return Transponder frequency in Hertz.
+	 */
+	public long getFrequency() {
+		return locator.getFrequency();
+	}
+	
+	/**
+	 * Receives PIDs from the tuner. The device is tuned by the first
+	 * subscription.
+	 *
+	 * @param pids PIDs to receive, empty for the whole multiplex.
+	 * @param policy Backpressure policy (<code>MultiplexSubscriber.DROP_OLDEST</code> etc.)
+	 * @return The stream of the subscriber.
+	 * @throws IOException If the device can not be tuned, or the lease has
+	 * been released.
+	 */
+	public MultiplexSubscriber subscribe(int[] pids, int policy) throws IOException {
+		if (released)
+			throw new IOException("Lease released.");
+		return pool.subscribe(tuner, locator, pids, policy);
+	}
+	
+	/**
+	 * Opens the stream of the tuner, released with the lease when the
+	 * stream is closed. If this is the only lease on the tuner the stream of
+	 * the device is returned (wrapped), without the reader thread and the
+	 * ring of a subscriber; the tuner is not shared with later leases then.
+	 * Otherwise the stream is a subscriber of the shared multiplex with the
+	 * <code>BLOCK</code> policy.
+	 *
+	 * @return The stream, with the PIDs of the locator.
+	 * @throws IOException If the device can not be tuned, the lease has
+	 * been released or its stream is already open.
+	 */
+	public DVBInputStream openStream() throws IOException {
+		if (released)
+			throw new IOException("Lease released.");
+		return pool.openStream(this);
+	}
+	
+	/**
+	 * Moves a subscriber of this lease to another transponder (see
+	 * <code>MultiplexSubscriber.retune</code>).
+	 */
+	void retune(MultiplexSubscriber subscriber, StreamLocator target) throws IOException {
+		if (released)
+			throw new IOException("Lease released.");
+		
+		// the lease lock is taken after the lock of the pool is given back
+		if (pool.retune(this, subscriber, target))
+			release();
+	}
+	
+	/**
+	 * Gives the tuner back to the pool. The device is closed and becomes idle
+	 * when the last lease on it is released. Calling this method more than
+	 * once has no effect.
+	 *
+	 * @throws IOException If closing the device fails.
+	 */
+	public synchronized void release() throws IOException {
+		if (released)
+			return;
+		released = true;
+		pool.release(tuner);
+	}
+	
+	public String toString() {
+		return "TunerLease(device: " + tuner.device.getPath() + ", frequency: " + locator.getFrequency() + ")";
+	}
+}
@@ -0,0 +1,541 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Vector;
+
+/**
+ * Keeps track of which device is tuned to which transponder. A transponder
+ * is identified by all the tuning parameters of its locator (delivery system,
+ * frequency, polarization, stream ID etc., see
+ * <code>StreamLocator.getTuning</code>), not by the frequency alone. A lease
+ * on a transponder already tuned shares the tuner (through a
+ * <code>SharedMultiplex</code>), otherwise an idle device with the required
+ * capabilities is taken. Both decisions are hash lookups, no device is opened
+ * just to find out whether it is free.
+ *
+ * A device is returned to the idle devices when the last lease on it is
+ * released.
+ *
+ * A lease alone on its tuner can take the stream of the device itself
+ * (see <code>TunerLease.openStream</code>), the tuner is not shared until
+ * it is released.
+ *
+ * Tuners can be kept in warm standby on the transponders likely to be needed
+ * next (see <code>addStandby</code>): they stay tuned and locked, a lease
+ * (or a retune) to such a transponder gets the data at once. A standby tuner
+ * nobody uses is handed over to a lease when no tuner is idle.
+ */
+public class TunerPool implements DeviceListener {
+	
+	/**
+	 * The registry listing the devices.
+	 */
+	private DeviceRegistry registry;
+	
+	/**
+	 * All the devices known by the pool, by their path.
+	 */
+	private HashMap<String, Tuner> tuners = new HashMap<String, Tuner>();
+	
+	/**
+	 * Tuners in use, by transponder.
+	 */
+	private HashMap<Transponder, Tuner> tuned = new HashMap<Transponder, Tuner>();
+	
+	/**
+	 * Idle tuners by capability bit. Key 0 holds all the idle tuners.
+	 */
+	private HashMap<Long, LinkedHashSet<Tuner>> idle = new HashMap<Long, LinkedHashSet<Tuner>>();
+	
+	/**
+	 * Creates a pool of the devices of a registry.
+	 *
+	 * @param registry The registry listing the devices.
+	 */
+	public TunerPool(DeviceRegistry registry) {
+		this.registry = registry;
+		refresh();
+	}
+	
+	/**
+	 * Adds the devices appeared in the registry since the pool was created
+	 * (or last refreshed).
+	 */
+	public synchronized void refresh() {
+		DVBDevice[] devices = registry.getDevices();
+		for (int i=0; i<devices.length; i++)
+			deviceAdded(devices[i]);
+	}
+	
+	public synchronized void deviceAdded(DVBDevice device) {
+		if (!tuners.containsKey(device.getPath())) {
+			Tuner tuner = new Tuner(device);
+			tuners.put(device.getPath(), tuner);
+			setIdle(tuner, true);
+		}
+	}
+	
+	/**
+	 * Forgets a device. Leases on it remain valid (but their streams fail),
+	 * the device is not returned to the idle ones when released.
+	 */
+	public synchronized void deviceRemoved(DVBDevice device) {
+		Tuner tuner = tuners.remove(device.getPath());
+		if (tuner == null)
+			return;
+		
+		tuner.removed = true;
+		setIdle(tuner, false);
+		if (tuner.transponder != null && tuned.get(tuner.transponder) == tuner)
+			tuned.remove(tuner.transponder);
+	}
+	
+	/**
+	 * Leases a tuner tuned to the transponder of the locator.
+	 *
+	 * @param locator The transponder.
+	 * @return The lease, to be released when the tuner is not needed anymore.
+	 * @throws IOException If no suitable device is idle.
+	 */
+	public synchronized TunerLease lease(StreamLocator locator) throws IOException {
+		Transponder transponder = new Transponder(locator);
+		
+		// sharing a tuner already on the transponder
+		Tuner tuner = tuned.get(transponder);
+		if (tuner != null && tuner.device.getCapabilities().hasCapabilities(locator.getRequiredCapabilities())) {
+			tuner.leases++;
+			return new TunerLease(this, tuner, locator);
+		}
+		
+		// first idle one with the capabilities
+		long required = locator.getRequiredCapabilities();
+		tuner = findIdle(required);
+		
+		// or a standby one nobody uses
+		if (tuner == null) {
+			for (Iterator<Tuner> it = tuners.values().iterator(); it.hasNext() && tuner == null; ) {
+				Tuner candidate = it.next();
+				if (candidate.standby && candidate.leases == 1 && candidate.device.getCapabilities().hasCapabilities(required)) {
+					candidate.standby = false;
+					release(candidate);
+					tuner = findIdle(required);
+				}
+			}
+		}
+		
+		if (tuner == null)
+			throw new IOException("No suitable devices.");
+		
+		setIdle(tuner, false);
+		tuner.transponder = transponder;
+		tuner.leases = 1;
+		tuned.put(transponder, tuner);
+		return new TunerLease(this, tuner, locator);
+	}
+	
+	/**
+	 * Finds an idle tuner with the capabilities.
+	 *
+	 * @return The tuner, <code>null</code> if none.
+	 */
+	private Tuner findIdle(long required) {
+		LinkedHashSet<Tuner> candidates = idle.get(Long.valueOf(Long.lowestOneBit(required)));
+		if (candidates == null)
+			return null;
+		
+		for (Iterator<Tuner> it = candidates.iterator(); it.hasNext(); ) {
+			Tuner tuner = it.next();
+			if (tuner.device.getCapabilities().hasCapabilities(required))
+				return tuner;
+		}
+		return null;
+	}
+	
+	/**
+	 * Keeps a tuner on a transponder without subscribers, so a later lease
+	 * (or retune) on it gets data without waiting for the tuning and the
+	 * lock. A tuner already on the transponder becomes the standby one,
+	 * otherwise an idle one is tuned. The tuner passes the PIDs of the
+	 * locator while nobody subscribes (a locator with the PAT only keeps the
+	 * load low).
+	 *
+	 * @param locator The transponder.
+	 * @throws IOException If no suitable device is idle, or it can not be
+	 * tuned.
+	 */
+	public synchronized void addStandby(StreamLocator locator) throws IOException {
+		Tuner tuner = tuned.get(new Transponder(locator));
+		if (tuner != null && tuner.standby)
+			return;
+		
+		// not taking over another standby tuner
+		if (tuner == null && findIdle(locator.getRequiredCapabilities()) == null)
+			throw new IOException("No idle devices.");
+		
+		tuner = lease(locator).tuner;
+		try {
+			SharedMultiplex multiplex = open(tuner, locator);
+			multiplex.setKeepOpen(true);
+			multiplex.start();
+		} catch (IOException e) {
+			release(tuner);
+			throw e;
+		}
+		tuner.standby = true;
+	}
+	
+	/**
+	 * Stops keeping a tuner on a transponder. The tuner is closed (and
+	 * becomes idle) if nobody uses it.
+	 *
+	 * @param locator The transponder.
+	 * @return <code>False</code> if there was no standby tuner on the
+	 * transponder.
+	 * @throws IOException If closing the device fails.
+	 */
+	public synchronized boolean removeStandby(StreamLocator locator) throws IOException {
+		Tuner tuner = tuned.get(new Transponder(locator));
+		if (tuner == null || !tuner.standby)
+			return false;
+		
+		removeStandby(tuner);
+		return true;
+	}
+	
+	/**
+	 * Stops keeping tuners on a frequency, on any transponder of it (all
+	 * polarizations and streams).
+	 *
+	 * @param frequency Frequency of the transponder in Hertz.
+	 * @return <code>False</code> if there was no standby tuner on the
+	 * frequency.
+	 * @throws IOException If closing a device fails.
+	 */
+	public synchronized boolean removeStandby(long frequency) throws IOException {
+		Vector<Tuner> found = new Vector<Tuner>();
+		for (Iterator<Tuner> it = tuners.values().iterator(); it.hasNext(); ) {
+			Tuner tuner = it.next();
+			if (tuner.standby && tuner.transponder.getFrequency() == frequency)
+				found.add(tuner);
+		}
+		
+		for (int i=0; i<found.size(); i++)
+			removeStandby(found.get(i));
+		return !found.isEmpty();
+	}
+	
+	private void removeStandby(Tuner tuner) throws IOException {
+		tuner.standby = false;
+		if (tuner.multiplex != null)
+			tuner.multiplex.setKeepOpen(false);
+		release(tuner);
+	}
+	
+	/**
+	 * Gets the frequencies of the standby tuners.
+	 *
+	 * @return Frequencies in Hertz.
+	 */
+	public synchronized long[] getStandbyFrequencies() {
+		Vector<Long> frequencies = new Vector<Long>();
+		for (Iterator<Tuner> it = tuners.values().iterator(); it.hasNext(); ) {
+			Tuner tuner = it.next();
+			if (tuner.standby)
+				frequencies.add(Long.valueOf(tuner.transponder.getFrequency()));
+		}
+		
+		long[] result = new long[frequencies.size()];
+		for (int i=0; i<result.length; i++)
+			result[i] = frequencies.get(i).longValue();
+		return result;
+	}
+	
+	/**
+	 * Gets the devices in the pool.
+	 *
+	 * @return All the devices, idle or not.
+	 */
+	public synchronized DVBDevice[] getDevices() {
+		DVBDevice[] devices = new DVBDevice[tuners.size()];
+		int i = 0;
+		for (Iterator<Tuner> it = tuners.values().iterator(); it.hasNext(); )
+			devices[i++] = it.next().device;
+		return devices;
+	}
+	
+	/**
+	 * Gets the number of idle devices.
+	 *
+	 * @return Number of devices without leases.
+	 */
+	public synchronized int getIdleCount() {
+		LinkedHashSet<Tuner> all = idle.get(Long.valueOf(0));
+		return all == null ? 0 : all.size();
+	}
+	
+	/**
+	 * Gets the number of idle devices having some capabilities.
+	 *
+	 * @param capabilities Capability constants packed with binary OR
+	 * operation.
+	 * @return Number of devices without leases able to receive a locator
+	 * requiring the capabilities.
+	 */
+	public synchronized int getIdleCount(long capabilities) {
+		LinkedHashSet<Tuner> candidates = idle.get(Long.valueOf(Long.lowestOneBit(capabilities)));
+		if (candidates == null)
+			return 0;
+		
+		int count = 0;
+		for (Iterator<Tuner> it = candidates.iterator(); it.hasNext(); )
+			if (it.next().device.getCapabilities().hasCapabilities(capabilities))
+				count++;
+		return count;
+	}
+	
+	/**
+	 * Opens (or reuses) the multiplex of a leased tuner and subscribes to it.
+	 */
+	synchronized MultiplexSubscriber subscribe(Tuner tuner, StreamLocator locator, int[] pids, int policy) throws IOException {
+		if (tuner.leases == 0)
+			throw new IOException("Lease released.");
+		if (tuner.exclusive)
+			throw new IOException("Tuner used by a single stream.");
+		
+		return open(tuner, locator).subscribe(pids, policy);
+	}
+	
+	/**
+	 * Opens the stream of a lease: the stream of the device if the lease is
+	 * alone on the tuner, a subscriber of the multiplex otherwise.
+	 */
+	synchronized DVBInputStream openStream(TunerLease lease) throws IOException {
+		Tuner tuner = lease.tuner;
+		StreamLocator locator = lease.locator;
+		if (tuner.leases > 1 || tuner.standby || (tuner.multiplex != null && !tuner.multiplex.isClosed())) {
+			MultiplexSubscriber subscriber = subscribe(tuner, locator, locator.getPids(), MultiplexSubscriber.BLOCK);
+			subscriber.lease = lease;
+			return subscriber;
+		}
+		if (tuner.leases == 0)
+			throw new IOException("Lease released.");
+		if (tuner.exclusive)
+			throw new IOException("Stream already open.");
+		
+		// nobody else can lease the tuner while its stream is used directly
+		DVBInputStream stream = tuner.device.openStreamAt(locator);
+		tuner.exclusive = true;
+		if (tuned.get(tuner.transponder) == tuner)
+			tuned.remove(tuner.transponder);
+		return new ExclusiveStream(stream, lease);
+	}
+	
+	/**
+	 * Gets the multiplex of a leased tuner, the device is opened if needed.
+	 */
+	private SharedMultiplex open(Tuner tuner, StreamLocator locator) throws IOException {
+		if (tuner.multiplex == null || tuner.multiplex.isClosed())
+			tuner.multiplex = new SharedMultiplex(tuner.device.openStreamAt(locator), locator.getPids());
+		return tuner.multiplex;
+	}
+	
+	/**
+	 * Moves a subscriber to another transponder: to the tuner already on it,
+	 * by retuning its own tuner if nobody else uses it, or to an idle tuner.
+	 *
+	 * @return <code>True</code> if the subscriber moved to a new lease, the
+	 * current one is to be released by the caller (not holding the lock of
+	 * the pool).
+	 */
+	synchronized boolean retune(TunerLease current, MultiplexSubscriber subscriber, StreamLocator locator) throws IOException {
+		Tuner tuner = current.tuner;
+		Transponder transponder = new Transponder(locator);
+		if (transponder.equals(tuner.transponder))
+			return false;
+		
+		SharedMultiplex multiplex = subscriber.getMultiplex();
+		boolean alone = tuner.leases == 1 && !tuner.standby && !tuner.removed && multiplex == tuner.multiplex
+				&& multiplex.getSubscriberCount() == 1;
+		if (alone && !tuned.containsKey(transponder)
+				&& tuner.device.getCapabilities().hasCapabilities(locator.getRequiredCapabilities())) {
+			try {
+				multiplex.retune(locator);
+				if (tuner.transponder != null && tuned.get(tuner.transponder) == tuner)
+					tuned.remove(tuner.transponder);
+				tuner.transponder = transponder;
+				tuned.put(transponder, tuner);
+				current.locator = locator;
+				return false;
+			} catch (UnsupportedOperationException e) {
+				// the device can not retune, moving to another one
+			}
+		}
+		
+		TunerLease lease = lease(locator);
+		try {
+			subscriber.moveTo(open(lease.tuner, locator), lease);
+		} catch (IOException e) {
+			// the new lease is not known by anyone yet
+			release(lease.tuner);
+			throw e;
+		}
+		return true;
+	}
+	
+	/**
+	 * Drops a lease, the tuner becomes idle with its last lease.
+	 */
+	synchronized void release(Tuner tuner) throws IOException {
+		if (--tuner.leases > 0)
+			return;
+		
+		if (tuner.transponder != null && tuned.get(tuner.transponder) == tuner)
+			tuned.remove(tuner.transponder);
+		tuner.transponder = null;
+		tuner.exclusive = false;
+		
+		SharedMultiplex multiplex = tuner.multiplex;
+		tuner.multiplex = null;
+		if (!tuner.removed)
+			setIdle(tuner, true);
+		
+		if (multiplex != null)
+			multiplex.close();
+	}
+	
+	private void setIdle(Tuner tuner, boolean isIdle) {
+		long capabilities = tuner.device.getCapabilities().getCapabilities();
+		setIdle(0, tuner, isIdle);
+		for (long rest = capabilities; rest != 0; rest &= rest - 1)
+			setIdle(Long.lowestOneBit(rest), tuner, isIdle);
+	}
+	
+	private void setIdle(long capability, Tuner tuner, boolean isIdle) {
+		Long key = Long.valueOf(capability);
+		LinkedHashSet<Tuner> set = idle.get(key);
+		if (set == null) {
+			set = new LinkedHashSet<Tuner>();
+			idle.put(key, set);
+		}
+		if (isIdle)
+			set.add(tuner);
+		else
+			set.remove(tuner);
+	}
+	
+	/**
+	 * State of a device in the pool.
+	 */
+	static class Tuner {
+		
+		DVBDevice device;
+		
+		/**
+		 * Transponder tuned to, <code>null</code> if idle.
+		 */
+		Transponder transponder;
+		
+		int leases;
+		
+		SharedMultiplex multiplex;
+		
+		/**
+		 * The tuner is kept on its transponder (holding a lease of its own).
+		 */
+		boolean standby;
+		
+		/**
+		 * The device disappeared.
+		 */
+		boolean removed;
+		
+		/**
+		 * The stream of the device is used by a single lease (not through a
+		 * multiplex), the tuner is not shared.
+		 */
+		boolean exclusive;
+		
+		Tuner(DVBDevice device) {
+			this.device = device;
+		}
+	}
+	
+	/**
+	 * Stream of a tuner used by a single lease, the lease is released when
+	 * the stream is closed.
+	 */
+	class ExclusiveStream extends FilterDVBInputStream {
+		
+		private TunerLease lease;
+		
+		ExclusiveStream(DVBInputStream in, TunerLease lease) {
+			super(in);
+			this.lease = lease;
+		}
+		
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				lease.release();
+			}
+		}
+		
+		/**
+		 * Retunes the device in place, the tuner stays with this stream.
+		 */
+		public void retune(StreamLocator locator) throws IOException {
+			super.retune(locator);
+			synchronized (TunerPool.this) {
+				lease.tuner.transponder = new Transponder(locator);
+				lease.locator = locator;
+			}
+		}
+	}
+	
+	/**
+	 * Key of a transponder: the tuning parameters of a locator, without its
+	 * PIDs and buffer size.
+	 */
+	static final class Transponder {
+		
+		private final long[] tuning;
+		
+		Transponder(StreamLocator locator) {
+			tuning = locator.getTuning();
+		}
+		
+		long getFrequency() {
+			return tuning[1];
+		}
+		
+		public boolean equals(Object other) {
+			return other instanceof Transponder && Arrays.equals(tuning, ((Transponder)other).tuning);
+		}
+		
+		public int hashCode() {
+			return Arrays.hashCode(tuning);
+		}
+	}
+}
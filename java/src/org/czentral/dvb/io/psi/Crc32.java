@@ -0,0 +1,116 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.psi;
+
+/**
+ * The CRC-32 used by MPEG-2 sections (polynomial 0x04C11DB7, initial value
+ * 0xFFFFFFFF, not reflected, no final XOR). Implemented with the
+ * slicing-by-8 algorithm: eight bytes are processed with eight table lookups
+ * and no data dependent shifting per byte.
+ *
+ * Running the CRC over a whole section including its CRC_32 field results in
+ * zero if the section is intact.
+ */
+public final class Crc32 {
+
+	/**
+	 * Initial value of the register.
+	 */
+	public static final int INITIAL = 0xffffffff;
+
+	/**
+	 * Lookup tables. TABLES[0] is the classic byte-wise table, TABLES[k]
+	 * advances a byte k more bytes in the register.
+	 */
+	private static final int[][] TABLES = new int[8][256];
+
+	static {
+		for (int i=0; i<256; i++) {
+			int crc = i << 24;
+			for (int j=0; j<8; j++)
+				crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04c11db7 : crc << 1;
+			TABLES[0][i] = crc;
+		}
+		for (int k=1; k<8; k++) {
+			for (int i=0; i<256; i++) {
+				int prev = TABLES[k - 1][i];
+				TABLES[k][i] = (prev << 8) ^ TABLES[0][prev >>> 24];
+			}
+		}
+	}
+
+	private Crc32() {
+	}
+
+	/**
+	 * Calculates the CRC of a block.
+	 *
+	 * @param buffer Buffer containing the data.
+	 * @param offset Offset of the first byte.
+	 * @param length Number of bytes.
+	 * @return The CRC.
+	 */
+	public static int compute(byte[] buffer, int offset, int length) {
+		return update(INITIAL, buffer, offset, length);
+	}
+
+	/**
+	 * Continues a CRC calculation.
+	 *
+	 * @param crc The CRC of the preceding data (or <code>INITIAL</code>).
+	 * @param buffer Buffer containing the data.
+	 * @param offset Offset of the first byte.
+	 * @param length Number of bytes.
+	 * @return The CRC.
+	 */
+	public static int update(int crc, byte[] buffer, int offset, int length) {
+		int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+		int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+
+		int p = offset;
+		int end = offset + length;
+
+		// eight bytes at a time
+		while (end - p >= 8) {
+			crc ^= ((buffer[p] & 0xff) << 24) | ((buffer[p + 1] & 0xff) << 16)
+					| ((buffer[p + 2] & 0xff) << 8) | (buffer[p + 3] & 0xff);
+			crc = t7[crc >>> 24] ^ t6[(crc >>> 16) & 0xff] ^ t5[(crc >>> 8) & 0xff] ^ t4[crc & 0xff]
+					^ t3[buffer[p + 4] & 0xff] ^ t2[buffer[p + 5] & 0xff]
+					^ t1[buffer[p + 6] & 0xff] ^ t0[buffer[p + 7] & 0xff];
+			p += 8;
+		}
+
+		// the rest byte by byte
+		while (p < end)
+			crc = (crc << 8) ^ t0[((crc >>> 24) ^ buffer[p++]) & 0xff];
+
+		return crc;
+	}
+
+	/**
+	 * Checks a section ending with a CRC_32 field.
+	 *
+	 * @param buffer Buffer containing the section.
+	 * @param offset Offset of the table_id.
+	 * @param length Length of the whole section (including the CRC).
+	 * @return <code>True</code> if the CRC matches.
+	 */
+	public static boolean check(byte[] buffer, int offset, int length) {
+		return compute(buffer, offset, length) == 0;
+	}
+}
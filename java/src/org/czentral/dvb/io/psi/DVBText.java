@@ -0,0 +1,100 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.psi;
+
+import java.nio.charset.Charset;
+
+/**
+ * Decodes the text fields of DVB SI tables (EN 300 468 Annex A).
+ */
+public final class DVBText {
+	
+	/**
+	 * Character sets selected by the first byte (0x01 - 0x0B).
+	 */
+	private static final String[] ISO_8859_TABLES = {
+		null, "ISO-8859-5", "ISO-8859-6", "ISO-8859-7", "ISO-8859-8", "ISO-8859-9",
+		"ISO-8859-10", "ISO-8859-11", null, "ISO-8859-13", "ISO-8859-14", "ISO-8859-15",
+	};
+	
+	private DVBText() {
+	}
+	
+	/**
+	 * Decodes a text field.
+	 *
+	 * The default table (ISO/IEC 6937) has no Java charset, it is approximated
+	 * with ISO-8859-1 which is identical for the printable ASCII range.
+	 *
+	 * @param buffer Buffer containing the text.
+	 * @param offset Offset of the first byte (the optional character table
+	 * selector).
+	 * @param length Length of the field.
+	 * @return The decoded text, with control codes removed.
+	 */
+	public static String decode(byte[] buffer, int offset, int length) {
+		if (length <= 0)
+			return "";
+		
+		String charset = "ISO-8859-1";
+		int first = buffer[offset] & 0xff;
+		if (first >= 0x20) {
+			// default table
+		} else if (first < ISO_8859_TABLES.length && ISO_8859_TABLES[first] != null) {
+			charset = ISO_8859_TABLES[first];
+			offset++;
+			length--;
+		} else if (first == 0x10 && length >= 3) {
+			charset = "ISO-8859-" + (((buffer[offset + 1] & 0xff) << 8) | (buffer[offset + 2] & 0xff));
+			offset += 3;
+			length -= 3;
+		} else if (first == 0x11) {
+			charset = "UTF-16BE";
+			offset++;
+			length--;
+		} else if (first == 0x15) {
+			charset = "UTF-8";
+			offset++;
+			length--;
+		} else {
+			offset++;
+			length--;
+		}
+		
+		Charset cs;
+		try {
+			cs = Charset.forName(charset);
+		} catch (IllegalArgumentException e) {
+			cs = Charset.forName("ISO-8859-1");
+		}
+		
+		String text = new String(buffer, offset, length, cs);
+		
+		// removing the emphasis and other control codes (0x80 - 0x9f, the
+		// CR/LF code 0x8a becomes a space)
+		StringBuilder sb = new StringBuilder(text.length());
+		for (int i=0; i<text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == 0x8a)
+				sb.append(' ');
+			else if (c >= 0x20 && (c < 0x80 || c > 0x9f))
+				sb.append(c);
+		}
+		return sb.toString();
+	}
+}
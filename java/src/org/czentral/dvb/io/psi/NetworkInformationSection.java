@@ -0,0 +1,123 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.psi;
+
+/**
+ * View of a Network Information Table section (table_id 0x40 for the
+ * actual, 0x41 for other networks).
+ */
+public class NetworkInformationSection extends Section {
+	
+	/**
+	 * Tag of the network_name_descriptor.
+	 */
+	public static final int NETWORK_NAME_DESCRIPTOR = 0x40;
+	
+	/**
+	 * Tag of the terrestrial_delivery_system_descriptor.
+	 */
+	public static final int TERRESTRIAL_DELIVERY_DESCRIPTOR = 0x5a;
+	
+	/**
+	 * Offsets of the transport stream entries (reused between sections).
+	 */
+	private int[] transportStreams = new int[16];
+	
+	private int transportStreamCount;
+	
+	protected void parse() {
+		transportStreamCount = 0;
+		int loop = getNetworkDescriptorsOffset() + getNetworkDescriptorsLength();
+		int p = loop + 2;
+		int end = Math.min(dataEnd(), p + length12(buffer, loop));
+		while (p + 6 <= end) {
+			if (transportStreamCount == transportStreams.length) {
+				int[] grown = new int[transportStreams.length * 2];
+				System.arraycopy(transportStreams, 0, grown, 0, transportStreams.length);
+				transportStreams = grown;
+			}
+			transportStreams[transportStreamCount++] = p;
+			p += 6 + length12(buffer, p + 4);
+		}
+	}
+	
+	public int getNetworkId() {
+		return getTableIdExtension();
+	}
+	
+	public int getNetworkDescriptorsOffset() {
+		return offset + HEADER_LENGTH + 2;
+	}
+	
+	public int getNetworkDescriptorsLength() {
+		return length12(buffer, offset + HEADER_LENGTH);
+	}
+	
+	/**
+	 * Gets the name of the network from the network name descriptor.
+	 *
+	 * @return The name, or <code>null</code> if there is no such descriptor
+	 * in this section.
+	 */
+	public String getNetworkName() {
+		int p = findDescriptor(buffer, getNetworkDescriptorsOffset(), getNetworkDescriptorsLength(), NETWORK_NAME_DESCRIPTOR);
+		return p < 0 ? null : DVBText.decode(buffer, p + 2, buffer[p + 1] & 0xff);
+	}
+	
+	/**
+	 * Gets the number of transport streams in this section.
+	 *
+	 * @return Number of transport streams.
+	 */
+	public int getTransportStreamCount() {
+		return transportStreamCount;
+	}
+	
+	public int getTransportStreamId(int index) {
+		return uint16(buffer, transportStreams[index]);
+	}
+	
+	public int getOriginalNetworkId(int index) {
+		return uint16(buffer, transportStreams[index] + 2);
+	}
+	
+	public int getDescriptorsOffset(int index) {
+		return transportStreams[index] + 6;
+	}
+	
+	public int getDescriptorsLength(int index) {
+		return length12(buffer, transportStreams[index] + 4);
+	}
+	
+	/**
+	 * Gets the centre frequency of a DVB-T transport stream from the
+	 * terrestrial delivery system descriptor.
+	 *
+	 * @param index Index of the transport stream.
+	 * @return Frequency in Hertz, or -1 if there is no such descriptor.
+	 */
+	public long getTerrestrialFrequency(int index) {
+		int p = findDescriptor(buffer, getDescriptorsOffset(index), getDescriptorsLength(index), TERRESTRIAL_DELIVERY_DESCRIPTOR);
+		if (p < 0 || (buffer[p + 1] & 0xff) < 4)
+			return -1;
+		long centre = ((long)(buffer[p + 2] & 0xff) << 24) | ((buffer[p + 3] & 0xff) << 16)
+				| ((buffer[p + 4] & 0xff) << 8) | (buffer[p + 5] & 0xff);
+		return centre * 10;
+	}
+	
+}
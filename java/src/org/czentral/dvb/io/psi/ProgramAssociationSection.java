@@ -0,0 +1,77 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.psi;
+
+/**
+ * View of a Program Association Table section (table_id 0x00).
+ */
+public class ProgramAssociationSection extends Section {
+	
+	/**
+	 * Gets the transport_stream_id of the multiplex.
+	 *
+	 * @return The transport_stream_id.
+	 */
+	public int getTransportStreamId() {
+		return getTableIdExtension();
+	}
+	
+	/**
+	 * Gets the number of entries in this section.
+	 *
+	 * @return Number of programs (including the network PID entry).
+	 */
+	public int getProgramCount() {
+		return Math.max(0, (dataEnd() - offset - HEADER_LENGTH) / 4);
+	}
+	
+	/**
+	 * Gets the program_number of an entry.
+	 *
+	 * @param index Index of the entry.
+	 * @return The program_number (0 for the network PID entry).
+	 */
+	public int getProgramNumber(int index) {
+		return uint16(buffer, offset + HEADER_LENGTH + index * 4);
+	}
+	
+	/**
+	 * Gets the PMT PID of an entry (the network PID for program 0).
+	 *
+	 * @param index Index of the entry.
+	 * @return The PID.
+	 */
+	public int getPid(int index) {
+		return pid(buffer, offset + HEADER_LENGTH + index * 4 + 2);
+	}
+	
+	/**
+	 * Looks up the PMT PID of a program.
+	 *
+	 * @param programNumber The program_number.
+	 * @return The PID, or -1 if the program is not listed in this section.
+	 */
+	public int findPmtPid(int programNumber) {
+		int count = getProgramCount();
+		for (int i=0; i<count; i++)
+			if (getProgramNumber(i) == programNumber)
+				return getPid(i);
+		return -1;
+	}
+	
+}
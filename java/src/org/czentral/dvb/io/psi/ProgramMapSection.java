@@ -0,0 +1,132 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.psi;
+
+/**
+ * View of a Program Map Table section (table_id 0x02).
+ */
+public class ProgramMapSection extends Section {
+	
+	/**
+	 * Offsets of the elementary stream entries (reused between sections).
+	 */
+	private int[] streams = new int[16];
+	
+	private int streamCount;
+	
+	protected void parse() {
+		streamCount = 0;
+		int p = getProgramInfoOffset() + getProgramInfoLength();
+		int end = dataEnd();
+		while (p + 5 <= end) {
+			if (streamCount == streams.length) {
+				int[] grown = new int[streams.length * 2];
+				System.arraycopy(streams, 0, grown, 0, streams.length);
+				streams = grown;
+			}
+			streams[streamCount++] = p;
+			p += 5 + length12(buffer, p + 3);
+		}
+	}
+	
+	/**
+	 * Gets the program_number described.
+	 *
+	 * @return The program_number.
+	 */
+	public int getProgramNumber() {
+		return getTableIdExtension();
+	}
+	
+	/**
+	 * Gets the PID carrying the PCR of the program.
+	 *
+	 * @return The PCR PID (8191 if the program has no PCR).
+	 */
+	public int getPcrPid() {
+		return pid(buffer, offset + HEADER_LENGTH);
+	}
+	
+	/**
+	 * Gets the position of the program level descriptors.
+	 *
+	 * @return Offset in the buffer.
+	 */
+	public int getProgramInfoOffset() {
+		return offset + HEADER_LENGTH + 4;
+	}
+	
+	/**
+	 * Gets the length of the program level descriptors.
+	 *
+	 * @return Length in bytes.
+	 */
+	public int getProgramInfoLength() {
+		return length12(buffer, offset + HEADER_LENGTH + 2);
+	}
+	
+	/**
+	 * Gets the number of elementary streams.
+	 *
+	 * @return Number of streams.
+	 */
+	public int getStreamCount() {
+		return streamCount;
+	}
+	
+	/**
+	 * Gets the stream_type of an elementary stream.
+	 *
+	 * @param index Index of the stream.
+	 * @return The stream_type (0x02: MPEG-2 video, 0x1b: H.264 etc.)
+	 */
+	public int getStreamType(int index) {
+		return buffer[streams[index]] & 0xff;
+	}
+	
+	/**
+	 * Gets the PID of an elementary stream.
+	 *
+	 * @param index Index of the stream.
+	 * @return The PID.
+	 */
+	public int getElementaryPid(int index) {
+		return pid(buffer, streams[index] + 1);
+	}
+	
+	/**
+	 * Gets the position of the descriptors of an elementary stream.
+	 *
+	 * @param index Index of the stream.
+	 * @return Offset in the buffer.
+	 */
+	public int getStreamInfoOffset(int index) {
+		return streams[index] + 5;
+	}
+	
+	/**
+	 * Gets the length of the descriptors of an elementary stream.
+	 *
+	 * @param index Index of the stream.
+	 * @return Length in bytes.
+	 */
+	public int getStreamInfoLength(int index) {
+		return length12(buffer, streams[index] + 3);
+	}
+	
+}
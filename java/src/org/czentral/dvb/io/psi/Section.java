@@ -0,0 +1,223 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.psi;
+
+/**
+ * A view of a PSI/SI section. The section data is not copied or converted to
+ * objects, the accessors read the underlying buffer. A single view object can
+ * be moved over any number of sections by <code>wrap</code>.
+ *
+ * Subclasses give access to the fields of specific tables.
+ */
+public class Section {
+
+	/**
+	 * PID of the Program Association Table.
+	 */
+	public static final int PID_PAT = 0x0000;
+
+	/**
+	 * PID of the Network Information Table.
+	 */
+	public static final int PID_NIT = 0x0010;
+
+	/**
+	 * PID of the Service Description Table (and the Bouquet Association
+	 * Table).
+	 */
+	public static final int PID_SDT = 0x0011;
+
+	/**
+	 * PID of the Event Information Table.
+	 */
+	public static final int PID_EIT = 0x0012;
+
+	/**
+	 * table_id of the Program Association Table.
+	 */
+	public static final int TABLE_PAT = 0x00;
+
+	/**
+	 * table_id of the Program Map Table.
+	 */
+	public static final int TABLE_PMT = 0x02;
+
+	/**
+	 * table_id of the Network Information Table of the actual network.
+	 */
+	public static final int TABLE_NIT_ACTUAL = 0x40;
+
+	/**
+	 * table_id of the Network Information Table of other networks.
+	 */
+	public static final int TABLE_NIT_OTHER = 0x41;
+
+	/**
+	 * table_id of the Service Description Table of the actual transport
+	 * stream.
+	 */
+	public static final int TABLE_SDT_ACTUAL = 0x42;
+
+	/**
+	 * table_id of the Service Description Table of other transport streams.
+	 */
+	public static final int TABLE_SDT_OTHER = 0x46;
+
+	/**
+	 * Length of the long (syntax) section header.
+	 */
+	protected static final int HEADER_LENGTH = 8;
+
+	/**
+	 * Length of the CRC_32 at the end of the section.
+	 */
+	protected static final int CRC_LENGTH = 4;
+
+	protected byte[] buffer;
+
+	protected int offset;
+
+	protected int length;
+
+	/**
+	 * Moves the view to a section.
+	 *
+	 * @param buffer Buffer containing the section.
+	 * @param offset Offset of the table_id.
+	 * @param length Length of the whole section.
+	 * @return This object.
+	 */
+	public Section wrap(byte[] buffer, int offset, int length) {
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+		parse();
+		return this;
+	}
+
+	/**
+	 * Called when the view is moved to a new section. Subclasses index the
+	 * variable length loops here.
+	 */
+	protected void parse() {
+	}
+
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public int getTableId() {
+		return buffer[offset] & 0xff;
+	}
+
+	/**
+	 * Checks if the section has the long header (version, section number etc.)
+	 *
+	 * @return The section_syntax_indicator.
+	 */
+	public boolean isSectionSyntax() {
+		return (buffer[offset + 1] & 0x80) != 0;
+	}
+
+	public int getTableIdExtension() {
+		return uint16(buffer, offset + 3);
+	}
+
+	public int getVersionNumber() {
+		return (buffer[offset + 5] >> 1) & 0x1f;
+	}
+
+	/**
+	 * Gets the current_next_indicator.
+	 *
+	 * @return <code>True</code> if the section is currently applicable,
+	 * <code>false</code> if it is the next version.
+	 */
+	public boolean isCurrent() {
+		return (buffer[offset + 5] & 0x01) != 0;
+	}
+
+	public int getSectionNumber() {
+		return buffer[offset + 6] & 0xff;
+	}
+
+	public int getLastSectionNumber() {
+		return buffer[offset + 7] & 0xff;
+	}
+
+	/**
+	 * Gets the end of the data in the section (the position of the CRC).
+	 *
+	 * @return Offset in the buffer.
+	 */
+	protected int dataEnd() {
+		return offset + length - CRC_LENGTH;
+	}
+
+	/**
+	 * Reads a 16 bit big endian value.
+	 */
+	protected static int uint16(byte[] buffer, int offset) {
+		return ((buffer[offset] & 0xff) << 8) | (buffer[offset + 1] & 0xff);
+	}
+
+	/**
+	 * Reads a 13 bit PID.
+	 */
+	protected static int pid(byte[] buffer, int offset) {
+		return ((buffer[offset] & 0x1f) << 8) | (buffer[offset + 1] & 0xff);
+	}
+
+	/**
+	 * Reads a 12 bit length field.
+	 */
+	protected static int length12(byte[] buffer, int offset) {
+		return ((buffer[offset] & 0x0f) << 8) | (buffer[offset + 1] & 0xff);
+	}
+
+	/**
+	 * Finds a descriptor in a descriptor loop.
+	 *
+	 * @param buffer Buffer containing the descriptors.
+	 * @param offset Offset of the first descriptor.
+	 * @param length Length of the descriptor loop.
+	 * @param tag The descriptor_tag looked for.
+	 * @return Offset of the descriptor (its tag), or -1 if not found.
+	 */
+	public static int findDescriptor(byte[] buffer, int offset, int length, int tag) {
+		int p = offset;
+		int end = offset + length;
+		while (p + 2 <= end) {
+			int descriptorLength = buffer[p + 1] & 0xff;
+			if (p + 2 + descriptorLength > end)
+				break;
+			if ((buffer[p] & 0xff) == tag)
+				return p;
+			p += 2 + descriptorLength;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,493 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.psi;
+
+import org.czentral.dvb.io.ts.TSPacket;
+import java.util.Arrays;
+
+/**
+ * Reassembles PSI/SI sections from transport stream packets. Sections are
+ * collected incrementally as the packets arrive, the CRC is checked and the
+ * complete sections are passed to a <code>SectionHandler</code>.
+ *
+ * Sections of tables already received are recognized from their header (the
+ * first 8 bytes) and dropped without copying or CRC checking the rest: a
+ * section is delivered only if its table (table_id, table_id_extension and
+ * PID) has a new version_number, or the section_number was not seen before.
+ * The repeated PAT/PMT/SDT/NIT sections of a multiplex therefore cost next
+ * to nothing.
+ *
+ * Not thread-safe.
+ */
+public class SectionAssembler {
+
+	/**
+	 * Maximal length of a section (private sections, including the 3 byte
+	 * header).
+	 */
+	public static final int MAX_SECTION_LENGTH = 4096 + 3;
+
+	/**
+	 * Number of bytes needed to decide if the section is a known one.
+	 */
+	private static final int HEADER_LENGTH = 8;
+
+	/**
+	 * State of the PIDs assembled, indexed by PID.
+	 */
+	private PidState[] states = new PidState[TSPacket.NULL_PID + 1];
+
+	/**
+	 * Receiver of the sections.
+	 */
+	private SectionHandler handler;
+
+	/**
+	 * Drop the sections of tables already received.
+	 */
+	private boolean skipUnchanged = true;
+
+	/*
+	 * Tables seen (open addressing hash, key + 1, zero: empty slot). For every
+	 * table the version, the last_section_number and a bitmap of the section
+	 * numbers received is kept.
+	 */
+	private long[] tableKeys = new long[64];
+	private int[] tableVersions = new int[64];
+	private int[] tableLastSections = new int[64];
+	private long[] tableSections = new long[64 * 4];
+	private int tableCount;
+
+	private long sectionCount;
+	private long skippedCount;
+	private long crcErrorCount;
+	private long discontinuityCount;
+
+	/**
+	 * Creates an assembler.
+	 *
+	 * @param handler Receiver of the complete sections.
+	 */
+	public SectionAssembler(SectionHandler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Starts collecting sections on a PID.
+	 *
+	 * @param pid The PID (0 - 8190).
+	 */
+	public void addPid(int pid) {
+		if (states[pid] == null)
+			states[pid] = new PidState();
+	}
+
+	/**
+	 * Stops collecting sections on a PID.
+	 *
+	 * @param pid The PID.
+	 */
+	public void removePid(int pid) {
+		states[pid] = null;
+	}
+
+	/**
+	 * Sets if sections of already received table versions should be dropped.
+	 * (Default: <code>true</code>)
+	 *
+	 * @param skipUnchanged <code>False</code> to deliver every section.
+	 */
+	public void setSkipUnchanged(boolean skipUnchanged) {
+		this.skipUnchanged = skipUnchanged;
+	}
+
+	/**
+	 * Forgets all the table versions received (after retuning for example)
+	 * and drops the sections partially assembled.
+	 */
+	public void reset() {
+		Arrays.fill(tableKeys, 0);
+		tableCount = 0;
+		for (int i=0; i<states.length; i++)
+			if (states[i] != null)
+				states[i] = new PidState();
+	}
+
+	/**
+	 * Processes a packet. Packets of PIDs not added are ignored.
+	 *
+	 * @param packet The packet.
+	 */
+	public void feed(TSPacket packet) {
+		feed(packet.getBuffer(), packet.getOffset());
+	}
+
+	/**
+	 * Processes a raw packet. Packets of PIDs not added are ignored.
+	 *
+	 * @param buffer Buffer containing the packet.
+	 * @param offset Offset of the sync byte.
+	 */
+	public void feed(byte[] buffer, int offset) {
+		int pid = TSPacket.getPid(buffer, offset);
+		PidState state = states[pid];
+		if (state == null)
+			return;
+
+		// broken packet
+		if ((buffer[offset + 1] & 0x80) != 0) {
+			state.drop();
+			return;
+		}
+
+		int flags = buffer[offset + 3];
+		if ((flags & 0x10) == 0)
+			return;
+
+		// continuity: duplicates are ignored, after a gap the section
+		// collected so far is useless
+		int cc = flags & 0x0f;
+		if (state.continuityCounter >= 0) {
+			if (cc == state.continuityCounter)
+				return;
+			if (cc != ((state.continuityCounter + 1) & 0x0f) && state.collecting) {
+				discontinuityCount++;
+				state.drop();
+			}
+		}
+		state.continuityCounter = cc;
+
+		int p = offset + 4;
+		if ((flags & 0x20) != 0)
+			p += 1 + (buffer[offset + 4] & 0xff);
+		int end = offset + TSPacket.SIZE;
+		if (p >= end)
+			return;
+
+		if ((buffer[offset + 1] & 0x40) != 0) {
+
+			// the bytes before the pointer end the section in progress
+			int pointer = buffer[p++] & 0xff;
+			if (state.collecting)
+				consume(pid, state, buffer, p, Math.min(end, p + pointer));
+			state.drop();
+			p += pointer;
+
+			// new sections (until stuffing)
+			while (p < end && (buffer[p] & 0xff) != 0xff) {
+				state.collecting = true;
+				p = consume(pid, state, buffer, p, end);
+				if (state.collecting)
+					break;
+			}
+
+		} else if (state.collecting) {
+			consume(pid, state, buffer, p, end);
+		}
+	}
+
+	/**
+	 * Adds bytes to the section in progress.
+	 *
+	 * @return Position after the bytes used.
+	 */
+	private int consume(int pid, PidState state, byte[] buffer, int p, int end) {
+
+		// header: always copied
+		while (p < end && (state.total < 0 || !state.decided)) {
+			state.data[state.length++] = buffer[p++];
+
+			if (state.length == 3) {
+				state.total = 3 + (((state.data[1] & 0x0f) << 8) | (state.data[2] & 0xff));
+				if (state.total > MAX_SECTION_LENGTH) {
+					state.drop();
+					return end;
+				}
+			}
+
+			if (state.total >= 0 && state.length >= Math.min(HEADER_LENGTH, state.total)) {
+				state.decided = true;
+				state.skip = isKnown(pid, state.data, state.total);
+			}
+		}
+
+		// body: copied only if needed
+		int count = Math.min(end - p, state.total - state.length);
+		if (count > 0) {
+			if (!state.skip)
+				System.arraycopy(buffer, p, state.data, state.length, count);
+			state.length += count;
+			p += count;
+		}
+
+		if (state.total >= 0 && state.length == state.total) {
+			complete(pid, state);
+			state.drop();
+		}
+
+		return p;
+	}
+
+	/**
+	 * Delivers a complete section.
+	 */
+	private void complete(int pid, PidState state) {
+		if (state.skip) {
+			skippedCount++;
+			return;
+		}
+
+		byte[] data = state.data;
+		int length = state.total;
+
+		// sections with the long header have a CRC (and TOT too)
+		boolean longHeader = (data[1] & 0x80) != 0;
+		if (longHeader || (data[0] & 0xff) == 0x73) {
+			if (length < 4 || !Crc32.check(data, 0, length)) {
+				crcErrorCount++;
+				return;
+			}
+		}
+
+		if (longHeader && length >= HEADER_LENGTH)
+			markReceived(pid, data);
+
+		sectionCount++;
+		handler.section(pid, data, 0, length);
+	}
+
+	/**
+	 * Checks if a section was already received (same table, version and
+	 * section number).
+	 */
+	private boolean isKnown(int pid, byte[] header, int length) {
+		if (!skipUnchanged || length < HEADER_LENGTH || (header[1] & 0x80) == 0 || (header[5] & 0x01) == 0)
+			return false;
+
+		int slot = findTable(key(pid, header), false);
+		if (slot < 0)
+			return false;
+
+		int version = (header[5] >> 1) & 0x1f;
+		int section = header[6] & 0xff;
+		return tableVersions[slot] == version && (tableSections[slot * 4 + (section >> 6)] & (1L << section)) != 0;
+	}
+
+	/**
+	 * Registers a received section.
+	 */
+	private void markReceived(int pid, byte[] header) {
+		if ((header[5] & 0x01) == 0)
+			return;
+
+		int slot = findTable(key(pid, header), true);
+		int version = (header[5] >> 1) & 0x1f;
+		int section = header[6] & 0xff;
+
+		if (tableVersions[slot] != version) {
+			tableVersions[slot] = version;
+			for (int i=0; i<4; i++)
+				tableSections[slot * 4 + i] = 0;
+		}
+		tableLastSections[slot] = header[7] & 0xff;
+		tableSections[slot * 4 + (section >> 6)] |= 1L << section;
+	}
+
+	/**
+	 * Checks if all the sections of the current version of a table are
+	 * received.
+	 *
+	 * @param pid PID carrying the table.
+	 * @param tableId The table_id.
+	 * @param tableIdExtension The table_id_extension (transport_stream_id,
+	 * program_number, service_id etc. depending on the table).
+	 * @return <code>True</code> if the table is complete.
+	 */
+	public boolean isComplete(int pid, int tableId, int tableIdExtension) {
+		int slot = findTable(key(pid, tableId, tableIdExtension), false);
+		if (slot < 0)
+			return false;
+
+		for (int s=0; s<=tableLastSections[slot]; s++)
+			if ((tableSections[slot * 4 + (s >> 6)] & (1L << s)) == 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Gets the version of a table received.
+	 *
+	 * @param pid PID carrying the table.
+	 * @param tableId The table_id.
+	 * @param tableIdExtension The table_id_extension.
+	 * @return The version_number, or -1 if no section of the table was
+	 * received yet.
+	 */
+	public int getVersion(int pid, int tableId, int tableIdExtension) {
+		int slot = findTable(key(pid, tableId, tableIdExtension), false);
+		return slot < 0 ? -1 : tableVersions[slot];
+	}
+
+	private static long key(int pid, byte[] header) {
+		return key(pid, header[0] & 0xff, ((header[3] & 0xff) << 8) | (header[4] & 0xff));
+	}
+
+	private static long key(int pid, int tableId, int tableIdExtension) {
+		return ((long)pid << 24) | (tableId << 16) | tableIdExtension;
+	}
+
+	/**
+	 * Finds the slot of a table in the hash.
+	 *
+	 * @return The slot, or -1 if not found and <code>create</code> is false.
+	 */
+	private int findTable(long key, boolean create) {
+		int mask = tableKeys.length - 1;
+		int slot = (int)((key * 0x9e3779b97f4a7c15L) >>> 40) & mask;
+		while (tableKeys[slot] != 0) {
+			if (tableKeys[slot] == key + 1)
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+
+		if (!create)
+			return -1;
+
+		// keeping the load under 50%
+		if ((tableCount + 1) * 2 > tableKeys.length) {
+			grow();
+			return findTable(key, true);
+		}
+
+		tableKeys[slot] = key + 1;
+		tableVersions[slot] = -1;
+		tableLastSections[slot] = 0;
+		for (int i=0; i<4; i++)
+			tableSections[slot * 4 + i] = 0;
+		tableCount++;
+		return slot;
+	}
+
+	private void grow() {
+		long[] keys = tableKeys;
+		int[] versions = tableVersions;
+		int[] lastSections = tableLastSections;
+		long[] sections = tableSections;
+
+		int capacity = keys.length * 2;
+		tableKeys = new long[capacity];
+		tableVersions = new int[capacity];
+		tableLastSections = new int[capacity];
+		tableSections = new long[capacity * 4];
+		tableCount = 0;
+
+		for (int i=0; i<keys.length; i++) {
+			if (keys[i] == 0)
+				continue;
+			int slot = findTable(keys[i] - 1, true);
+			tableVersions[slot] = versions[i];
+			tableLastSections[slot] = lastSections[i];
+			System.arraycopy(sections, i * 4, tableSections, slot * 4, 4);
+		}
+	}
+
+	/**
+	 * Gets the number of sections delivered.
+	 *
+	 * @return Number of sections.
+	 */
+	public long getSectionCount() {
+		return sectionCount;
+	}
+
+	/**
+	 * Gets the number of sections dropped because they were received before.
+	 *
+	 * @return Number of sections.
+	 */
+	public long getSkippedCount() {
+		return skippedCount;
+	}
+
+	/**
+	 * Gets the number of sections dropped because of CRC mismatch.
+	 *
+	 * @return Number of sections.
+	 */
+	public long getCrcErrorCount() {
+		return crcErrorCount;
+	}
+
+	/**
+	 * Gets the number of sections dropped because of missing packets.
+	 *
+	 * @return Number of sections.
+	 */
+	public long getDiscontinuityCount() {
+		return discontinuityCount;
+	}
+
+	/**
+	 * Assembly state of a single PID.
+	 */
+	private static class PidState {
+
+		/**
+		 * Section data (only the header if the section is skipped).
+		 */
+		byte[] data = new byte[MAX_SECTION_LENGTH];
+
+		/**
+		 * Bytes of the section processed.
+		 */
+		int length;
+
+		/**
+		 * Total length of the section, -1 if not known yet.
+		 */
+		int total = -1;
+
+		/**
+		 * A section is in progress.
+		 */
+		boolean collecting;
+
+		/**
+		 * The header is processed, <code>skip</code> is valid.
+		 */
+		boolean decided;
+
+		/**
+		 * The section is known, the body is not copied.
+		 */
+		boolean skip;
+
+		/**
+		 * Last continuity counter, -1: none yet.
+		 */
+		int continuityCounter = -1;
+
+		void drop() {
+			length = 0;
+			total = -1;
+			collecting = false;
+			decided = false;
+			skip = false;
+		}
+	}
+}
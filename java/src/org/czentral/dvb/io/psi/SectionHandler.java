@@ -0,0 +1,36 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.psi;
+
+/**
+ * Receives the complete sections assembled by a <code>SectionAssembler</code>.
+ */
+public interface SectionHandler {
+	
+	/**
+	 * Called for every complete (and intact) section. The buffer is reused
+	 * when the method returns, the data must be copied to be kept.
+	 *
+	 * @param pid PID the section was carried on.
+	 * @param buffer Buffer holding the section.
+	 * @param offset Offset of the table_id.
+	 * @param length Length of the section including the header and the CRC.
+	 */
+	public void section(int pid, byte[] buffer, int offset, int length);
+	
+}
@@ -0,0 +1,164 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.psi;
+
+/**
+ * View of a Service Description Table section (table_id 0x42 for the actual,
+ * 0x46 for other transport streams).
+ *
+ * The name accessors decode text and create <code>String</code> objects,
+ * all the other accessors read the section directly.
+ */
+public class ServiceDescriptionSection extends Section {
+	
+	/**
+	 * Tag of the service_descriptor.
+	 */
+	public static final int SERVICE_DESCRIPTOR = 0x48;
+	
+	/**
+	 * Offsets of the service entries (reused between sections).
+	 */
+	private int[] services = new int[32];
+	
+	private int serviceCount;
+	
+	protected void parse() {
+		serviceCount = 0;
+		int p = offset + HEADER_LENGTH + 3;
+		int end = dataEnd();
+		while (p + 5 <= end) {
+			if (serviceCount == services.length) {
+				int[] grown = new int[services.length * 2];
+				System.arraycopy(services, 0, grown, 0, services.length);
+				services = grown;
+			}
+			services[serviceCount++] = p;
+			p += 5 + length12(buffer, p + 3);
+		}
+	}
+	
+	/**
+	 * Gets the transport_stream_id described.
+	 *
+	 * @return The transport_stream_id.
+	 */
+	public int getTransportStreamId() {
+		return getTableIdExtension();
+	}
+	
+	public int getOriginalNetworkId() {
+		return uint16(buffer, offset + HEADER_LENGTH);
+	}
+	
+	/**
+	 * Gets the number of services in this section.
+	 *
+	 * @return Number of services.
+	 */
+	public int getServiceCount() {
+		return serviceCount;
+	}
+	
+	/**
+	 * Gets the service_id (the program_number in the PAT/PMT).
+	 *
+	 * @param index Index of the service.
+	 * @return The service_id.
+	 */
+	public int getServiceId(int index) {
+		return uint16(buffer, services[index]);
+	}
+	
+	public boolean isEitSchedule(int index) {
+		return (buffer[services[index] + 2] & 0x02) != 0;
+	}
+	
+	public boolean isEitPresentFollowing(int index) {
+		return (buffer[services[index] + 2] & 0x01) != 0;
+	}
+	
+	/**
+	 * Gets the running_status of a service.
+	 *
+	 * @param index Index of the service.
+	 * @return The running_status (4: running).
+	 */
+	public int getRunningStatus(int index) {
+		return (buffer[services[index] + 3] >> 5) & 0x07;
+	}
+	
+	/**
+	 * Gets the free_CA_mode flag.
+	 *
+	 * @param index Index of the service.
+	 * @return <code>True</code> if some components are scrambled.
+	 */
+	public boolean isScrambled(int index) {
+		return (buffer[services[index] + 3] & 0x10) != 0;
+	}
+	
+	public int getDescriptorsOffset(int index) {
+		return services[index] + 5;
+	}
+	
+	public int getDescriptorsLength(int index) {
+		return length12(buffer, services[index] + 3);
+	}
+	
+	/**
+	 * Gets the service_type from the service descriptor.
+	 *
+	 * @param index Index of the service.
+	 * @return The service_type (0x01: TV, 0x02: radio etc.), or -1 if there is
+	 * no service descriptor.
+	 */
+	public int getServiceType(int index) {
+		int p = findDescriptor(buffer, getDescriptorsOffset(index), getDescriptorsLength(index), SERVICE_DESCRIPTOR);
+		return p < 0 ? -1 : buffer[p + 2] & 0xff;
+	}
+	
+	/**
+	 * Gets the service provider's name from the service descriptor.
+	 *
+	 * @param index Index of the service.
+	 * @return The name, or <code>null</code> if there is no service descriptor.
+	 */
+	public String getProviderName(int index) {
+		int p = findDescriptor(buffer, getDescriptorsOffset(index), getDescriptorsLength(index), SERVICE_DESCRIPTOR);
+		if (p < 0)
+			return null;
+		int providerLength = buffer[p + 3] & 0xff;
+		return DVBText.decode(buffer, p + 4, providerLength);
+	}
+	
+	/**
+	 * Gets the service's name from the service descriptor.
+	 *
+	 * @param index Index of the service.
+	 * @return The name, or <code>null</code> if there is no service descriptor.
+	 */
+	public String getServiceName(int index) {
+		int p = findDescriptor(buffer, getDescriptorsOffset(index), getDescriptorsLength(index), SERVICE_DESCRIPTOR);
+		if (p < 0)
+			return null;
+		int namePosition = p + 4 + (buffer[p + 3] & 0xff);
+		return DVBText.decode(buffer, namePosition + 1, buffer[namePosition] & 0xff);
+	}
+	
+}
@@ -0,0 +1,419 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.record;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.czentral.dvb.io.ts.PacketSink;
+import org.czentral.dvb.io.ts.TSPacket;
+import org.czentral.dvb.io.ts.TransportStreamReader;
+
+/**
+ * Records a transport stream to files. Packets are gathered into large
+ * blocks, which are written by a dedicated thread with a single
+ * <code>FileChannel.write</code> each, so the thread reading the stream
+ * never waits for the disk.
+ *
+ * The blocks are a multiple of both the packet size and 4 KB (1024 packets
+ * being the smallest such size), so the writes are aligned to the pages of
+ * the file and every file contains whole packets. If the disk is so slow
+ * that all the blocks are waiting to be written, the packets are dropped and
+ * counted instead of stalling the reader.
+ *
+ * The files are named <i>prefix</i>-<i>NNNNN</i>.ts and are rolled over
+ * by size and/or by time.
+ *
+ * <code>write</code> must be called by a single thread.
+ */
+public class StreamRecorder implements PacketSink {
+
+	/**
+	 * Sync policy: leave the data to the operating system.
+	 */
+	public static final int SYNC_NONE = 0;
+
+	/**
+	 * Sync policy: force the data to the disk when a file is finished.
+	 */
+	public static final int SYNC_ON_ROLLOVER = 1;
+
+	/**
+	 * Sync policy: force the data to the disk after every block.
+	 */
+	public static final int SYNC_EVERY_BLOCK = 2;
+
+	/**
+	 * Smallest block size: the least common multiple of the packet size
+	 * and 4 KB.
+	 */
+	public static final int BLOCK_UNIT = 1024 * TSPacket.SIZE;
+
+	/**
+	 * Default block size (about 1.5 MB).
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 8 * BLOCK_UNIT;
+
+	/**
+	 * Default number of blocks.
+	 */
+	public static final int DEFAULT_BLOCK_COUNT = 4;
+
+	private final File directory;
+
+	private final String prefix;
+
+	private final int blockSize;
+
+	/**
+	 * Blocks ready to be filled.
+	 */
+	private final BlockingQueue<ByteBuffer> free;
+
+	/**
+	 * Blocks waiting to be written. A block with no data remaining ends the
+	 * writer.
+	 */
+	private final BlockingQueue<ByteBuffer> filled;
+
+	/**
+	 * Block being filled.
+	 */
+	private ByteBuffer current;
+
+	private int syncPolicy = SYNC_NONE;
+
+	private long rolloverSize;
+
+	private long rolloverTime;
+
+	private final Thread writer;
+
+	private boolean started;
+
+	/**
+	 * First error of the writer thread, thrown by the next write.
+	 */
+	private volatile IOException failure;
+
+	private boolean closed;
+
+	/**
+	 * Fields used by the writer thread.
+	 */
+	private FileOutputStream out;
+
+	private FileChannel channel;
+
+	private volatile File currentFile;
+
+	private long fileBytes;
+
+	private long fileStarted;
+
+	private int fileNumber;
+
+	private volatile long writtenBytes;
+
+	private volatile long droppedPackets;
+
+	/**
+	 * Creates a recorder with the default blocks.
+	 *
+	 * @param directory Directory of the files.
+	 * @param prefix Beginning of the file names.
+	 */
+	public StreamRecorder(File directory, String prefix) {
+		this(directory, prefix, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCK_COUNT);
+	}
+
+	/**
+	 * Creates a recorder.
+	 *
+	 * @param directory Directory of the files.
+	 * @param prefix Beginning of the file names.
+	 * @param blockSize Size of a block in bytes, rounded up to a multiple of
+	 * <code>BLOCK_UNIT</code>.
+	 * @param blockCount Number of blocks (at least 2: one filled while the
+	 * other is written).
+	 */
+	public StreamRecorder(File directory, String prefix, int blockSize, int blockCount) {
+		if (blockCount < 2)
+			throw new IllegalArgumentException("At least two blocks needed: " + blockCount);
+		if (blockSize <= 0)
+			throw new IllegalArgumentException("Invalid block size: " + blockSize);
+
+		this.directory = directory;
+		this.prefix = prefix;
+		this.blockSize = (blockSize + BLOCK_UNIT - 1) / BLOCK_UNIT * BLOCK_UNIT;
+
+		free = new ArrayBlockingQueue<ByteBuffer>(blockCount);
+		filled = new ArrayBlockingQueue<ByteBuffer>(blockCount + 1);
+		for (int i=0; i<blockCount; i++)
+			free.add(ByteBuffer.allocateDirect(this.blockSize));
+
+		writer = new Writer();
+		writer.setDaemon(true);
+	}
+
+	/**
+	 * Sets when the data is forced to the disk. Must be called before the
+	 * first packet.
+	 *
+	 * @param policy <code>SYNC_NONE</code> (the default),
+	 * <code>SYNC_ON_ROLLOVER</code> or <code>SYNC_EVERY_BLOCK</code>.
+	 */
+	public void setSyncPolicy(int policy) {
+		if (policy < SYNC_NONE || policy > SYNC_EVERY_BLOCK)
+			throw new IllegalArgumentException("Invalid sync policy: " + policy);
+		this.syncPolicy = policy;
+	}
+
+	/**
+	 * Sets the size after which a new file is started. Must be called before
+	 * the first packet.
+	 *
+	 * @param bytes Maximal file size, zero for no limit. A new file is started
+	 * before a block would go past it, so files never exceed it (unless it is
+	 * smaller than a block, then every block gets a file of its own).
+	 */
+	public void setRolloverSize(long bytes) {
+		this.rolloverSize = bytes;
+	}
+
+	/**
+	 * Sets the time after which a new file is started (checked at every
+	 * block). Must be called before the first packet.
+	 *
+	 * @param millis Maximal time span of a file, zero for no limit.
+	 */
+	public void setRolloverTime(long millis) {
+		this.rolloverTime = millis;
+	}
+
+	/**
+	 * Adds a packet to the recording.
+	 *
+	 * @param packet The packet.
+	 * @throws IOException If writing the files failed, or the recorder is
+	 * closed.
+	 */
+	public void write(TSPacket packet) throws IOException {
+		if (closed)
+			throw new IOException("Recorder closed.");
+		if (failure != null)
+			throw failure;
+
+		if (current == null) {
+			if (!started) {
+				started = true;
+				writer.start();
+			}
+			current = free.poll();
+			if (current == null) {
+				droppedPackets++;
+				return;
+			}
+		}
+
+		current.put(packet.getBuffer(), packet.getOffset(), TSPacket.SIZE);
+		if (!current.hasRemaining()) {
+			current.flip();
+			filled.add(current);
+			current = null;
+		}
+	}
+
+	/**
+	 * Records a stream until its end or until the recorder is closed.
+	 *
+	 * @param in The source of the transport stream.
+	 * @return Number of packets red.
+	 * @throws IOException If reading the stream or writing the files fails.
+	 */
+	public long record(InputStream in) throws IOException {
+		return new TransportStreamReader(in).transferTo(this);
+	}
+
+	/**
+	 * Writes the data gathered, waits for the writer thread and closes the
+	 * file.
+	 *
+	 * @throws IOException If writing the files failed.
+	 */
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+
+		if (current != null && current.position() > 0) {
+			current.flip();
+			filled.add(current);
+		}
+		current = null;
+
+		if (started) {
+			filled.add(ByteBuffer.allocate(0));
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while closing the recorder.");
+			}
+		}
+
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Gets the file being written.
+	 *
+	 * @return The file, <code>null</code> before the first block.
+	 */
+	public File getCurrentFile() {
+		return currentFile;
+	}
+
+	/**
+	 * Gets the number of bytes written to the files.
+	 *
+	 * @return Byte count.
+	 */
+	public long getWrittenBytes() {
+		return writtenBytes;
+	}
+
+	/**
+	 * Gets the number of packets dropped because all the blocks were
+	 * waiting for the disk.
+	 *
+	 * @return Packet count.
+	 */
+	public long getDroppedPackets() {
+		return droppedPackets;
+	}
+
+	/**
+	 * Gets the number of blocks waiting to be written.
+	 *
+	 * @return Block count.
+	 */
+	public int getPendingBlocks() {
+		return filled.size();
+	}
+
+	private File nextFile() {
+		return new File(directory, String.format("%s-%05d.ts", prefix, fileNumber++));
+	}
+
+	/**
+	 * Opens the next file, finishing the current one.
+	 */
+	private void rollover() throws IOException {
+		finishFile();
+		File file = nextFile();
+		out = new FileOutputStream(file);
+		channel = out.getChannel();
+		currentFile = file;
+		fileBytes = 0;
+		fileStarted = System.currentTimeMillis();
+	}
+
+	private void finishFile() throws IOException {
+		if (channel == null)
+			return;
+		try {
+			if (syncPolicy != SYNC_NONE)
+				channel.force(false);
+		} finally {
+			out.close();
+			out = null;
+			channel = null;
+		}
+	}
+
+	/**
+	 * Writes a block to the current file, rolling over if due.
+	 */
+	private void writeBlock(ByteBuffer block) throws IOException {
+		boolean due = channel == null
+				|| (rolloverSize > 0 && fileBytes + block.remaining() > rolloverSize && fileBytes > 0)
+				|| (rolloverTime > 0 && System.currentTimeMillis() - fileStarted >= rolloverTime);
+		if (due)
+			rollover();
+
+		int length = block.remaining();
+		while (block.hasRemaining())
+			channel.write(block);
+		fileBytes += length;
+		writtenBytes += length;
+
+		if (syncPolicy == SYNC_EVERY_BLOCK)
+			channel.force(false);
+	}
+
+	/**
+	 * Writes the filled blocks and returns them to the free queue.
+	 */
+	class Writer extends Thread {
+
+		Writer() {
+			super("StreamRecorder writer " + prefix);
+		}
+
+		public void run() {
+			try {
+				while (true) {
+					ByteBuffer block = filled.take();
+					if (!block.hasRemaining())
+						break;
+					if (failure == null) {
+						try {
+							writeBlock(block);
+						} catch (IOException e) {
+							failure = e;
+						}
+					}
+					block.clear();
+					free.add(block);
+				}
+			} catch (InterruptedException e) {
+				failure = new InterruptedIOException("Recorder writer interrupted.");
+			} finally {
+				try {
+					finishFile();
+				} catch (IOException e) {
+					if (failure == null)
+						failure = e;
+				}
+			}
+		}
+	}
+
+	public String toString() {
+		return "StreamRecorder(file: " + currentFile + ", written: " + writtenBytes + ", dropped: " + droppedPackets + ")";
+	}
+
+}
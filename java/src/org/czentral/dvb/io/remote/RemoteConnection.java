@@ -0,0 +1,407 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The connection of a <code>RemoteDeviceRegistry</code> to a
+ * <code>TunerServer</code>, shared by all the streams opened on the server.
+ * The frames received are dispatched by a thread of the connection: the data
+ * to the buffers of the streams, the replies to the threads waiting for
+ * them.
+ */
+class RemoteConnection implements Runnable {
+
+	/**
+	 * Time given to the server to accept the connection, in milliseconds.
+	 */
+	private static final int CONNECT_TIMEOUT = 5000;
+
+	/**
+	 * Time given to the server to reply, in milliseconds. Opening a stream
+	 * tunes the device.
+	 */
+	private static final long REPLY_TIMEOUT = 30000;
+
+	/**
+	 * Size of the buffer the frames are received to.
+	 */
+	private static final int RECEIVE_BUFFER_SIZE = 65536;
+
+	/**
+	 * The registry notified when the connection is lost.
+	 */
+	private final RemoteDeviceRegistry registry;
+
+	private final Socket socket;
+
+	private final DataInputStream in;
+
+	private final DataOutputStream out;
+
+	/**
+	 * The open streams by their numbers.
+	 */
+	private final ConcurrentHashMap<Integer, RemoteInputStream> streams = new ConcurrentHashMap<Integer, RemoteInputStream>();
+
+	/**
+	 * Requests waiting for replies by the numbers of their streams, a single
+	 * one per stream.
+	 */
+	private final ConcurrentHashMap<Integer, Call> calls = new ConcurrentHashMap<Integer, Call>();
+
+	/**
+	 * Number of the last stream opened.
+	 */
+	private final AtomicInteger lastStream = new AtomicInteger();
+
+	/**
+	 * Reason the connection is not usable anymore, <code>null</code> while
+	 * it is.
+	 */
+	private volatile IOException failure;
+
+	/**
+	 * Connects to a server.
+	 *
+	 * @param registry The registry using the connection.
+	 * @throws IOException If the server can not be reached, or it does not
+	 * speak the protocol.
+	 */
+	RemoteConnection(RemoteDeviceRegistry registry) throws IOException {
+		this.registry = registry;
+		RemoteContext context = registry.getContext();
+		socket = new Socket();
+		try {
+			socket.setTcpNoDelay(true);
+			socket.connect(new InetSocketAddress(context.getHost(), context.getPort()), CONNECT_TIMEOUT);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), RECEIVE_BUFFER_SIZE));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+
+		Thread reader = new Thread(this, "RemoteDeviceRegistry " + context.getName());
+		reader.setDaemon(true);
+		reader.start();
+
+		try {
+			call(RemoteProtocol.HELLO, 0, RemoteProtocol.toPayload(RemoteProtocol.VERSION));
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Checks if the connection is usable.
+	 *
+	 * @return <code>False</code> if the connection is closed or lost.
+	 */
+	boolean isOpen() {
+		return failure == null;
+	}
+
+	/**
+	 * Gets a number for a new stream.
+	 */
+	int nextStream() {
+		return lastStream.incrementAndGet();
+	}
+
+	/**
+	 * Makes the data of a stream delivered to it.
+	 */
+	void register(int id, RemoteInputStream stream) throws IOException {
+		streams.put(Integer.valueOf(id), stream);
+		IOException lost = failure;
+		if (lost != null) {
+			streams.remove(Integer.valueOf(id));
+			throw new IOException(lost.getMessage());
+		}
+	}
+
+	/**
+	 * Stops delivering the data of a stream.
+	 */
+	void unregister(int id) {
+		streams.remove(Integer.valueOf(id));
+	}
+
+	/**
+	 * Sends a message.
+	 */
+	synchronized void send(int type, int id, byte[] payload) throws IOException {
+		IOException lost = failure;
+		if (lost != null)
+			throw new IOException(lost.getMessage());
+
+		out.writeByte(type);
+		out.writeInt(id);
+		out.writeInt(payload.length);
+		out.write(payload);
+		out.flush();
+	}
+
+	/**
+	 * Sends a request and waits for the reply. The replies are matched by
+	 * the stream number, so the requests of a stream are sent one at a time:
+	 * a request waits for the reply to the previous one of its stream (even
+	 * if the thread sending that one gave up waiting).
+	 *
+	 * A request left without a reply closes the connection, a late reply
+	 * would be taken for the reply of the next request.
+	 *
+	 * @return The payload of the reply.
+	 * @throws IOException If the request failed, or no reply arrived.
+	 * @throws UnsupportedOperationException If the request is not supported
+	 * by the device of the server.
+	 */
+	DataInputStream call(int type, int id, byte[] payload) throws IOException {
+		Integer key = Integer.valueOf(id);
+		Call call = new Call();
+		Call previous;
+		while ((previous = calls.putIfAbsent(key, call)) != null) {
+			await(previous);
+			calls.remove(key, previous);
+		}
+
+		try {
+			call.start();
+			send(type, id, payload);
+		} catch (IOException e) {
+			calls.remove(key, call);
+			call.complete(null, e);
+			throw e;
+		}
+		await(call);
+		return call.getReply();
+	}
+
+	/**
+	 * Waits until a request is answered, the connection is closed if the
+	 * server does not reply in time.
+	 */
+	private void await(Call call) throws IOException {
+		try {
+			call.await();
+		} catch (ReplyTimeoutException e) {
+			fail(new IOException("Connection to " + registry.getContext().getName() + " lost: " + e.getMessage()));
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes the connection, the open streams fail.
+	 */
+	void close() {
+		fail(new IOException("Connection to " + registry.getContext().getName() + " closed."));
+	}
+
+	/**
+	 * Receives the frames.
+	 */
+	public void run() {
+		try {
+			while (true) {
+				int type = in.readUnsignedByte();
+				int id = in.readInt();
+				int length = in.readInt();
+				if (length < 0)
+					throw new IOException("Invalid message length: " + length);
+
+				if (type == RemoteProtocol.DATA) {
+					RemoteInputStream stream = streams.get(Integer.valueOf(id));
+					if (stream != null)
+						stream.receive(in, length);
+					else
+						skip(length);
+					continue;
+				}
+
+				if (length > RemoteProtocol.MAX_CONTROL_SIZE)
+					throw new IOException("Invalid message length: " + length);
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+
+				if (type == RemoteProtocol.END) {
+					RemoteInputStream stream = streams.remove(Integer.valueOf(id));
+					if (stream != null)
+						stream.end(length > 0 ? toException(payload) : null);
+				} else if (type == RemoteProtocol.OK || type == RemoteProtocol.ERROR) {
+					Call call = calls.remove(Integer.valueOf(id));
+					if (call != null)
+						call.complete(type == RemoteProtocol.OK ? payload : null, type == RemoteProtocol.ERROR ? toException(payload) : null);
+				} else {
+					throw new IOException("Unknown message type: " + type);
+				}
+			}
+		} catch (EOFException e) {
+			fail(new IOException("Connection to " + registry.getContext().getName() + " closed by the server."));
+		} catch (IOException e) {
+			fail(new IOException("Connection to " + registry.getContext().getName() + " lost: " + e.getMessage()));
+		}
+	}
+
+	/**
+	 * Skips the data of a stream closed.
+	 */
+	private void skip(int length) throws IOException {
+		while (length > 0) {
+			int skipped = in.skipBytes(length);
+			if (skipped <= 0) {
+				in.readByte();
+				skipped = 1;
+			}
+			length -= skipped;
+		}
+	}
+
+	/**
+	 * Makes the connection unusable: the streams and the requests waiting
+	 * fail, the registry forgets the devices.
+	 */
+	private void fail(IOException e) {
+		synchronized (this) {
+			if (failure != null)
+				return;
+			failure = e;
+		}
+
+		try {
+			socket.close();
+		} catch (IOException ignored) {
+		}
+		for (Call call : calls.values())
+			call.complete(null, e);
+		for (Integer id : streams.keySet()) {
+			RemoteInputStream stream = streams.remove(id);
+			if (stream != null)
+				stream.end(new IOException(e.getMessage()));
+		}
+		registry.connectionLost(this);
+	}
+
+	/**
+	 * Decodes the payload of <code>ERROR</code>.
+	 */
+	private static Exception toException(byte[] payload) {
+		try {
+			DataInputStream error = new DataInputStream(new ByteArrayInputStream(payload));
+			int kind = error.readByte();
+			String message = error.readUTF();
+			if (kind == RemoteProtocol.ERROR_UNSUPPORTED)
+				return new UnsupportedOperationException(message);
+			return new IOException(message);
+		} catch (IOException e) {
+			return new IOException("Invalid error message.");
+		}
+	}
+
+	/**
+	 * A request waiting for its reply.
+	 */
+	static class Call {
+
+		private byte[] reply;
+
+		private Exception failure;
+
+		private boolean completed;
+
+		/**
+		 * Time the reply is due, zero until the request is sent.
+		 */
+		private long deadline;
+
+		synchronized void start() {
+			deadline = System.currentTimeMillis() + REPLY_TIMEOUT;
+		}
+
+		synchronized void complete(byte[] reply, Exception failure) {
+			if (!completed) {
+				this.reply = reply;
+				this.failure = failure;
+				completed = true;
+				notifyAll();
+			}
+		}
+
+		/**
+		 * Waits for the reply (or the failure of the connection).
+		 *
+		 * @throws ReplyTimeoutException If the reply is late.
+		 * @throws InterruptedIOException If the thread is interrupted, the
+		 * request stays waiting for its reply.
+		 */
+		synchronized void await() throws IOException {
+			try {
+				while (!completed) {
+					if (deadline == 0) {
+						wait();
+						continue;
+					}
+					long left = deadline - System.currentTimeMillis();
+					if (left <= 0)
+						throw new ReplyTimeoutException();
+					wait(left);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the server.");
+			}
+		}
+
+		/**
+		 * Gets the reply of a completed request.
+		 */
+		synchronized DataInputStream getReply() throws IOException {
+			if (failure instanceof RuntimeException)
+				throw (RuntimeException)failure;
+			if (failure != null)
+				throw (IOException)failure;
+			return new DataInputStream(new ByteArrayInputStream(reply));
+		}
+	}
+
+	/**
+	 * No reply arrived in time.
+	 */
+	static class ReplyTimeoutException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		ReplyTimeoutException() {
+			super("No reply from the server.");
+		}
+	}
+
+}
@@ -0,0 +1,65 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.remote;
+
+import org.czentral.dvb.io.DeviceContext;
+
+/**
+ * Context of the devices of a <code>TunerServer</code>.
+ */
+public final class RemoteContext implements DeviceContext {
+
+	private final String host;
+
+	private final int port;
+
+	RemoteContext(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 * Gets the host of the server.
+	 *
+	 * @return Name or address of the host.
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * Gets the port of the server.
+	 *
+	 * @return The TCP port.
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * The host and the port of the server.
+	 */
+	public String getName() {
+		return host + ":" + port;
+	}
+
+	public String toString() {
+		return getName();
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.remote;
+
+import java.io.IOException;
+
+import org.czentral.dvb.io.DVBDevice;
+import org.czentral.dvb.io.DVBInputStream;
+import org.czentral.dvb.io.DeviceCapabilities;
+import org.czentral.dvb.io.DeviceContext;
+import org.czentral.dvb.io.StreamLocator;
+
+/**
+ * A device of a <code>TunerServer</code>, listed by a
+ * <code>RemoteDeviceRegistry</code>. The name and the capabilities are the
+ * ones of the device on the server, the path includes the server.
+ */
+public class RemoteDevice implements DVBDevice {
+
+	/**
+	 * The registry of the server.
+	 */
+	private final RemoteDeviceRegistry registry;
+
+	/**
+	 * User-friendly name of the device.
+	 */
+	private final String name;
+
+	/**
+	 * Path of the device on the server.
+	 */
+	private final String remotePath;
+
+	/**
+	 * Capabilities of the device on the server.
+	 */
+	private final DeviceCapabilities capabilities;
+
+	RemoteDevice(RemoteDeviceRegistry registry, String name, String remotePath, long capabilities, long minFrequency, long maxFrequency) {
+		this.registry = registry;
+		this.name = name;
+		this.remotePath = remotePath;
+		this.capabilities = new Capabilities(capabilities, minFrequency, maxFrequency);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * The server and the path of the device on the server, unique among the
+	 * devices of all the hosts.
+	 */
+	public String getPath() {
+		return "remote:" + registry.getContext().getName() + "#" + remotePath;
+	}
+
+	/**
+	 * Gets the path of the device on the server.
+	 *
+	 * @return The path.
+	 */
+	public String getRemotePath() {
+		return remotePath;
+	}
+
+	public DeviceCapabilities getCapabilities() {
+		return capabilities;
+	}
+
+	public DeviceContext getContext() {
+		return registry.getContext();
+	}
+
+	/**
+	 * Opens the stream on the server, over the connection of the registry.
+	 *
+	 * @return The input stream, a <code>RemoteInputStream</code>.
+	 * @throws IOException If the server can not be reached, or the device
+	 * can not be opened.
+	 */
+	public DVBInputStream openStreamAt(StreamLocator locator) throws IOException {
+		return registry.open(this, locator);
+	}
+
+	public String toString() {
+		return name + " (" + getPath() + ")";
+	}
+
+	/**
+	 * The capabilities reported by the server.
+	 */
+	private static class Capabilities extends DeviceCapabilities {
+
+		Capabilities(long capabilities, long minFrequency, long maxFrequency) {
+			this.capabilities = capabilities;
+			this.minFrequency = minFrequency;
+			this.maxFrequency = maxFrequency;
+		}
+	}
+
+}
@@ -0,0 +1,289 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.remote;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.StringTokenizer;
+import java.util.Vector;
+
+import org.czentral.dvb.io.DVBDevice;
+import org.czentral.dvb.io.DVBInputStream;
+import org.czentral.dvb.io.DeviceRegistry;
+import org.czentral.dvb.io.StreamLocator;
+
+/**
+ * Lists the devices of a <code>TunerServer</code>, opened over the network
+ * like local ones. Merged into a registry, the devices of the server join its
+ * tuner pool, so the tuners of many hosts are allocated as one pool.
+ *
+ * All the streams opened on the server share a single connection. The
+ * connection is made when the devices are first listed, and made again by
+ * <code>refresh</code> (or by listing the devices after
+ * <code>RETRY_INTERVAL</code>) when it is lost. While the server is not
+ * reachable the registry lists no devices, the listeners are notified about
+ * the devices disappearing and coming back.
+ *
+ * The registries of the servers named by the
+ * <code>org.czentral.dvb.io.remote</code> system property are merged into the
+ * default registry (see <code>fromSystemProperties</code>).
+ */
+public class RemoteDeviceRegistry extends DeviceRegistry {
+
+	/**
+	 * System property listing the servers: <code>host[:port]</code> entries
+	 * separated by commas.
+	 */
+	public static final String SERVERS_PROPERTY = "org.czentral.dvb.io.remote";
+
+	/**
+	 * Time after which listing the devices of an unreachable server tries to
+	 * connect again, in milliseconds.
+	 */
+	public static final long RETRY_INTERVAL = 10000;
+
+	/**
+	 * The server.
+	 */
+	private final RemoteContext context;
+
+	/**
+	 * The connection, <code>null</code> if not connected yet.
+	 */
+	private RemoteConnection connection;
+
+	/**
+	 * Devices of the last listing, <code>null</code> before the first one.
+	 */
+	private volatile DVBDevice[] devices;
+
+	/**
+	 * Time of the last listing.
+	 */
+	private volatile long listed;
+
+	/**
+	 * Window of the streams opened afterwards.
+	 */
+	private volatile int window = RemoteInputStream.DEFAULT_WINDOW;
+
+	/**
+	 * Creates a registry of a server listening on the default port.
+	 *
+	 * @param host Name or address of the server.
+	 */
+	public RemoteDeviceRegistry(String host) {
+		this(host, TunerServer.DEFAULT_PORT);
+	}
+
+	/**
+	 * Creates a registry of a server. No connection is made until the
+	 * devices are listed.
+	 *
+	 * @param host Name or address of the server.
+	 * @param port The TCP port of the server.
+	 */
+	public RemoteDeviceRegistry(String host, int port) {
+		if (port <= 0 || port > 65535)
+			throw new IllegalArgumentException("Invalid port: " + port);
+		context = new RemoteContext(host, port);
+	}
+
+	/**
+	 * Creates the registries of the servers listed by the
+	 * <code>SERVERS_PROPERTY</code> system property.
+	 *
+	 * @return The registries, empty if the property is not set.
+	 */
+	public static RemoteDeviceRegistry[] fromSystemProperties() {
+		Vector<RemoteDeviceRegistry> result = new Vector<RemoteDeviceRegistry>();
+		String servers = System.getProperty(SERVERS_PROPERTY);
+		if (servers != null) {
+			StringTokenizer st = new StringTokenizer(servers, ", ");
+			while (st.hasMoreTokens()) {
+				String server = st.nextToken();
+				int colon = server.lastIndexOf(':');
+				if (colon < 0)
+					result.add(new RemoteDeviceRegistry(server));
+				else
+					result.add(new RemoteDeviceRegistry(server.substring(0, colon), Integer.parseInt(server.substring(colon + 1))));
+			}
+		}
+		return result.toArray(new RemoteDeviceRegistry[0]);
+	}
+
+	/**
+	 * Gets the context of the devices of the server.
+	 *
+	 * @return The context, named after the server.
+	 */
+	public RemoteContext getContext() {
+		return context;
+	}
+
+	/**
+	 * Sets the window of the streams opened afterwards: the most data
+	 * buffered for a stream not read. Larger windows survive longer pauses
+	 * of the reader, and keep up with longer round trips.
+	 *
+	 * @param bytes The window in bytes.
+	 */
+	public void setWindow(int bytes) {
+		if (bytes < 188)
+			throw new IllegalArgumentException("Window too small: " + bytes);
+		this.window = bytes;
+	}
+
+	/**
+	 * Gets the window of the streams.
+	 *
+	 * @return The window in bytes.
+	 */
+	public int getWindow() {
+		return window;
+	}
+
+	/**
+	 * Returns the devices of the server. The devices are listed by the
+	 * server once, then when <code>refresh</code> is called (or, when none
+	 * are known, after <code>RETRY_INTERVAL</code>).
+	 *
+	 * @return An array containing the devices, empty if the server is not
+	 * reachable.
+	 */
+	public DVBDevice[] getDevices() {
+		DVBDevice[] cached = devices;
+		if (cached == null || cached.length == 0 && System.currentTimeMillis() - listed >= RETRY_INTERVAL) {
+			refresh();
+			cached = devices;
+		}
+		return cached.clone();
+	}
+
+	/**
+	 * Lists the devices of the server again (connecting if needed) and
+	 * notifies the listeners about the differences.
+	 */
+	public void refresh() {
+		DVBDevice[] found;
+		synchronized (this) {
+			listed = System.currentTimeMillis();
+			try {
+				found = list(getConnection());
+			} catch (IOException e) {
+				found = new DVBDevice[0];
+			}
+		}
+		update(found);
+	}
+
+	/**
+	 * Closes the connection, the streams open on the server fail. Listing
+	 * the devices connects again.
+	 */
+	public void close() {
+		RemoteConnection current;
+		synchronized (this) {
+			current = connection;
+			connection = null;
+		}
+		if (current != null)
+			current.close();
+	}
+
+	/**
+	 * Opens a stream of a device of this registry.
+	 */
+	DVBInputStream open(RemoteDevice device, StreamLocator locator) throws IOException {
+		RemoteInputStream stream = new RemoteInputStream(getConnection(), window);
+		stream.open(device.getRemotePath(), locator);
+		return stream;
+	}
+
+	/**
+	 * Gets the connection, connects if there is none.
+	 */
+	private synchronized RemoteConnection getConnection() throws IOException {
+		if (connection == null || !connection.isOpen())
+			connection = new RemoteConnection(this);
+		return connection;
+	}
+
+	/**
+	 * Forgets the devices when the connection in use is lost, called by the
+	 * connection.
+	 */
+	void connectionLost(RemoteConnection lost) {
+		synchronized (this) {
+			if (lost != connection)
+				return;
+			connection = null;
+			listed = System.currentTimeMillis();
+		}
+		update(new DVBDevice[0]);
+	}
+
+	/**
+	 * Asks the server for its devices.
+	 */
+	private DVBDevice[] list(RemoteConnection connection) throws IOException {
+		DataInputStream reply = connection.call(RemoteProtocol.LIST, 0, RemoteProtocol.EMPTY);
+		DVBDevice[] result = new DVBDevice[reply.readInt()];
+		for (int i=0; i<result.length; i++)
+			result[i] = new RemoteDevice(this, reply.readUTF(), reply.readUTF(), reply.readLong(), reply.readLong(), reply.readLong());
+		return result;
+	}
+
+	/**
+	 * Replaces the list of devices, keeping the objects of the devices still
+	 * present, and notifies the listeners (without holding the lock of the
+	 * registry).
+	 */
+	private void update(DVBDevice[] found) {
+		HashMap<String, DVBDevice> known = new HashMap<String, DVBDevice>();
+		Vector<DVBDevice> added = new Vector<DVBDevice>();
+		synchronized (this) {
+			DVBDevice[] previous = devices;
+			if (previous != null) {
+				for (int i=0; i<previous.length; i++)
+					known.put(previous[i].getPath(), previous[i]);
+			}
+
+			for (int i=0; i<found.length; i++) {
+				DVBDevice old = known.remove(found[i].getPath());
+				if (old != null && old.getName().equals(found[i].getName())) {
+					found[i] = old;
+				} else {
+					if (old != null)
+						known.put(old.getPath(), old);
+					added.add(found[i]);
+				}
+			}
+			devices = found;
+			if (previous == null)
+				return;
+		}
+
+		for (DVBDevice device : known.values())
+			fireDeviceRemoved(device);
+		for (int i=0; i<added.size(); i++)
+			fireDeviceAdded(added.get(i));
+	}
+
+}
@@ -0,0 +1,368 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import org.czentral.dvb.io.DVBInputStream;
+import org.czentral.dvb.io.SignalStatistics;
+import org.czentral.dvb.io.StreamLocator;
+
+/**
+ * A stream of a device of a <code>TunerServer</code>.
+ *
+ * The data is received to a buffer of the size of the window: the server
+ * sends only as much as the buffer has room for, and it is told about the
+ * room made by the reads in portions of a quarter of the window. A stream not
+ * read for a while holds up its own device on the server, but not the other
+ * streams of the connection.
+ *
+ * The reception values and the PID changes are requests to the server, they
+ * take a round trip.
+ */
+public class RemoteInputStream extends DVBInputStream {
+
+	/**
+	 * Default size of the window in bytes.
+	 */
+	public static final int DEFAULT_WINDOW = 2 * 1024 * 1024;
+
+	/**
+	 * The consumed bytes are reported to the server in portions of this
+	 * fraction of the window.
+	 */
+	private static final int CREDIT_FRACTION = 4;
+
+	private final RemoteConnection connection;
+
+	/**
+	 * Number of the stream on the connection.
+	 */
+	private final int id;
+
+	/**
+	 * Ring buffer of the data received.
+	 */
+	private final byte[] buffer;
+
+	/**
+	 * Position of the next byte to read in the buffer.
+	 */
+	private int head;
+
+	/**
+	 * Number of bytes in the buffer.
+	 */
+	private int count;
+
+	/**
+	 * Bytes consumed and not reported to the server yet.
+	 */
+	private int consumed;
+
+	/**
+	 * Set when the server ended the stream.
+	 */
+	private boolean ended;
+
+	/**
+	 * The error ending the stream, reported by the next read.
+	 */
+	private IOException failure;
+
+	private volatile boolean closed;
+
+	/**
+	 * Lock of the requests, a stream has a single request waiting at a time.
+	 */
+	private final Object requests = new Object();
+
+	private final byte[] single = new byte[1];
+
+	RemoteInputStream(RemoteConnection connection, int window) {
+		this.connection = connection;
+		this.id = connection.nextStream();
+		this.buffer = new byte[window];
+	}
+
+	/**
+	 * Opens the stream on the server.
+	 *
+	 * @param path Path of the device on the server.
+	 * @param locator The transponder and the PIDs.
+	 */
+	void open(String path, StreamLocator locator) throws IOException {
+		int[] pids = locator.getPids();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeUTF(path);
+		out.writeLong(locator.getRequiredCapabilities());
+		out.writeLong(locator.getFrequency());
+		out.writeInt(locator.getBandwidth());
+		out.writeInt(locator.getModulation());
+		out.writeInt(locator.getFec());
+		out.writeInt(locator.getGuardInterval());
+		out.writeInt(locator.getTransmissionMode());
+		out.writeInt(locator.getSymbolRate());
+		out.writeInt(locator.getPolarization());
+		out.writeInt(locator.getStreamId());
+		out.writeInt(locator.getBufferSize());
+		out.writeInt(buffer.length);
+		out.writeInt(pids.length);
+		for (int i=0; i<pids.length; i++)
+			out.writeInt(pids[i]);
+
+		connection.register(id, this);
+		boolean opened = false;
+		try {
+			connection.call(RemoteProtocol.OPEN, id, bytes.toByteArray());
+			opened = true;
+		} finally {
+			if (!opened) {
+				closed = true;
+				connection.unregister(id);
+			}
+		}
+	}
+
+	/**
+	 * Receives a data frame, called by the thread of the connection. The
+	 * free part of the buffer is only written by this thread, so the data is
+	 * copied without holding the lock of the stream.
+	 */
+	void receive(DataInputStream in, int length) throws IOException {
+		int tail;
+		synchronized (this) {
+			if (length > buffer.length - count)
+				throw new IOException("Flow control violated by the server.");
+			tail = (head + count) % buffer.length;
+		}
+
+		int first = Math.min(length, buffer.length - tail);
+		in.readFully(buffer, tail, first);
+		in.readFully(buffer, 0, length - first);
+
+		synchronized (this) {
+			count += length;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Ends the stream, called by the thread of the connection.
+	 *
+	 * @param failure The error ending the stream, <code>null</code> at the
+	 * end of the stream.
+	 */
+	synchronized void end(Exception failure) {
+		ended = true;
+		if (failure instanceof IOException)
+			this.failure = (IOException)failure;
+		else if (failure != null)
+			this.failure = new IOException(failure.getMessage());
+		notifyAll();
+	}
+
+	public int read() throws IOException {
+		int bytesRed = read(single, 0, 1);
+		return bytesRed < 0 ? -1 : single[0] & 0xff;
+	}
+
+	public int read(byte[] b, int offset, int length) throws IOException {
+		if (length == 0)
+			return 0;
+
+		int bytesRed;
+		int credit = 0;
+		synchronized (this) {
+			if (!await())
+				return -1;
+
+			bytesRed = Math.min(length, count);
+			int first = Math.min(bytesRed, buffer.length - head);
+			System.arraycopy(buffer, head, b, offset, first);
+			System.arraycopy(buffer, 0, b, offset + first, bytesRed - first);
+			head = (head + bytesRed) % buffer.length;
+			count -= bytesRed;
+
+			consumed += bytesRed;
+			if (consumed >= buffer.length / CREDIT_FRACTION) {
+				credit = consumed;
+				consumed = 0;
+			}
+		}
+
+		if (credit > 0) {
+			try {
+				connection.send(RemoteProtocol.CREDIT, id, RemoteProtocol.toPayload(credit));
+			} catch (IOException e) {
+				// the connection is lost, the stream ends after the data buffered
+			}
+		}
+		return bytesRed;
+	}
+
+	public synchronized int available() throws IOException {
+		if (closed)
+			throw new IOException("Stream closed.");
+		return count;
+	}
+
+	/**
+	 * Waits for data, holding the lock of the stream.
+	 *
+	 * @return <code>False</code> at the end of the stream.
+	 */
+	private boolean await() throws IOException {
+		long deadline = System.currentTimeMillis() + readTimeout;
+		while (true) {
+			if (closed)
+				throw new IOException("Stream closed.");
+			if (count > 0)
+				return true;
+			if (ended) {
+				IOException e = failure;
+				if (e != null) {
+					failure = null;
+					throw e;
+				}
+				return false;
+			}
+
+			try {
+				if (readTimeout > 0) {
+					long left = deadline - System.currentTimeMillis();
+					if (left <= 0)
+						throw new InterruptedIOException("Read timed out");
+					wait(left);
+				} else {
+					wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for data.");
+			}
+		}
+	}
+
+	/**
+	 * Read timeouts are handled by this stream, the device on the server is
+	 * not affected.
+	 */
+	public void setReadTimeout(int millis) throws IOException {
+		if (millis < 0)
+			throw new IllegalArgumentException("Negative timeout: " + millis);
+		readTimeout = millis;
+	}
+
+	public void addPid(int pid) throws IOException {
+		if (pid < 0 || pid > StreamLocator.ALL_PIDS)
+			throw new IllegalArgumentException("Invalid PID: " + pid);
+		call(RemoteProtocol.ADD_PID, RemoteProtocol.toPayload(pid));
+	}
+
+	public void removePid(int pid) throws IOException {
+		if (pid < 0 || pid > StreamLocator.ALL_PIDS)
+			throw new IllegalArgumentException("Invalid PID: " + pid);
+		call(RemoteProtocol.REMOVE_PID, RemoteProtocol.toPayload(pid));
+	}
+
+	public boolean isSignalPresent() throws IOException {
+		return status()[0] != 0;
+	}
+
+	public boolean isSignalLocked() throws IOException {
+		return status()[1] != 0;
+	}
+
+	public int getSignalStrength() throws IOException {
+		return (int)status()[2];
+	}
+
+	public int getSignalQuality() throws IOException {
+		return (int)status()[3];
+	}
+
+	/**
+	 * Reads the values by a single request.
+	 */
+	public SignalStatistics getSignalStatistics() throws IOException {
+		long[] status = status();
+		return new SignalStatistics(status[0] != 0, status[1] != 0, (int)status[2], (int)status[3]);
+	}
+
+	public long getOverflowCount() throws IOException {
+		return status()[4];
+	}
+
+	public long getLostBytes() throws IOException {
+		return status()[5];
+	}
+
+	/**
+	 * Gets the size of the window.
+	 *
+	 * @return The most bytes buffered for this stream.
+	 */
+	public int getWindow() {
+		return buffer.length;
+	}
+
+	/**
+	 * Asks the server for the reception values of the device: signal
+	 * present and locked (1 or 0), strength, quality, overflows and lost
+	 * bytes.
+	 */
+	private long[] status() throws IOException {
+		DataInputStream reply = call(RemoteProtocol.STATUS, RemoteProtocol.EMPTY);
+		return new long[] {reply.readBoolean() ? 1 : 0, reply.readBoolean() ? 1 : 0,
+				reply.readInt(), reply.readInt(), reply.readLong(), reply.readLong()};
+	}
+
+	private DataInputStream call(int type, byte[] payload) throws IOException {
+		if (closed)
+			throw new IOException("Stream closed.");
+		synchronized (requests) {
+			return connection.call(type, id, payload);
+		}
+	}
+
+	/**
+	 * Closes the stream on the server.
+	 */
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			notifyAll();
+		}
+
+		connection.unregister(id);
+		try {
+			connection.send(RemoteProtocol.CLOSE, id, RemoteProtocol.EMPTY);
+		} catch (IOException e) {
+			// the connection is lost, the stream is closed on the server too
+		}
+	}
+
+}
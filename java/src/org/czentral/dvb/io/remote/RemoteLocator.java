@@ -0,0 +1,41 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.remote;
+
+import org.czentral.dvb.io.StreamLocator;
+
+/**
+ * Locator received from a client: the parameters of the locator of the
+ * client, whatever its type was.
+ */
+class RemoteLocator extends StreamLocator {
+
+	/**
+	 * Capabilities required by the locator of the client.
+	 */
+	private final long requiredCapabilities;
+
+	RemoteLocator(long requiredCapabilities) {
+		this.requiredCapabilities = requiredCapabilities;
+	}
+
+	public long getRequiredCapabilities() {
+		return requiredCapabilities;
+	}
+
+}
@@ -0,0 +1,168 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Constants of the protocol between <code>TunerServer</code> and
+ * <code>RemoteDeviceRegistry</code>.
+ *
+ * A connection carries frames: a header of the message type (one byte), the
+ * stream the message belongs to (four bytes, zero for the connection itself)
+ * and the length of the payload (four bytes), followed by the payload.
+ * Numbers are big-endian, strings are written by
+ * <code>DataOutput.writeUTF</code>.
+ *
+ * The requests of the client are answered by <code>OK</code> or
+ * <code>ERROR</code> on the same stream, except <code>CREDIT</code> and
+ * <code>CLOSE</code>. The replies carry no request number: a client sends
+ * the next request of a stream only after the reply to the previous one.
+ * The server sends the data of a stream only while the client has room for
+ * it: a stream starts with the window announced by <code>OPEN</code> as
+ * credit, and the client returns the credit by <code>CREDIT</code> as the
+ * data is consumed.
+ */
+final class RemoteProtocol {
+
+	/**
+	 * Version of the protocol, sent by <code>HELLO</code>.
+	 */
+	static final int VERSION = 2;
+
+	/**
+	 * Size of the frame header in bytes.
+	 */
+	static final int HEADER_SIZE = 9;
+
+	/**
+	 * Largest payload of a message other than <code>DATA</code>.
+	 */
+	static final int MAX_CONTROL_SIZE = 65536;
+
+	/**
+	 * Payload: the version (int).
+	 */
+	static final int HELLO = 1;
+
+	/**
+	 * No payload. Reply: the number of devices (int), then the name (UTF),
+	 * path (UTF), capabilities (long), lowest and highest frequency (long) of
+	 * each device.
+	 */
+	static final int LIST = 2;
+
+	/**
+	 * Payload: device path (UTF), required capabilities (long), frequency
+	 * (long), bandwidth, modulation, FEC, guard interval, transmission mode,
+	 * symbol rate, polarization and stream ID (int), driver buffer size
+	 * (int), window (int), number of PIDs (int), PIDs (int). The stream
+	 * number is chosen by the client.
+	 */
+	static final int OPEN = 3;
+
+	/**
+	 * Payload: the PID (int).
+	 */
+	static final int ADD_PID = 4;
+
+	/**
+	 * Payload: the PID (int).
+	 */
+	static final int REMOVE_PID = 5;
+
+	/**
+	 * No payload. Reply: signal present and locked (boolean), strength and
+	 * quality (int), overflow count and lost bytes (long).
+	 */
+	static final int STATUS = 6;
+
+	/**
+	 * Payload: the number of bytes consumed (int). No reply.
+	 */
+	static final int CREDIT = 7;
+
+	/**
+	 * No payload, no reply. Data frames already sent are skipped.
+	 */
+	static final int CLOSE = 8;
+
+	/**
+	 * Reply to a request, the payload depends on the request.
+	 */
+	static final int OK = 64;
+
+	/**
+	 * Failed request. Payload: kind (byte, <code>ERROR_IO</code> or
+	 * <code>ERROR_UNSUPPORTED</code>), message (UTF).
+	 */
+	static final int ERROR = 65;
+
+	/**
+	 * Payload: the next bytes of a stream.
+	 */
+	static final int DATA = 66;
+
+	/**
+	 * End of a stream. Payload: none at the end of the stream, or the
+	 * failure like <code>ERROR</code>.
+	 */
+	static final int END = 67;
+
+	/**
+	 * Error kind: <code>IOException</code>.
+	 */
+	static final int ERROR_IO = 0;
+
+	/**
+	 * Error kind: <code>UnsupportedOperationException</code>.
+	 */
+	static final int ERROR_UNSUPPORTED = 1;
+
+	/**
+	 * Payload of the messages without one.
+	 */
+	static final byte[] EMPTY = new byte[0];
+
+	private RemoteProtocol() {
+	}
+
+	/**
+	 * Encodes a payload of a single int.
+	 */
+	static byte[] toPayload(int value) {
+		return new byte[] {(byte)(value >> 24), (byte)(value >> 16), (byte)(value >> 8), (byte)value};
+	}
+
+	/**
+	 * Encodes an exception as the payload of <code>ERROR</code>.
+	 */
+	static byte[] toPayload(Exception e) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(e instanceof UnsupportedOperationException ? ERROR_UNSUPPORTED : ERROR_IO);
+			out.writeUTF(e.getMessage() != null ? e.getMessage() : e.toString());
+		} catch (IOException impossible) {
+		}
+		return bytes.toByteArray();
+	}
+
+}
@@ -0,0 +1,624 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.remote;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.czentral.dvb.io.DVBDevice;
+import org.czentral.dvb.io.DVBInputStream;
+import org.czentral.dvb.io.DeviceCapabilities;
+import org.czentral.dvb.io.DeviceRegistry;
+import org.czentral.dvb.io.SignalStatistics;
+import org.czentral.dvb.io.StreamLocator;
+
+/**
+ * Serves the devices of a registry to <code>RemoteDeviceRegistry</code>
+ * clients over TCP.
+ *
+ * A client opens any number of streams over a single connection. Every
+ * stream is read by a thread of its own into a direct buffer, a single
+ * native call per chunk for a native device, and the chunk is sent by a
+ * gathering write of the frame header and the buffer, so the data is not
+ * copied to the Java heap on the way. The PIDs requested by the client are
+ * filtered by the device, the packets not needed never cross the network.
+ *
+ * A stream is only read while the client has room for the data (see
+ * <code>RemoteProtocol</code>). The data of a client falling behind waits in
+ * the buffer of the driver, the other streams of the connection are not
+ * held up.
+ *
+ * The devices are opened directly, devices in use by the server host (or by
+ * another client) fail to open, and the client tries another one.
+ */
+public class TunerServer implements Runnable {
+
+	/**
+	 * Port used when none is given.
+	 */
+	public static final int DEFAULT_PORT = 4950;
+
+	/**
+	 * Capacity of the buffer a stream is read to, in TS packets.
+	 */
+	private static final int CHUNK_PACKETS = 256;
+
+	/**
+	 * Smallest chunk waited for, in TS packets.
+	 */
+	private static final int MIN_CHUNK_PACKETS = 32;
+
+	/**
+	 * Longest time the data waits on the server for a chunk to complete, in
+	 * milliseconds.
+	 */
+	private static final int MAX_LATENCY = 20;
+
+	/**
+	 * Read timeout of the device streams, a stream thread checks if the
+	 * stream is closed this often (in milliseconds).
+	 */
+	private static final int STOP_CHECK_INTERVAL = 250;
+
+	/**
+	 * Pause after a failed accept (out of descriptors etc.), in
+	 * milliseconds.
+	 */
+	private static final int ACCEPT_RETRY_DELAY = 100;
+
+	/**
+	 * The registry of the devices served.
+	 */
+	private final DeviceRegistry registry;
+
+	/**
+	 * The listening socket.
+	 */
+	private final ServerSocketChannel server;
+
+	/**
+	 * The connections of the clients.
+	 */
+	private final Vector<Connection> connections = new Vector<Connection>();
+
+	private Thread acceptor;
+
+	private volatile boolean closed;
+
+	/**
+	 * Creates a server listening on all the interfaces.
+	 *
+	 * @param registry The registry of the devices to serve.
+	 * @param port The TCP port, zero for any free port.
+	 * @throws IOException If the port can not be bound.
+	 */
+	public TunerServer(DeviceRegistry registry, int port) throws IOException {
+		this(registry, new InetSocketAddress(port));
+	}
+
+	/**
+	 * Creates a server listening on an address.
+	 *
+	 * @param registry The registry of the devices to serve.
+	 * @param address The address to bind.
+	 * @throws IOException If the address can not be bound.
+	 */
+	public TunerServer(DeviceRegistry registry, InetSocketAddress address) throws IOException {
+		this.registry = registry;
+		server = ServerSocketChannel.open();
+		server.socket().setReuseAddress(true);
+		server.socket().bind(address);
+	}
+
+	/**
+	 * Gets the port the server listens on.
+	 *
+	 * @return The TCP port.
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * Gets the number of clients connected.
+	 *
+	 * @return Number of connections.
+	 */
+	public int getConnectionCount() {
+		return connections.size();
+	}
+
+	/**
+	 * Accepts the clients on a background thread.
+	 */
+	public synchronized void start() {
+		if (acceptor != null)
+			return;
+		acceptor = new Thread(this, "TunerServer " + getPort());
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Accepts the clients until the server is closed. A client failing to
+	 * connect does not stop the server.
+	 */
+	public void run() {
+		while (!closed) {
+			SocketChannel channel;
+			try {
+				channel = server.accept();
+			} catch (ClosedChannelException e) {
+				return;
+			} catch (IOException e) {
+				// the listening socket is still usable, waiting for resources
+				try {
+					Thread.sleep(ACCEPT_RETRY_DELAY);
+				} catch (InterruptedException interrupted) {
+					return;
+				}
+				continue;
+			}
+
+			try {
+				accept(channel);
+			} catch (IOException e) {
+				try {
+					channel.close();
+				} catch (IOException ignored) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Starts serving a client.
+	 */
+	private void accept(SocketChannel channel) throws IOException {
+		channel.socket().setTcpNoDelay(true);
+		Connection connection = new Connection(channel);
+		connections.add(connection);
+
+		Thread thread = new Thread(connection, "TunerServer " + channel.socket().getRemoteSocketAddress());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops listening and closes the connections, with their streams.
+	 */
+	public void close() throws IOException {
+		closed = true;
+		server.close();
+		Connection[] current = connections.toArray(new Connection[0]);
+		for (int i=0; i<current.length; i++)
+			current[i].close();
+	}
+
+	/**
+	 * Serves the devices of the default registry.
+	 *
+	 * @param args The port (optional).
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		DeviceRegistry registry = DeviceRegistry.getDefaultRegistry();
+		TunerServer server = new TunerServer(registry, port);
+
+		DVBDevice[] devices = registry.getDevices();
+		for (int i=0; i<devices.length; i++)
+			System.out.println("device: " + devices[i].getName() + " " + devices[i].getPath() + " [" + devices[i].getContext().getName() + "]");
+		System.out.println("Serving " + devices.length + " devices on port " + server.getPort() + ".");
+		server.run();
+	}
+
+	/**
+	 * A client: the requests are handled by the thread of the connection,
+	 * the streams are read by threads of their own.
+	 */
+	class Connection implements Runnable {
+
+		private final SocketChannel channel;
+
+		private final DataInputStream in;
+
+		/**
+		 * Header of the frame being sent.
+		 */
+		private final ByteBuffer header = ByteBuffer.allocateDirect(RemoteProtocol.HEADER_SIZE);
+
+		/**
+		 * The header and the payload of the frame being sent.
+		 */
+		private final ByteBuffer[] frame = new ByteBuffer[] {header, null};
+
+		/**
+		 * The open streams by their numbers.
+		 */
+		private final ConcurrentHashMap<Integer, Stream> streams = new ConcurrentHashMap<Integer, Stream>();
+
+		Connection(SocketChannel channel) throws IOException {
+			this.channel = channel;
+			in = new DataInputStream(new BufferedInputStream(channel.socket().getInputStream()));
+		}
+
+		public void run() {
+			try {
+				while (true) {
+					int type = in.readUnsignedByte();
+					int id = in.readInt();
+					int length = in.readInt();
+					if (length < 0 || length > RemoteProtocol.MAX_CONTROL_SIZE)
+						throw new IOException("Invalid message length: " + length);
+
+					byte[] payload = new byte[length];
+					in.readFully(payload);
+					handle(type, id, new DataInputStream(new ByteArrayInputStream(payload)));
+				}
+			} catch (IOException e) {
+				// disconnected, or not speaking the protocol
+			} finally {
+				close();
+			}
+		}
+
+		/**
+		 * Handles a request.
+		 */
+		private void handle(int type, int id, DataInputStream request) throws IOException {
+			Stream stream = streams.get(Integer.valueOf(id));
+			switch (type) {
+			case RemoteProtocol.HELLO:
+				int version = request.readInt();
+				if (version != RemoteProtocol.VERSION) {
+					sendError(id, new IOException("Unsupported protocol version: " + version));
+					throw new IOException("Unsupported protocol version: " + version);
+				}
+				send(RemoteProtocol.OK, id, RemoteProtocol.EMPTY);
+				break;
+
+			case RemoteProtocol.LIST:
+				send(RemoteProtocol.OK, id, list());
+				break;
+
+			case RemoteProtocol.OPEN:
+				open(id, request);
+				break;
+
+			case RemoteProtocol.ADD_PID:
+			case RemoteProtocol.REMOVE_PID:
+			case RemoteProtocol.STATUS:
+				DVBInputStream source = stream != null ? stream.source : null;
+				if (source == null) {
+					sendError(id, new IOException("Stream not open: " + id));
+					break;
+				}
+				try {
+					byte[] reply = RemoteProtocol.EMPTY;
+					if (type == RemoteProtocol.ADD_PID)
+						source.addPid(request.readInt());
+					else if (type == RemoteProtocol.REMOVE_PID)
+						source.removePid(request.readInt());
+					else
+						reply = status(source);
+					send(RemoteProtocol.OK, id, reply);
+				} catch (RuntimeException e) {
+					sendError(id, e);
+				} catch (IOException e) {
+					sendError(id, e);
+				}
+				break;
+
+			case RemoteProtocol.CREDIT:
+				if (stream != null)
+					stream.grant(request.readInt());
+				break;
+
+			case RemoteProtocol.CLOSE:
+				if (stream != null) {
+					streams.remove(Integer.valueOf(id));
+					stream.stop();
+				}
+				break;
+
+			default:
+				throw new IOException("Unknown message type: " + type);
+			}
+		}
+
+		/**
+		 * Describes the devices of the registry.
+		 */
+		private byte[] list() throws IOException {
+			DVBDevice[] devices = registry.getDevices();
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(devices.length);
+			for (int i=0; i<devices.length; i++) {
+				DeviceCapabilities capabilities = devices[i].getCapabilities();
+				out.writeUTF(devices[i].getName());
+				out.writeUTF(devices[i].getPath());
+				out.writeLong(capabilities.getCapabilities());
+				out.writeLong(capabilities.getMinFrequency());
+				out.writeLong(capabilities.getMaxFrequency());
+			}
+			return bytes.toByteArray();
+		}
+
+		/**
+		 * Gets the reception values of a stream, read at once.
+		 */
+		private byte[] status(DVBInputStream source) throws IOException {
+			SignalStatistics statistics = source.getSignalStatistics();
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeBoolean(statistics.isSignalPresent());
+			out.writeBoolean(statistics.isSignalLocked());
+			out.writeInt(statistics.getSignalStrength());
+			out.writeInt(statistics.getSignalQuality());
+			out.writeLong(source.getOverflowCount());
+			out.writeLong(source.getLostBytes());
+			return bytes.toByteArray();
+		}
+
+		/**
+		 * Starts a stream, the thread of the stream tunes the device and
+		 * replies.
+		 */
+		private void open(int id, DataInputStream request) throws IOException {
+			String path = request.readUTF();
+			RemoteLocator locator = new RemoteLocator(request.readLong());
+			locator.setFrequency(request.readLong());
+			int window;
+			try {
+				locator.setBandwidth(request.readInt());
+				locator.setModulation(request.readInt());
+				locator.setFec(request.readInt());
+				locator.setGuardInterval(request.readInt());
+				locator.setTransmissionMode(request.readInt());
+				locator.setSymbolRate(request.readInt());
+				locator.setPolarization(request.readInt());
+				locator.setStreamId(request.readInt());
+				locator.setBufferSize(request.readInt());
+				window = request.readInt();
+				if (window <= 0)
+					throw new IllegalArgumentException("Invalid window: " + window);
+				int count = request.readInt();
+				for (int i=0; i<count; i++)
+					locator.addPid(request.readInt());
+			} catch (IllegalArgumentException e) {
+				sendError(id, new IOException(e.getMessage()));
+				return;
+			}
+
+			DVBDevice device = null;
+			DVBDevice[] devices = registry.getDevices();
+			for (int i=0; i<devices.length && device == null; i++) {
+				if (devices[i].getPath().equals(path))
+					device = devices[i];
+			}
+			if (device == null) {
+				sendError(id, new IOException("No such device: " + path));
+				return;
+			}
+
+			Stream stream = new Stream(id, device, locator, window);
+			if (streams.putIfAbsent(Integer.valueOf(id), stream) != null) {
+				sendError(id, new IOException("Stream already open: " + id));
+				return;
+			}
+			Thread thread = new Thread(stream, "TunerServer stream " + id + " " + path);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		/**
+		 * Sends a frame, the payload by a gathering write.
+		 */
+		synchronized void send(int type, int id, ByteBuffer payload) throws IOException {
+			header.clear();
+			header.put((byte)type).putInt(id).putInt(payload.remaining());
+			header.flip();
+			frame[1] = payload;
+			try {
+				while (header.hasRemaining() || payload.hasRemaining())
+					channel.write(frame);
+			} finally {
+				frame[1] = null;
+			}
+		}
+
+		void send(int type, int id, byte[] payload) throws IOException {
+			send(type, id, ByteBuffer.wrap(payload));
+		}
+
+		/**
+		 * Reports a failed request, a broken connection is noticed by the
+		 * connection thread.
+		 */
+		void sendError(int id, Exception e) {
+			try {
+				send(RemoteProtocol.ERROR, id, RemoteProtocol.toPayload(e));
+			} catch (IOException ignored) {
+			}
+		}
+
+		/**
+		 * Closes the connection and stops the streams.
+		 */
+		void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+			}
+			connections.remove(this);
+			for (Stream stream : streams.values())
+				stream.stop();
+			streams.clear();
+		}
+
+		/**
+		 * A stream of the connection.
+		 */
+		class Stream implements Runnable {
+
+			private final int id;
+
+			private final DVBDevice device;
+
+			private final StreamLocator locator;
+
+			/**
+			 * The stream of the device, <code>null</code> until tuned.
+			 */
+			volatile DVBInputStream source;
+
+			/**
+			 * Number of bytes the client has room for.
+			 */
+			private int credit;
+
+			private volatile boolean stopped;
+
+			Stream(int id, DVBDevice device, StreamLocator locator, int window) {
+				this.id = id;
+				this.device = device;
+				this.locator = locator;
+				this.credit = window;
+			}
+
+			/**
+			 * Adds the bytes consumed by the client to the credit.
+			 */
+			synchronized void grant(int bytes) {
+				credit += bytes;
+				notifyAll();
+			}
+
+			/**
+			 * Makes the thread of the stream close the device stream and
+			 * stop.
+			 */
+			synchronized void stop() {
+				stopped = true;
+				notifyAll();
+			}
+
+			/**
+			 * Waits for the client to have room for data.
+			 *
+			 * @return The credit, zero if the stream is stopped.
+			 */
+			private synchronized int awaitCredit() {
+				try {
+					while (credit <= 0 && !stopped)
+						wait();
+				} catch (InterruptedException e) {
+					stopped = true;
+				}
+				return stopped ? 0 : credit;
+			}
+
+			private synchronized void take(int bytes) {
+				credit -= bytes;
+			}
+
+			public void run() {
+				DVBInputStream opened;
+				try {
+					opened = device.openStreamAt(locator);
+				} catch (IOException e) {
+					streams.remove(Integer.valueOf(id), this);
+					sendError(id, e);
+					return;
+				}
+
+				byte[] end = RemoteProtocol.EMPTY;
+				try {
+					try {
+						opened.setReadTimeout(STOP_CHECK_INTERVAL);
+					} catch (UnsupportedOperationException e) {
+						// reads return data regularly, or the end of the stream
+					}
+					source = opened;
+					send(RemoteProtocol.OK, id, RemoteProtocol.EMPTY);
+					pump(opened);
+				} catch (IOException e) {
+					end = RemoteProtocol.toPayload(e);
+				} finally {
+					source = null;
+					try {
+						opened.close();
+					} catch (IOException e) {
+					}
+				}
+
+				if (!stopped) {
+					streams.remove(Integer.valueOf(id), this);
+					try {
+						send(RemoteProtocol.END, id, end);
+					} catch (IOException e) {
+						// the connection is lost
+					}
+				}
+			}
+
+			/**
+			 * Sends the data of the device stream as long as the client
+			 * takes it.
+			 */
+			private void pump(DVBInputStream opened) throws IOException {
+				ByteBuffer data = ByteBuffer.allocateDirect(CHUNK_PACKETS * 188);
+				while (true) {
+					int allowed = awaitCredit();
+					if (allowed == 0)
+						return;
+
+					data.clear();
+					data.limit(Math.min(data.capacity(), allowed));
+					int bytesRed;
+					try {
+						bytesRed = opened.readChunk(data, Math.min(data.limit(), MIN_CHUNK_PACKETS * 188), MAX_LATENCY);
+					} catch (InterruptedIOException e) {
+						// no data for a while: checking if stopped
+						continue;
+					}
+					if (bytesRed < 0 || stopped)
+						return;
+
+					take(bytesRed);
+					data.flip();
+					send(RemoteProtocol.DATA, id, data);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,346 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.remux;
+
+import org.czentral.dvb.io.psi.Crc32;
+import org.czentral.dvb.io.psi.ProgramAssociationSection;
+import org.czentral.dvb.io.psi.ProgramMapSection;
+import org.czentral.dvb.io.psi.Section;
+import org.czentral.dvb.io.psi.SectionAssembler;
+import org.czentral.dvb.io.psi.SectionHandler;
+import org.czentral.dvb.io.ts.TSPacket;
+
+/**
+ * Decides which packets of a multiplex belong to a single program. The PAT
+ * and the PMT of the program are followed as they change: the elementary
+ * PIDs and the PCR PID of the current PMT version are passed, everything
+ * else is dropped.
+ *
+ * The PAT of the multiplex is replaced by a single-entry PAT generated for
+ * the program (with a CRC and continuity counters of its own), sent in place
+ * of every PAT section start of the multiplex. Nothing is passed before the
+ * PMT of the program is received.
+ *
+ * The decision costs a table lookup per packet, only the PAT and PMT packets
+ * are parsed. Not thread-safe.
+ */
+public class ProgramFilter {
+
+	/**
+	 * Drop the packet.
+	 */
+	public static final int DROP = 0;
+
+	/**
+	 * Pass the packet unchanged.
+	 */
+	public static final int FORWARD = 1;
+
+	/**
+	 * Send the generated PAT packet (<code>getPatPacket()</code>) instead of
+	 * the packet.
+	 */
+	public static final int PAT = 2;
+
+	private static final int PID_COUNT = 8192;
+
+	private final int programNumber;
+
+	/**
+	 * Decision per PID (for the PIDs of the PMT).
+	 */
+	private final byte[] decisions = new byte[PID_COUNT];
+
+	/**
+	 * PIDs added by the user, passed regardless of the PMT.
+	 */
+	private final boolean[] extraPids = new boolean[PID_COUNT];
+
+	/**
+	 * PIDs of the current PMT (elementary streams and PCR).
+	 */
+	private int[] programPids = new int[0];
+
+	private final SectionAssembler assembler;
+
+	private int transportStreamId = -1;
+
+	private int pmtPid = -1;
+
+	private int pcrPid = -1;
+
+	private int pmtVersion = -1;
+
+	/**
+	 * Generated PAT packet, continuity counter and version.
+	 */
+	private final byte[] patPacket = new byte[TSPacket.SIZE];
+
+	private int patCounter;
+
+	private int patVersion = -1;
+
+	private boolean pmtReceived;
+
+	/**
+	 * Creates a filter.
+	 *
+	 * @param programNumber The program_number (service_id) to pass.
+	 */
+	public ProgramFilter(int programNumber) {
+		if (programNumber <= 0 || programNumber > 0xffff)
+			throw new IllegalArgumentException("Invalid program number: " + programNumber);
+		this.programNumber = programNumber;
+
+		assembler = new SectionAssembler(new SectionHandler() {
+			public void section(int pid, byte[] buffer, int offset, int length) {
+				if (pid == Section.PID_PAT)
+					pat(buffer, offset, length);
+				else if (pid == pmtPid)
+					pmt(buffer, offset, length);
+			}
+		});
+		assembler.addPid(Section.PID_PAT);
+		decisions[Section.PID_PAT] = PAT;
+	}
+
+	/**
+	 * Passes a PID of the multiplex not listed in the PMT (EIT for example).
+	 *
+	 * @param pid The PID.
+	 */
+	public void addPid(int pid) {
+		extraPids[pid] = true;
+		if (decisions[pid] == DROP && pmtReceived)
+			decisions[pid] = FORWARD;
+	}
+
+	/**
+	 * Decides about a packet.
+	 *
+	 * @param buffer The buffer holding the packet.
+	 * @param offset Offset of the packet.
+	 * @return <code>DROP</code>, <code>FORWARD</code> or <code>PAT</code>.
+	 */
+	public int process(byte[] buffer, int offset) {
+		int pid = ((buffer[offset + 1] & 0x1f) << 8) | (buffer[offset + 2] & 0xff);
+		int decision = decisions[pid];
+		if (decision == DROP)
+			return DROP;
+
+		if (pid == Section.PID_PAT) {
+			assembler.feed(buffer, offset);
+
+			// one generated PAT per PAT section of the multiplex
+			if ((buffer[offset + 1] & 0x40) == 0 || !pmtReceived)
+				return DROP;
+			nextPatPacket();
+			return PAT;
+		}
+
+		if (pid == pmtPid)
+			assembler.feed(buffer, offset);
+
+		return pmtReceived ? decision : DROP;
+	}
+
+	/**
+	 * Decides about a packet.
+	 *
+	 * @param packet The packet.
+	 * @return <code>DROP</code>, <code>FORWARD</code> or <code>PAT</code>.
+	 */
+	public int process(TSPacket packet) {
+		return process(packet.getBuffer(), packet.getOffset());
+	}
+
+	/**
+	 * Gets the generated PAT packet, to be sent when <code>process</code>
+	 * returns <code>PAT</code>.
+	 *
+	 * @return The packet (188 bytes, reused).
+	 */
+	public byte[] getPatPacket() {
+		return patPacket;
+	}
+
+	private void pat(byte[] buffer, int offset, int length) {
+		ProgramAssociationSection pat = new ProgramAssociationSection();
+		pat.wrap(buffer, offset, length);
+		if (pat.getTableId() != Section.TABLE_PAT || !pat.isCurrent())
+			return;
+
+		// the program may be listed in an other section of the PAT
+		int pid = pat.findPmtPid(programNumber);
+		if (pid < 0)
+			return;
+
+		if (pid != pmtPid) {
+			if (pmtPid >= 0) {
+				assembler.removePid(pmtPid);
+				decisions[pmtPid] = extraPids[pmtPid] ? (byte)FORWARD : DROP;
+			}
+			pmtPid = pid;
+			pmtVersion = -1;
+			assembler.addPid(pid);
+			decisions[pid] = FORWARD;
+		}
+
+		if (pat.getTransportStreamId() != transportStreamId || patVersion < 0 || pid != getPatPmtPid()) {
+			transportStreamId = pat.getTransportStreamId();
+			patVersion = (patVersion + 1) & 0x1f;
+			buildPat();
+		}
+	}
+
+	private void pmt(byte[] buffer, int offset, int length) {
+		ProgramMapSection pmt = new ProgramMapSection();
+		pmt.wrap(buffer, offset, length);
+		if (pmt.getTableId() != Section.TABLE_PMT || !pmt.isCurrent() || pmt.getProgramNumber() != programNumber)
+			return;
+
+		// dropping the PIDs of the previous version
+		for (int i=0; i<programPids.length; i++) {
+			int pid = programPids[i];
+			if (pid != pmtPid && pid != Section.PID_PAT)
+				decisions[pid] = extraPids[pid] ? (byte)FORWARD : DROP;
+		}
+
+		int count = pmt.getStreamCount();
+		int[] pids = new int[count + 1];
+		for (int i=0; i<count; i++)
+			pids[i] = pmt.getElementaryPid(i);
+		pids[count] = pmt.getPcrPid();
+
+		for (int i=0; i<pids.length; i++)
+			if (pids[i] != Section.PID_PAT && pids[i] != pmtPid && pids[i] != TSPacket.NULL_PID)
+				decisions[pids[i]] = FORWARD;
+
+		for (int pid=0; pid<PID_COUNT; pid++)
+			if (extraPids[pid] && decisions[pid] == DROP)
+				decisions[pid] = FORWARD;
+
+		programPids = pids;
+		pcrPid = pmt.getPcrPid();
+		pmtVersion = pmt.getVersionNumber();
+		pmtReceived = true;
+	}
+
+	/**
+	 * Gets the PMT PID written in the generated PAT.
+	 */
+	private int getPatPmtPid() {
+		return ((patPacket[15] & 0x1f) << 8) | (patPacket[16] & 0xff);
+	}
+
+	/**
+	 * Builds the generated PAT: a single section with the program.
+	 */
+	private void buildPat() {
+		byte[] p = patPacket;
+		p[0] = TSPacket.SYNC_BYTE;
+		p[1] = 0x40;
+		p[2] = 0x00;
+		p[3] = 0x10;
+		p[4] = 0x00;
+
+		// table_id, section_length (5 + 4 + CRC)
+		p[5] = (byte)Section.TABLE_PAT;
+		p[6] = (byte)0xb0;
+		p[7] = 13;
+		p[8] = (byte)(transportStreamId >> 8);
+		p[9] = (byte)transportStreamId;
+		p[10] = (byte)(0xc1 | (patVersion << 1));
+		p[11] = 0;
+		p[12] = 0;
+		p[13] = (byte)(programNumber >> 8);
+		p[14] = (byte)programNumber;
+		p[15] = (byte)(0xe0 | (pmtPid >> 8));
+		p[16] = (byte)pmtPid;
+		int crc = Crc32.compute(p, 5, 12);
+		p[17] = (byte)(crc >>> 24);
+		p[18] = (byte)(crc >>> 16);
+		p[19] = (byte)(crc >>> 8);
+		p[20] = (byte)crc;
+		for (int i=21; i<TSPacket.SIZE; i++)
+			p[i] = (byte)0xff;
+	}
+
+	/**
+	 * Advances the continuity counter of the generated PAT.
+	 */
+	private void nextPatPacket() {
+		patPacket[3] = (byte)(0x10 | patCounter);
+		patCounter = (patCounter + 1) & 0x0f;
+	}
+
+	/**
+	 * Gets the program passed.
+	 *
+	 * @return The program_number.
+	 */
+	public int getProgramNumber() {
+		return programNumber;
+	}
+
+	/**
+	 * Gets the PMT PID of the program.
+	 *
+	 * @return The PID, -1 if the PAT has not been received yet.
+	 */
+	public int getPmtPid() {
+		return pmtPid;
+	}
+
+	/**
+	 * Gets the PCR PID of the program.
+	 *
+	 * @return The PID, -1 if the PMT has not been received yet.
+	 */
+	public int getPcrPid() {
+		return pcrPid;
+	}
+
+	/**
+	 * Gets the version of the PMT in effect.
+	 *
+	 * @return The version_number, -1 if the PMT has not been received yet.
+	 */
+	public int getPmtVersion() {
+		return pmtVersion;
+	}
+
+	/**
+	 * Gets the elementary PIDs and the PCR PID of the program.
+	 *
+	 * @return The PIDs of the current PMT (a copy).
+	 */
+	public int[] getProgramPids() {
+		return programPids.clone();
+	}
+
+	/**
+	 * Checks if the PMT has been received and packets are passed.
+	 *
+	 * @return <code>True</code> if the program was found.
+	 */
+	public boolean isReady() {
+		return pmtReceived;
+	}
+
+}
@@ -0,0 +1,212 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.remux;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.czentral.dvb.io.DVBChannel;
+import org.czentral.dvb.io.DVBInputStream;
+import org.czentral.dvb.io.FilterDVBInputStream;
+import org.czentral.dvb.io.ts.TSPacket;
+
+/**
+ * A single program transport stream extracted from a multiplex stream. The
+ * multiplex is red straight into the caller's buffer and the packets of the
+ * program are compacted in place, so every byte is copied at most once
+ * more (a packet already in place is not moved at all).
+ *
+ * The stream is packet-aligned: a read returns whole packets whenever the
+ * buffer can hold one. Reads shorter than a packet are served from an
+ * internal packet buffer.
+ */
+public class ProgramInputStream extends FilterDVBInputStream {
+
+	private final ProgramFilter filter;
+
+	/**
+	 * Beginning of a packet cut by the end of a read of the multiplex.
+	 */
+	private final byte[] partial = new byte[TSPacket.SIZE];
+
+	private int partialLength;
+
+	/**
+	 * Packet served to reads shorter than a packet.
+	 */
+	private final byte[] pending = new byte[TSPacket.SIZE];
+
+	private int pendingStart;
+
+	private int pendingEnd;
+
+	private long skippedBytes;
+
+	/**
+	 * Creates a stream extracting a program.
+	 *
+	 * @param in The multiplex.
+	 * @param programNumber The program_number (service_id) to extract.
+	 */
+	public ProgramInputStream(DVBInputStream in, int programNumber) {
+		super(in);
+		filter = new ProgramFilter(programNumber);
+	}
+
+	public int read() throws IOException {
+		if (pendingStart == pendingEnd) {
+			int n = read(pending, 0, TSPacket.SIZE);
+			if (n < 0)
+				return -1;
+			pendingStart = 0;
+			pendingEnd = n;
+		}
+		return pending[pendingStart++] & 0xff;
+	}
+
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (length == 0)
+			return 0;
+
+		if (pendingStart < pendingEnd) {
+			int n = Math.min(length, pendingEnd - pendingStart);
+			System.arraycopy(pending, pendingStart, buffer, offset, n);
+			pendingStart += n;
+			return n;
+		}
+
+		if (length < TSPacket.SIZE) {
+			int n = read(pending, 0, TSPacket.SIZE);
+			if (n < 0)
+				return -1;
+			pendingStart = 0;
+			pendingEnd = n;
+			return read(buffer, offset, length);
+		}
+
+		while (true) {
+			System.arraycopy(partial, 0, buffer, offset, partialLength);
+			int bytesRed = in.read(buffer, offset + partialLength, length - partialLength);
+			if (bytesRed < 0)
+				return -1;
+
+			int end = offset + partialLength + bytesRed;
+			int position = offset;
+			int out = offset;
+
+			// consecutive packets passed are moved by a single copy
+			int run = position;
+			while (end - position >= TSPacket.SIZE) {
+				if (buffer[position] != TSPacket.SYNC_BYTE) {
+					out = move(buffer, run, position, out);
+					skippedBytes++;
+					position++;
+					run = position;
+					continue;
+				}
+				int decision = filter.process(buffer, position);
+				if (decision != ProgramFilter.FORWARD) {
+					out = move(buffer, run, position, out);
+					if (decision == ProgramFilter.PAT) {
+						System.arraycopy(filter.getPatPacket(), 0, buffer, out, TSPacket.SIZE);
+						out += TSPacket.SIZE;
+					}
+					run = position + TSPacket.SIZE;
+				}
+				position += TSPacket.SIZE;
+			}
+			out = move(buffer, run, position, out);
+
+			partialLength = end - position;
+			System.arraycopy(buffer, position, partial, 0, partialLength);
+
+			if (out > offset || bytesRed == 0)
+				return out - offset;
+		}
+	}
+
+	/**
+	 * Moves the packets passed from <code>start</code> to <code>end</code>
+	 * to the output position, and returns the new output position.
+	 */
+	private static int move(byte[] buffer, int start, int end, int out) {
+		int length = end - start;
+		if (length > 0 && out != start)
+			System.arraycopy(buffer, start, buffer, out, length);
+		return out + length;
+	}
+
+	public int read(ByteBuffer buffer) throws IOException {
+		return readViaArray(buffer);
+	}
+
+	public int readChunk(ByteBuffer buffer, int minLength, int maxWaitMillis) throws IOException {
+		return readChunkViaReads(buffer, minLength, maxWaitMillis);
+	}
+
+	/**
+	 * Not supported: the channel would return the whole multiplex.
+	 */
+	public DVBChannel getChannel() throws IOException {
+		throw new UnsupportedOperationException("Channels are not supported by program streams.");
+	}
+
+	public int available() throws IOException {
+		return pendingEnd - pendingStart;
+	}
+
+	/**
+	 * Skips by reading (the skipped data is filtered too).
+	 */
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n) {
+			if (pendingStart == pendingEnd) {
+				int bytesRed = read(pending, 0, TSPacket.SIZE);
+				if (bytesRed <= 0)
+					break;
+				pendingStart = 0;
+				pendingEnd = bytesRed;
+			}
+			int step = (int)Math.min(n - skipped, pendingEnd - pendingStart);
+			pendingStart += step;
+			skipped += step;
+		}
+		return skipped;
+	}
+
+	/**
+	 * Gets the filter following the program.
+	 *
+	 * @return The filter.
+	 */
+	public ProgramFilter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Gets the number of bytes of the multiplex dropped while looking for
+	 * the packet sync.
+	 *
+	 * @return Byte count.
+	 */
+	public long getSkippedBytes() {
+		return skippedBytes;
+	}
+
+}
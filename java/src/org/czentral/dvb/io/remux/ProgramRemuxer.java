@@ -0,0 +1,91 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.remux;
+
+import java.io.IOException;
+
+import org.czentral.dvb.io.ts.PacketSink;
+import org.czentral.dvb.io.ts.TSPacket;
+
+/**
+ * Extracts a single program from a multiplex, packet by packet. The packets
+ * of the program are passed to the downstream sink as they are (the same
+ * view, nothing is copied), the PAT is replaced by the one generated by a
+ * <code>ProgramFilter</code>.
+ */
+public class ProgramRemuxer implements PacketSink {
+
+	private final ProgramFilter filter;
+
+	private final PacketSink out;
+
+	private final TSPacket pat;
+
+	private long forwardedCount;
+
+	/**
+	 * Creates a remuxer.
+	 *
+	 * @param programNumber The program_number (service_id) to extract.
+	 * @param out Receiver of the single program transport stream.
+	 */
+	public ProgramRemuxer(int programNumber, PacketSink out) {
+		this.filter = new ProgramFilter(programNumber);
+		this.out = out;
+		pat = new TSPacket(filter.getPatPacket(), 0);
+	}
+
+	public void write(TSPacket packet) throws IOException {
+		switch (filter.process(packet)) {
+			case ProgramFilter.FORWARD:
+				out.write(packet);
+				forwardedCount++;
+				break;
+			case ProgramFilter.PAT:
+				out.write(pat);
+				forwardedCount++;
+				break;
+		}
+	}
+
+	/**
+	 * Closes the downstream sink.
+	 */
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Gets the filter following the program.
+	 *
+	 * @return The filter.
+	 */
+	public ProgramFilter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Gets the number of packets passed downstream.
+	 *
+	 * @return Packet count.
+	 */
+	public long getForwardedCount() {
+		return forwardedCount;
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.replay;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.czentral.dvb.io.DVBDevice;
+import org.czentral.dvb.io.DVBInputStream;
+import org.czentral.dvb.io.DeviceCapabilities;
+import org.czentral.dvb.io.DeviceContext;
+import org.czentral.dvb.io.StreamLocator;
+
+/**
+ * A virtual tuner playing the recordings of a <code>ReplayDeviceRegistry</code>.
+ * Tuning to a frequency opens the recording mapped to it, the PIDs of the
+ * locator are filtered like the demultiplexer of a real device would do.
+ * Retuning switches to another recording.
+ */
+public class ReplayDevice implements DVBDevice {
+
+	/**
+	 * The registry holding the recordings and the replay settings.
+	 */
+	private final ReplayDeviceRegistry registry;
+
+	/**
+	 * User-friendly name of the device.
+	 */
+	private final String name;
+
+	/**
+	 * Path identifying the device.
+	 */
+	private final String path;
+
+	/**
+	 * Device capabilities: every delivery system, any frequency.
+	 */
+	private final DeviceCapabilities capabilities = new Capabilities();
+
+	ReplayDevice(ReplayDeviceRegistry registry, String name, String path) {
+		this.registry = registry;
+		this.name = name;
+		this.path = path;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public DeviceCapabilities getCapabilities() {
+		return capabilities;
+	}
+
+	public DeviceContext getContext() {
+		return ReplayContext.getInstance();
+	}
+
+	/**
+	 * Opens the recording mapped to the frequency of the locator.
+	 *
+	 * @return The input stream, a <code>ReplayInputStream</code>.
+	 * @throws IOException If there is no recording of the frequency, or it
+	 * can not be opened.
+	 */
+	public DVBInputStream openStreamAt(StreamLocator locator) throws IOException {
+		File file = registry.getRecording(locator.getFrequency());
+		if (file == null)
+			throw new IOException("No recording of " + locator.getFrequency() + " Hz.");
+
+		ReplayInputStream stream = new ReplayInputStream(file, locator.getPids(), registry.getMode(), registry.isLooping());
+		stream.setSignal(registry.getSignalStrength(), registry.getSignalQuality());
+		stream.setRegistry(registry);
+		return stream;
+	}
+
+	public String toString() {
+		return name + " (" + path + ")";
+	}
+
+	/**
+	 * A replay device can stand for any tuner.
+	 */
+	private static class Capabilities extends DeviceCapabilities {
+
+		Capabilities() {
+			capabilities = CAPABLE_DVBS | CAPABLE_DVBC | CAPABLE_DVBT | CAPABLE_DVBT2 | CAPABLE_DVBS2;
+		}
+	}
+
+}
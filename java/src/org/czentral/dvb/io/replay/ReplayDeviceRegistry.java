@@ -0,0 +1,310 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.replay;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+import org.czentral.dvb.io.DVBDevice;
+import org.czentral.dvb.io.DeviceRegistry;
+
+/**
+ * Lists virtual tuners playing recorded transport streams, so the higher
+ * layers can be run and measured without DVB hardware.
+ *
+ * The recordings are mapped to frequencies explicitly with
+ * <code>addRecording</code>, or by the names of the <code>.ts</code> files of
+ * a directory: the leading digits of the name are the frequency in Hertz
+ * (<code>506000000.ts</code>, <code>506000000-00000.ts</code>). When more
+ * files start with the same frequency the first one in alphabetical order is
+ * used.
+ *
+ * The registry is merged into the default registry when the
+ * <code>org.czentral.dvb.io.replay</code> system property names the
+ * directory of the recordings (see <code>fromSystemProperties</code>).
+ */
+public class ReplayDeviceRegistry extends DeviceRegistry {
+
+	/**
+	 * System property naming the directory of the recordings.
+	 */
+	public static final String DIRECTORY_PROPERTY = "org.czentral.dvb.io.replay";
+
+	/**
+	 * System property setting the number of virtual tuners (default 1).
+	 */
+	public static final String TUNERS_PROPERTY = "org.czentral.dvb.io.replay.tuners";
+
+	/**
+	 * System property setting the mode: <code>realtime</code> (the default)
+	 * or <code>fast</code>.
+	 */
+	public static final String MODE_PROPERTY = "org.czentral.dvb.io.replay.mode";
+
+	/**
+	 * Signal strength reported by default.
+	 */
+	private static final int DEFAULT_STRENGTH = 80;
+
+	/**
+	 * Signal quality reported by default.
+	 */
+	private static final int DEFAULT_QUALITY = 90;
+
+	/**
+	 * Directory scanned for recordings, <code>null</code> if none.
+	 */
+	private final File directory;
+
+	/**
+	 * The virtual tuners.
+	 */
+	private final DVBDevice[] devices;
+
+	/**
+	 * Recordings added explicitly, by frequency.
+	 */
+	private final HashMap<Long, File> added = new HashMap<Long, File>();
+
+	/**
+	 * Recordings found in the directory, by frequency.
+	 */
+	private HashMap<Long, File> scanned = new HashMap<Long, File>();
+
+	/**
+	 * <code>ReplayInputStream.FAST</code> or <code>ReplayInputStream.REALTIME</code>.
+	 */
+	private volatile int mode = ReplayInputStream.REALTIME;
+
+	/**
+	 * Whether the recordings are replayed in an endless loop.
+	 */
+	private volatile boolean looping = true;
+
+	/**
+	 * Signal strength reported by the streams.
+	 */
+	private volatile int signalStrength = DEFAULT_STRENGTH;
+
+	/**
+	 * Signal quality reported by the streams.
+	 */
+	private volatile int signalQuality = DEFAULT_QUALITY;
+
+	/**
+	 * Creates a registry without recordings, they are added by
+	 * <code>addRecording</code>.
+	 *
+	 * @param tuners Number of virtual tuners (streams of different
+	 * frequencies open at the same time).
+	 */
+	public ReplayDeviceRegistry(int tuners) {
+		this(null, tuners);
+	}
+
+	/**
+	 * Creates a registry playing the recordings of a directory.
+	 *
+	 * @param directory The directory of the recordings, <code>null</code> for
+	 * none.
+	 * @param tuners Number of virtual tuners (streams of different
+	 * frequencies open at the same time).
+	 */
+	public ReplayDeviceRegistry(File directory, int tuners) {
+		if (tuners < 1)
+			throw new IllegalArgumentException("Invalid number of tuners: " + tuners);
+		this.directory = directory;
+		devices = new DVBDevice[tuners];
+		String base = "replay:" + (directory == null ? "" : directory.getPath());
+		for (int i=0; i<tuners; i++)
+			devices[i] = new ReplayDevice(this, "Replay tuner " + i, base + "#" + i);
+		refresh();
+	}
+
+	/**
+	 * Creates a registry configured by the system properties, see
+	 * <code>DIRECTORY_PROPERTY</code>, <code>TUNERS_PROPERTY</code> and
+	 * <code>MODE_PROPERTY</code>.
+	 *
+	 * @return The registry, or <code>null</code> if no directory is set.
+	 */
+	public static ReplayDeviceRegistry fromSystemProperties() {
+		String path = System.getProperty(DIRECTORY_PROPERTY);
+		if (path == null || path.length() == 0)
+			return null;
+
+		ReplayDeviceRegistry registry = new ReplayDeviceRegistry(new File(path), Integer.getInteger(TUNERS_PROPERTY, 1));
+		if ("fast".equalsIgnoreCase(System.getProperty(MODE_PROPERTY)))
+			registry.setMode(ReplayInputStream.FAST);
+		return registry;
+	}
+
+	/**
+	 * Maps a frequency to a recording. Recordings added this way take
+	 * precedence over the ones found in the directory.
+	 *
+	 * @param frequencyHz The frequency in Hertz.
+	 * @param file The transport stream file.
+	 */
+	public synchronized void addRecording(long frequencyHz, File file) {
+		added.put(Long.valueOf(frequencyHz), file);
+	}
+
+	/**
+	 * Gets the recording mapped to a frequency.
+	 *
+	 * @param frequencyHz The frequency in Hertz.
+	 * @return The file, or <code>null</code> if there is no recording.
+	 */
+	public synchronized File getRecording(long frequencyHz) {
+		Long key = Long.valueOf(frequencyHz);
+		File file = added.get(key);
+		return file != null ? file : scanned.get(key);
+	}
+
+	/**
+	 * Gets the frequencies having a recording.
+	 *
+	 * @return The frequencies in Hertz, in ascending order.
+	 */
+	public synchronized long[] getFrequencies() {
+		TreeMap<Long, File> all = new TreeMap<Long, File>(scanned);
+		all.putAll(added);
+		long[] result = new long[all.size()];
+		int i = 0;
+		for (Long frequency : all.keySet())
+			result[i++] = frequency.longValue();
+		return result;
+	}
+
+	/**
+	 * Sets the pacing of the streams opened afterwards.
+	 *
+	 * @param mode <code>ReplayInputStream.REALTIME</code> (the default) or
+	 * <code>ReplayInputStream.FAST</code>.
+	 */
+	public void setMode(int mode) {
+		if (mode != ReplayInputStream.FAST && mode != ReplayInputStream.REALTIME)
+			throw new IllegalArgumentException("Invalid mode: " + mode);
+		this.mode = mode;
+	}
+
+	/**
+	 * Gets the pacing of the streams.
+	 *
+	 * @return <code>ReplayInputStream.REALTIME</code> or <code>ReplayInputStream.FAST</code>.
+	 */
+	public int getMode() {
+		return mode;
+	}
+
+	/**
+	 * Sets whether the streams opened afterwards start over at the end of
+	 * the recording (the default) or end.
+	 *
+	 * @param looping <code>True</code> to replay in an endless loop.
+	 */
+	public void setLooping(boolean looping) {
+		this.looping = looping;
+	}
+
+	/**
+	 * Gets whether the recordings are replayed in an endless loop.
+	 *
+	 * @return <code>True</code> if the streams never end.
+	 */
+	public boolean isLooping() {
+		return looping;
+	}
+
+	/**
+	 * Sets the signal values reported by the streams opened afterwards.
+	 *
+	 * @param strength Signal strength (0 - 100, -1 for not supported).
+	 * @param quality Signal quality (0 - 100, -1 for not supported).
+	 */
+	public void setSignal(int strength, int quality) {
+		this.signalStrength = strength;
+		this.signalQuality = quality;
+	}
+
+	/**
+	 * Gets the signal strength reported by the streams.
+	 *
+	 * @return Signal strength (0 - 100, or -1).
+	 */
+	public int getSignalStrength() {
+		return signalStrength;
+	}
+
+	/**
+	 * Gets the signal quality reported by the streams.
+	 *
+	 * @return Signal quality (0 - 100, or -1).
+	 */
+	public int getSignalQuality() {
+		return signalQuality;
+	}
+
+	/**
+	 * Returns the virtual tuners of this registry.
+	 *
+	 * @return An array containing the devices.
+	 */
+	public DVBDevice[] getDevices() {
+		return devices.clone();
+	}
+
+	/**
+	 * Scans the directory for recordings again. The devices do not change.
+	 */
+	public synchronized void refresh() {
+		HashMap<Long, File> found = new HashMap<Long, File>();
+		File[] files = directory != null ? directory.listFiles() : null;
+		if (files != null) {
+			Arrays.sort(files);
+			for (int i=0; i<files.length; i++) {
+				long frequency = parseFrequency(files[i]);
+				if (frequency > 0 && !found.containsKey(Long.valueOf(frequency)))
+					found.put(Long.valueOf(frequency), files[i]);
+			}
+		}
+		scanned = found;
+	}
+
+	/**
+	 * Gets the frequency from the name of a recording.
+	 *
+	 * @return The frequency in Hertz, or -1 if the file is not a recording.
+	 */
+	private static long parseFrequency(File file) {
+		String name = file.getName();
+		if (!name.endsWith(".ts") || !file.isFile())
+			return -1;
+
+		int digits = 0;
+		while (digits < name.length() && digits < 18 && Character.isDigit(name.charAt(digits)))
+			digits++;
+		if (digits == 0)
+			return -1;
+		return Long.parseLong(name.substring(0, digits));
+	}
+
+}
@@ -0,0 +1,579 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.BitSet;
+
+import org.czentral.dvb.io.DVBInputStream;
+import org.czentral.dvb.io.StreamLocator;
+import org.czentral.dvb.io.ts.TSPacket;
+
+/**
+ * Reads a recorded transport stream as if it was received by a tuner.
+ *
+ * In <code>FAST</code> mode the data is returned as fast as the file can be
+ * read. In <code>REALTIME</code> mode the data is paced by the PCR of the
+ * first PID carrying one: the packets after a PCR are held back until the
+ * time elapsed since the first PCR reaches the PCR distance. A reader falling
+ * behind gets the delayed data at once (a tuner would overflow instead). A
+ * PCR jump of more than a second (a discontinuity, or the start of the next
+ * loop) starts the pacing over.
+ *
+ * The PIDs are filtered like the demultiplexer of a device does, the signal
+ * values are synthetic. The streams of a <code>ReplayDeviceRegistry</code>
+ * can be retuned to the recording of another frequency.
+ */
+public class ReplayInputStream extends DVBInputStream {
+
+	/**
+	 * Mode returning the data as fast as possible.
+	 */
+	public static final int FAST = 0;
+
+	/**
+	 * Mode returning the data at the pace of the PCR.
+	 */
+	public static final int REALTIME = 1;
+
+	/**
+	 * Number of packets red from the file at once.
+	 */
+	private static final int CHUNK_PACKETS = 348;
+
+	/**
+	 * Number of packets checked for the sync bytes when the file is opened.
+	 */
+	private static final int SYNC_CHECK_PACKETS = 5;
+
+	/**
+	 * PCR values wrap around after 2^33 * 300 units (about 26.5 hours).
+	 */
+	private static final long PCR_WRAP = (1L << 33) * 300;
+
+	/**
+	 * Largest PCR step still paced, 1 second in 27 MHz units.
+	 */
+	private static final long MAX_PCR_STEP = 27000000L;
+
+	private RandomAccessFile file;
+
+	/**
+	 * Offset of the first packet in the file.
+	 */
+	private long start;
+
+	/**
+	 * Registry of the recordings to retune to, <code>null</code> if the
+	 * stream was opened directly.
+	 */
+	private ReplayDeviceRegistry registry;
+
+	/**
+	 * Recording retuned to, switched to by the next read.
+	 */
+	private volatile RandomAccessFile retuned;
+
+	/**
+	 * Time of the last retune (<code>System.nanoTime()</code>), zero once the
+	 * first data after it is red.
+	 */
+	private volatile long retuneTime;
+
+	/**
+	 * Time from the last retune to the first data in milliseconds, -1 if
+	 * none.
+	 */
+	private volatile long zapLatency = -1;
+
+	/**
+	 * Lock waited on while pacing, notified by a retune.
+	 */
+	private final Object pacing = new Object();
+
+	private final int mode;
+
+	private final boolean looping;
+
+	/**
+	 * PIDs passed, <code>StreamLocator.ALL_PIDS</code> for the whole
+	 * multiplex. Replaced (never modified) when PIDs are added or removed.
+	 */
+	private volatile BitSet filter;
+
+	/**
+	 * Packets of the current chunk, the ones filtered out removed.
+	 */
+	private final byte[] buffer = new byte[CHUNK_PACKETS * TSPacket.SIZE];
+
+	private final TSPacket packet = new TSPacket(buffer, 0);
+
+	private int position;
+
+	private int limit;
+
+	/**
+	 * Offsets in the buffer from where the data is held back until the
+	 * corresponding time in <code>markTimes</code>.
+	 */
+	private final int[] markOffsets = new int[CHUNK_PACKETS];
+
+	/**
+	 * Due times of the marks (<code>System.nanoTime()</code>).
+	 */
+	private final long[] markTimes = new long[CHUNK_PACKETS];
+
+	private int markCount;
+
+	/**
+	 * Index of the next mark not yet passed.
+	 */
+	private int mark;
+
+	/**
+	 * PID of the PCR used for pacing, -1 before the first PCR.
+	 */
+	private int pcrPid = -1;
+
+	/**
+	 * Last PCR seen, -1 before the first one (or after a discontinuity).
+	 */
+	private long lastPcr = -1;
+
+	/**
+	 * Time of the first PCR of the paced sequence.
+	 */
+	private long anchorTime;
+
+	/**
+	 * PCR units elapsed since the first PCR of the paced sequence.
+	 */
+	private long elapsed;
+
+	/**
+	 * Due time of the last PCR.
+	 */
+	private long lastDue;
+
+	private long loops;
+
+	private int signalStrength = -1;
+
+	private int signalQuality = -1;
+
+	private final byte[] single = new byte[1];
+
+	private volatile boolean closed;
+
+	/**
+	 * Opens a recording.
+	 *
+	 * @param file The transport stream file.
+	 * @param pids PIDs to pass, empty (or containing
+	 * <code>StreamLocator.ALL_PIDS</code>) for the whole multiplex.
+	 * @param mode <code>FAST</code> or <code>REALTIME</code>.
+	 * @param looping <code>True</code> to start over at the end of the file,
+	 * <code>false</code> to end the stream.
+	 * @throws IOException If the file can not be opened.
+	 */
+	public ReplayInputStream(File file, int[] pids, int mode, boolean looping) throws IOException {
+		if (mode != FAST && mode != REALTIME)
+			throw new IllegalArgumentException("Invalid mode: " + mode);
+		this.mode = mode;
+		this.looping = looping;
+
+		BitSet initial = new BitSet(StreamLocator.ALL_PIDS + 1);
+		for (int i=0; i<pids.length; i++)
+			initial.set(pids[i]);
+		if (initial.isEmpty())
+			initial.set(StreamLocator.ALL_PIDS);
+		filter = initial;
+
+		this.file = new RandomAccessFile(file, "r");
+		try {
+			start = findSync();
+			this.file.seek(start);
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Finds the first packet: the first sync byte followed by further ones at
+	 * the packet distance. Recordings cut at an arbitrary byte start with a
+	 * partial packet.
+	 */
+	private long findSync() throws IOException {
+		int length = file.read(buffer, 0, (SYNC_CHECK_PACKETS + 1) * TSPacket.SIZE);
+		for (int offset=0; offset<TSPacket.SIZE && offset<length; offset++) {
+			boolean synced = true;
+			for (int p=offset; p<length && synced; p+=TSPacket.SIZE)
+				synced = buffer[p] == TSPacket.SYNC_BYTE;
+			if (synced)
+				return offset;
+		}
+		return 0;
+	}
+
+	/**
+	 * Sets the registry resolving the frequencies retuned to.
+	 */
+	void setRegistry(ReplayDeviceRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Switches to the recording of another frequency of the registry. The
+	 * next read starts the new recording, the data of the old one not yet
+	 * red is dropped.
+	 *
+	 * @throws IOException If there is no recording of the frequency, or it
+	 * can not be opened.
+	 * @throws UnsupportedOperationException If the stream is not of a
+	 * registry.
+	 */
+	public void retune(StreamLocator locator) throws IOException {
+		if (registry == null)
+			throw new UnsupportedOperationException("Retuning needs the registry of the recordings.");
+		if (closed)
+			throw new IOException("Stream closed.");
+
+		File recording = registry.getRecording(locator.getFrequency());
+		if (recording == null)
+			throw new IOException("No recording of " + locator.getFrequency() + " Hz.");
+		RandomAccessFile next = new RandomAccessFile(recording, "r");
+
+		RandomAccessFile previous;
+		synchronized (this) {
+			previous = retuned;
+			retuned = next;
+			zapLatency = -1;
+			retuneTime = Math.max(System.nanoTime(), 1);
+		}
+		if (previous != null)
+			previous.close();
+		synchronized (pacing) {
+			pacing.notifyAll();
+		}
+	}
+
+	public long getZapLatency() throws IOException {
+		return zapLatency;
+	}
+
+	/**
+	 * Starts reading the recording retuned to: the buffer and the pacing
+	 * start over.
+	 */
+	private void switchRecording() throws IOException {
+		RandomAccessFile next;
+		synchronized (this) {
+			next = retuned;
+			retuned = null;
+		}
+		file.close();
+		file = next;
+		start = findSync();
+		file.seek(start);
+
+		position = 0;
+		limit = 0;
+		mark = 0;
+		markCount = 0;
+		pcrPid = -1;
+		lastPcr = -1;
+	}
+
+	public synchronized void addPid(int pid) throws IOException {
+		if (pid < 0 || pid > StreamLocator.ALL_PIDS)
+			throw new IllegalArgumentException("Invalid PID: " + pid);
+		BitSet pids = (BitSet)filter.clone();
+		pids.set(pid);
+		filter = pids;
+	}
+
+	public synchronized void removePid(int pid) throws IOException {
+		if (pid < 0 || pid > StreamLocator.ALL_PIDS)
+			throw new IllegalArgumentException("Invalid PID: " + pid);
+		BitSet pids = (BitSet)filter.clone();
+		pids.clear(pid);
+		filter = pids;
+	}
+
+	/**
+	 * Sets the signal values reported.
+	 *
+	 * @param strength Signal strength (0 - 100, -1 for not supported).
+	 * @param quality Signal quality (0 - 100, -1 for not supported).
+	 */
+	public void setSignal(int strength, int quality) {
+		this.signalStrength = strength;
+		this.signalQuality = quality;
+	}
+
+	public boolean isSignalPresent() throws IOException {
+		return true;
+	}
+
+	public boolean isSignalLocked() throws IOException {
+		return true;
+	}
+
+	public int getSignalStrength() throws IOException {
+		return signalStrength;
+	}
+
+	public int getSignalQuality() throws IOException {
+		return signalQuality;
+	}
+
+	/**
+	 * A replay never overflows.
+	 *
+	 * @return Zero.
+	 */
+	public long getOverflowCount() throws IOException {
+		return 0;
+	}
+
+	/**
+	 * A replay never loses data.
+	 *
+	 * @return Zero.
+	 */
+	public long getLostBytes() throws IOException {
+		return 0;
+	}
+
+	/**
+	 * Gets the number of times the recording started over.
+	 *
+	 * @return Number of completed loops.
+	 */
+	public long getLoops() {
+		return loops;
+	}
+
+	/**
+	 * Gets the pacing of this stream.
+	 *
+	 * @return <code>FAST</code> or <code>REALTIME</code>.
+	 */
+	public int getMode() {
+		return mode;
+	}
+
+	public int read() throws IOException {
+		int n;
+		do {
+			n = read(single, 0, 1);
+		} while (n == 0);
+		return n < 0 ? -1 : single[0] & 0xff;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (closed)
+			throw new IOException("Stream closed.");
+
+		int count = 0;
+		while (count < len) {
+			if (retuned != null) {
+				if (count > 0)
+					break;
+				switchRecording();
+			}
+			if (position == limit) {
+				// like a tuner: what is due now is returned, not waiting for more
+				if (count > 0 && mode == REALTIME)
+					break;
+				if (!fill())
+					return count > 0 ? count : -1;
+			}
+
+			int end = mode == REALTIME ? release(count > 0) : limit;
+			if (end == position) {
+				if (count > 0)
+					break;
+				// only marks were left at the end of the chunk
+				continue;
+			}
+			int n = Math.min(len - count, end - position);
+			System.arraycopy(buffer, position, b, off + count, n);
+			position += n;
+			count += n;
+		}
+
+		// the first data after a retune
+		long retuneStart = retuneTime;
+		if (retuneStart != 0 && count > 0) {
+			zapLatency = (System.nanoTime() - retuneStart) / 1000000;
+			retuneTime = 0;
+		}
+		return count;
+	}
+
+	public int available() throws IOException {
+		return mode == FAST ? limit - position : 0;
+	}
+
+	/**
+	 * Gets the end of the data due: passes the marks reached, waits for the
+	 * next one if no data can be returned before it.
+	 *
+	 * @param hasData <code>True</code> if the read already has data, it
+	 * returns instead of waiting.
+	 * @return Offset in the buffer up to which the data is due.
+	 */
+	private int release(boolean hasData) throws IOException {
+		while (mark < markCount) {
+			long wait = markTimes[mark] - System.nanoTime();
+			if (wait > 0) {
+				if (markOffsets[mark] > position)
+					return markOffsets[mark];
+				if (hasData || retuned != null)
+					return position;
+				try {
+					synchronized (pacing) {
+						if (retuned == null)
+							pacing.wait(wait / 1000000, (int)(wait % 1000000));
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while pacing.");
+				}
+				continue;
+			}
+			mark++;
+		}
+		return limit;
+	}
+
+	/**
+	 * Reads the next chunk of the file, filters it and marks the PCRs.
+	 *
+	 * @return <code>False</code> at the end of the stream.
+	 */
+	private boolean fill() throws IOException {
+		BitSet pids = filter;
+		boolean all = pids.get(StreamLocator.ALL_PIDS);
+		position = 0;
+		limit = 0;
+		mark = 0;
+		markCount = 0;
+
+		boolean rewound = false;
+		while (limit == 0) {
+			int red = readPackets();
+			if (red == 0) {
+				// an empty file (or one without full packets) ends anyway
+				if (!looping || rewound)
+					return false;
+				file.seek(start);
+				rewound = true;
+				loops++;
+				continue;
+			}
+			rewound = false;
+
+			int kept = 0;
+			for (int p=0; p<red; p+=TSPacket.SIZE) {
+				packet.wrap(buffer, p);
+				int pid = packet.getPid();
+				if (mode == REALTIME && packet.hasPCR()) {
+					if (pcrPid == -1)
+						pcrPid = pid;
+					if (pid == pcrPid)
+						addMark(kept, due(packet.getPCR()));
+				}
+				if (all || pids.get(pid)) {
+					if (kept != p)
+						System.arraycopy(buffer, p, buffer, kept, TSPacket.SIZE);
+					kept += TSPacket.SIZE;
+				}
+			}
+			limit = kept;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads full packets to the buffer, a partial packet at the end of the
+	 * file is dropped.
+	 *
+	 * @return Number of bytes red, zero at the end of the file.
+	 */
+	private int readPackets() throws IOException {
+		int length = 0;
+		while (length < buffer.length) {
+			int n = file.read(buffer, length, buffer.length - length);
+			if (n < 0)
+				break;
+			length += n;
+		}
+		return length - length % TSPacket.SIZE;
+	}
+
+	/**
+	 * Adds a mark, merged with the previous one at the same offset (the
+	 * packets between were filtered out).
+	 */
+	private void addMark(int offset, long time) {
+		if (markCount > 0 && markOffsets[markCount - 1] == offset) {
+			markTimes[markCount - 1] = time;
+			return;
+		}
+		markOffsets[markCount] = offset;
+		markTimes[markCount] = time;
+		markCount++;
+	}
+
+	/**
+	 * Gets the time a PCR is due.
+	 */
+	private long due(long pcr) {
+		long step = lastPcr < 0 ? PCR_WRAP : ((pcr - lastPcr) % PCR_WRAP + PCR_WRAP) % PCR_WRAP;
+		if (step > MAX_PCR_STEP) {
+			// first PCR, discontinuity or loop: the pacing starts over
+			anchorTime = lastPcr < 0 ? System.nanoTime() : Math.max(System.nanoTime(), lastDue);
+			elapsed = 0;
+		} else {
+			elapsed += step;
+		}
+		lastPcr = pcr;
+		lastDue = anchorTime + elapsed * 1000 / 27;
+		return lastDue;
+	}
+
+	public void close() throws IOException {
+		closed = true;
+		file.close();
+
+		RandomAccessFile next;
+		synchronized (this) {
+			next = retuned;
+			retuned = null;
+		}
+		if (next != null)
+			next.close();
+	}
+
+}
@@ -0,0 +1,551 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.scan;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.TreeMap;
+
+import org.czentral.dvb.io.DVBDevice;
+import org.czentral.dvb.io.DVBInputStream;
+import org.czentral.dvb.io.DVBTStreamLocator;
+import org.czentral.dvb.io.DeviceRegistry;
+import org.czentral.dvb.io.MultiplexSubscriber;
+import org.czentral.dvb.io.SignalStatistics;
+import org.czentral.dvb.io.StreamLocator;
+import org.czentral.dvb.io.TunerPool;
+import org.czentral.dvb.io.psi.NetworkInformationSection;
+import org.czentral.dvb.io.psi.ProgramAssociationSection;
+import org.czentral.dvb.io.psi.Section;
+import org.czentral.dvb.io.psi.SectionAssembler;
+import org.czentral.dvb.io.psi.SectionHandler;
+import org.czentral.dvb.io.psi.ServiceDescriptionSection;
+import org.czentral.dvb.io.ts.TSPacket;
+import org.czentral.dvb.io.ts.TransportStreamReader;
+
+/**
+ * Builds a channel list by scanning a frequency plan on all the idle tuners
+ * of a registry in parallel.
+ *
+ * Every tuner takes the next frequency of the plan, and polls the status of
+ * the frontend (every <code>POLL_INTERVAL</code>) while it tunes: a
+ * frequency without a signal is given up after the signal wait, one with a
+ * signal not locking after the lock wait. On a lock only the PAT, the SDT
+ * and the NIT PIDs are received, and the frequency is done as soon as the
+ * tables are complete (bounded by the table wait, the NIT is repeated only
+ * every 10 seconds by some networks). The empty frequencies of a band cost
+ * a fraction of a second each, a multiplex the repetition time of its
+ * tables.
+ *
+ * The tuners are leased from the <code>TunerPool</code> of the registry, a
+ * frequency already tuned by another user is shared, not retuned.
+ */
+public class ChannelScanner {
+
+	/**
+	 * Default time to wait for a signal, in milliseconds.
+	 */
+	public static final int DEFAULT_SIGNAL_WAIT = 400;
+
+	/**
+	 * Default time to wait for the lock once a signal is present, in
+	 * milliseconds.
+	 */
+	public static final int DEFAULT_LOCK_WAIT = 1500;
+
+	/**
+	 * Default time to wait for the tables after the lock, in milliseconds.
+	 */
+	public static final int DEFAULT_TABLE_WAIT = 12000;
+
+	/**
+	 * Time between two status reads while tuning, in milliseconds.
+	 */
+	public static final int POLL_INTERVAL = 20;
+
+	/**
+	 * Lowest and highest centre frequency of the UHF band (channels 21 - 69)
+	 * and the channel spacing, in Hertz.
+	 */
+	private static final long UHF_FIRST = 474000000L;
+
+	private static final long UHF_LAST = 858000000L;
+
+	private static final long UHF_STEP = 8000000L;
+
+	private final DeviceRegistry registry;
+
+	private volatile int signalWait = DEFAULT_SIGNAL_WAIT;
+
+	private volatile int lockWait = DEFAULT_LOCK_WAIT;
+
+	private volatile int tableWait = DEFAULT_TABLE_WAIT;
+
+	private volatile int maxTuners = Integer.MAX_VALUE;
+
+	/**
+	 * Creates a scanner using the devices of a registry.
+	 *
+	 * @param registry The registry of the tuners.
+	 */
+	public ChannelScanner(DeviceRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Gets the centre frequencies of the European UHF channels 21 - 69.
+	 *
+	 * @return The frequencies in Hertz.
+	 */
+	public static long[] getUhfFrequencies() {
+		long[] frequencies = new long[(int)((UHF_LAST - UHF_FIRST) / UHF_STEP) + 1];
+		for (int i=0; i<frequencies.length; i++)
+			frequencies[i] = UHF_FIRST + i * UHF_STEP;
+		return frequencies;
+	}
+
+	/**
+	 * Sets the time a frequency is given up after without a signal.
+	 *
+	 * @param millis Time in milliseconds.
+	 */
+	public void setSignalWait(int millis) {
+		if (millis < 0)
+			throw new IllegalArgumentException("Negative time: " + millis);
+		signalWait = millis;
+	}
+
+	public int getSignalWait() {
+		return signalWait;
+	}
+
+	/**
+	 * Sets the time a frequency with a signal is given up after without a
+	 * lock, counted from the signal wait.
+	 *
+	 * @param millis Time in milliseconds.
+	 */
+	public void setLockWait(int millis) {
+		if (millis < 0)
+			throw new IllegalArgumentException("Negative time: " + millis);
+		lockWait = millis;
+	}
+
+	public int getLockWait() {
+		return lockWait;
+	}
+
+	/**
+	 * Sets the longest time the tables of a locked frequency are collected.
+	 *
+	 * @param millis Time in milliseconds.
+	 */
+	public void setTableWait(int millis) {
+		if (millis <= 0)
+			throw new IllegalArgumentException("Invalid time: " + millis);
+		tableWait = millis;
+	}
+
+	public int getTableWait() {
+		return tableWait;
+	}
+
+	/**
+	 * Limits the number of tuners used in parallel.
+	 *
+	 * @param count Number of tuners, at least 1.
+	 */
+	public void setMaxTuners(int count) {
+		if (count < 1)
+			throw new IllegalArgumentException("Invalid tuner count: " + count);
+		maxTuners = count;
+	}
+
+	public int getMaxTuners() {
+		return maxTuners;
+	}
+
+	/**
+	 * Scans DVB-T frequencies.
+	 *
+	 * @param frequencies Frequencies in Hertz.
+	 * @return The outcome.
+	 * @throws IOException If the scan is interrupted.
+	 */
+	public ScanResult scan(long[] frequencies) throws IOException {
+		StreamLocator[] locators = new StreamLocator[frequencies.length];
+		for (int i=0; i<frequencies.length; i++) {
+			locators[i] = new DVBTStreamLocator();
+			locators[i].setFrequency(frequencies[i]);
+		}
+		return scan(locators);
+	}
+
+	/**
+	 * Scans the transponders of a set of locators. The locators are copied,
+	 * the PAT, NIT and SDT PIDs are added to the copies (replacing the whole
+	 * multiplex if no PIDs were set); the results refer to the copies.
+	 *
+	 * @param locators The transponders, of any delivery system.
+	 * @return The outcome.
+	 * @throws IOException If the scan is interrupted.
+	 */
+	public ScanResult scan(StreamLocator[] locators) throws IOException {
+		long start = System.currentTimeMillis();
+		ArrayDeque<StreamLocator> plan = new ArrayDeque<StreamLocator>();
+		for (int i=0; i<locators.length; i++) {
+			StreamLocator locator = locators[i].copy();
+			locator.addPid(Section.PID_PAT);
+			locator.addPid(Section.PID_NIT);
+			locator.addPid(Section.PID_SDT);
+			plan.add(locator);
+		}
+
+		// as many workers as idle tuners able to receive the plan
+		TunerPool pool = registry.getTunerPool();
+		int idle = locators.length == 0 ? 0 : pool.getIdleCount(locators[0].getRequiredCapabilities());
+		int tuners = Math.min(Math.min(locators.length, maxTuners), Math.max(1, idle));
+		Scan scan = new Scan(plan, tuners);
+		Thread[] workers = new Thread[tuners];
+		for (int i=0; i<tuners; i++) {
+			workers[i] = new Thread(scan, "ChannelScanner " + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+
+		try {
+			for (int i=0; i<workers.length; i++)
+				workers[i].join();
+		} catch (InterruptedException e) {
+			scan.cancelled = true;
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Scan interrupted.");
+		}
+
+		TransponderInfo[] transponders = scan.results.toArray(new TransponderInfo[scan.results.size()]);
+		Arrays.sort(transponders, new Comparator<TransponderInfo>() {
+			public int compare(TransponderInfo a, TransponderInfo b) {
+				return Long.compare(a.getFrequency(), b.getFrequency());
+			}
+		});
+		return new ScanResult(transponders, System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Scans a frequency on a subscribed tuner.
+	 */
+	private TransponderInfo scan(StreamLocator locator, MultiplexSubscriber subscriber, Scan scan) throws IOException {
+		long start = System.currentTimeMillis();
+		String path = path(subscriber);
+
+		// the status of the frontend itself, the sampler of the multiplex is too slow
+		DVBInputStream source = subscriber.getMultiplex().getSource();
+		SignalStatistics statistics;
+		while (true) {
+			statistics = source.getSignalStatistics();
+			if (statistics.isSignalLocked())
+				break;
+
+			long elapsed = System.currentTimeMillis() - start;
+			if (!statistics.isSignalPresent() && elapsed >= signalWait)
+				return TransponderInfo.failed(locator, path, TransponderInfo.NO_SIGNAL, null, statistics, elapsed);
+			if (elapsed >= signalWait + lockWait)
+				return TransponderInfo.failed(locator, path, TransponderInfo.NO_LOCK, null, statistics, elapsed);
+			if (scan.cancelled)
+				throw new InterruptedIOException("Scan cancelled.");
+			try {
+				Thread.sleep(POLL_INTERVAL);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Scan interrupted.");
+			}
+		}
+		long lockTime = System.currentTimeMillis() - start;
+
+		Tables tables = new Tables(locator.getFrequency(), subscriber);
+		SectionAssembler assembler = new SectionAssembler(tables);
+		tables.assembler = assembler;
+		assembler.addPid(Section.PID_PAT);
+		assembler.addPid(Section.PID_NIT);
+		assembler.addPid(Section.PID_SDT);
+
+		TransportStreamReader in = new TransportStreamReader(subscriber);
+		long deadline = System.currentTimeMillis() + tableWait;
+		while (!tables.isComplete() && !scan.cancelled) {
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0)
+				break;
+			subscriber.setReadTimeout((int)left);
+
+			TSPacket packet;
+			try {
+				packet = in.next();
+			} catch (InterruptedIOException e) {
+				break;
+			}
+			if (packet == null)
+				break;
+			assembler.feed(packet);
+		}
+
+		return new TransponderInfo(locator, path, tables.isComplete() ? TransponderInfo.COMPLETE : TransponderInfo.INCOMPLETE,
+				null, statistics, lockTime, System.currentTimeMillis() - start, tables.transportStreamId,
+				tables.originalNetworkId, tables.networkId, tables.networkName, tables.getNetworkFrequencies(),
+				tables.getServices());
+	}
+
+	private static String path(MultiplexSubscriber subscriber) {
+		DVBDevice device = subscriber.getDevice();
+		return device == null ? null : device.getPath();
+	}
+
+	/**
+	 * The state of a scan shared by the workers.
+	 */
+	class Scan implements Runnable {
+
+		/**
+		 * Locators not scanned yet.
+		 */
+		final ArrayDeque<StreamLocator> plan;
+
+		final ArrayList<TransponderInfo> results = new ArrayList<TransponderInfo>();
+
+		/**
+		 * Workers that will still take locators from the plan: a worker is
+		 * not counted once it found the plan empty (or stopped).
+		 */
+		int workers;
+
+		volatile boolean cancelled;
+
+		Scan(ArrayDeque<StreamLocator> plan, int workers) {
+			this.plan = plan;
+			this.workers = workers;
+		}
+
+		public void run() {
+			boolean taking = true;
+			try {
+				while (!cancelled) {
+					StreamLocator locator = next();
+					if (locator == null) {
+						taking = false;
+						break;
+					}
+					long start = System.currentTimeMillis();
+					MultiplexSubscriber subscriber;
+					try {
+						subscriber = registry.subscribe(locator, MultiplexSubscriber.DROP_OLDEST);
+					} catch (IOException e) {
+
+						// a tuner taken by another user meanwhile: another worker
+						// still taking locators goes on with it
+						synchronized (this) {
+							if (workers > 1 && registry.getTunerPool().getIdleCount(locator.getRequiredCapabilities()) == 0) {
+								plan.addFirst(locator);
+								return;
+							}
+						}
+						add(TransponderInfo.failed(locator, null, TransponderInfo.FAILED, e.getMessage(), null,
+								System.currentTimeMillis() - start));
+						continue;
+					}
+
+					try {
+						add(scan(locator, subscriber, this));
+					} catch (InterruptedIOException e) {
+						return;
+					} catch (IOException e) {
+						add(TransponderInfo.failed(locator, path(subscriber), TransponderInfo.FAILED, e.getMessage(), null,
+								System.currentTimeMillis() - start));
+					} finally {
+						try {
+							subscriber.close();
+						} catch (IOException e) {
+						}
+					}
+				}
+			} finally {
+				if (taking) {
+					synchronized (this) {
+						workers--;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Takes the next locator of the plan. A worker finding the plan empty
+		 * stops being counted (atomically with the check), so a locator put
+		 * back is never left to workers already leaving.
+		 */
+		private synchronized StreamLocator next() {
+			StreamLocator locator = plan.poll();
+			if (locator == null)
+				workers--;
+			return locator;
+		}
+
+		private synchronized void add(TransponderInfo result) {
+			results.add(result);
+		}
+	}
+
+	/**
+	 * Collects the PAT, the SDT and the NIT of a multiplex.
+	 */
+	static class Tables implements SectionHandler {
+
+		private final long frequency;
+
+		private final MultiplexSubscriber subscriber;
+
+		SectionAssembler assembler;
+
+		private final ProgramAssociationSection pat = new ProgramAssociationSection();
+
+		private final ServiceDescriptionSection sdt = new ServiceDescriptionSection();
+
+		private final NetworkInformationSection nit = new NetworkInformationSection();
+
+		int transportStreamId = -1;
+
+		int originalNetworkId = -1;
+
+		int networkId = -1;
+
+		String networkName;
+
+		/**
+		 * PID of the NIT listed by the PAT, -1 if none.
+		 */
+		private int networkPid = -1;
+
+		/**
+		 * PMT PIDs by program number.
+		 */
+		private final TreeMap<Integer, Integer> programs = new TreeMap<Integer, Integer>();
+
+		/**
+		 * SDT entries by service ID.
+		 */
+		private final TreeMap<Integer, ServiceInfo> described = new TreeMap<Integer, ServiceInfo>();
+
+		private final ArrayList<Long> networkFrequencies = new ArrayList<Long>();
+
+		Tables(long frequency, MultiplexSubscriber subscriber) {
+			this.frequency = frequency;
+			this.subscriber = subscriber;
+		}
+
+		public void section(int pid, byte[] buffer, int offset, int length) {
+			int tableId = buffer[offset] & 0xff;
+			if (pid == Section.PID_PAT && tableId == Section.TABLE_PAT) {
+				pat.wrap(buffer, offset, length);
+				transportStreamId = pat.getTransportStreamId();
+				for (int i=0; i<pat.getProgramCount(); i++) {
+					if (pat.getProgramNumber(i) == 0)
+						network(pat.getPid(i));
+					else
+						programs.put(Integer.valueOf(pat.getProgramNumber(i)), Integer.valueOf(pat.getPid(i)));
+				}
+			} else if (pid == Section.PID_SDT && tableId == Section.TABLE_SDT_ACTUAL) {
+				sdt.wrap(buffer, offset, length);
+				originalNetworkId = sdt.getOriginalNetworkId();
+				for (int i=0; i<sdt.getServiceCount(); i++) {
+					int serviceId = sdt.getServiceId(i);
+					described.put(Integer.valueOf(serviceId), new ServiceInfo(frequency, originalNetworkId,
+							sdt.getTransportStreamId(), serviceId, -1, sdt.getServiceType(i), sdt.getProviderName(i),
+							sdt.getServiceName(i), sdt.isScrambled(i)));
+				}
+			} else if (pid == networkPid && tableId == Section.TABLE_NIT_ACTUAL) {
+				nit.wrap(buffer, offset, length);
+				networkId = nit.getTableIdExtension();
+				String name = nit.getNetworkName();
+				if (name != null)
+					networkName = name;
+				for (int i=0; i<nit.getTransportStreamCount(); i++) {
+					long found = nit.getTerrestrialFrequency(i);
+					if (found > 0 && !networkFrequencies.contains(Long.valueOf(found)))
+						networkFrequencies.add(Long.valueOf(found));
+				}
+			}
+		}
+
+		/**
+		 * Follows the NIT to the PID given by the PAT.
+		 */
+		private void network(int pid) {
+			if (pid == networkPid)
+				return;
+			networkPid = pid;
+			if (pid != Section.PID_NIT) {
+				assembler.addPid(pid);
+				try {
+					subscriber.addPid(pid);
+				} catch (IOException e) {
+					// the NIT is not essential, the scan goes on without it
+				}
+			}
+		}
+
+		/**
+		 * Checks if the PAT, the SDT and the NIT (if the PAT has one) are
+		 * complete.
+		 */
+		boolean isComplete() {
+			if (transportStreamId < 0 || !assembler.isComplete(Section.PID_PAT, Section.TABLE_PAT, transportStreamId))
+				return false;
+			if (!assembler.isComplete(Section.PID_SDT, Section.TABLE_SDT_ACTUAL, transportStreamId))
+				return false;
+			return networkPid < 0 || networkId >= 0 && assembler.isComplete(networkPid, Section.TABLE_NIT_ACTUAL, networkId);
+		}
+
+		/**
+		 * Merges the programs of the PAT and the services of the SDT.
+		 */
+		ServiceInfo[] getServices() {
+			TreeMap<Integer, ServiceInfo> merged = new TreeMap<Integer, ServiceInfo>(described);
+			for (Integer program : programs.keySet()) {
+				int pmtPid = programs.get(program).intValue();
+				ServiceInfo entry = described.get(program);
+				if (entry == null)
+					merged.put(program, new ServiceInfo(frequency, originalNetworkId, transportStreamId, program.intValue(),
+							pmtPid, -1, null, null, false));
+				else
+					merged.put(program, new ServiceInfo(frequency, entry.getOriginalNetworkId(), entry.getTransportStreamId(),
+							program.intValue(), pmtPid, entry.getServiceType(), entry.getProviderName(), entry.getName(),
+							entry.isScrambled()));
+			}
+			return merged.values().toArray(new ServiceInfo[merged.size()]);
+		}
+
+		long[] getNetworkFrequencies() {
+			long[] result = new long[networkFrequencies.size()];
+			for (int i=0; i<result.length; i++)
+				result[i] = networkFrequencies.get(i).longValue();
+			Arrays.sort(result);
+			return result;
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.scan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.czentral.dvb.io.SignalStatistics;
+
+/**
+ * The outcome of a scan: the frequencies of the plan, and the service map
+ * built from the multiplexes found.
+ *
+ * A multiplex received on several frequencies (neighbouring transmitters)
+ * is listed at each of them, but its services are mapped only once, at the
+ * frequency of the best signal quality.
+ */
+public class ScanResult {
+
+	private final TransponderInfo[] transponders;
+
+	/**
+	 * Services by original_network_id and service_id.
+	 */
+	private final Map<Long, ServiceInfo> services;
+
+	private final long scanTime;
+
+	ScanResult(TransponderInfo[] transponders, long scanTime) {
+		this.transponders = transponders;
+		this.scanTime = scanTime;
+
+		// the best reception of each multiplex
+		HashMap<Long, TransponderInfo> best = new HashMap<Long, TransponderInfo>();
+		for (int i=0; i<transponders.length; i++) {
+			TransponderInfo transponder = transponders[i];
+			if (!transponder.isLocked() || transponder.getServices().length == 0)
+				continue;
+			Long key = key(transponder.getOriginalNetworkId(), transponder.getTransportStreamId());
+			TransponderInfo other = best.get(key);
+			if (other == null || better(transponder, other))
+				best.put(key, transponder);
+		}
+
+		TreeMap<Long, ServiceInfo> map = new TreeMap<Long, ServiceInfo>();
+		for (TransponderInfo transponder : best.values()) {
+			ServiceInfo[] found = transponder.getServices();
+			for (int i=0; i<found.length; i++)
+				map.put(key(found[i].getOriginalNetworkId(), found[i].getServiceId()), found[i]);
+		}
+		services = Collections.unmodifiableMap(map);
+	}
+
+	/**
+	 * Compares two receptions of the same multiplex: complete tables first,
+	 * then the quality and the strength of the signal.
+	 */
+	private static boolean better(TransponderInfo a, TransponderInfo b) {
+		if (a.getState() != b.getState())
+			return a.getState() == TransponderInfo.COMPLETE;
+		SignalStatistics sa = a.getStatistics();
+		SignalStatistics sb = b.getStatistics();
+		if (sa.getSignalQuality() != sb.getSignalQuality())
+			return sa.getSignalQuality() > sb.getSignalQuality();
+		return sa.getSignalStrength() > sb.getSignalStrength();
+	}
+
+	private static Long key(int high, int low) {
+		return Long.valueOf(((long)high << 16) | (low & 0xffff));
+	}
+
+	/**
+	 * Gets the outcome of each frequency.
+	 *
+	 * @return The frequencies of the plan in ascending order.
+	 */
+	public TransponderInfo[] getTransponders() {
+		return transponders.clone();
+	}
+
+	/**
+	 * Gets the frequencies carrying a multiplex.
+	 *
+	 * @return The locked frequencies in ascending order.
+	 */
+	public TransponderInfo[] getLockedTransponders() {
+		ArrayList<TransponderInfo> locked = new ArrayList<TransponderInfo>();
+		for (int i=0; i<transponders.length; i++)
+			if (transponders[i].isLocked())
+				locked.add(transponders[i]);
+		return locked.toArray(new TransponderInfo[locked.size()]);
+	}
+
+	/**
+	 * Gets the service map.
+	 *
+	 * @return The services by <code>original_network_id &lt;&lt; 16 |
+	 * service_id</code>, in ascending order.
+	 */
+	public Map<Long, ServiceInfo> getServiceMap() {
+		return services;
+	}
+
+	/**
+	 * Gets the services found.
+	 *
+	 * @return The services in the order of the service map.
+	 */
+	public ServiceInfo[] getServices() {
+		return services.values().toArray(new ServiceInfo[services.size()]);
+	}
+
+	/**
+	 * Finds a service.
+	 *
+	 * @param originalNetworkId The original_network_id (-1 for the
+	 * multiplexes without an SDT).
+	 * @param serviceId The service_id.
+	 * @return The service, <code>null</code> if not found.
+	 */
+	public ServiceInfo getService(int originalNetworkId, int serviceId) {
+		return services.get(key(originalNetworkId, serviceId));
+	}
+
+	/**
+	 * Gets the time the scan took.
+	 *
+	 * @return Milliseconds.
+	 */
+	public long getScanTime() {
+		return scanTime;
+	}
+
+	public String toString() {
+		return "ScanResult(frequencies: " + transponders.length + ", locked: " + getLockedTransponders().length
+				+ ", services: " + services.size() + ", time: " + scanTime + " ms)";
+	}
+
+}
@@ -0,0 +1,138 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.scan;
+
+/**
+ * A service (programme) found by a <code>ChannelScanner</code>: the entry of
+ * the PAT and of the SDT with the same program number / service_id.
+ */
+public class ServiceInfo {
+
+	private final long frequency;
+
+	private final int originalNetworkId;
+
+	private final int transportStreamId;
+
+	private final int serviceId;
+
+	private final int pmtPid;
+
+	private final int serviceType;
+
+	private final String providerName;
+
+	private final String name;
+
+	private final boolean scrambled;
+
+	ServiceInfo(long frequency, int originalNetworkId, int transportStreamId, int serviceId, int pmtPid,
+			int serviceType, String providerName, String name, boolean scrambled) {
+		this.frequency = frequency;
+		this.originalNetworkId = originalNetworkId;
+		this.transportStreamId = transportStreamId;
+		this.serviceId = serviceId;
+		this.pmtPid = pmtPid;
+		this.serviceType = serviceType;
+		this.providerName = providerName;
+		this.name = name;
+		this.scrambled = scrambled;
+	}
+
+	/**
+	 * Gets the frequency of the transponder carrying the service.
+	 *
+	 * @return Frequency in Hertz.
+	 */
+	public long getFrequency() {
+		return frequency;
+	}
+
+	/**
+	 * Gets the original_network_id of the SDT.
+	 *
+	 * @return The network ID, -1 if the SDT was not received.
+	 */
+	public int getOriginalNetworkId() {
+		return originalNetworkId;
+	}
+
+	public int getTransportStreamId() {
+		return transportStreamId;
+	}
+
+	/**
+	 * Gets the service_id, the program_number of the PAT and the PMT.
+	 *
+	 * @return The service ID.
+	 */
+	public int getServiceId() {
+		return serviceId;
+	}
+
+	/**
+	 * Gets the PID of the PMT of the service.
+	 *
+	 * @return The PID, -1 if the service is not in the PAT.
+	 */
+	public int getPmtPid() {
+		return pmtPid;
+	}
+
+	/**
+	 * Gets the service type of the service descriptor (1: TV, 2: radio,
+	 * 0x19: HD TV etc.)
+	 *
+	 * @return The type, -1 if not in the SDT.
+	 */
+	public int getServiceType() {
+		return serviceType;
+	}
+
+	/**
+	 * Gets the name of the provider.
+	 *
+	 * @return The name, <code>null</code> if not in the SDT.
+	 */
+	public String getProviderName() {
+		return providerName;
+	}
+
+	/**
+	 * Gets the name of the service.
+	 *
+	 * @return The name, <code>null</code> if not in the SDT.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets if the SDT marks the service scrambled (free_CA_mode).
+	 *
+	 * @return <code>True</code> if scrambled.
+	 */
+	public boolean isScrambled() {
+		return scrambled;
+	}
+
+	public String toString() {
+		return "ServiceInfo(id: " + serviceId + ", name: " + name + ", frequency: " + frequency + ", type: " + serviceType + ")";
+	}
+
+}
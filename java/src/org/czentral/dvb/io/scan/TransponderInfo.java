@@ -0,0 +1,244 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.scan;
+
+import org.czentral.dvb.io.SignalStatistics;
+import org.czentral.dvb.io.StreamLocator;
+
+/**
+ * The outcome of scanning a frequency of the plan.
+ */
+public class TransponderInfo {
+
+	/**
+	 * No signal appeared within the signal wait of the scanner.
+	 */
+	public static final int NO_SIGNAL = 0;
+
+	/**
+	 * A signal was present but did not lock within the lock wait.
+	 */
+	public static final int NO_LOCK = 1;
+
+	/**
+	 * Locked, but not all the tables arrived within the table wait. The
+	 * services found are listed nevertheless.
+	 */
+	public static final int INCOMPLETE = 2;
+
+	/**
+	 * Locked, and the PAT, the SDT and the NIT (if the PAT refers to one)
+	 * are complete.
+	 */
+	public static final int COMPLETE = 3;
+
+	/**
+	 * The device could not be opened or tuned, or failed while reading.
+	 */
+	public static final int FAILED = 4;
+
+	private final StreamLocator locator;
+
+	private final String devicePath;
+
+	private final int state;
+
+	private final String error;
+
+	private final SignalStatistics statistics;
+
+	private final long lockTime;
+
+	private final long scanTime;
+
+	private final int transportStreamId;
+
+	private final int originalNetworkId;
+
+	private final int networkId;
+
+	private final String networkName;
+
+	private final long[] networkFrequencies;
+
+	private final ServiceInfo[] services;
+
+	TransponderInfo(StreamLocator locator, String devicePath, int state, String error, SignalStatistics statistics,
+			long lockTime, long scanTime, int transportStreamId, int originalNetworkId, int networkId,
+			String networkName, long[] networkFrequencies, ServiceInfo[] services) {
+		this.locator = locator;
+		this.devicePath = devicePath;
+		this.state = state;
+		this.error = error;
+		this.statistics = statistics;
+		this.lockTime = lockTime;
+		this.scanTime = scanTime;
+		this.transportStreamId = transportStreamId;
+		this.originalNetworkId = originalNetworkId;
+		this.networkId = networkId;
+		this.networkName = networkName;
+		this.networkFrequencies = networkFrequencies;
+		this.services = services;
+	}
+
+	/**
+	 * Creates the outcome of a frequency without tables.
+	 */
+	static TransponderInfo failed(StreamLocator locator, String devicePath, int state, String error,
+			SignalStatistics statistics, long scanTime) {
+		return new TransponderInfo(locator, devicePath, state, error, statistics, -1, scanTime, -1, -1, -1, null,
+				new long[0], new ServiceInfo[0]);
+	}
+
+	/**
+	 * Gets the locator the frequency was tuned by.
+	 *
+	 * @return The locator.
+	 */
+	public StreamLocator getLocator() {
+		return locator;
+	}
+
+	public long getFrequency() {
+		return locator.getFrequency();
+	}
+
+	/**
+	 * Gets the path of the device that scanned the frequency.
+	 *
+	 * @return The path, <code>null</code> if no device was available.
+	 */
+	public String getDevicePath() {
+		return devicePath;
+	}
+
+	/**
+	 * Gets the outcome.
+	 *
+	 * @return <code>NO_SIGNAL</code>, <code>NO_LOCK</code>,
+	 * <code>INCOMPLETE</code>, <code>COMPLETE</code> or <code>FAILED</code>.
+	 */
+	public int getState() {
+		return state;
+	}
+
+	/**
+	 * Gets if the frequency carries a multiplex (complete or not).
+	 *
+	 * @return <code>True</code> if the signal locked.
+	 */
+	public boolean isLocked() {
+		return state == INCOMPLETE || state == COMPLETE;
+	}
+
+	/**
+	 * Gets the error of a <code>FAILED</code> frequency.
+	 *
+	 * @return The message, <code>null</code> if not failed.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * Gets the reception values at the lock (or at giving up).
+	 *
+	 * @return The values, <code>null</code> if the device failed.
+	 */
+	public SignalStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Gets the time the lock took.
+	 *
+	 * @return Milliseconds from opening the device, -1 if not locked.
+	 */
+	public long getLockTime() {
+		return lockTime;
+	}
+
+	/**
+	 * Gets the time spent on the frequency.
+	 *
+	 * @return Milliseconds from opening to closing the device.
+	 */
+	public long getScanTime() {
+		return scanTime;
+	}
+
+	/**
+	 * Gets the transport_stream_id of the PAT.
+	 *
+	 * @return The ID, -1 if the PAT was not received.
+	 */
+	public int getTransportStreamId() {
+		return transportStreamId;
+	}
+
+	/**
+	 * Gets the original_network_id of the SDT.
+	 *
+	 * @return The ID, -1 if the SDT was not received.
+	 */
+	public int getOriginalNetworkId() {
+		return originalNetworkId;
+	}
+
+	/**
+	 * Gets the network_id of the NIT.
+	 *
+	 * @return The ID, -1 if the NIT was not received.
+	 */
+	public int getNetworkId() {
+		return networkId;
+	}
+
+	/**
+	 * Gets the network name of the NIT.
+	 *
+	 * @return The name, <code>null</code> if not received.
+	 */
+	public String getNetworkName() {
+		return networkName;
+	}
+
+	/**
+	 * Gets the frequencies of the transport streams of the network, from the
+	 * terrestrial delivery descriptors of the NIT.
+	 *
+	 * @return Frequencies in Hertz, empty if not received.
+	 */
+	public long[] getNetworkFrequencies() {
+		return networkFrequencies.clone();
+	}
+
+	/**
+	 * Gets the services of the multiplex.
+	 *
+	 * @return The services in the order of their IDs.
+	 */
+	public ServiceInfo[] getServices() {
+		return services.clone();
+	}
+
+	public String toString() {
+		return "TransponderInfo(frequency: " + getFrequency() + ", state: " + state + ", services: " + services.length + ")";
+	}
+
+}
@@ -0,0 +1,477 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.timeshift;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.czentral.dvb.io.ts.PacketSink;
+import org.czentral.dvb.io.ts.TSPacket;
+import org.czentral.dvb.io.ts.TransportStreamReader;
+
+/**
+ * A fixed size ring of transport stream packets in a memory-mapped file. The
+ * stream is written by a single thread, any number of readers
+ * (<code>TimeshiftReader</code>) play it from any position still in the
+ * ring: pause, rewind and instant replay of a live service.
+ *
+ * Packets are numbered from zero in the order written, packet <i>n</i> is
+ * stored in slot <i>n % capacity</i>. The writer never waits for the
+ * readers: it publishes the number of packets written after every packet,
+ * a reader validates the data it copied against this number and skips
+ * ahead if it fell behind the writer by a whole ring.
+ *
+ * A sparse index maps the arrival time and the PCR to packet numbers, with
+ * an entry at a PCR packet at least every <code>INDEX_INTERVAL</code>
+ * packets. Its entries are published by their count and validated by the
+ * readers the same way.
+ */
+public class TimeshiftBuffer implements PacketSink {
+
+	/**
+	 * Minimal number of packets between index entries.
+	 */
+	public static final int INDEX_INTERVAL = 256;
+
+	/**
+	 * Value of the PCR field of index entries made without PCR.
+	 */
+	public static final long NO_PCR = -1;
+
+	/**
+	 * Packets per mapped segment (a single mapping is limited to 2 GB).
+	 */
+	static final int SEGMENT_SHIFT = 20;
+
+	static final int SEGMENT_PACKETS = 1 << SEGMENT_SHIFT;
+
+	/**
+	 * Smallest ring accepted, in packets.
+	 */
+	private static final int MIN_CAPACITY = 4 * INDEX_INTERVAL;
+
+	private final File file;
+
+	private final RandomAccessFile raf;
+
+	private final FileChannel channel;
+
+	/**
+	 * The mapped segments, used by the writer (the readers have duplicates).
+	 */
+	private final MappedByteBuffer[] segments;
+
+	/**
+	 * Capacity of the ring in packets.
+	 */
+	private final long capacity;
+
+	/**
+	 * Number of packets written, published after every packet.
+	 */
+	private volatile long written;
+
+	/**
+	 * Index entries: packet number, arrival time and PCR.
+	 */
+	private final long[] indexPackets;
+
+	private final long[] indexTimes;
+
+	private final long[] indexPcrs;
+
+	/**
+	 * Number of index entries made, published after every entry.
+	 */
+	private volatile long indexed;
+
+	/**
+	 * PID of the PCR used for indexing, -1 to take the first PID carrying a
+	 * PCR.
+	 */
+	private int pcrPid = -1;
+
+	/**
+	 * Packet number of the last index entry.
+	 */
+	private long lastIndexed = -INDEX_INTERVAL;
+
+	private volatile boolean closed;
+
+	/**
+	 * Monitor of the readers waiting for data.
+	 */
+	private final Object signal = new Object();
+
+	private volatile int waiting;
+
+	/**
+	 * Creates a buffer in a file. The file is created or overwritten, and
+	 * remains after the buffer is closed.
+	 *
+	 * @param file The file holding the ring.
+	 * @param capacityBytes Size of the ring in bytes, rounded down to whole
+	 * packets.
+	 * @throws IOException If the file can not be created or mapped.
+	 */
+	public TimeshiftBuffer(File file, long capacityBytes) throws IOException {
+		capacity = capacityBytes / TSPacket.SIZE;
+		if (capacity < MIN_CAPACITY)
+			throw new IllegalArgumentException("Capacity too small: " + capacityBytes);
+
+		this.file = file;
+		raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(capacity * TSPacket.SIZE);
+			channel = raf.getChannel();
+
+			int segmentCount = (int)((capacity + SEGMENT_PACKETS - 1) >> SEGMENT_SHIFT);
+			segments = new MappedByteBuffer[segmentCount];
+			for (int i=0; i<segmentCount; i++) {
+				long first = (long)i << SEGMENT_SHIFT;
+				long packets = Math.min(SEGMENT_PACKETS, capacity - first);
+				segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, first * TSPacket.SIZE, packets * TSPacket.SIZE);
+			}
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+
+		int indexSize = (int)(capacity / INDEX_INTERVAL) + 2;
+		indexPackets = new long[indexSize];
+		indexTimes = new long[indexSize];
+		indexPcrs = new long[indexSize];
+	}
+
+	/**
+	 * Creates a buffer in a temporary file deleted when the JVM exits.
+	 *
+	 * @param capacityBytes Size of the ring in bytes.
+	 * @return The buffer.
+	 * @throws IOException If the file can not be created or mapped.
+	 */
+	public static TimeshiftBuffer createTemporary(long capacityBytes) throws IOException {
+		File file = File.createTempFile("timeshift", ".ts");
+		file.deleteOnExit();
+		return new TimeshiftBuffer(file, capacityBytes);
+	}
+
+	/**
+	 * Sets the PID whose PCR is indexed. By default the first PID carrying a
+	 * PCR is used.
+	 *
+	 * @param pid The PCR PID of the service, -1 for automatic.
+	 */
+	public void setPcrPid(int pid) {
+		this.pcrPid = pid;
+	}
+
+	/**
+	 * Appends a packet to the ring, overwriting the oldest one if the ring is
+	 * full. Must be called by a single thread.
+	 *
+	 * @param packet The packet.
+	 * @throws IOException If the buffer is closed.
+	 */
+	public void write(TSPacket packet) throws IOException {
+		if (closed)
+			throw new IOException("Timeshift buffer closed.");
+
+		long number = written;
+		int slot = (int)(number % capacity);
+
+		// the readers must see the slot claimed (written == number) before
+		// any of its new data
+		VarHandle.storeStoreFence();
+
+		MappedByteBuffer segment = segments[slot >> SEGMENT_SHIFT];
+		segment.position((slot & (SEGMENT_PACKETS - 1)) * TSPacket.SIZE);
+		segment.put(packet.getBuffer(), packet.getOffset(), TSPacket.SIZE);
+
+		index(packet, number);
+
+		written = number + 1;
+
+		if (waiting > 0) {
+			synchronized (signal) {
+				signal.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Makes an index entry if the packet is due: at a PCR, or without one if
+	 * the stream has no PCR.
+	 */
+	private void index(TSPacket packet, long number) {
+		long distance = number - lastIndexed;
+		if (distance < INDEX_INTERVAL)
+			return;
+
+		long pcr = NO_PCR;
+		if (packet.hasPCR() && (pcrPid == -1 || packet.getPid() == pcrPid)) {
+			if (pcrPid == -1)
+				pcrPid = packet.getPid();
+			pcr = packet.getPCR();
+		} else if (distance < 4 * INDEX_INTERVAL) {
+			return;
+		}
+
+		// published like the packets: the readers must see the entry claimed
+		// (indexed == entry, the slot of entry - length given up) before any
+		// of its new values, and validate the values they read against
+		// indexed afterwards
+		long entry = indexed;
+		int i = (int)(entry % indexPackets.length);
+		VarHandle.storeStoreFence();
+		indexPackets[i] = number;
+		indexTimes[i] = System.currentTimeMillis();
+		indexPcrs[i] = pcr;
+		indexed = entry + 1;
+		lastIndexed = number;
+	}
+
+	/**
+	 * Reads the stream and writes all its packets to the ring, until the end
+	 * of the stream or until the buffer is closed.
+	 *
+	 * @param in The source stream.
+	 * @return Number of packets written.
+	 * @throws IOException If reading the source fails.
+	 */
+	public long record(InputStream in) throws IOException {
+		TransportStreamReader reader = new TransportStreamReader(in);
+		long count = 0;
+		TSPacket packet;
+		while (!closed && (packet = reader.next()) != null) {
+			write(packet);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Opens a reader positioned at the live end of the stream.
+	 *
+	 * @return The reader.
+	 */
+	public TimeshiftReader openReader() {
+		TimeshiftReader reader = new TimeshiftReader(this);
+		reader.seekLive();
+		return reader;
+	}
+
+	/**
+	 * Ends the recording. The readers can still read the data in the ring,
+	 * and get the end of stream at the end of the data.
+	 *
+	 * @throws IOException If closing the file fails.
+	 */
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		synchronized (signal) {
+			signal.notifyAll();
+		}
+		raf.close();
+	}
+
+	/**
+	 * Checks if the recording ended.
+	 *
+	 * @return <code>True</code> if the buffer was closed.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Gets the file holding the ring.
+	 *
+	 * @return The file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Gets the capacity of the ring.
+	 *
+	 * @return Capacity in packets.
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Gets the number of packets written so far.
+	 *
+	 * @return The number of the next packet.
+	 */
+	public long getWrittenCount() {
+		return written;
+	}
+
+	/**
+	 * Gets the oldest packet still in the ring (safe to read: the slot the
+	 * writer is overwriting is excluded).
+	 *
+	 * @return Packet number.
+	 */
+	public long getOldestPacket() {
+		return Math.max(0, written - capacity + 1);
+	}
+
+	/**
+	 * Creates duplicates of the segments for a reader.
+	 */
+	ByteBuffer[] duplicateSegments() {
+		ByteBuffer[] copies = new ByteBuffer[segments.length];
+		for (int i=0; i<segments.length; i++)
+			copies[i] = segments[i].duplicate();
+		return copies;
+	}
+
+	/**
+	 * Waits until a packet is written.
+	 *
+	 * @param number The number of the packet.
+	 * @param timeout Maximal time to wait in milliseconds, zero for no limit.
+	 * @return <code>False</code> if the time ran out.
+	 */
+	boolean awaitPacket(long number, int timeout) throws InterruptedException {
+		if (written > number || closed)
+			return true;
+
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (signal) {
+			waiting++;
+			try {
+				while (written <= number && !closed) {
+					long wait = 0;
+					if (timeout > 0) {
+						wait = deadline - System.currentTimeMillis();
+						if (wait <= 0)
+							return false;
+					}
+					signal.wait(wait);
+				}
+			} finally {
+				waiting--;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the packet received at a time: the index entry made at or
+	 * before the time.
+	 *
+	 * @param time Time in milliseconds since the epoch.
+	 * @return Packet number, the oldest packet if the time is older than the
+	 * ring.
+	 */
+	public long findTime(long time) {
+		return find(indexTimes, time, false);
+	}
+
+	/**
+	 * Finds the packet carrying a PCR (of the indexed PCR PID): the index
+	 * entry with the PCR at or before the one given. The wrap-around of the
+	 * PCR is handled.
+	 *
+	 * @param pcr The PCR in 27 MHz units.
+	 * @return Packet number, the oldest packet if the PCR is older than the
+	 * ring.
+	 */
+	public long findPCR(long pcr) {
+		return find(indexPcrs, pcr, true);
+	}
+
+	/**
+	 * Scans the index backwards for the first entry at or before the value.
+	 */
+	private long find(long[] values, long value, boolean isPcr) {
+		long oldest = getOldestPacket();
+		long end = indexed;
+		long start = Math.max(0, end - indexPackets.length + 1);
+		for (long entry = end - 1; entry >= start; entry--) {
+			int i = (int)(entry % indexPackets.length);
+			long packet = indexPackets[i];
+			long v = values[i];
+
+			// the slot may have been reused while reading it
+			VarHandle.loadLoadFence();
+			if (entry < indexed - indexPackets.length + 1 || packet < oldest)
+				break;
+
+			if (isPcr) {
+				if (v != NO_PCR && pcrBefore(v, value))
+					return packet;
+			} else if (v <= value) {
+				return packet;
+			}
+		}
+		return getOldestPacket();
+	}
+
+	/**
+	 * Checks if a PCR is before (or equal to) an other one, considering the
+	 * wrap-around after 2^33 * 300 units (about 26.5 hours).
+	 */
+	private static boolean pcrBefore(long pcr, long other) {
+		long wrap = (1L << 33) * 300;
+		long distance = ((other - pcr) % wrap + wrap) % wrap;
+		return distance < wrap / 2;
+	}
+
+	/**
+	 * Gets the arrival time of the packet: the time of the index entry at or
+	 * before it.
+	 *
+	 * @param number Packet number.
+	 * @return Time in milliseconds since the epoch, -1 if not known.
+	 */
+	public long getTime(long number) {
+		long end = indexed;
+		long start = Math.max(0, end - indexPackets.length + 1);
+		for (long entry = end - 1; entry >= start; entry--) {
+			int i = (int)(entry % indexPackets.length);
+			long packet = indexPackets[i];
+			long time = indexTimes[i];
+			VarHandle.loadLoadFence();
+			if (entry < indexed - indexPackets.length + 1)
+				break;
+			if (packet <= number)
+				return time;
+		}
+		return -1;
+	}
+
+	public String toString() {
+		return "TimeshiftBuffer(file: " + file + ", capacity: " + capacity + ", written: " + written + ")";
+	}
+
+}
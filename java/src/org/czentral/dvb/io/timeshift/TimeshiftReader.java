@@ -0,0 +1,316 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.timeshift;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.czentral.dvb.io.DVBInputStream;
+import org.czentral.dvb.io.ts.TSPacket;
+
+/**
+ * Plays the stream stored in a <code>TimeshiftBuffer</code> from any position
+ * still in the ring. Readers are independent of each other and of the
+ * writer: each has its own position, and none of them slows down the
+ * recording.
+ *
+ * A reader waits for new packets at the live end (see
+ * <code>setReadTimeout</code>) and gets the end of stream when the recording
+ * ended and all the data was red. A reader falling behind by a whole ring
+ * skips to the oldest data still available; a packet cut by such a skip is
+ * padded to its full length, so the stream stays packet-aligned.
+ *
+ * Not thread-safe, every thread should open its own reader.
+ */
+public class TimeshiftReader extends DVBInputStream {
+
+	private final TimeshiftBuffer buffer;
+
+	/**
+	 * The segments of the ring (duplicates owned by this reader).
+	 */
+	private final ByteBuffer[] segments;
+
+	private final long capacity;
+
+	/**
+	 * Number of the packet being red.
+	 */
+	private long position;
+
+	/**
+	 * Bytes of the current packet already red.
+	 */
+	private int within;
+
+	/**
+	 * Padding bytes to return before the next packet.
+	 */
+	private int padding;
+
+	private long lostPackets;
+
+	private boolean closed;
+
+	TimeshiftReader(TimeshiftBuffer buffer) {
+		this.buffer = buffer;
+		segments = buffer.duplicateSegments();
+		capacity = buffer.getCapacity();
+	}
+
+	public int read(byte[] target, int offset, int length) throws IOException {
+		if (closed)
+			throw new IOException("Reader closed.");
+
+		int total = 0;
+		while (total < length) {
+			if (padding > 0) {
+				int n = Math.min(padding, length - total);
+				Arrays.fill(target, offset + total, offset + total + n, (byte)0xff);
+				padding -= n;
+				total += n;
+				continue;
+			}
+
+			long written = buffer.getWrittenCount();
+			if (position < written - capacity + 1) {
+				skipAhead(written);
+				continue;
+			}
+
+			// at the live end: wait only if nothing has been red
+			if (position >= written) {
+				if (total > 0)
+					break;
+				if (buffer.isClosed() && buffer.getWrittenCount() <= position)
+					return -1;
+				try {
+					if (!buffer.awaitPacket(position, readTimeout))
+						throw new InterruptedIOException("Read timed out.");
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException("Interrupted while waiting for data.");
+				}
+				continue;
+			}
+
+			// copying the packets available in the same segment
+			int slot = (int)(position % capacity);
+			ByteBuffer segment = segments[slot >> TimeshiftBuffer.SEGMENT_SHIFT];
+			int slotInSegment = slot & (TimeshiftBuffer.SEGMENT_PACKETS - 1);
+			long packets = Math.min(written - position, segment.capacity() / TSPacket.SIZE - slotInSegment);
+			int n = (int)Math.min(length - total, packets * TSPacket.SIZE - within);
+			segment.position(slotInSegment * TSPacket.SIZE + within);
+			segment.get(target, offset + total, n);
+
+			// the writer may have overwritten the data while it was copied
+			VarHandle.loadLoadFence();
+			written = buffer.getWrittenCount();
+			if (position < written - capacity + 1) {
+				skipAhead(written);
+				continue;
+			}
+
+			total += n;
+			within += n;
+			position += within / TSPacket.SIZE;
+			within %= TSPacket.SIZE;
+		}
+		return total;
+	}
+
+	/**
+	 * Skips to the oldest data, with a margin so the writer does not catch
+	 * up immediately again.
+	 */
+	private void skipAhead(long written) {
+		long target = Math.min(written, written - capacity + 1 + capacity / 16);
+		lostPackets += target - position;
+		if (within > 0) {
+			padding = TSPacket.SIZE - within;
+			within = 0;
+		}
+		position = target;
+	}
+
+	public int read() throws IOException {
+		byte[] single = new byte[1];
+		int bytesRed = read(single, 0, 1);
+		return bytesRed > 0 ? single[0] & 0xff : -1;
+	}
+
+	public int read(byte[] target) throws IOException {
+		return read(target, 0, target.length);
+	}
+
+	/**
+	 * Gets the number of bytes available without waiting.
+	 */
+	public int available() throws IOException {
+		long bytes = (buffer.getWrittenCount() - position) * TSPacket.SIZE - within + padding;
+		return (int)Math.max(0, Math.min(Integer.MAX_VALUE, bytes));
+	}
+
+	/**
+	 * Moves to a packet. Positions outside the ring are moved to its
+	 * oldest packet or to the live end. A packet being red is padded.
+	 *
+	 * @param packet Packet number.
+	 */
+	public void seek(long packet) {
+		long written = buffer.getWrittenCount();
+		long target = Math.max(buffer.getOldestPacket(), Math.min(written, packet));
+		if (within > 0) {
+			padding = TSPacket.SIZE - within;
+			within = 0;
+		}
+		position = target;
+	}
+
+	/**
+	 * Moves to the packet received at a time (the index entry at or before
+	 * it).
+	 *
+	 * @param time Time in milliseconds since the epoch.
+	 */
+	public void seekTime(long time) {
+		seek(buffer.findTime(time));
+	}
+
+	/**
+	 * Moves back from the live end.
+	 *
+	 * @param millis Time to go back in milliseconds.
+	 */
+	public void seekBack(long millis) {
+		seekTime(System.currentTimeMillis() - millis);
+	}
+
+	/**
+	 * Moves to a PCR of the indexed PCR PID (the index entry at or before
+	 * it).
+	 *
+	 * @param pcr The PCR in 27 MHz units.
+	 */
+	public void seekPCR(long pcr) {
+		seek(buffer.findPCR(pcr));
+	}
+
+	/**
+	 * Moves to the live end of the stream.
+	 */
+	public void seekLive() {
+		seek(buffer.getWrittenCount());
+	}
+
+	/**
+	 * Moves to the oldest packet in the ring.
+	 */
+	public void seekOldest() {
+		seek(buffer.getOldestPacket());
+	}
+
+	/**
+	 * Gets the number of the packet being red.
+	 *
+	 * @return Packet number.
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Gets the distance from the live end.
+	 *
+	 * @return Number of packets not red yet.
+	 */
+	public long getLag() {
+		return buffer.getWrittenCount() - position;
+	}
+
+	/**
+	 * Gets the arrival time of the packet being red (at the resolution of
+	 * the index).
+	 *
+	 * @return Time in milliseconds since the epoch, -1 if not known.
+	 */
+	public long getTime() {
+		return buffer.getTime(position);
+	}
+
+	/**
+	 * Gets the number of packets skipped because the writer overtook this
+	 * reader.
+	 *
+	 * @return Number of packets.
+	 */
+	public long getLostPackets() {
+		return lostPackets;
+	}
+
+	/**
+	 * Gets the buffer played.
+	 *
+	 * @return The buffer.
+	 */
+	public TimeshiftBuffer getBuffer() {
+		return buffer;
+	}
+
+	public void setReadTimeout(int millis) throws IOException {
+		if (millis < 0)
+			throw new IllegalArgumentException("Negative timeout: " + millis);
+		readTimeout = millis;
+	}
+
+	/**
+	 * Closes the reader, the buffer is not affected.
+	 */
+	public void close() throws IOException {
+		closed = true;
+	}
+
+	/**
+	 * Returns <code>true</code> while the buffer is recording.
+	 */
+	public boolean isSignalPresent() throws IOException {
+		return !buffer.isClosed();
+	}
+
+	/**
+	 * Returns <code>true</code> while the buffer is recording.
+	 */
+	public boolean isSignalLocked() throws IOException {
+		return !buffer.isClosed();
+	}
+
+	public int getSignalStrength() throws IOException {
+		return -1;
+	}
+
+	public int getSignalQuality() throws IOException {
+		return -1;
+	}
+
+	public String toString() {
+		return "TimeshiftReader(position: " + position + ", lag: " + getLag() + ", lost: " + lostPackets + ")";
+	}
+
+}
@@ -0,0 +1,38 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.ts;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Consumer of transport stream packets (a recorder, a buffer, a network
+ * output etc.). Packets are views owned by the caller: a sink keeping the
+ * data must copy it before returning.
+ */
+public interface PacketSink extends Closeable {
+
+	/**
+	 * Processes a packet.
+	 *
+	 * @param packet The packet, valid during the call only.
+	 * @throws IOException If the packet can not be processed.
+	 */
+	public void write(TSPacket packet) throws IOException;
+
+}
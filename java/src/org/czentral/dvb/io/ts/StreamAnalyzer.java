@@ -0,0 +1,529 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.ts;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.czentral.dvb.io.DVBChannel;
+import org.czentral.dvb.io.DVBInputStream;
+import org.czentral.dvb.io.FilterDVBInputStream;
+
+/**
+ * A stream stage measuring the health of the transport stream passing
+ * through it. The data is not modified, the reader of this stream gets the
+ * bytes of the underlying stream.
+ *
+ * Counted per PID: packets, continuity counter errors, packets with the
+ * transport_error_indicator set (errors the demodulator could not correct)
+ * and scrambled packets. The bitrate of every PID is measured over a time
+ * window.
+ *
+ * The counters are plain arrays indexed by PID updated by the reading thread
+ * at a cost of a few nanoseconds per packet. At the end of every window the
+ * counters are copied to an immutable <code>Snapshot</code>, which any thread
+ * can get by <code>getSnapshot()</code>.
+ *
+ * Errors of the underlying stream show up differently: a packet lost by the
+ * driver or a slow <code>MultiplexSubscriber</code> is a continuity error on
+ * its PID, a bad reception shows up as transport errors (and continuity
+ * errors, the demodulator drops packets too).
+ */
+public class StreamAnalyzer extends FilterDVBInputStream {
+	
+	/**
+	 * Default length of the bitrate window in milliseconds.
+	 */
+	public static final int DEFAULT_WINDOW = 1000;
+	
+	/**
+	 * Number of PIDs (including the null PID).
+	 */
+	private static final int PID_COUNT = 8192;
+	
+	/**
+	 * Packets between two looks at the clock.
+	 */
+	private static final int CLOCK_INTERVAL = 256;
+	
+	/**
+	 * Packets of the windows closed.
+	 */
+	private final long[] packets = new long[PID_COUNT];
+	
+	private final long[] continuityErrors = new long[PID_COUNT];
+	
+	private final long[] transportErrors = new long[PID_COUNT];
+	
+	private final long[] scrambled = new long[PID_COUNT];
+	
+	/**
+	 * Packets in the current window.
+	 */
+	private final int[] windowPackets = new int[PID_COUNT];
+	
+	/**
+	 * Last continuity counter per PID, -1 if no packet has been seen.
+	 */
+	private final byte[] lastCounter = new byte[PID_COUNT];
+	
+	/**
+	 * Bitrate of the last complete window per PID (bits per second).
+	 */
+	private final long[] bitrates = new long[PID_COUNT];
+	
+	/**
+	 * Beginning of a packet cut by the end of a read.
+	 */
+	private final byte[] partial = new byte[TSPacket.SIZE];
+	
+	private int partialLength;
+	
+	/**
+	 * Times the stream lost the packet sync.
+	 */
+	private long syncLosses;
+	
+	/**
+	 * Currently out of sync (looking for the sync byte).
+	 */
+	private boolean outOfSync;
+	
+	private final long windowNanos;
+	
+	private long windowStart;
+	
+	private int untilClock = CLOCK_INTERVAL;
+	
+	/**
+	 * Buffer used to analyze the data red into a direct buffer or skipped.
+	 */
+	private byte[] scratch;
+	
+	private volatile Snapshot snapshot;
+	
+	/**
+	 * Creates an analyzer with the default bitrate window.
+	 *
+	 * @param in The stream to analyze.
+	 */
+	public StreamAnalyzer(DVBInputStream in) {
+		this(in, DEFAULT_WINDOW);
+	}
+	
+	/**
+	 * Creates an analyzer.
+	 *
+	 * @param in The stream to analyze.
+	 * @param windowMillis Length of the bitrate window in milliseconds.
+	 */
+	public StreamAnalyzer(DVBInputStream in, int windowMillis) {
+		super(in);
+		if (windowMillis <= 0)
+			throw new IllegalArgumentException("Invalid window: " + windowMillis);
+		windowNanos = windowMillis * 1000000L;
+		windowStart = System.nanoTime();
+		Arrays.fill(lastCounter, (byte)-1);
+		snapshot = createSnapshot(windowStart);
+	}
+	
+	public int read() throws IOException {
+		byte[] single = getScratch();
+		int bytesRed = read(single, 0, 1);
+		return bytesRed > 0 ? single[0] & 0xff : -1;
+	}
+	
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		int bytesRed = in.read(buffer, offset, length);
+		if (bytesRed > 0)
+			analyze(buffer, offset, bytesRed);
+		return bytesRed;
+	}
+	
+	public int read(ByteBuffer buffer) throws IOException {
+		int start = buffer.position();
+		int bytesRed = in.read(buffer);
+		analyze(buffer, start, bytesRed);
+		return bytesRed;
+	}
+	
+	public int readChunk(ByteBuffer buffer, int minLength, int maxWaitMillis) throws IOException {
+		int start = buffer.position();
+		int bytesRed = in.readChunk(buffer, minLength, maxWaitMillis);
+		analyze(buffer, start, bytesRed);
+		return bytesRed;
+	}
+	
+	/**
+	 * Not supported: the data red through the channel would not be analyzed.
+	 */
+	public DVBChannel getChannel() throws IOException {
+		throw new UnsupportedOperationException("Channels are not supported by the analyzer.");
+	}
+	
+	/**
+	 * Analyzes the data red into a buffer, the backing array in place or a
+	 * copy of direct memory.
+	 */
+	private void analyze(ByteBuffer buffer, int start, int length) {
+		if (length <= 0)
+			return;
+		
+		if (buffer.hasArray()) {
+			analyze(buffer.array(), buffer.arrayOffset() + start, length);
+			return;
+		}
+		
+		ByteBuffer red = buffer.duplicate();
+		red.position(start);
+		red.limit(start + length);
+		byte[] chunk = getScratch();
+		while (red.hasRemaining()) {
+			int n = Math.min(red.remaining(), chunk.length);
+			red.get(chunk, 0, n);
+			analyze(chunk, 0, n);
+		}
+	}
+	
+	/**
+	 * Skips by reading, the skipped data is analyzed too.
+	 */
+	public long skip(long n) throws IOException {
+		byte[] chunk = getScratch();
+		long skipped = 0;
+		while (skipped < n) {
+			int bytesRed = read(chunk, 0, (int)Math.min(n - skipped, chunk.length));
+			if (bytesRed <= 0)
+				break;
+			skipped += bytesRed;
+		}
+		return skipped;
+	}
+	
+	private byte[] getScratch() {
+		if (scratch == null)
+			scratch = new byte[100 * TSPacket.SIZE];
+		return scratch;
+	}
+	
+	/**
+	 * Processes the data red, the packets cut by the chunk boundaries are
+	 * assembled in a separate buffer.
+	 */
+	private void analyze(byte[] buffer, int offset, int length) {
+		int end = offset + length;
+		int pos = offset;
+		
+		// completing the packet started by the previous chunk
+		if (partialLength > 0) {
+			int n = Math.min(TSPacket.SIZE - partialLength, length);
+			System.arraycopy(buffer, pos, partial, partialLength, n);
+			partialLength += n;
+			pos += n;
+			if (partialLength < TSPacket.SIZE)
+				return;
+			partialLength = 0;
+			packet(partial, 0);
+			untilClock--;
+		}
+		
+		while (pos < end) {
+			if (buffer[pos] != TSPacket.SYNC_BYTE) {
+				if (!outOfSync) {
+					outOfSync = true;
+					syncLosses++;
+				}
+				pos++;
+				continue;
+			}
+			outOfSync = false;
+			
+			if (end - pos < TSPacket.SIZE) {
+				System.arraycopy(buffer, pos, partial, 0, end - pos);
+				partialLength = end - pos;
+				break;
+			}
+			
+			packet(buffer, pos);
+			pos += TSPacket.SIZE;
+			untilClock--;
+		}
+		
+		if (untilClock <= 0) {
+			untilClock = CLOCK_INTERVAL;
+			long now = System.nanoTime();
+			if (now - windowStart >= windowNanos)
+				closeWindow(now);
+		}
+	}
+	
+	/**
+	 * Accounts a single packet.
+	 */
+	private void packet(byte[] buffer, int offset) {
+		int b1 = buffer[offset + 1];
+		int b3 = buffer[offset + 3];
+		int pid = ((b1 & 0x1f) << 8) | (buffer[offset + 2] & 0xff);
+		
+		windowPackets[pid]++;
+		
+		if ((b3 & 0xc0) != 0)
+			scrambled[pid]++;
+		
+		// the header of an erroneous packet is not reliable, no continuity
+		// check (the next packet checks against the last good one)
+		if ((b1 & 0x80) != 0) {
+			transportErrors[pid]++;
+			return;
+		}
+		
+		if (pid == TSPacket.NULL_PID)
+			return;
+		
+		int counter = b3 & 0x0f;
+		int last = lastCounter[pid];
+		lastCounter[pid] = (byte)counter;
+		if (last < 0)
+			return;
+		
+		// the counter increments with payload only, a packet may be sent
+		// twice
+		int expected = (b3 & 0x10) != 0 ? (last + 1) & 0x0f : last;
+		if (counter != expected && counter != last) {
+			
+			// discontinuity_indicator of the adaptation field
+			if ((b3 & 0x20) != 0 && buffer[offset + 4] != 0 && (buffer[offset + 5] & 0x80) != 0)
+				return;
+			continuityErrors[pid]++;
+		}
+	}
+	
+	private void closeWindow(long now) {
+		long elapsed = now - windowStart;
+		for (int pid=0; pid<PID_COUNT; pid++) {
+			int count = windowPackets[pid];
+			if (count != 0 || bitrates[pid] != 0) {
+				packets[pid] += count;
+				bitrates[pid] = count * (TSPacket.SIZE * 8L * 1000000000L) / elapsed;
+				windowPackets[pid] = 0;
+			}
+		}
+		windowStart = now;
+		snapshot = createSnapshot(now);
+	}
+	
+	/**
+	 * Copies the counters of the PIDs seen.
+	 */
+	private Snapshot createSnapshot(long time) {
+		int count = 0;
+		for (int pid=0; pid<PID_COUNT; pid++)
+			if (packets[pid] != 0)
+				count++;
+		
+		Snapshot s = new Snapshot(time, count, syncLosses);
+		int i = 0;
+		for (int pid=0; pid<PID_COUNT; pid++) {
+			if (packets[pid] == 0)
+				continue;
+			s.pids[i] = pid;
+			s.packets[i] = packets[pid];
+			s.continuityErrors[i] = continuityErrors[pid];
+			s.transportErrors[i] = transportErrors[pid];
+			s.scrambled[i] = scrambled[pid];
+			s.bitrates[i] = bitrates[pid];
+			i++;
+		}
+		return s;
+	}
+	
+	/**
+	 * Gets the counters as of the end of the last bitrate window. Can be
+	 * called from any thread, the stream is not disturbed.
+	 *
+	 * @return The last snapshot.
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+	
+	/**
+	 * The counters of the analyzer at a point of time. Immutable.
+	 */
+	public static final class Snapshot {
+		
+		private final long time;
+		
+		private final long syncLosses;
+		
+		private final int[] pids;
+		
+		private final long[] packets;
+		
+		private final long[] continuityErrors;
+		
+		private final long[] transportErrors;
+		
+		private final long[] scrambled;
+		
+		private final long[] bitrates;
+		
+		Snapshot(long time, int count, long syncLosses) {
+			this.time = time;
+			this.syncLosses = syncLosses;
+			pids = new int[count];
+			packets = new long[count];
+			continuityErrors = new long[count];
+			transportErrors = new long[count];
+			scrambled = new long[count];
+			bitrates = new long[count];
+		}
+		
+		/**
+		 * Gets the time the snapshot was taken.
+		 *
+		 * @return Time in <code>System.nanoTime()</code> units.
+		 */
+		public long getTime() {
+			return time;
+		}
+		
+		/**
+		 * Gets the PIDs seen so far.
+		 *
+		 * @return The PIDs in ascending order (a copy).
+		 */
+		public int[] getPids() {
+			return pids.clone();
+		}
+		
+		/**
+		 * Gets the number of times the stream lost the packet sync.
+		 *
+		 * @return Number of sync losses.
+		 */
+		public long getSyncLosses() {
+			return syncLosses;
+		}
+		
+		/**
+		 * Gets the number of packets received on a PID.
+		 *
+		 * @param pid The PID (0 - 8191).
+		 * @return Packet count.
+		 */
+		public long getPackets(int pid) {
+			int i = indexOf(pid);
+			return i >= 0 ? packets[i] : 0;
+		}
+		
+		/**
+		 * Gets the number of continuity counter errors (missing or reordered
+		 * packets) of a PID.
+		 *
+		 * @param pid The PID (0 - 8191).
+		 * @return Error count.
+		 */
+		public long getContinuityErrors(int pid) {
+			int i = indexOf(pid);
+			return i >= 0 ? continuityErrors[i] : 0;
+		}
+		
+		/**
+		 * Gets the number of packets of a PID with the
+		 * transport_error_indicator set.
+		 *
+		 * @param pid The PID (0 - 8191).
+		 * @return Error count.
+		 */
+		public long getTransportErrors(int pid) {
+			int i = indexOf(pid);
+			return i >= 0 ? transportErrors[i] : 0;
+		}
+		
+		/**
+		 * Gets the number of scrambled packets of a PID.
+		 *
+		 * @param pid The PID (0 - 8191).
+		 * @return Packet count.
+		 */
+		public long getScrambledPackets(int pid) {
+			int i = indexOf(pid);
+			return i >= 0 ? scrambled[i] : 0;
+		}
+		
+		/**
+		 * Gets the bitrate of a PID measured in the last window.
+		 *
+		 * @param pid The PID (0 - 8191).
+		 * @return Bits per second.
+		 */
+		public long getBitrate(int pid) {
+			int i = indexOf(pid);
+			return i >= 0 ? bitrates[i] : 0;
+		}
+		
+		/**
+		 * Gets the bitrate of the whole stream measured in the last window.
+		 *
+		 * @return Bits per second.
+		 */
+		public long getTotalBitrate() {
+			long total = 0;
+			for (int i=0; i<bitrates.length; i++)
+				total += bitrates[i];
+			return total;
+		}
+		
+		/**
+		 * Gets the number of continuity errors on all the PIDs.
+		 *
+		 * @return Error count.
+		 */
+		public long getTotalContinuityErrors() {
+			long total = 0;
+			for (int i=0; i<continuityErrors.length; i++)
+				total += continuityErrors[i];
+			return total;
+		}
+		
+		/**
+		 * Gets the number of transport errors on all the PIDs.
+		 *
+		 * @return Error count.
+		 */
+		public long getTotalTransportErrors() {
+			long total = 0;
+			for (int i=0; i<transportErrors.length; i++)
+				total += transportErrors[i];
+			return total;
+		}
+		
+		private int indexOf(int pid) {
+			return Arrays.binarySearch(pids, pid);
+		}
+		
+		public String toString() {
+			return "StreamAnalyzer.Snapshot(pids: " + pids.length + ", bitrate: " + getTotalBitrate()
+					+ ", cc errors: " + getTotalContinuityErrors() + ", transport errors: " + getTotalTransportErrors()
+					+ ", sync losses: " + syncLosses + ")";
+		}
+	}
+	
+}
@@ -0,0 +1,260 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.ts;
+
+/**
+ * A view of a single 188 byte MPEG-2 Transport Stream packet. The packet
+ * data is not copied, all the accessors read the underlying buffer directly.
+ *
+ * Packet objects are owned by the component handing them out (usually a
+ * <code>TransportStreamReader</code>) and are reused. A reference should not
+ * be held longer than the owner guarantees the data to be valid.
+ */
+public final class TSPacket {
+
+	/**
+	 * Size of a TS packet in bytes.
+	 */
+	public static final int SIZE = 188;
+
+	/**
+	 * Value of the sync byte starting every packet.
+	 */
+	public static final int SYNC_BYTE = 0x47;
+
+	/**
+	 * PID of the null (stuffing) packets.
+	 */
+	public static final int NULL_PID = 0x1fff;
+
+	/**
+	 * The buffer containing the packet.
+	 */
+	private byte[] buffer;
+
+	/**
+	 * Offset of the packet in the buffer.
+	 */
+	private int offset;
+
+	/**
+	 * Creates a packet view over the given buffer.
+	 *
+	 * @param buffer Buffer containing the packet data.
+	 * @param offset Offset of the first (sync) byte.
+	 */
+	public TSPacket(byte[] buffer, int offset) {
+		this.buffer = buffer;
+		this.offset = offset;
+	}
+
+	/**
+	 * Moves this view to a different packet.
+	 *
+	 * @param buffer Buffer containing the packet data.
+	 * @param offset Offset of the first (sync) byte.
+	 */
+	public void wrap(byte[] buffer, int offset) {
+		this.buffer = buffer;
+		this.offset = offset;
+	}
+
+	/**
+	 * Gets the buffer holding the packet.
+	 *
+	 * @return The shared buffer (not a copy).
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Gets the offset of the packet within the buffer.
+	 *
+	 * @return The offset of the sync byte.
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Gets the packet identifier.
+	 *
+	 * @return The PID (0 - 8191).
+	 */
+	public int getPid() {
+		return getPid(buffer, offset);
+	}
+
+	/**
+	 * Gets the transport_error_indicator flag.
+	 *
+	 * @return <code>True</code> if the demodulator found uncorrectable errors.
+	 */
+	public boolean isTransportError() {
+		return (buffer[offset + 1] & 0x80) != 0;
+	}
+
+	/**
+	 * Gets the payload_unit_start_indicator flag.
+	 *
+	 * @return <code>True</code> if a PES packet or a PSI section starts in
+	 * this packet.
+	 */
+	public boolean isPayloadUnitStart() {
+		return (buffer[offset + 1] & 0x40) != 0;
+	}
+
+	/**
+	 * Gets the transport_priority flag.
+	 *
+	 * @return <code>True</code> if the packet has higher priority.
+	 */
+	public boolean isPriority() {
+		return (buffer[offset + 1] & 0x20) != 0;
+	}
+
+	/**
+	 * Gets the transport_scrambling_control field.
+	 *
+	 * @return Zero if the payload is not scrambled.
+	 */
+	public int getScramblingControl() {
+		return (buffer[offset + 3] >> 6) & 0x03;
+	}
+
+	/**
+	 * Checks if the payload is scrambled.
+	 *
+	 * @return <code>True</code> if the scrambling control is not zero.
+	 */
+	public boolean isScrambled() {
+		return (buffer[offset + 3] & 0xc0) != 0;
+	}
+
+	/**
+	 * Checks if the packet contains an adaptation field.
+	 *
+	 * @return <code>True</code> if an adaptation field is present.
+	 */
+	public boolean hasAdaptationField() {
+		return (buffer[offset + 3] & 0x20) != 0;
+	}
+
+	/**
+	 * Checks if the packet carries payload.
+	 *
+	 * @return <code>True</code> if payload is present.
+	 */
+	public boolean hasPayload() {
+		return (buffer[offset + 3] & 0x10) != 0;
+	}
+
+	/**
+	 * Gets the continuity_counter field.
+	 *
+	 * @return The continuity counter (0 - 15).
+	 */
+	public int getContinuityCounter() {
+		return buffer[offset + 3] & 0x0f;
+	}
+
+	/**
+	 * Checks the discontinuity_indicator of the adaptation field.
+	 *
+	 * @return <code>True</code> if the adaptation field signals a discontinuity.
+	 */
+	public boolean isDiscontinuity() {
+		return hasAdaptationField() && (buffer[offset + 4] & 0xff) > 0 && (buffer[offset + 5] & 0x80) != 0;
+	}
+
+	/**
+	 * Checks the random_access_indicator of the adaptation field.
+	 *
+	 * @return <code>True</code> if the packet is a random access point.
+	 */
+	public boolean isRandomAccess() {
+		return hasAdaptationField() && (buffer[offset + 4] & 0xff) > 0 && (buffer[offset + 5] & 0x40) != 0;
+	}
+
+	/**
+	 * Checks if the adaptation field carries a program clock reference.
+	 *
+	 * @return <code>True</code> if a PCR is present.
+	 */
+	public boolean hasPCR() {
+		return hasAdaptationField() && (buffer[offset + 4] & 0xff) >= 7 && (buffer[offset + 5] & 0x10) != 0;
+	}
+
+	/**
+	 * Gets the program clock reference. Only valid if <code>hasPCR()</code>
+	 * returns true.
+	 *
+	 * @return The PCR in 27 MHz units.
+	 */
+	public long getPCR() {
+		int p = offset + 6;
+		long base = ((long)(buffer[p] & 0xff) << 25)
+				| ((buffer[p + 1] & 0xff) << 17)
+				| ((buffer[p + 2] & 0xff) << 9)
+				| ((buffer[p + 3] & 0xff) << 1)
+				| ((buffer[p + 4] & 0xff) >> 7);
+		int extension = ((buffer[p + 4] & 0x01) << 8) | (buffer[p + 5] & 0xff);
+		return base * 300 + extension;
+	}
+
+	/**
+	 * Gets the offset of the payload in the buffer (not relative to the
+	 * packet).
+	 *
+	 * @return Offset of the first payload byte. Equals
+	 * <code>getOffset() + SIZE</code> if there is no payload.
+	 */
+	public int getPayloadOffset() {
+		int flags = buffer[offset + 3];
+		if ((flags & 0x10) == 0)
+			return offset + SIZE;
+		if ((flags & 0x20) == 0)
+			return offset + 4;
+		return Math.min(offset + 5 + (buffer[offset + 4] & 0xff), offset + SIZE);
+	}
+
+	/**
+	 * Gets the number of payload bytes.
+	 *
+	 * @return Payload length (0 - 184).
+	 */
+	public int getPayloadLength() {
+		return offset + SIZE - getPayloadOffset();
+	}
+
+	/**
+	 * Gets the PID of a raw packet.
+	 *
+	 * @param buffer Buffer containing the packet.
+	 * @param offset Offset of the sync byte.
+	 * @return The PID (0 - 8191).
+	 */
+	public static int getPid(byte[] buffer, int offset) {
+		return ((buffer[offset + 1] & 0x1f) << 8) | (buffer[offset + 2] & 0xff);
+	}
+
+	public String toString() {
+		return "TSPacket(pid: " + getPid() + ", cc: " + getContinuityCounter() + ")";
+	}
+}
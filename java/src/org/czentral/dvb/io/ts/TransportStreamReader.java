@@ -0,0 +1,293 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.ts;
+
+import java.io.InputStream;
+import java.io.IOException;
+
+/**
+ * Splits a raw transport stream into packets. Data is red in large chunks
+ * into a ring of packet slots, the packets handed out are views of these
+ * slots, so no objects are created and no data is copied per packet.
+ *
+ * The stream is checked for sync bytes. If a packet does not start with a
+ * sync byte (bytes lost by the driver, a corrupt recording etc.) the reader
+ * drops data until two consecutive sync bytes 188 bytes apart are found
+ * again.
+ *
+ * A packet returned by <code>next()</code> remains valid (neither the object
+ * nor the data is reused) for the next <code>getRingSize() / 2</code> calls.
+ *
+ * Not thread-safe.
+ */
+public class TransportStreamReader {
+
+	/**
+	 * Default number of packet slots in the ring.
+	 */
+	public static final int DEFAULT_RING_SIZE = 512;
+
+	/**
+	 * Source of the raw stream.
+	 */
+	private InputStream in;
+
+	/**
+	 * The ring, a whole number of packet slots.
+	 */
+	private byte[] buffer;
+
+	/**
+	 * Packet views, one for every slot.
+	 */
+	private TSPacket[] packets;
+
+	/**
+	 * Bytes of already returned packets protected from being overwritten.
+	 */
+	private int retainBytes;
+
+	/**
+	 * Absolute stream position (in ring bytes) of the next packet. Always a
+	 * multiple of the packet size, so packets never wrap around the end of
+	 * the ring.
+	 */
+	private long readPosition;
+
+	/**
+	 * Absolute stream position (in ring bytes) of the end of the data red.
+	 */
+	private long writePosition;
+
+	/**
+	 * If the position of the packet boundaries is known.
+	 */
+	private boolean inSync;
+
+	/**
+	 * End of the source stream reached.
+	 */
+	private boolean endOfStream;
+
+	private long packetCount;
+
+	private long syncLossCount;
+
+	private long skippedBytes;
+
+	/**
+	 * Creates a reader with the default ring size.
+	 *
+	 * @param in The source of the transport stream.
+	 */
+	public TransportStreamReader(InputStream in) {
+		this(in, DEFAULT_RING_SIZE);
+	}
+
+	/**
+	 * Creates a reader.
+	 *
+	 * @param in The source of the transport stream.
+	 * @param ringSize Number of packet slots (at least 8). Half of the ring
+	 * is used to read ahead, the other half keeps the returned packets valid.
+	 */
+	public TransportStreamReader(InputStream in, int ringSize) {
+		if (ringSize < 8)
+			throw new IllegalArgumentException("Ring size too small: " + ringSize);
+
+		this.in = in;
+		buffer = new byte[ringSize * TSPacket.SIZE];
+		packets = new TSPacket[ringSize];
+		for (int i=0; i<ringSize; i++)
+			packets[i] = new TSPacket(buffer, i * TSPacket.SIZE);
+		retainBytes = (ringSize / 2) * TSPacket.SIZE;
+	}
+
+	/**
+	 * Gets the next packet of the stream.
+	 *
+	 * @return The packet, or <code>null</code> at the end of the stream.
+	 * @throws IOException If reading the source fails.
+	 */
+	public TSPacket next() throws IOException {
+
+		while (true) {
+
+			// in sync: just check the sync byte of the next packet
+			if (inSync) {
+				if (!fill(TSPacket.SIZE))
+					return null;
+
+				if (buffer[index(readPosition)] == TSPacket.SYNC_BYTE)
+					return take();
+
+				inSync = false;
+				syncLossCount++;
+			}
+
+			// looking for two consecutive sync bytes
+			if (!fill(TSPacket.SIZE + 1)) {
+
+				// at the end of the stream a single packet has to do
+				if (writePosition - readPosition >= TSPacket.SIZE && buffer[index(readPosition)] == TSPacket.SYNC_BYTE)
+					return take();
+				return null;
+			}
+
+			long candidate = findSync();
+			if (candidate == readPosition) {
+				inSync = true;
+				continue;
+			}
+
+			// dropping the garbage (keeping the data in which the sync may
+			// still be found when more data arrives)
+			long from = candidate >= 0 ? candidate : writePosition - TSPacket.SIZE;
+			skippedBytes += from - readPosition;
+			realign(from);
+		}
+	}
+
+	/**
+	 * Finds the first position where two sync bytes are 188 bytes apart.
+	 *
+	 * @return Absolute stream position, or -1 if not found in the data red.
+	 */
+	private long findSync() {
+		for (long p = readPosition; p + TSPacket.SIZE < writePosition; p++) {
+			if (buffer[index(p)] == TSPacket.SYNC_BYTE && buffer[index(p + TSPacket.SIZE)] == TSPacket.SYNC_BYTE)
+				return p;
+		}
+		return -1;
+	}
+
+	/**
+	 * Moves the data starting at <code>from</code> to the read position, so
+	 * the packet boundary matches a slot boundary again. (Rare, only done
+	 * when the sync is lost.)
+	 */
+	private void realign(long from) {
+		long length = writePosition - from;
+		for (long i=0; i<length; i++)
+			buffer[index(readPosition + i)] = buffer[index(from + i)];
+		writePosition = readPosition + length;
+	}
+
+	/**
+	 * Hands out the packet at the read position.
+	 */
+	private TSPacket take() {
+		TSPacket packet = packets[index(readPosition) / TSPacket.SIZE];
+		readPosition += TSPacket.SIZE;
+		packetCount++;
+		return packet;
+	}
+
+	/**
+	 * Reads from the source until at least <code>bytes</code> are available
+	 * after the read position.
+	 *
+	 * @return <code>False</code> if the end of the stream is reached before.
+	 */
+	private boolean fill(int bytes) throws IOException {
+		while (writePosition - readPosition < bytes) {
+			if (endOfStream)
+				return false;
+
+			// never overwriting the packets still guaranteed to be valid
+			long limit = readPosition - retainBytes + buffer.length;
+			int start = index(writePosition);
+			int length = (int)Math.min(buffer.length - start, limit - writePosition);
+
+			int bytesRed = in.read(buffer, start, length);
+			if (bytesRed < 0) {
+				endOfStream = true;
+				return false;
+			}
+			writePosition += bytesRed;
+		}
+		return true;
+	}
+
+	private int index(long position) {
+		return (int)(position % buffer.length);
+	}
+
+	/**
+	 * Passes all the packets of the stream to a sink, until the end of the
+	 * stream. The sink is not closed.
+	 *
+	 * @param sink The consumer of the packets.
+	 * @return Number of packets passed.
+	 * @throws IOException If reading the source or writing the sink fails.
+	 */
+	public long transferTo(PacketSink sink) throws IOException {
+		long count = 0;
+		TSPacket packet;
+		while ((packet = next()) != null) {
+			sink.write(packet);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the number of packet slots.
+	 *
+	 * @return The ring size in packets.
+	 */
+	public int getRingSize() {
+		return packets.length;
+	}
+
+	/**
+	 * Gets the number of packets returned so far.
+	 *
+	 * @return Number of packets.
+	 */
+	public long getPacketCount() {
+		return packetCount;
+	}
+
+	/**
+	 * Gets how many times the sync was lost.
+	 *
+	 * @return Number of sync losses.
+	 */
+	public long getSyncLossCount() {
+		return syncLossCount;
+	}
+
+	/**
+	 * Gets the number of bytes dropped while looking for the sync.
+	 *
+	 * @return Number of bytes.
+	 */
+	public long getSkippedBytes() {
+		return skippedBytes;
+	}
+
+	/**
+	 * Closes the source stream.
+	 *
+	 * @throws IOException If closing the source fails.
+	 */
+	public void close() throws IOException {
+		in.close();
+	}
+}
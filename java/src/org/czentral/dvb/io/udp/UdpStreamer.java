@@ -0,0 +1,642 @@
+/*
+This file is part of DVB Input Stream API by Varga Bence.
+
+DVB Input Stream API is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+DVB Input Stream API is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with DVB Input Stream API.  If not, see <http://www.gnu.org/licenses/>.
+*/ 
+
+package org.czentral.dvb.io.udp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.PortUnreachableException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import org.czentral.dvb.io.ts.PacketSink;
+import org.czentral.dvb.io.ts.TSPacket;
+import org.czentral.dvb.io.ts.TransportStreamReader;
+
+/**
+ * Sends a transport stream over UDP (unicast or multicast), seven packets
+ * per datagram, raw or with an RTP header (RFC 2250, payload type 33).
+ *
+ * The packets are gathered into a pool of direct buffers, one per datagram,
+ * and the datagrams are sent by a dedicated thread on a connected
+ * <code>DatagramChannel</code>. The sends are paced by the PCR of the stream
+ * (of the first PID carrying one, or of the PID set by
+ * <code>setPcrPid</code>): the datagrams between two PCRs wait for the second
+ * one, and are timed evenly between the two, so the receivers get the stream
+ * at its own rate instead of in the bursts it is red in. The sender wakes up
+ * once for all the datagrams due within <code>BATCH_WINDOW</code> and sends
+ * them back to back.
+ *
+ * A source faster than the stream (a file) is held up by <code>write</code>
+ * when it gets <code>MAX_AHEAD</code> ahead of the sends, or when all the
+ * datagrams are waiting to be sent. A source falling behind (a stalled tuner)
+ * restarts the pacing, the data is not sent in a burst to catch up.
+ *
+ * <code>write</code> must be called by a single thread.
+ */
+public class UdpStreamer implements PacketSink {
+
+	/**
+	 * Number of TS packets in a datagram, the most fitting an Ethernet frame.
+	 */
+	public static final int PACKETS_PER_DATAGRAM = 7;
+
+	/**
+	 * Size of the RTP header.
+	 */
+	public static final int RTP_HEADER_SIZE = 12;
+
+	/**
+	 * RTP payload type of MPEG 2 transport streams.
+	 */
+	public static final int RTP_PAYLOAD_TYPE = 33;
+
+	/**
+	 * Default number of datagram buffers (about 1.3 MB).
+	 */
+	public static final int DEFAULT_DATAGRAM_COUNT = 1024;
+
+	/**
+	 * Datagrams due within this time are sent together, in nanoseconds.
+	 */
+	public static final long BATCH_WINDOW = 1000000;
+
+	/**
+	 * Farthest the source may get ahead of the sends, in nanoseconds.
+	 */
+	public static final long MAX_AHEAD = 100000000;
+
+	/**
+	 * Size of the send buffer of the socket.
+	 */
+	private static final int SEND_BUFFER_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * PCR values wrap around after 2^33 * 300 units (about 26.5 hours).
+	 */
+	private static final long PCR_WRAP = (1L << 33) * 300;
+
+	/**
+	 * Largest PCR step still paced, 1 second in 27 MHz units.
+	 */
+	private static final long MAX_PCR_STEP = 27000000L;
+
+	/**
+	 * Largest lag of the source still caught up with, in nanoseconds.
+	 */
+	private static final long MAX_LAG = 1000000000L;
+
+	private final DatagramChannel channel;
+
+	private final boolean rtp;
+
+	/**
+	 * Datagrams ready to be filled.
+	 */
+	private final BlockingQueue<Datagram> free;
+
+	/**
+	 * Datagrams waiting to be sent, in the order of the stream.
+	 * <code>END</code> ends the sender.
+	 */
+	private final BlockingQueue<Datagram> filled;
+
+	/**
+	 * Marker ending the sender.
+	 */
+	private static final Datagram END = new Datagram(null);
+
+	/**
+	 * Datagram being filled.
+	 */
+	private Datagram current;
+
+	/**
+	 * Complete datagrams waiting for the next PCR to be timed.
+	 */
+	private final ArrayDeque<Datagram> waiting = new ArrayDeque<Datagram>();
+
+	private final Thread sender;
+
+	private boolean started;
+
+	private boolean closed;
+
+	/**
+	 * First error of the sender thread, thrown by the next write.
+	 */
+	private volatile IOException failure;
+
+	private volatile boolean paced = true;
+
+	/**
+	 * PID of the PCR used for pacing, -1 until the first PCR (if not set).
+	 */
+	private volatile int pcrPid = -1;
+
+	/**
+	 * Last PCR seen, -1 before the first one.
+	 */
+	private long lastPcr = -1;
+
+	/**
+	 * Time of the first PCR of the paced sequence.
+	 */
+	private long anchorTime;
+
+	/**
+	 * PCR units elapsed since the first PCR of the paced sequence.
+	 */
+	private long elapsed;
+
+	/**
+	 * Due time of the last PCR, zero before the first one.
+	 */
+	private long lastDue;
+
+	/**
+	 * Bitrate between the last two PCRs in bytes per nanosecond, zero if not
+	 * known.
+	 */
+	private double byteRate;
+
+	/**
+	 * Bytes since the last PCR.
+	 */
+	private long pcrBytes;
+
+	private final int ssrc;
+
+	private int sequence;
+
+	private volatile long sentDatagrams;
+
+	private volatile long sentBytes;
+
+	private volatile long droppedDatagrams;
+
+	/**
+	 * Creates a streamer with the default number of datagram buffers.
+	 *
+	 * @param target Address (unicast or multicast) and port of the receivers.
+	 * @param rtp <code>True</code> to send RTP, <code>false</code> for raw
+	 * UDP.
+	 * @throws IOException If the socket can not be opened.
+	 */
+	public UdpStreamer(InetSocketAddress target, boolean rtp) throws IOException {
+		this(target, rtp, DEFAULT_DATAGRAM_COUNT);
+	}
+
+	/**
+	 * Creates a streamer.
+	 *
+	 * @param target Address (unicast or multicast) and port of the receivers.
+	 * @param rtp <code>True</code> to send RTP, <code>false</code> for raw
+	 * UDP.
+	 * @param datagramCount Number of datagram buffers (at least 2).
+	 * @throws IOException If the socket can not be opened.
+	 */
+	public UdpStreamer(InetSocketAddress target, boolean rtp, int datagramCount) throws IOException {
+		if (datagramCount < 2)
+			throw new IllegalArgumentException("At least two datagrams needed: " + datagramCount);
+		if (target.isUnresolved())
+			throw new IOException("Unresolved address: " + target);
+
+		this.rtp = rtp;
+		channel = DatagramChannel.open(target.getAddress() instanceof Inet6Address ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+		try {
+			channel.setOption(StandardSocketOptions.SO_SNDBUF, Integer.valueOf(SEND_BUFFER_SIZE));
+			channel.connect(target);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		int size = (rtp ? RTP_HEADER_SIZE : 0) + PACKETS_PER_DATAGRAM * TSPacket.SIZE;
+		free = new ArrayBlockingQueue<Datagram>(datagramCount);
+		filled = new ArrayBlockingQueue<Datagram>(datagramCount + 1);
+		for (int i=0; i<datagramCount; i++)
+			free.add(new Datagram(ByteBuffer.allocateDirect(size)));
+
+		Random random = new Random();
+		ssrc = random.nextInt();
+		sequence = random.nextInt(65536);
+
+		sender = new Sender();
+		sender.setDaemon(true);
+	}
+
+	/**
+	 * Sets whether the datagrams are paced by the PCR (the default) or sent
+	 * as fast as they are written.
+	 *
+	 * @param paced <code>True</code> to follow the PCR.
+	 */
+	public void setPaced(boolean paced) {
+		this.paced = paced;
+	}
+
+	/**
+	 * Gets whether the datagrams are paced by the PCR.
+	 *
+	 * @return <code>True</code> if paced.
+	 */
+	public boolean isPaced() {
+		return paced;
+	}
+
+	/**
+	 * Sets the PID whose PCR paces the stream. Must be called before the
+	 * first packet.
+	 *
+	 * @param pid The PID, -1 for the first PID carrying a PCR (the default).
+	 */
+	public void setPcrPid(int pid) {
+		if (pid < -1 || pid >= TSPacket.NULL_PID)
+			throw new IllegalArgumentException("Invalid PID: " + pid);
+		this.pcrPid = pid;
+	}
+
+	/**
+	 * Sets the time to live of multicast datagrams.
+	 *
+	 * @param ttl Number of hops (the default is 1, the local network).
+	 * @throws IOException If the option can not be set.
+	 */
+	public void setTimeToLive(int ttl) throws IOException {
+		channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, Integer.valueOf(ttl));
+	}
+
+	/**
+	 * Sets the interface multicast datagrams are sent on.
+	 *
+	 * @param networkInterface The interface.
+	 * @throws IOException If the option can not be set.
+	 */
+	public void setNetworkInterface(NetworkInterface networkInterface) throws IOException {
+		channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+	}
+
+	/**
+	 * Adds a packet to the stream.
+	 *
+	 * @param packet The packet.
+	 * @throws IOException If sending failed, or the streamer is closed.
+	 */
+	public void write(TSPacket packet) throws IOException {
+		if (closed)
+			throw new IOException("Streamer closed.");
+		if (failure != null)
+			throw failure;
+
+		if (paced && packet.hasPCR())
+			pcr(packet);
+
+		if (current == null) {
+			if (!started) {
+				started = true;
+				sender.start();
+			}
+			current = take();
+			current.buffer.clear();
+			current.buffer.position(rtp ? RTP_HEADER_SIZE : 0);
+			current.offset = pcrBytes;
+			current.timed = false;
+		}
+
+		current.buffer.put(packet.getBuffer(), packet.getOffset(), TSPacket.SIZE);
+		pcrBytes += TSPacket.SIZE;
+		if (!current.buffer.hasRemaining())
+			complete();
+	}
+
+	/**
+	 * Sends a stream until its end or until the streamer is closed.
+	 *
+	 * @param in The source of the transport stream.
+	 * @return Number of packets red.
+	 * @throws IOException If reading the stream or sending fails.
+	 */
+	public long stream(InputStream in) throws IOException {
+		return new TransportStreamReader(in).transferTo(this);
+	}
+
+	/**
+	 * Sends the packets gathered, waits for the sender thread and closes the
+	 * socket.
+	 *
+	 * @throws IOException If sending failed.
+	 */
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+
+		try {
+			if (current != null)
+				complete();
+			flush();
+			if (started) {
+				filled.put(END);
+				sender.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while closing the streamer.");
+		} finally {
+			channel.close();
+		}
+
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Gets the number of datagrams sent.
+	 *
+	 * @return Datagram count.
+	 */
+	public long getSentDatagrams() {
+		return sentDatagrams;
+	}
+
+	/**
+	 * Gets the number of bytes sent, the headers included.
+	 *
+	 * @return Byte count.
+	 */
+	public long getSentBytes() {
+		return sentBytes;
+	}
+
+	/**
+	 * Gets the number of datagrams refused by the network: a unicast
+	 * receiver not listening, a full send buffer.
+	 *
+	 * @return Datagram count.
+	 */
+	public long getDroppedDatagrams() {
+		return droppedDatagrams;
+	}
+
+	/**
+	 * Gets the number of datagrams waiting to be sent.
+	 *
+	 * @return Datagram count.
+	 */
+	public int getPendingDatagrams() {
+		return filled.size();
+	}
+
+	/**
+	 * Gets the bitrate the stream is paced at.
+	 *
+	 * @return Bits per second, zero if not known (yet).
+	 */
+	public long getBitrate() {
+		return (long)(byteRate * 8e9);
+	}
+
+	/**
+	 * Takes a free datagram. If there is none, the datagrams waiting for the
+	 * next PCR are timed by the last bitrate, then the sender is waited for.
+	 */
+	private Datagram take() throws IOException {
+		Datagram datagram = free.poll();
+		if (datagram != null)
+			return datagram;
+
+		flush();
+		try {
+			return free.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the sender.");
+		}
+	}
+
+	/**
+	 * Completes the current datagram: it is sent once its time is known.
+	 */
+	private void complete() throws IOException {
+		Datagram datagram = current;
+		current = null;
+		datagram.buffer.flip();
+		if (!datagram.timed && paced && lastPcr >= 0) {
+			waiting.add(datagram);
+		} else {
+			flush();
+			release(datagram);
+		}
+	}
+
+	/**
+	 * Passes a datagram to the sender. Holds up the source getting too far
+	 * ahead.
+	 */
+	private void release(Datagram datagram) throws IOException {
+		if (!datagram.timed)
+			datagram.due = 0;
+		if (rtp) {
+			// version 2, no padding, extension, CSRC or marker
+			long time = datagram.timed ? datagram.due : System.nanoTime();
+			long timestamp = time / 100000 * 9 + time % 100000 * 9 / 100000;
+			ByteBuffer buffer = datagram.buffer;
+			buffer.put(0, (byte)0x80);
+			buffer.put(1, (byte)RTP_PAYLOAD_TYPE);
+			buffer.putShort(2, (short)sequence++);
+			buffer.putInt(4, (int)timestamp);
+			buffer.putInt(8, ssrc);
+		}
+		filled.add(datagram);
+
+		long ahead = datagram.timed ? datagram.due - System.nanoTime() - MAX_AHEAD : 0;
+		if (ahead > 0) {
+			try {
+				Thread.sleep(ahead / 1000000, (int)(ahead % 1000000));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while pacing.");
+			}
+		}
+	}
+
+	/**
+	 * Times the datagrams started since the last PCR and releases the
+	 * complete ones.
+	 *
+	 * @param rate Bytes per nanosecond after the last PCR, zero if not known.
+	 */
+	private void time(double rate) throws IOException {
+		if (current != null && !current.timed) {
+			current.due = lastDue + (rate > 0 ? (long)(current.offset / rate) : 0);
+			current.timed = true;
+		}
+		while (!waiting.isEmpty()) {
+			Datagram datagram = waiting.poll();
+			datagram.due = lastDue + (rate > 0 ? (long)(datagram.offset / rate) : 0);
+			datagram.timed = true;
+			release(datagram);
+		}
+	}
+
+	/**
+	 * Releases the datagrams waiting for the next PCR, timed by the bitrate
+	 * of the last PCR interval.
+	 */
+	private void flush() throws IOException {
+		if (!waiting.isEmpty())
+			time(byteRate);
+	}
+
+	/**
+	 * Takes a PCR of the paced PID into account: the datagrams started since
+	 * the previous PCR are timed between the two PCRs.
+	 */
+	private void pcr(TSPacket packet) throws IOException {
+		int pid = packet.getPid();
+		if (pcrPid == -1)
+			pcrPid = pid;
+		if (pid != pcrPid)
+			return;
+
+		long pcr = packet.getPCR();
+		long now = System.nanoTime();
+		long step = lastPcr < 0 ? PCR_WRAP : ((pcr - lastPcr) % PCR_WRAP + PCR_WRAP) % PCR_WRAP;
+		if (step > MAX_PCR_STEP || lastDue + step * 1000 / 27 < now - MAX_LAG) {
+			// first PCR, discontinuity or a stalled source: the pacing starts over
+			if (lastPcr >= 0)
+				time(byteRate);
+			anchorTime = lastPcr < 0 ? now : Math.max(now, lastDue + (byteRate > 0 ? (long)(pcrBytes / byteRate) : 0));
+			elapsed = 0;
+			if (current != null && !current.timed) {
+				current.due = anchorTime;
+				current.timed = true;
+			}
+		} else {
+			elapsed += step;
+			if (step > 0)
+				byteRate = pcrBytes / (step * 1000 / 27.0);
+			time(byteRate);
+		}
+		lastPcr = pcr;
+		lastDue = anchorTime + elapsed * 1000 / 27;
+		pcrBytes = 0;
+	}
+
+	/**
+	 * A datagram buffer.
+	 */
+	static class Datagram {
+
+		final ByteBuffer buffer;
+
+		/**
+		 * Bytes between the last PCR and the first byte of the datagram.
+		 */
+		long offset;
+
+		/**
+		 * Set when the datagram has a due time.
+		 */
+		boolean timed;
+
+		/**
+		 * Time the datagram is due (<code>System.nanoTime()</code>), zero
+		 * for right away.
+		 */
+		long due;
+
+		Datagram(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+	}
+
+	/**
+	 * Sends the filled datagrams when due and returns them to the free ones.
+	 */
+	class Sender extends Thread {
+
+		Sender() {
+			super("UdpStreamer sender " + channel.socket().getRemoteSocketAddress());
+		}
+
+		public void run() {
+			try {
+				while (true) {
+					Datagram datagram = filled.take();
+					if (datagram == END)
+						break;
+
+					long wait;
+					while (datagram.due != 0 && (wait = datagram.due - System.nanoTime()) > 0)
+						LockSupport.parkNanos(wait);
+					send(datagram);
+
+					// the rest of the batch, without waking up again
+					long limit = System.nanoTime() + BATCH_WINDOW;
+					Datagram next;
+					while ((next = filled.peek()) != null && next != END && (next.due == 0 || next.due - limit <= 0)) {
+						filled.poll();
+						send(next);
+					}
+				}
+			} catch (InterruptedException e) {
+				failure = new InterruptedIOException("Streamer sender interrupted.");
+			}
+		}
+
+		/**
+		 * Sends a datagram (once the stream failed, only returns it).
+		 */
+		private void send(Datagram datagram) {
+			if (failure == null) {
+				try {
+					int length = datagram.buffer.remaining();
+					if (channel.write(datagram.buffer) == length) {
+						sentDatagrams++;
+						sentBytes += length;
+					} else {
+						droppedDatagrams++;
+					}
+				} catch (PortUnreachableException e) {
+					// nobody listening (yet) on a unicast address
+					droppedDatagrams++;
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+			free.add(datagram);
+		}
+	}
+
+	public String toString() {
+		return "UdpStreamer(target: " + channel.socket().getRemoteSocketAddress() + ", sent: " + sentDatagrams + ", dropped: " + droppedDatagrams + ")";
+	}
+
+}
@@ -23,10 +23,14 @@ along with libNativeDVBIO.  If not, see <http://www.gnu.org/licenses/>.
 #include <stdlib.h>
 
 #include <sys/ioctl.h>
+#include <sys/stat.h>
+#include <sys/eventfd.h>
 #include <unistd.h>
 #include <fcntl.h>
 #include <poll.h>
 #include <errno.h>
+#include <time.h>
+#include <dirent.h>
 
 #include <linux/dvb/version.h>
 #include <linux/dvb/frontend.h>
@@ -42,6 +46,32 @@ int _dvbres_ok_retval(struct dvb_resource* res, int retval);
 int _dvbres_fillbuffer(struct dvb_resource* res);
 */
 
+int _dvbres_readonce(struct dvb_resource* res, char* target, int max_length);
+
+// opens a file as the source of the stream
+int _dvbres_openfile(struct dvb_resource* res, const char* path);
+
+// milliseconds of the monotonic clock
+int64_t _dvbres_millis();
+
+// tunes the open frontend
+int _dvbres_tune(struct dvb_resource* res, const int64_t* tuning);
+
+// opens the frontend of a device
+int _dvbres_openfrontend(struct dvb_resource* res, char* device, int delsys);
+
+// lists the delivery systems of an open frontend
+int _dvbres_getdelsys(int front, int type, int* delsys, int max_count);
+
+// checks if an open frontend supports a delivery system
+int _dvbres_supports(int front, int type, int delsys);
+
+// forgets the data of the stream red so far
+void _dvbres_resetstream(struct dvb_resource* res);
+
+// waits for data on a device of the resource
+int _dvbres_wait(struct dvb_resource* res, int fd, int timeout);
+
 // Saves error parameters and returns -1
 int _dvbres_error(struct dvb_resource* res, char* msg, int code) {
 	strncpy(&res->error_msg[0], msg, sizeof(res->error_msg));
@@ -87,24 +117,17 @@ int _dvbres_fillbuffer(struct dvb_resource* res) {
 	
 	// forward region
 	if (pos >= res->data_start) {
-		int bytes_red = read(res->dvr, &res->buffer[pos], DVBRES_BUFFER_LENGTH - pos);
-		if (bytes_red == -1) {
-			if (errno == EWOULDBLOCK) {
-				return 0;
-			} else {
-				return _dvbres_error(res, "Reading from device", errno);
-			}
-		}
-		if (bytes_red == 0)
-			return 0;
+		int bytes_red = _dvbres_readonce(res, &res->buffer[pos], DVBRES_BUFFER_LENGTH - pos);
+		if (bytes_red <= 0)
+			return bytes_red;
 		res->data_length += bytes_red;
 	}
 	
 	pos = (res->data_start + res->data_length) % DVBRES_BUFFER_LENGTH;
 	if (pos < res->data_start) {
-		int bytes_red = read(res->dvr, &res->buffer[pos], res->data_start - pos);
+		int bytes_red = _dvbres_readonce(res, &res->buffer[pos], res->data_start - pos);
 		if (bytes_red <= 0)
-			return 0;
+			return bytes_red;
 		res->data_length += bytes_red;
 	}
 	
@@ -113,6 +136,20 @@ int _dvbres_fillbuffer(struct dvb_resource* res) {
 
 int dvbres_init(struct dvb_resource* res) {
 	memset(res, 0, sizeof(struct dvb_resource));
+	
+	// wakes the readers when the resource is closed by another thread
+	int wakeup = eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC);
+	if (wakeup == -1)
+		return _dvbres_error(res, "Creating wake-up event", errno);
+	res->wakeup = wakeup;
+	
+	int rc = pthread_mutex_init(&res->lock, NULL);
+	if (rc) {
+		close(wakeup);
+		res->wakeup = 0;
+		return _dvbres_error(res, "Creating lock", rc);
+	}
+	
 	return _dvbres_ok(res);
 }
 
@@ -205,7 +242,119 @@ int dvbres_listdevices(struct dvb_resource* res, char* buffer, int max_length) {
 	return _dvbres_error(res, "Device enum buffer to small", -1);
 }
 
-int dvbres_open(struct dvb_resource* res, uint64_t freq, char* device) {
+int _dvbres_compare_int(const void* a, const void* b) {
+	return *(const int*)a - *(const int*)b;
+}
+
+int dvbres_listadapters(struct dvb_resource* res, int* adapters, int max_count) {
+	DIR* dir = opendir("/dev/dvb");
+	if (dir == NULL) {
+		
+		// no adapters at all (the directory is created with the first one)
+		if (errno == ENOENT)
+			return _dvbres_ok_retval(res, 0);
+		return _dvbres_error(res, "Opening /dev/dvb", errno);
+	}
+	
+	int count = 0;
+	struct dirent* entry;
+	while ((entry = readdir(dir)) != NULL && count < max_count) {
+		int num;
+		char rest;
+		if (sscanf(entry->d_name, "adapter%d%c", &num, &rest) == 1 && num >= 0)
+			adapters[count++] = num;
+	}
+	closedir(dir);
+	
+	qsort(adapters, count, sizeof(int), _dvbres_compare_int);
+	return _dvbres_ok_retval(res, count);
+}
+
+int dvbres_getdeviceinfo(struct dvb_resource* res, int adapter, struct dvb_device_info* info) {
+	char devname[48];
+	int rc;
+	
+	memset(info, 0, sizeof(struct dvb_device_info));
+	info->adapter = adapter;
+	snprintf(info->path, sizeof(info->path), "/dev/dvb/adapter%d", adapter);
+	snprintf(devname, sizeof(devname), "%s/frontend0", info->path);
+	
+	int front = open(devname, O_RDONLY | O_NONBLOCK);
+	if (front == -1)
+		return _dvbres_error(res, "Opening front", errno);
+	
+	struct dvb_frontend_info finfo;
+	rc = ioctl(front, FE_GET_INFO, &finfo);
+	if (rc) {
+		rc = errno;
+		close(front);
+		return _dvbres_error(res, "Reading frontend info", rc);
+	}
+	
+	strncpy(info->name, finfo.name, sizeof(info->name) - 1);
+	info->type = finfo.type;
+	
+	// satellite frontends report kHz
+	uint64_t unit = finfo.type == FE_QPSK ? 1000 : 1;
+	info->frequency_min = finfo.frequency_min * unit;
+	info->frequency_max = finfo.frequency_max * unit;
+	
+	info->delsys_count = _dvbres_getdelsys(front, finfo.type, info->delsys, DVBRES_MAX_DELSYS);
+	
+	close(front);
+	return _dvbres_ok(res);
+}
+
+// Lists the delivery systems of an open frontend, the one derived from the
+// frontend type if the driver has no DTV_ENUM_DELSYS. Returns their count.
+int _dvbres_getdelsys(int front, int type, int* delsys, int max_count) {
+	int count = 0;
+	
+#ifdef DTV_ENUM_DELSYS
+	struct dtv_property prop;
+	memset(&prop, 0, sizeof(prop));
+	prop.cmd = DTV_ENUM_DELSYS;
+	struct dtv_properties props;
+	props.num = 1;
+	props.props = &prop;
+	if (ioctl(front, FE_GET_PROPERTY, &props) == 0) {
+		unsigned int i;
+		for (i=0; i<prop.u.buffer.len && count < max_count; i++)
+			delsys[count++] = prop.u.buffer.data[i];
+	}
+#endif
+	
+	// older drivers: derived from the frontend type
+	if (count == 0 && max_count > 0) {
+		switch (type) {
+			case FE_QPSK: delsys[count++] = SYS_DVBS; break;
+			case FE_QAM:  delsys[count++] = SYS_DVBC_ANNEX_AC; break;
+			case FE_OFDM: delsys[count++] = SYS_DVBT; break;
+			case FE_ATSC: delsys[count++] = SYS_ATSC; break;
+		}
+	}
+	
+	return count;
+}
+
+// Checks if an open frontend supports a delivery system, any frontend
+// supports SYS_UNDEFINED (the system of its type).
+int _dvbres_supports(int front, int type, int delsys) {
+	if (delsys == SYS_UNDEFINED)
+		return 1;
+	
+	int supported[DVBRES_MAX_DELSYS];
+	int count = _dvbres_getdelsys(front, type, supported, DVBRES_MAX_DELSYS);
+	int i;
+	for (i=0; i<count; i++)
+		if (supported[i] == delsys)
+			return 1;
+	return 0;
+}
+
+// Opens the frontend of the device (the first one supporting the delivery
+// system if NULL) for tuning, and sets the path of the device.
+int _dvbres_openfrontend(struct dvb_resource* res, char* device, int delsys) {
 
 	// return value (code) of calls
 	int rc;
@@ -217,7 +366,7 @@ int dvbres_open(struct dvb_resource* res, uint64_t freq, char* device) {
 	char devprefix[32];
 
 	// temporaray field to hold device names (/dev/dvb/adapterN/{something}M)
-	char devname[32];
+	char devname[48];
 	
 	// information about the actual frontend	
 	struct dvb_frontend_info finfo;
@@ -234,8 +383,10 @@ int dvbres_open(struct dvb_resource* res, uint64_t freq, char* device) {
 			// generate the next device name and open it
 			sprintf(devname, "%s/frontend0", devprefix);
 			res->frontend = open(devname, O_RDWR);
-			if (!res->frontend)
+			if (res->frontend == -1) {
+				res->frontend = 0;
 				return _dvbres_error(res, "Opening front", errno);
+			}
 			
 			// reading status with the purpose of identifying tuner type
 			rc = ioctl(res->frontend, FE_GET_INFO, &finfo);
@@ -244,8 +395,8 @@ int dvbres_open(struct dvb_resource* res, uint64_t freq, char* device) {
 				return _dvbres_error(res, "Reading frontend info", errno);
 			}
 			
-			// if not DVB-T then we skip to the next adapter
-			if (finfo.type != 2) {
+			// if not of the delivery system then we skip to the next adapter
+			if (!_dvbres_supports(res->frontend, finfo.type, delsys)) {
 				close(res->frontend);
 				res->frontend = 0;
 				adapternum++;
@@ -260,8 +411,10 @@ int dvbres_open(struct dvb_resource* res, uint64_t freq, char* device) {
 		// opening device
 		sprintf(devname, "%s/frontend0", devprefix);
 		res->frontend = open(devname, O_RDWR);
-		if (!res->frontend)
+		if (res->frontend == -1) {
+			res->frontend = 0;
 			return _dvbres_error(res, "Opening front", errno);
+		}
 
 		// reading status with the purpose of identifying tuner type
 		rc = ioctl(res->frontend, FE_GET_INFO, &finfo);
@@ -270,78 +423,414 @@ int dvbres_open(struct dvb_resource* res, uint64_t freq, char* device) {
 			return _dvbres_error(res, "Reading frontend info", errno);
 		}
 		
-		// if not DVB-T then we close and return an error
-		if (finfo.type != 2) {
+		// if not of the delivery system then we close and return an error
+		if (!_dvbres_supports(res->frontend, finfo.type, delsys)) {
 			close(res->frontend);
 			res->frontend = 0;
-			return _dvbres_error(res, "Device is not a DVB-T frontend", -1);
+			return _dvbres_error(res, "Device does not support the delivery system", -1);
 		}
 		
 	} // if device
 	
-	struct dvb_frontend_parameters fe_params;
-	// common parameters (DVB-S may need frequency in KHZ - not tested)
-	fe_params.frequency = finfo.type == FE_QPSK ? freq / 1000 : freq;
-	fe_params.inversion = INVERSION_AUTO;
+	res->frontend_type = finfo.type;
+	if (delsys == SYS_UNDEFINED)
+		_dvbres_getdelsys(res->frontend, finfo.type, &delsys, 1);
+	res->delsys = delsys;
+	strncpy(res->path, devprefix, sizeof(res->path) - 1);
+	return _dvbres_ok(res);
+}
+
+int dvbres_open(struct dvb_resource* res, const int64_t* tuning, char* device, const uint16_t* pids, int pid_count) {
+
+	// return value (code) of calls
+	int rc;
 	
-	// DVB-S parameters	
-	fe_params.u.qpsk.fec_inner = FEC_AUTO;
+	// temporaray field to hold device names (/dev/dvb/adapterN/{something}M)
+	char devname[48];
 	
-	// DVB-C	
-	fe_params.u.qam.fec_inner = FEC_AUTO;
-	fe_params.u.qam.modulation = QAM_AUTO;
+	// a recording standing for the tuner
+	if (device != NULL && strncmp(device, DVBRES_FILE_PREFIX, strlen(DVBRES_FILE_PREFIX)) == 0)
+		return _dvbres_openfile(res, device + strlen(DVBRES_FILE_PREFIX));
 	
-	// DVB-T parameters
-	fe_params.u.ofdm.bandwidth = BANDWIDTH_AUTO;
-	fe_params.u.ofdm.constellation = QAM_AUTO;
-	fe_params.u.ofdm.code_rate_HP = FEC_AUTO;
-	fe_params.u.ofdm.code_rate_LP = FEC_AUTO;
-	fe_params.u.ofdm.transmission_mode = TRANSMISSION_MODE_AUTO;
-	fe_params.u.ofdm.guard_interval = GUARD_INTERVAL_AUTO;
-	fe_params.u.ofdm.hierarchy_information = HIERARCHY_AUTO;
+	if (_dvbres_openfrontend(res, device, (int)tuning[DVBRES_TUNE_DELSYS]))
+		return -1;
+	char* devprefix = res->path;
 	
-	rc = ioctl(res->frontend, FE_SET_FRONTEND, &fe_params);
-	if (rc) {
+	if (_dvbres_tune(res, tuning)) {
 		close(res->frontend);
-		return _dvbres_error(res, "Tuning", errno);
+		res->frontend = 0;
+		return -1;
 	}
 	
-	// setting up demux to forward ALL pids to the DVR device
+	// setting up demux to forward the requested pids (or ALL pids) to the DVR
+	// device, a single filter carries all the pids
 	
 	sprintf(devname, "%s/demux0", devprefix);
 	res->demux = open(devname, O_RDWR);
-	if (!res->demux) {
+	if (res->demux == -1) {
+		res->demux = 0;
 		close(res->frontend);
+		res->frontend = 0;
 		return _dvbres_error(res, "Opening demux", errno);
 	}
 	
 	struct dmx_pes_filter_params filter;
-	filter.pid = 8192;
+	filter.pid = pid_count > 0 ? pids[0] : DVBRES_ALL_PIDS;
 	filter.input = DMX_IN_FRONTEND;
 	filter.output = DMX_OUT_TS_TAP;
 	filter.pes_type = DMX_PES_OTHER;
 	filter.flags = DMX_IMMEDIATE_START;
 	rc = ioctl(res->demux, DMX_SET_PES_FILTER, &filter);
+	
+	// further pids are added to the same filter
+	int i;
+	for (i=1; rc == 0 && i<pid_count; i++) {
+		uint16_t pid = pids[i];
+		rc = ioctl(res->demux, DMX_ADD_PID, &pid);
+	}
+	
 	if (rc) {
+		rc = errno;
 		close(res->frontend);
 		close(res->demux);
-		return _dvbres_error(res, "Setting up pes filter", errno);
+		res->frontend = 0;
+		res->demux = 0;
+		return _dvbres_error(res, "Setting up pes filter", rc);
 	}
 
 	
 	//	opening DVR device (non-blocking mode)
 	sprintf(devname, "%s/dvr0", devprefix);
 	res->dvr = open(devname, O_RDONLY | O_NONBLOCK);
-	if (!res->dvr) {
+	if (res->dvr == -1) {
+		res->dvr = 0;
 		close(res->frontend);
 		close(res->demux);
+		res->frontend = 0;
+		res->demux = 0;
 		return _dvbres_error(res, "Opening dvr", errno);
 	}
 	
+	// the default buffer of the driver holds about a second of a multiplex,
+	// a longer pause of the reader would overflow it
+	if (res->kernel_buffer_size > 0 && ioctl(res->dvr, DMX_SET_BUFFER_SIZE, (unsigned long)res->kernel_buffer_size)) {
+		rc = errno;
+		close(res->dvr);
+		close(res->frontend);
+		close(res->demux);
+		res->dvr = 0;
+		res->frontend = 0;
+		res->demux = 0;
+		return _dvbres_error(res, "Setting DVR buffer size", rc);
+	}
+	
+	res->packet_offset = 0;
+	res->padding = 0;
+	res->overflow_count = 0;
+	res->lost_bytes = 0;
+	res->retune_time = 0;
+	res->zap_latency = -1;
+	
 	// all ok
 	return _dvbres_ok(res);
 }
 
+// Appends a property to the list of FE_SET_PROPERTY.
+void _dvbres_setprop(struct dtv_property* props, int* count, uint32_t cmd, uint32_t data) {
+	memset(&props[*count], 0, sizeof(struct dtv_property));
+	props[*count].cmd = cmd;
+	props[*count].u.data = data;
+	(*count)++;
+}
+
+// Tunes the open frontend by a single FE_SET_PROPERTY call: the delivery
+// system, the frequency, and the parameters of the delivery system (the ones
+// left *_AUTO are detected by the frontend).
+int _dvbres_tune(struct dvb_resource* res, const int64_t* tuning) {
+	struct dtv_property props[16];
+	int count = 0;
+	
+	int delsys = (int)tuning[DVBRES_TUNE_DELSYS];
+	if (delsys == SYS_UNDEFINED)
+		delsys = res->delsys;
+	uint64_t freq = tuning[DVBRES_TUNE_FREQUENCY];
+	int64_t polarization = tuning[DVBRES_TUNE_POLARIZATION];
+	int64_t stream_id = tuning[DVBRES_TUNE_STREAM_ID];
+	
+	_dvbres_setprop(props, &count, DTV_CLEAR, 0);
+	_dvbres_setprop(props, &count, DTV_DELIVERY_SYSTEM, delsys);
+	
+	switch (delsys) {
+		case SYS_DVBT:
+		case SYS_DVBT2:
+			_dvbres_setprop(props, &count, DTV_FREQUENCY, freq);
+			_dvbres_setprop(props, &count, DTV_BANDWIDTH_HZ, tuning[DVBRES_TUNE_BANDWIDTH]);
+			_dvbres_setprop(props, &count, DTV_MODULATION, tuning[DVBRES_TUNE_MODULATION]);
+			_dvbres_setprop(props, &count, DTV_CODE_RATE_HP, tuning[DVBRES_TUNE_FEC]);
+			_dvbres_setprop(props, &count, DTV_CODE_RATE_LP, FEC_AUTO);
+			_dvbres_setprop(props, &count, DTV_GUARD_INTERVAL, tuning[DVBRES_TUNE_GUARD_INTERVAL]);
+			_dvbres_setprop(props, &count, DTV_TRANSMISSION_MODE, tuning[DVBRES_TUNE_TRANSMISSION_MODE]);
+			_dvbres_setprop(props, &count, DTV_HIERARCHY, HIERARCHY_AUTO);
+			if (delsys == SYS_DVBT2)
+				_dvbres_setprop(props, &count, DTV_STREAM_ID, stream_id >= 0 ? stream_id : NO_STREAM_ID_FILTER);
+			break;
+		
+		case SYS_DVBC_ANNEX_A:
+		case SYS_DVBC_ANNEX_C:
+			_dvbres_setprop(props, &count, DTV_FREQUENCY, freq);
+			_dvbres_setprop(props, &count, DTV_SYMBOL_RATE, tuning[DVBRES_TUNE_SYMBOL_RATE]);
+			_dvbres_setprop(props, &count, DTV_MODULATION, tuning[DVBRES_TUNE_MODULATION]);
+			_dvbres_setprop(props, &count, DTV_INNER_FEC, tuning[DVBRES_TUNE_FEC]);
+			break;
+		
+		case SYS_DVBS:
+		case SYS_DVBS2:
+			// the LNB converts the transponder to the intermediate frequency,
+			// the frontend is tuned in kHz
+			if (freq > DVBRES_LNB_MAX_IF) {
+				int high = freq >= DVBRES_LNB_SWITCH;
+				uint64_t oscillator = high ? DVBRES_LNB_HIGH : DVBRES_LNB_LOW;
+				if (freq <= oscillator)
+					return _dvbres_error(res, "Frequency out of the band of the LNB", EINVAL);
+				freq -= oscillator;
+				_dvbres_setprop(props, &count, DTV_TONE, high ? SEC_TONE_ON : SEC_TONE_OFF);
+			}
+			_dvbres_setprop(props, &count, DTV_FREQUENCY, freq / 1000);
+			_dvbres_setprop(props, &count, DTV_SYMBOL_RATE, tuning[DVBRES_TUNE_SYMBOL_RATE]);
+			_dvbres_setprop(props, &count, DTV_INNER_FEC, tuning[DVBRES_TUNE_FEC]);
+			if (polarization == DVBRES_POLARIZATION_HORIZONTAL || polarization == DVBRES_POLARIZATION_LEFT)
+				_dvbres_setprop(props, &count, DTV_VOLTAGE, SEC_VOLTAGE_18);
+			else if (polarization == DVBRES_POLARIZATION_VERTICAL || polarization == DVBRES_POLARIZATION_RIGHT)
+				_dvbres_setprop(props, &count, DTV_VOLTAGE, SEC_VOLTAGE_13);
+			if (delsys == SYS_DVBS2) {
+				_dvbres_setprop(props, &count, DTV_MODULATION, tuning[DVBRES_TUNE_MODULATION]);
+				_dvbres_setprop(props, &count, DTV_ROLLOFF, ROLLOFF_AUTO);
+				_dvbres_setprop(props, &count, DTV_PILOT, PILOT_AUTO);
+				_dvbres_setprop(props, &count, DTV_STREAM_ID, stream_id >= 0 ? stream_id : NO_STREAM_ID_FILTER);
+			}
+			break;
+		
+		// other systems: the frequency only
+		default:
+			_dvbres_setprop(props, &count, DTV_FREQUENCY, freq);
+			break;
+	}
+	
+	_dvbres_setprop(props, &count, DTV_INVERSION, INVERSION_AUTO);
+	_dvbres_setprop(props, &count, DTV_TUNE, 0);
+	
+	struct dtv_properties cmdseq;
+	cmdseq.num = count;
+	cmdseq.props = props;
+	if (ioctl(res->frontend, FE_SET_PROPERTY, &cmdseq))
+		return _dvbres_error(res, "Tuning", errno);
+	
+	res->delsys = delsys;
+	return _dvbres_ok(res);
+}
+
+// Forgets the data pre-read, and starts timing the first data (after a
+// retune). The packet the reader is in the middle of is completed by padding,
+// so the data of the new multiplex starts packet-aligned.
+void _dvbres_resetstream(struct dvb_resource* res) {
+	int offset = (res->packet_offset - res->data_length % DVBRES_PACKET_LENGTH + DVBRES_PACKET_LENGTH) % DVBRES_PACKET_LENGTH;
+	res->data_start = 0;
+	res->data_length = 0;
+	res->packet_offset = offset;
+	res->padding = offset > 0 ? DVBRES_PACKET_LENGTH - offset : 0;
+	res->retune_time = _dvbres_millis();
+	res->zap_latency = -1;
+}
+
+int dvbres_retune(struct dvb_resource* res, const int64_t* tuning) {
+	if (!res->dvr)
+		return _dvbres_error(res, "Resource not open", -1);
+	
+	// a file source starts over, as a tuner would switch to another multiplex
+	if (res->file_source) {
+		if (lseek(res->dvr, 0, SEEK_SET) == -1)
+			return _dvbres_error(res, "Rewinding source file", errno);
+		_dvbres_resetstream(res);
+		return _dvbres_ok(res);
+	}
+	
+	// nothing is queued to the DVR device while the frontend is tuned
+	if (ioctl(res->demux, DMX_STOP))
+		return _dvbres_error(res, "Stopping demux", errno);
+	
+	int tune_error = _dvbres_tune(res, tuning) ? res->error_code : 0;
+	
+	// the data of the old multiplex still in the kernel buffer
+	char scratch[64 * DVBRES_PACKET_LENGTH];
+	while (1) {
+		ssize_t n = read(res->dvr, scratch, sizeof(scratch));
+		if (n > 0 || (n == -1 && (errno == EOVERFLOW || errno == EINTR)))
+			continue;
+		break;
+	}
+	_dvbres_resetstream(res);
+	
+	// the filter goes on with its PIDs (on the old frequency if tuning failed)
+	if (ioctl(res->demux, DMX_START))
+		return _dvbres_error(res, "Starting demux", errno);
+	if (tune_error)
+		return _dvbres_error(res, "Tuning", tune_error);
+	
+	return _dvbres_ok(res);
+}
+
+int64_t dvbres_getzaplatency(struct dvb_resource* res) {
+	return res->zap_latency;
+}
+
+// Opens a regular file as the DVR device. There is no frontend and no demux,
+// reading goes through the same code as with a tuner.
+int _dvbres_openfile(struct dvb_resource* res, const char* path) {
+	struct stat st;
+	
+	res->dvr = open(path, O_RDONLY | O_NONBLOCK);
+	if (res->dvr == -1) {
+		res->dvr = 0;
+		return _dvbres_error(res, "Opening source file", errno);
+	}
+	
+	if (fstat(res->dvr, &st) || !S_ISREG(st.st_mode) || st.st_size < DVBRES_PACKET_LENGTH) {
+		close(res->dvr);
+		res->dvr = 0;
+		return _dvbres_error(res, "Source is not a transport stream file", EINVAL);
+	}
+	
+	res->file_source = 1;
+	res->packet_offset = 0;
+	res->padding = 0;
+	res->overflow_count = 0;
+	res->lost_bytes = 0;
+	res->retune_time = 0;
+	res->zap_latency = -1;
+	return _dvbres_ok(res);
+}
+
+int dvbres_opensections(struct dvb_resource* res, const int64_t* tuning, char* device, uint16_t pid, const uint8_t* filter, const uint8_t* mask, int filter_length) {
+	char devname[48];
+	
+	if (pid >= DVBRES_ALL_PIDS || filter_length < 0 || filter_length > DVBRES_FILTER_SIZE)
+		return _dvbres_error(res, "Invalid section filter", EINVAL);
+	
+	// a recording has no demux to filter
+	if (device != NULL && strncmp(device, DVBRES_FILE_PREFIX, strlen(DVBRES_FILE_PREFIX)) == 0)
+		return _dvbres_error(res, "No section filters on a file source", EINVAL);
+	
+	if (tuning != NULL) {
+		if (_dvbres_openfrontend(res, device, (int)tuning[DVBRES_TUNE_DELSYS]))
+			return -1;
+		if (_dvbres_tune(res, tuning)) {
+			close(res->frontend);
+			res->frontend = 0;
+			return -1;
+		}
+	} else {
+		if (device == NULL)
+			return _dvbres_error(res, "No device given", EINVAL);
+		strncpy(res->path, device, sizeof(res->path) - 1);
+	}
+	
+	// non-blocking, the reads wait by poll() for the timeout
+	snprintf(devname, sizeof(devname), "%s/demux0", res->path);
+	res->demux = open(devname, O_RDWR | O_NONBLOCK);
+	if (res->demux == -1) {
+		int rc = errno;
+		res->demux = 0;
+		if (res->frontend)
+			close(res->frontend);
+		res->frontend = 0;
+		return _dvbres_error(res, "Opening demux", rc);
+	}
+	
+	// the size of the section buffer can only be set before the start
+	if (res->kernel_buffer_size > 0 && ioctl(res->demux, DMX_SET_BUFFER_SIZE, (unsigned long)res->kernel_buffer_size)) {
+		int rc = errno;
+		dvbres_close(res);
+		return _dvbres_error(res, "Setting section buffer size", rc);
+	}
+	
+	struct dmx_sct_filter_params params;
+	memset(&params, 0, sizeof(params));
+	params.pid = pid;
+	memcpy(params.filter.filter, filter, filter_length);
+	memcpy(params.filter.mask, mask, filter_length);
+	params.timeout = 0;
+	params.flags = DMX_CHECK_CRC | DMX_IMMEDIATE_START;
+	if (ioctl(res->demux, DMX_SET_FILTER, &params)) {
+		int rc = errno;
+		dvbres_close(res);
+		return _dvbres_error(res, "Setting section filter", rc);
+	}
+	
+	res->overflow_count = 0;
+	res->lost_bytes = 0;
+	return _dvbres_ok(res);
+}
+
+int dvbres_readsection(struct dvb_resource* res, void* target, int max_length) {
+	if (!res->demux || res->dvr)
+		return _dvbres_error(res, "Section filter not open", -1);
+	
+	// a shorter read would split the section
+	if (max_length < DVBRES_MAX_SECTION)
+		return _dvbres_error(res, "Section buffer too small", EINVAL);
+	
+	// a read returns a single complete section
+	while (1) {
+		ssize_t n = read(res->demux, target, max_length);
+		if (n > 0)
+			return _dvbres_ok_retval(res, n);
+		
+		// the kernel buffer overflowed: its sections are lost, the filter
+		// goes on
+		if (n == -1 && errno == EOVERFLOW) {
+			res->overflow_count++;
+			continue;
+		}
+		if (n == -1 && errno != EAGAIN && errno != EINTR)
+			return _dvbres_error(res, "Reading section", errno);
+		
+		int rc = _dvbres_wait(res, res->demux, res->read_timeout > 0 ? res->read_timeout : -1);
+		if (rc == 0)
+			return _dvbres_error(res, "Read timed out", ETIMEDOUT);
+		if (rc == -1)
+			return rc;
+	}
+}
+
+// add a pid to the demux filter
+int dvbres_addpid(struct dvb_resource* res, uint16_t pid) {
+	// a file source has no filter, it passes the whole multiplex
+	if (res->file_source)
+		return _dvbres_ok(res);
+	
+	if (!res->demux)
+		return _dvbres_error(res, "Resource not open", -1);
+	
+	if (ioctl(res->demux, DMX_ADD_PID, &pid))
+		return _dvbres_error(res, "Adding pid", errno);
+	
+	return _dvbres_ok(res);
+}
+
+// remove a pid from the demux filter
+int dvbres_removepid(struct dvb_resource* res, uint16_t pid) {
+	if (res->file_source)
+		return _dvbres_ok(res);
+	
+	if (!res->demux)
+		return _dvbres_error(res, "Resource not open", -1);
+	
+	if (ioctl(res->demux, DMX_REMOVE_PID, &pid))
+		return _dvbres_error(res, "Removing pid", errno);
+	
+	return _dvbres_ok(res);
+}
+
 // Try to fill the buffer and return number of bytes buffered.
 int dvbres_available(struct dvb_resource* res) {
 	int rc;
@@ -353,20 +842,11 @@ int dvbres_available(struct dvb_resource* res) {
 
 // Read bytes with BLOCKING and return number of bytes. If there is data in the
 // buffer, we flush it first. In this case no blocking will occur.
-int dvbres_read(struct dvb_resource* res, void* target, int max_length) {
-	
-	// check is device is open
-	if (!res->dvr)
-		return _dvbres_error(res, "Resource not open", -1);
-	
-	// in the very special case when we need ZERO bytes...
-	if (max_length == 0)
-		return _dvbres_ok(res);
-	
-	// total bytes copied to the client buffer (future return value)
+// Moves data pre-read by dvbres_available() to the target, and returns the
+// number of bytes moved.
+int _dvbres_flushbuffer(struct dvb_resource* res, char* target, int max_length) {
 	int bytes_red = 0;
 	
-	// if buffer is used, flush it first
 	while (res->buffer != NULL && res->data_length && max_length) {
 		int to_copy = MIN(max_length, MIN(res->data_length, DVBRES_BUFFER_LENGTH - res->data_start));
 		memcpy(target, &res->buffer[res->data_start], to_copy);
@@ -379,27 +859,239 @@ int dvbres_read(struct dvb_resource* res, void* target, int max_length) {
 		max_length -= to_copy; 
 	}
 	
+	return bytes_red;
+}
+
+// Reads the DVR device once. Returns zero if there is no data at the moment,
+// -1 on error.
+//
+// When the kernel buffer overflows the driver drops its content, and the data
+// after the gap starts with a new packet. If the gap cut a packet, the rest of
+// it is filled with 0xff bytes so the stream stays packet-aligned for the
+// reader (which sees a single broken packet and a continuity gap).
+//
+// A file source starts over at its end, a partial packet at the end of the
+// file is padded the same way, as is the packet cut by a retune.
+int _dvbres_readonce(struct dvb_resource* res, char* target, int max_length) {
+	int bytes_red;
+	int padded = res->padding > 0;
+	
+	if (padded) {
+		bytes_red = MIN(res->padding, max_length);
+		memset(target, 0xff, bytes_red);
+		res->padding -= bytes_red;
+	} else {
+		bytes_red = read(res->dvr, target, max_length);
+		if (bytes_red == 0 && res->file_source && max_length > 0) {
+			if (lseek(res->dvr, 0, SEEK_SET) == -1)
+				return _dvbres_error(res, "Rewinding source file", errno);
+			if (res->packet_offset > 0) {
+				res->padding = DVBRES_PACKET_LENGTH - res->packet_offset;
+				return _dvbres_readonce(res, target, max_length);
+			}
+			bytes_red = read(res->dvr, target, max_length);
+		}
+		if (bytes_red < 0) {
+			
+			// no data yet, or interrupted
+			if (errno == EAGAIN || errno == EINTR)
+				return 0;
+			
+			if (errno != EOVERFLOW)
+				return _dvbres_error(res, "Reading from device", errno);
+			
+			// data lost by the driver, reading on returns the data after the gap
+			res->overflow_count++;
+			res->lost_bytes += res->kernel_buffer_size > 0 ? res->kernel_buffer_size : DVBRES_DEFAULT_KERNEL_BUFFER;
+			if (res->packet_offset > 0) {
+				res->padding = DVBRES_PACKET_LENGTH - res->packet_offset;
+				res->lost_bytes += res->padding;
+			}
+			return _dvbres_readonce(res, target, max_length);
+		}
+	}
+	
+	// the first data after a retune (the padding is not from the device)
+	if (res->retune_time && bytes_red > 0 && !padded) {
+		res->zap_latency = _dvbres_millis() - res->retune_time;
+		res->retune_time = 0;
+	}
+	
+	res->packet_offset = (res->packet_offset + bytes_red) % DVBRES_PACKET_LENGTH;
+	return bytes_red;
+}
+
+int dvbres_read(struct dvb_resource* res, void* target, int max_length) {
+	
+	// check is device is open
+	if (!res->dvr)
+		return _dvbres_error(res, "Resource not open", -1);
+	
+	// in the very special case when we need ZERO bytes...
+	if (max_length == 0)
+		return _dvbres_ok(res);
+	
+	// if buffer is used, flush it first
+	int bytes_red = _dvbres_flushbuffer(res, target, max_length);
+	target += bytes_red;
+	max_length -= bytes_red;
+	
 	// if no more data needed
 	if (max_length == 0)
 		return _dvbres_ok_retval(res, bytes_red);
 	
-	// if no data red so far (no or empty buffer) we block
-	if (bytes_red == 0) {
-		struct pollfd fds[1];
-		fds[0].fd = res->dvr;
-		fds[0].events = POLLIN | POLLERR | POLLHUP;
-		poll(fds, 1, -1);
+	// if there was buffered data we only take what is there already
+	if (bytes_red > 0) {
+		int rc = _dvbres_readonce(res, target, max_length);
+		if (rc > 0)
+			bytes_red += rc;
+		return _dvbres_ok_retval(res, bytes_red);
 	}
 	
-	// real reading operation
-	bytes_red += read(res->dvr, target, max_length);
+	// the padding completing a packet cut by a retune is not waited for
+	if (res->padding > 0)
+		return _dvbres_ok_retval(res, _dvbres_readonce(res, target, max_length));
 	
-	// success
+	// otherwise we block until data arrives (or the timeout expires)
+	while (1) {
+		int rc = _dvbres_wait(res, res->dvr, res->read_timeout > 0 ? res->read_timeout : -1);
+		if (rc == 0)
+			return _dvbres_error(res, "Read timed out", ETIMEDOUT);
+		if (rc == -1)
+			return rc;
+		
+		rc = _dvbres_readonce(res, target, max_length);
+		if (rc != 0)
+			return rc > 0 ? _dvbres_ok_retval(res, rc) : rc;
+	}
+}
+
+// Waits for the device to become readable, or for dvbres_shutdown() called by
+// another thread (timeout in milliseconds, negative: forever). Returns 1 if
+// there may be data (an interrupted wait returns as well, the caller reads
+// and waits again), zero at the timeout, -1 on error or if the resource is
+// shut down. The lock is released for the time of the wait, so the resource
+// may be retuned meanwhile.
+int _dvbres_wait(struct dvb_resource* res, int fd, int timeout) {
+	struct pollfd fds[2];
+	fds[0].fd = fd;
+	fds[0].events = POLLIN | POLLERR | POLLHUP;
+	fds[1].fd = res->wakeup;
+	fds[1].events = POLLIN;
+	pthread_mutex_unlock(&res->lock);
+	int rc = poll(fds, res->wakeup ? 2 : 1, timeout);
+	int error = errno;
+	pthread_mutex_lock(&res->lock);
+	errno = error;
+	
+	if (atomic_load(&res->closing))
+		return _dvbres_error(res, "Resource closed", EBADF);
+	if (rc == 0)
+		return 0;
+	if (rc == -1 && errno != EINTR)
+		return _dvbres_error(res, "Waiting for data", errno);
+	return 1;
+}
+
+// Milliseconds of the monotonic clock.
+int64_t _dvbres_millis() {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (int64_t)ts.tv_sec * 1000 + ts.tv_nsec / 1000000;
+}
+
+// Reads in a loop so a single call (a single JNI crossing) returns a large
+// chunk, even if the driver hands over the data in small portions.
+int dvbres_readchunk(struct dvb_resource* res, void* target, int min_length, int max_length, int max_wait) {
+	char* buffer = target;
+	
+	// the first data: blocking (and timing out) like a simple read
+	int bytes_red = dvbres_read(res, buffer, max_length);
+	if (bytes_red <= 0)
+		return bytes_red;
+	
+	int64_t deadline = _dvbres_millis() + max_wait;
+	while (bytes_red < max_length) {
+		
+		// a partial packet is completed whatever the deadline is
+		int complete = bytes_red >= min_length || _dvbres_millis() >= deadline;
+		if (complete && res->packet_offset == 0)
+			break;
+		
+		int rc = _dvbres_readonce(res, &buffer[bytes_red], max_length - bytes_red);
+		if (rc < 0)
+			break;
+		if (rc > 0) {
+			bytes_red += rc;
+			continue;
+		}
+		
+		// no data at the moment, waiting for more (the rest of a packet
+		// arrives at once, it is not waited for long)
+		int64_t wait = complete ? DVBRES_PACKET_WAIT : deadline - _dvbres_millis();
+		rc = _dvbres_wait(res, res->dvr, wait > 0 ? (int)wait : 0);
+		if (rc == 0 && complete)
+			break;
+		if (rc == -1)
+			break;
+	}
+	
+	// an error after some data is reported by the next call
 	return _dvbres_ok_retval(res, bytes_red);
 }
 
+int dvbres_readnonblocking(struct dvb_resource* res, void* target, int max_length) {
+	if (!res->dvr)
+		return _dvbres_error(res, "Resource not open", -1);
+	
+	int bytes_red = _dvbres_flushbuffer(res, target, max_length);
+	if (bytes_red == max_length)
+		return _dvbres_ok_retval(res, bytes_red);
+	
+	int rc = _dvbres_readonce(res, (char*)target + bytes_red, max_length - bytes_red);
+	if (rc == -1)
+		return bytes_red > 0 ? _dvbres_ok_retval(res, bytes_red) : -1;
+	
+	return _dvbres_ok_retval(res, bytes_red + rc);
+}
+
+int dvbres_setbuffersize(struct dvb_resource* res, int size) {
+	if (size < 0)
+		return _dvbres_error(res, "Invalid buffer size", EINVAL);
+	
+	if (res->dvr && !res->file_source && size > 0 && ioctl(res->dvr, DMX_SET_BUFFER_SIZE, (unsigned long)size))
+		return _dvbres_error(res, "Setting DVR buffer size", errno);
+	
+	res->kernel_buffer_size = size;
+	return _dvbres_ok(res);
+}
+
+int dvbres_setreadtimeout(struct dvb_resource* res, int millis) {
+	res->read_timeout = millis;
+	return _dvbres_ok(res);
+}
+
+int dvbres_getfd(struct dvb_resource* res) {
+	if (!res->dvr)
+		return _dvbres_error(res, "Resource not open", -1);
+	return _dvbres_ok_retval(res, res->dvr);
+}
+
+int dvbres_shutdown(struct dvb_resource* res) {
+	atomic_store(&res->closing, 1);
+	
+	// the event stays signalled, every wait returns at once from now on
+	if (res->wakeup) {
+		uint64_t value = 1;
+		if (write(res->wakeup, &value, sizeof(value)) == -1)
+			return _dvbres_error(res, "Waking up readers", errno);
+	}
+	
+	// the error fields are left to the readers failing now
+	return 0;
+}
+
 int dvbres_close(struct dvb_resource* res) {
-	int rc;
 	
 	// freeing buffer (if any)
 	if (res->buffer != NULL) {
@@ -414,28 +1106,36 @@ int dvbres_close(struct dvb_resource* res) {
 		return _dvbres_error(res, "No open device (already closed?)", errno);
 	
 	// closing
+	// a failing close() still frees the descriptor, nothing to retry
 	if (res->dvr) {
-		rc = close(res->dvr);
-		res->dvr = NULL;
+		close(res->dvr);
+		res->dvr = 0;
 	}
 	
 	if (res->demux) {
-		rc = close(res->demux);
-		res->demux = NULL;
+		close(res->demux);
+		res->demux = 0;
 	}
 
 	if (res->frontend) {
-		rc = close(res->frontend);
-		res->frontend = NULL;
+		close(res->frontend);
+		res->frontend = 0;
 	}
+	res->file_source = 0;
+	res->path[0] = 0;
 		
 	// all ok
 	return _dvbres_ok(res);
 }
 
 int dvbres_release(struct dvb_resource* res) {
-	if (res->dvr)
+	if (res->dvr || res->demux)
 		dvbres_close(res);
+	if (res->wakeup) {
+		close(res->wakeup);
+		res->wakeup = 0;
+		pthread_mutex_destroy(&res->lock);
+	}
 	return 0;
 }
 
@@ -443,6 +1143,8 @@ int dvbres_release(struct dvb_resource* res) {
 int dvbres_signalpresent(struct dvb_resource* res) {
 	int rc;
 	int status;
+	if (res->file_source)
+		return 1;
 	rc = ioctl(res->frontend, FE_READ_STATUS, &status);
 	if (rc)
 		return _dvbres_error(res, "Reading status.", errno);
@@ -453,6 +1155,8 @@ int dvbres_signalpresent(struct dvb_resource* res) {
 int dvbres_signallocked(struct dvb_resource* res) {
 	int rc;
 	int status;
+	if (res->file_source)
+		return 1;
 	rc = ioctl(res->frontend, FE_READ_STATUS, &status);
 	if (rc)
 		return _dvbres_error(res, "Reading status.", errno);
@@ -463,6 +1167,8 @@ int dvbres_signallocked(struct dvb_resource* res) {
 int dvbres_getsignalstrength(struct dvb_resource* res) {
 	int rc;
 	int strength = 0;
+	if (res->file_source)
+		return 100;
 	rc = ioctl(res->frontend, FE_READ_SIGNAL_STRENGTH, &strength);
 	if (rc)
 		return _dvbres_error(res, "Reading signal strength.", errno);
@@ -473,8 +1179,85 @@ int dvbres_getsignalstrength(struct dvb_resource* res) {
 int dvbres_getsignalquality(struct dvb_resource* res) {
 	int rc;
 	int snr = 0;
+	if (res->file_source)
+		return 100;
 	rc = ioctl(res->frontend, FE_READ_SNR, &snr);
 	if (rc)
 		return _dvbres_error(res, "Reading signal strength.", errno);
 	return snr * 100 / 65535;
 }
+
+// DVBv5 statistics read by dvbres_readstats(), in the order of the request
+static const uint32_t _dvbres_stat_commands[] = {
+	DTV_STAT_SIGNAL_STRENGTH, DTV_STAT_CNR,
+	DTV_STAT_PRE_ERROR_BIT_COUNT, DTV_STAT_PRE_TOTAL_BIT_COUNT,
+	DTV_STAT_POST_ERROR_BIT_COUNT, DTV_STAT_POST_TOTAL_BIT_COUNT,
+	DTV_STAT_ERROR_BLOCK_COUNT, DTV_STAT_TOTAL_BLOCK_COUNT
+};
+
+#define _DVBRES_STAT_COMMAND_COUNT (sizeof(_dvbres_stat_commands) / sizeof(_dvbres_stat_commands[0]))
+
+// read status and statistics in one go
+int dvbres_readstats(struct dvb_resource* res, int64_t* values) {
+	unsigned int i;
+	int rc;
+	fe_status_t status;
+	uint16_t legacy;
+	struct dtv_property props[_DVBRES_STAT_COMMAND_COUNT];
+	struct dtv_properties properties;
+	
+	for (i=0; i<DVBRES_STAT_COUNT; i++)
+		values[i] = DVBRES_STAT_NA;
+	
+	if (res->file_source) {
+		values[DVBRES_STAT_STATUS] = FE_HAS_SIGNAL | FE_HAS_CARRIER | FE_HAS_VITERBI | FE_HAS_SYNC | FE_HAS_LOCK;
+		values[DVBRES_STAT_STRENGTH] = 100;
+		values[DVBRES_STAT_QUALITY] = 100;
+		return _dvbres_ok(res);
+	}
+	
+	rc = ioctl(res->frontend, FE_READ_STATUS, &status);
+	if (rc)
+		return _dvbres_error(res, "Reading status.", errno);
+	values[DVBRES_STAT_STATUS] = status;
+	
+	memset(props, 0, sizeof(props));
+	for (i=0; i<_DVBRES_STAT_COMMAND_COUNT; i++)
+		props[i].cmd = _dvbres_stat_commands[i];
+	properties.num = _DVBRES_STAT_COMMAND_COUNT;
+	properties.props = props;
+	
+	// kernels before DVB API 5.10 fail, the legacy calls remain
+	if (ioctl(res->frontend, FE_GET_PROPERTY, &properties) == 0) {
+		for (i=0; i<_DVBRES_STAT_COMMAND_COUNT; i++) {
+			
+			// the first element is the global value (the rest are layers)
+			struct dtv_stats* stat = &props[i].u.st.stat[0];
+			if (props[i].u.st.len == 0 || stat->scale == FE_SCALE_NOT_AVAILABLE)
+				continue;
+			
+			if (i < 2) {
+				if (stat->scale == FE_SCALE_DECIBEL)
+					values[i == 0 ? DVBRES_STAT_SIGNAL : DVBRES_STAT_CNR] = stat->svalue;
+				else if (stat->scale == FE_SCALE_RELATIVE)
+					values[i == 0 ? DVBRES_STAT_STRENGTH : DVBRES_STAT_QUALITY] = stat->uvalue * 100 / 65535;
+			} else if (stat->scale == FE_SCALE_COUNTER) {
+				values[DVBRES_STAT_PRE_ERROR_BITS + i - 2] = stat->uvalue;
+			}
+		}
+	}
+	
+	// not all drivers report the statistics, and most report decibels only
+	if (values[DVBRES_STAT_STRENGTH] == DVBRES_STAT_NA) {
+		legacy = 0;
+		if (ioctl(res->frontend, FE_READ_SIGNAL_STRENGTH, &legacy) == 0)
+			values[DVBRES_STAT_STRENGTH] = legacy * 100 / 65535;
+	}
+	if (values[DVBRES_STAT_QUALITY] == DVBRES_STAT_NA) {
+		legacy = 0;
+		if (ioctl(res->frontend, FE_READ_SNR, &legacy) == 0)
+			values[DVBRES_STAT_QUALITY] = legacy * 100 / 65535;
+	}
+	
+	return _dvbres_ok(res);
+}
@@ -19,6 +19,8 @@ along with libNativeDVBIO.  If not, see <http://www.gnu.org/licenses/>.
 #define _DVB_RESOURCE_H_
 
 #include <stdint.h>
+#include <stdatomic.h>
+#include <pthread.h>
 
 // Buffer length to implement dvbres_available() function. This
 // equals the maximum number returned by dvbres_available(). This
@@ -26,6 +28,99 @@ along with libNativeDVBIO.  If not, see <http://www.gnu.org/licenses/>.
 // (not bottleneck-ish).
 #define DVBRES_BUFFER_LENGTH (400 * 188)
 
+// Pseudo PID passing the whole multiplex to the DVR device.
+#define DVBRES_ALL_PIDS 8192
+
+// Length of a transport stream packet.
+#define DVBRES_PACKET_LENGTH 188
+
+// Largest section read by dvbres_readsection() (private sections, EIT).
+#define DVBRES_MAX_SECTION 4096
+
+// Number of the section header bytes a section filter matches (DMX_FILTER_SIZE).
+#define DVBRES_FILTER_SIZE 16
+
+// Prefix of the device path naming a file to read instead of a tuner (see
+// dvbres_open).
+#define DVBRES_FILE_PREFIX "file:"
+
+// Time dvbres_readchunk() waits for the rest of a partial packet, in
+// milliseconds.
+#define DVBRES_PACKET_WAIT 100
+
+// Size of the DVR buffer of the kernel if not set (DVR_BUFFER_SIZE of
+// dmxdev.c), used to estimate the data lost at an overflow.
+#define DVBRES_DEFAULT_KERNEL_BUFFER (10 * 188 * 1024)
+
+// Number of values filled by dvbres_readstats(), indexed by DVBRES_STAT_*.
+#define DVBRES_STAT_COUNT 11
+
+// frontend status bits (FE_HAS_SIGNAL, FE_HAS_LOCK etc.)
+#define DVBRES_STAT_STATUS 0
+// signal strength 0: bad, 100: good
+#define DVBRES_STAT_STRENGTH 1
+// signal quality 0: bad, 100: good
+#define DVBRES_STAT_QUALITY 2
+// signal level in 0.001 dBm
+#define DVBRES_STAT_SIGNAL 3
+// carrier to noise ratio in 0.001 dB
+#define DVBRES_STAT_CNR 4
+// bit error counters before and after the inner code, block error counters
+// (cumulative, wrap around)
+#define DVBRES_STAT_PRE_ERROR_BITS 5
+#define DVBRES_STAT_PRE_TOTAL_BITS 6
+#define DVBRES_STAT_POST_ERROR_BITS 7
+#define DVBRES_STAT_POST_TOTAL_BITS 8
+#define DVBRES_STAT_ERROR_BLOCKS 9
+#define DVBRES_STAT_TOTAL_BLOCKS 10
+
+// Value of the measures the frontend does not provide.
+#define DVBRES_STAT_NA INT64_MIN
+
+// Number of the tuning parameters of dvbres_open() and dvbres_retune(),
+// indexed by DVBRES_TUNE_*. The modulation, FEC, guard interval and
+// transmission mode are the enum values of linux/dvb/frontend.h, the *_AUTO
+// values (and zero bandwidth) leave the parameter to the frontend.
+#define DVBRES_TUNE_COUNT 10
+
+// delivery system (SYS_*), SYS_UNDEFINED: the system of the frontend type
+#define DVBRES_TUNE_DELSYS 0
+// frequency in Hertz (satellite: see DVBRES_LNB_*)
+#define DVBRES_TUNE_FREQUENCY 1
+// channel bandwidth in Hertz (DVB-T, DVB-T2)
+#define DVBRES_TUNE_BANDWIDTH 2
+// modulation (fe_modulation)
+#define DVBRES_TUNE_MODULATION 3
+// inner FEC, the high priority code rate of DVB-T (fe_code_rate)
+#define DVBRES_TUNE_FEC 4
+// guard interval (fe_guard_interval)
+#define DVBRES_TUNE_GUARD_INTERVAL 5
+// transmission mode (fe_transmit_mode)
+#define DVBRES_TUNE_TRANSMISSION_MODE 6
+// symbols per second (DVB-C, DVB-S, DVB-S2)
+#define DVBRES_TUNE_SYMBOL_RATE 7
+// DVBRES_POLARIZATION_* (DVB-S, DVB-S2)
+#define DVBRES_TUNE_POLARIZATION 8
+// PLP ID of DVB-T2, input stream ID of DVB-S2, -1: none
+#define DVBRES_TUNE_STREAM_ID 9
+
+// Polarizations, selected by the LNB voltage (13 V: vertical / right, 18 V:
+// horizontal / left). None leaves the voltage as it is.
+#define DVBRES_POLARIZATION_NONE 0
+#define DVBRES_POLARIZATION_HORIZONTAL 1
+#define DVBRES_POLARIZATION_VERTICAL 2
+#define DVBRES_POLARIZATION_LEFT 3
+#define DVBRES_POLARIZATION_RIGHT 4
+
+// Satellite frequencies above DVBRES_LNB_MAX_IF are converted for a universal
+// LNB: the oscillator of the low band, or above DVBRES_LNB_SWITCH that of the
+// high band with the 22 kHz tone on. Lower frequencies are intermediate
+// frequencies already (any other LNB), passed as they are.
+#define DVBRES_LNB_MAX_IF 3000000000ULL
+#define DVBRES_LNB_LOW 9750000000ULL
+#define DVBRES_LNB_HIGH 10600000000ULL
+#define DVBRES_LNB_SWITCH 11700000000ULL
+
 // structure to hold the currentstate of the resource
 struct dvb_resource {
 	
@@ -38,6 +133,10 @@ struct dvb_resource {
 	// handle of open DVR device
 	int dvr;
 	
+	// non-zero if the DVR handle is a file opened instead of a tuner, it is
+	// red in an endless loop
+	int file_source;
+	
 	// Last error message if error occured. UNDEFINED if no error
 	// occured during last function call. Functions are encouraged
 	// to set error_msg[0] and error_code to zero though.
@@ -55,20 +154,157 @@ struct dvb_resource {
 	int data_start;
 	// length of data in the buffer
 	int data_length;
+	
+	// maximal time dvbres_read() waits for data in milliseconds, zero or
+	// negative: forever
+	int read_timeout;
+	
+	// size of the DVR buffer of the kernel, zero: the default of the driver
+	int kernel_buffer_size;
+	
+	// bytes of the current packet already red from the DVR device (the
+	// position within the packet)
+	int packet_offset;
+	
+	// padding bytes to return before any further data (completing the packet
+	// cut by an overflow)
+	int padding;
+	
+	// number of times the kernel buffer overflowed
+	uint64_t overflow_count;
+	
+	// bytes lost by overflows (a lower estimate: the content of the full
+	// kernel buffer and the padding, packets dropped until the next read are
+	// not known)
+	uint64_t lost_bytes;
+	
+	// frontend type of the DVBv3 API (FE_QPSK, FE_QAM, FE_OFDM, FE_ATSC)
+	int frontend_type;
+	
+	// delivery system last tuned (SYS_*)
+	int delsys;
+	
+	// root path of the device (/dev/dvb/adapterN), empty for a file source
+	char path[32];
+	
+	// time of the last dvbres_retune() (_dvbres_millis), zero once the first
+	// data after it is red
+	int64_t retune_time;
+	
+	// milliseconds from the last dvbres_retune() to the first data, -1 if not
+	// retuned (or no data yet)
+	int64_t zap_latency;
+	
+	// eventfd signalled by dvbres_shutdown(), polled with the device by the
+	// threads waiting for data (zero if not created)
+	int wakeup;
+	
+	// non-zero once dvbres_shutdown() is called, the waits fail from then on
+	atomic_int closing;
+	
+	// serializes the threads sharing the resource (a reader and a thread
+	// retuning it): held by the caller of the functions below for the call
+	// and the reading of the error fields, only released by the waits for
+	// data in dvbres_read(), dvbres_readchunk() and dvbres_readsection()
+	pthread_mutex_t lock;
 };
 
 
+// Maximal number of delivery systems reported for a device.
+#define DVBRES_MAX_DELSYS 16
+
+// description of a frontend (see dvbres_getdeviceinfo)
+struct dvb_device_info {
+	
+	// adapter number (N of /dev/dvb/adapterN)
+	int adapter;
+	
+	// name reported by the driver
+	char name[128];
+	
+	// root path of the device (/dev/dvb/adapterN)
+	char path[32];
+	
+	// frontend type of the DVBv3 API (FE_QPSK, FE_QAM, FE_OFDM, FE_ATSC)
+	int type;
+	
+	// delivery systems (SYS_* constants of linux/dvb/frontend.h), only the
+	// one derived from the type if the driver has no DTV_ENUM_DELSYS
+	int delsys[DVBRES_MAX_DELSYS];
+	int delsys_count;
+	
+	// tunable range in Hertz (the kHz values of satellite frontends are
+	// converted)
+	uint64_t frequency_min;
+	uint64_t frequency_max;
+};
+
 // list available devices: in form of <name> TAB <identifier> TAB <type> [TAB ...]
 // types: '0': DVB-S '1': DVB-C '2': DVB-T, and returns the length of this
 // enumeration in bytes.
 // (returns -1 on error)
 int dvbres_listdevices(struct dvb_resource* res, char* buffer, int max_length);
 
-// initiates the structure
+// lists the adapter numbers present under /dev/dvb in ascending order, and
+// returns their count (returns -1 on error)
+int dvbres_listadapters(struct dvb_resource* res, int* adapters, int max_count);
+
+// describes the frontend of an adapter, the frontend is opened read-only so
+// it is neither powered up nor disturbed if it is in use (returns -1 on error)
+int dvbres_getdeviceinfo(struct dvb_resource* res, int adapter, struct dvb_device_info* info);
+
+// initiates the structure (returns -1 on error)
 int dvbres_init(struct dvb_resource* res);
 
-// open a resource (tuning) (returns -1 on error)
-int dvbres_open(struct dvb_resource* res, uint64_t freq, char* device);
+// open a resource (tuning by the DVBRES_TUNE_COUNT parameters of tuning),
+// the demux passes only the PIDs listed (the whole multiplex if pid_count is
+// zero). Without a device the first frontend supporting the delivery system
+// is used. A device of the form "file:<path>" opens a recorded transport
+// stream file instead, served in an endless loop without PID filtering and
+// with synthetic signal values, so the read path can be measured without a
+// tuner. (returns -1 on error)
+int dvbres_open(struct dvb_resource* res, const int64_t* tuning, char* device, const uint16_t* pids, int pid_count);
+
+// opens a section filter instead of a stream: the demux assembles the
+// sections of the PID and passes the complete ones whose header matches
+// filter at the bits set in mask (filter_length bytes, at most
+// DVBRES_FILTER_SIZE: the table_id, then the bytes after the section_length:
+// table_id_extension, version, section_number...), the ones with a CRC error
+// are dropped. The sections are red from the demux device, no DVR device is
+// used. The frontend is tuned if tuning is not NULL (a device of NULL: the
+// first supporting the delivery system), otherwise the device must be given
+// and is left as tuned by its other users. (returns -1 on error)
+int dvbres_opensections(struct dvb_resource* res, const int64_t* tuning, char* device, uint16_t pid, const uint8_t* filter, const uint8_t* mask, int filter_length);
+
+// reads the next section of a section filter, waits like dvbres_read(). The
+// target must hold DVBRES_MAX_SECTION bytes. Returns the length of the
+// section (returns -1 on error)
+int dvbres_readsection(struct dvb_resource* res, void* target, int max_length);
+
+// starts passing a PID to the DVR device of an open resource without retuning
+// (returns -1 on error)
+int dvbres_addpid(struct dvb_resource* res, uint16_t pid);
+
+// stops passing a PID to the DVR device of an open resource
+// (returns -1 on error)
+int dvbres_removepid(struct dvb_resource* res, uint16_t pid);
+
+// tunes an open resource to another transponder (DVBRES_TUNE_COUNT
+// parameters) keeping the devices open: the demux filter is stopped, the
+// frontend tuned, the data of the old multiplex (in the kernel and the
+// pre-read buffer) dropped and the filter restarted with its PIDs. A file
+// source starts over. The packet the reader is in the middle of is completed
+// by 0xff bytes, the new multiplex starts packet-aligned. (returns -1 on error)
+int dvbres_retune(struct dvb_resource* res, const int64_t* tuning);
+
+// gets the milliseconds from the last dvbres_retune() to the first data red
+// after it, -1 if not retuned or no data arrived yet
+int64_t dvbres_getzaplatency(struct dvb_resource* res);
+
+// sets the size of the DVR buffer of the kernel, applied when the resource is
+// opened or immediately if it is open already (zero: the default of the
+// driver) (returns -1 on error)
+int dvbres_setbuffersize(struct dvb_resource* res, int size);
 
 // get if signal is present
 int dvbres_signalpresent(struct dvb_resource* res);
@@ -82,16 +318,48 @@ int dvbres_getsignalstrength(struct dvb_resource* res);
 // get signal quality 0: bad, 100: good
 int dvbres_getsignalquality(struct dvb_resource* res);
 
+// reads the status and all the statistics of the frontend into values
+// (DVBRES_STAT_COUNT elements): the DVBv5 statistics by a single
+// FE_GET_PROPERTY call, the legacy calls only for the strength and quality
+// the driver does not report in relative scale. Measures not available are
+// DVBRES_STAT_NA. (returns -1 on error)
+int dvbres_readstats(struct dvb_resource* res, int64_t* values);
+
+// sets the time dvbres_read() waits for data, the read fails with error
+// code ETIMEDOUT if no data arrives (zero: wait forever)
+int dvbres_setreadtimeout(struct dvb_resource* res, int millis);
+
+// read bytes without waiting, returns zero if no data is available
+// (returns -1 on error)
+int dvbres_readnonblocking(struct dvb_resource* res, void* target, int max_length);
+
+// gets the file descriptor of the DVR device to wait for data by poll() or
+// epoll (returns -1 on error)
+int dvbres_getfd(struct dvb_resource* res);
+
 // query bytes available immediately (pre-buffered) (returns -1 on error)
 int dvbres_available(struct dvb_resource* res);
 
 // read bytes (return number of bytes red) (returns -1 on error)
 int dvbres_read(struct dvb_resource* res, void* target, int max_length);
 
-// closes the resource (returns -1 on error)
+// reads a chunk of at least min_length bytes (up to max_length): waits for
+// the first data like dvbres_read(), then collects data until min_length is
+// reached or max_wait milliseconds passed since the call, and completes the
+// last packet. Returns the number of bytes red (returns -1 on error)
+int dvbres_readchunk(struct dvb_resource* res, void* target, int min_length, int max_length, int max_wait);
+
+// stops a resource still used by other threads: the reads waiting for data
+// (and the ones starting to wait later) fail with EBADF. The devices stay open
+// until dvbres_release(), so the threads inside a call never see them closed.
+// (returns -1 on error)
+int dvbres_shutdown(struct dvb_resource* res);
+
+// closes the resource, no other thread may be using it (returns -1 on error)
 int dvbres_close(struct dvb_resource* res);
 
-// releases all resources previously allocated (returns -1 on error)
+// releases all resources previously allocated, closing the resource if it is
+// still open (returns -1 on error)
 int dvbres_release(struct dvb_resource* res);
 
 
@@ -16,43 +16,178 @@ along with libNativeDVBIO.  If not, see <http://www.gnu.org/licenses/>.
 */
 
 #include "dvb_resource.h"
+#include "dvb_resource_collection.h"
 #include <stdlib.h>
-#include <string.h>
-#include <unistd.h>
+#include <stdatomic.h>
+#include <pthread.h>
 
-#define RESCOLL_MAX 100
+#define RESCOLL_PAGE_SIZE (1 << RESCOLL_PAGE_BITS)
+#define RESCOLL_PAGE_MASK (RESCOLL_PAGE_SIZE - 1)
 
-int rescoll_num = 0;
-void* rescoll_data[RESCOLL_MAX];
+struct rescoll_slot {
+	
+	// incremented on every delete, handles carry the value they were
+	// created with
+	_Atomic uint32_t generation;
+	
+	// number of references: one held by the collection itself while the
+	// handle is valid, plus one for every rescoll_get() in progress
+	_Atomic int32_t refs;
+	
+	// the resource (valid while refs > 0)
+	struct dvb_resource* res;
+	
+	// next free slot (index + 1, zero: none), guarded by rescoll_lock
+	uint32_t next_free;
+};
 
-int rescoll_create() {
-	if (rescoll_num >= RESCOLL_MAX)
-		return -1;
+// Page directory. Pages are allocated on demand and never freed, so lookups
+// need no locking at all.
+static struct rescoll_slot* _Atomic rescoll_pages[RESCOLL_MAX_PAGES];
+
+// Guards slot allocation and the free list (creating and freeing resources
+// only, lookups are lock-free).
+static pthread_mutex_t rescoll_lock = PTHREAD_MUTEX_INITIALIZER;
+
+// number of slots ever allocated
+static uint32_t rescoll_num = 0;
+
+// head of the free list (index + 1, zero: empty)
+static uint32_t rescoll_free = 0;
+
+// Gets the slot the handle refers to (NULL if out of range)
+struct rescoll_slot* _rescoll_slot(rescoll_handle handle) {
+	uint32_t index = (uint32_t)handle;
+	if (index == 0)
+		return NULL;
+	index--;
+	
+	if ((index >> RESCOLL_PAGE_BITS) >= RESCOLL_MAX_PAGES)
+		return NULL;
+	
+	struct rescoll_slot* page = atomic_load_explicit(&rescoll_pages[index >> RESCOLL_PAGE_BITS], memory_order_acquire);
+	if (page == NULL)
+		return NULL;
+	
+	return &page[index & RESCOLL_PAGE_MASK];
+}
+
+// Drops a reference, the last one releases the resource and frees the slot
+void _rescoll_unref(struct rescoll_slot* slot, uint32_t index) {
+	if (atomic_fetch_sub_explicit(&slot->refs, 1, memory_order_acq_rel) != 1)
+		return;
+	
+	struct dvb_resource* res = slot->res;
+	slot->res = NULL;
+	
+	dvbres_release(res);
+	free(res);
+	
+	pthread_mutex_lock(&rescoll_lock);
+	slot->next_free = rescoll_free;
+	rescoll_free = index + 1;
+	pthread_mutex_unlock(&rescoll_lock);
+}
+
+rescoll_handle rescoll_create() {
+	struct dvb_resource* res = malloc(sizeof(struct dvb_resource));
+	if (res == NULL)
+		return 0;
+	if (dvbres_init(res)) {
+		free(res);
+		return 0;
+	}
 	
-	rescoll_data[rescoll_num] = malloc(sizeof(struct dvb_resource));
-	dvbres_init(rescoll_data[rescoll_num]);
+	uint32_t index;
+	struct rescoll_slot* page;
 	
-	return rescoll_num++;
+	pthread_mutex_lock(&rescoll_lock);
+	if (rescoll_free) {
+		
+		// reusing a freed slot
+		index = rescoll_free - 1;
+		page = atomic_load_explicit(&rescoll_pages[index >> RESCOLL_PAGE_BITS], memory_order_relaxed);
+		rescoll_free = page[index & RESCOLL_PAGE_MASK].next_free;
+		
+	} else {
+		
+		// growing the collection
+		index = rescoll_num;
+		if ((index >> RESCOLL_PAGE_BITS) >= RESCOLL_MAX_PAGES) {
+			pthread_mutex_unlock(&rescoll_lock);
+			dvbres_release(res);
+			free(res);
+			return 0;
+		}
+		
+		page = atomic_load_explicit(&rescoll_pages[index >> RESCOLL_PAGE_BITS], memory_order_relaxed);
+		if (page == NULL) {
+			page = calloc(RESCOLL_PAGE_SIZE, sizeof(struct rescoll_slot));
+			if (page == NULL) {
+				pthread_mutex_unlock(&rescoll_lock);
+				dvbres_release(res);
+				free(res);
+				return 0;
+			}
+			atomic_store_explicit(&rescoll_pages[index >> RESCOLL_PAGE_BITS], page, memory_order_release);
+		}
+		rescoll_num++;
+	}
+	pthread_mutex_unlock(&rescoll_lock);
+	
+	struct rescoll_slot* slot = &page[index & RESCOLL_PAGE_MASK];
+	slot->res = res;
+	
+	// publishing the resource (the collection's own reference)
+	atomic_store_explicit(&slot->refs, 1, memory_order_release);
+	
+	uint32_t generation = atomic_load_explicit(&slot->generation, memory_order_relaxed);
+	return ((rescoll_handle)generation << 32) | (index + 1);
 }
 
-struct dvb_resource* rescoll_get(int index) {
-	if (index < 0 || index >= rescoll_num)
+struct dvb_resource* rescoll_get(rescoll_handle handle) {
+	struct rescoll_slot* slot = _rescoll_slot(handle);
+	if (slot == NULL)
+		return NULL;
+	
+	uint32_t generation = (uint32_t)(handle >> 32);
+	if (atomic_load_explicit(&slot->generation, memory_order_acquire) != generation)
 		return NULL;
 	
-	return rescoll_data[index];
+	// taking a reference, but never resurrecting a slot already released
+	int32_t refs = atomic_load_explicit(&slot->refs, memory_order_relaxed);
+	do {
+		if (refs <= 0)
+			return NULL;
+	} while (!atomic_compare_exchange_weak_explicit(&slot->refs, &refs, refs + 1, memory_order_acq_rel, memory_order_relaxed));
+	
+	// the slot may have been deleted and reused in the meantime
+	if (atomic_load_explicit(&slot->generation, memory_order_acquire) != generation) {
+		_rescoll_unref(slot, (uint32_t)handle - 1);
+		return NULL;
+	}
+	
+	return slot->res;
 }
 
-int rescoll_delete(int index) {
-	if (index < 0 || index >= rescoll_num)
-		return -1;
+void rescoll_put(rescoll_handle handle) {
+	struct rescoll_slot* slot = _rescoll_slot(handle);
+	if (slot != NULL)
+		_rescoll_unref(slot, (uint32_t)handle - 1);
+}
 
-	struct dvb_resource* res = rescoll_data[index];
+int rescoll_delete(rescoll_handle handle) {
+	struct rescoll_slot* slot = _rescoll_slot(handle);
+	if (slot == NULL)
+		return -1;
 	
-	memmove(&rescoll_data[index], &rescoll_data[index + 1], (rescoll_num - index - 1) * sizeof(void*));
-	rescoll_num--;
+	// only one of the concurrent deletes can succeed
+	uint32_t generation = (uint32_t)(handle >> 32);
+	if (!atomic_compare_exchange_strong_explicit(&slot->generation, &generation, generation + 1, memory_order_acq_rel, memory_order_relaxed))
+		return -1;
 	
-	dvbres_release(res);
-	free(res);
+	// dropping the collection's own reference
+	_rescoll_unref(slot, (uint32_t)handle - 1);
 	
 	return 0;
 }
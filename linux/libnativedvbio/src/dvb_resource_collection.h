@@ -18,13 +18,36 @@ along with libNativeDVBIO.  If not, see <http://www.gnu.org/licenses/>.
 #ifndef _DVB_RESOURCE_COLLECTION_H_
 #define _DVB_RESOURCE_COLLECTION_H_
 
+#include <stdint.h>
 
-#define RESCOLL_MAX 100
+#include "dvb_resource.h"
 
-int rescoll_create();
+// Handle of a resource in the collection. The upper 32 bits hold the
+// generation of the slot, the lower 32 bits the slot index + 1, so a handle
+// that has been deleted never matches a new resource reusing its slot. Zero
+// is never a valid handle.
+typedef uint64_t rescoll_handle;
 
-struct dvb_resource* rescoll_get(int index);
+// Slots are allocated in pages of this size as the collection grows.
+#define RESCOLL_PAGE_BITS 8
 
-int rescoll_delete(int index);
+// Maximum number of pages (the collection holds at most
+// RESCOLL_MAX_PAGES << RESCOLL_PAGE_BITS resources at the same time).
+#define RESCOLL_MAX_PAGES (1 << 16)
+
+// creates and initiates a new resource (returns 0 on error)
+rescoll_handle rescoll_create();
+
+// looks up a resource and takes a reference on it, so it will not be freed
+// while in use (returns NULL if the handle is invalid or already deleted).
+// Every successful call must be paired with rescoll_put().
+struct dvb_resource* rescoll_get(rescoll_handle handle);
+
+// drops a reference taken by rescoll_get()
+void rescoll_put(rescoll_handle handle);
+
+// invalidates the handle, the resource is released as soon as the last
+// reference is dropped (returns -1 if the handle is invalid)
+int rescoll_delete(rescoll_handle handle);
 
 #endif /* _DVB_RESOURCE_COLLECTION_H_ */
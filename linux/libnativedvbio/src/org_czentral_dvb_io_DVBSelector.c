@@ -0,0 +1,181 @@
+/*
+This file is part of libNativeDVBIO by Varga Bence.
+
+libNativeDVBIO is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+libNativeDVBIO is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with libNativeDVBIO.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+#include <stdint.h>
+#include <stdio.h>
+#include <string.h>
+#include <errno.h>
+#include <unistd.h>
+#include <sys/epoll.h>
+#include <sys/eventfd.h>
+
+#include <jni.h>
+
+#include "org_czentral_dvb_io_DVBSelector.h"
+
+// maximal number of events taken by a single epoll_wait
+#define SELECTOR_MAX_EVENTS 64
+
+// token of the wake-up eventfd (never returned to Java)
+#define SELECTOR_WAKEUP_TOKEN -1
+
+static void throw_errno(JNIEnv* env, char* msg, int code) {
+	char errormsg[300];
+	snprintf(errormsg, sizeof(errormsg), "Error: %s (error code: %d)", msg, code);
+	
+	jclass cls = (*env)->FindClass(env, "java/io/IOException");
+	if (cls != NULL)
+		(*env)->ThrowNew(env, cls, errormsg);
+}
+
+/*
+ * Class:     DVBSelector
+ * Method:    create
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_DVBSelector_create(JNIEnv* env, jclass cls) {
+	(void)cls;
+	
+	int epfd = epoll_create1(EPOLL_CLOEXEC);
+	if (epfd == -1)
+		throw_errno(env, "Creating epoll", errno);
+	return epfd;
+}
+
+/*
+ * Class:     DVBSelector
+ * Method:    createWakeup
+ * Signature: (I)I
+ */
+JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_DVBSelector_createWakeup(JNIEnv* env, jclass cls, jint epfd) {
+	(void)cls;
+	
+	int evfd = eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC);
+	if (evfd == -1) {
+		throw_errno(env, "Creating eventfd", errno);
+		return -1;
+	}
+	
+	struct epoll_event event;
+	memset(&event, 0, sizeof(event));
+	event.events = EPOLLIN;
+	event.data.u32 = (uint32_t)SELECTOR_WAKEUP_TOKEN;
+	if (epoll_ctl(epfd, EPOLL_CTL_ADD, evfd, &event)) {
+		int code = errno;
+		close(evfd);
+		throw_errno(env, "Registering eventfd", code);
+		return -1;
+	}
+	
+	return evfd;
+}
+
+/*
+ * Class:     DVBSelector
+ * Method:    register
+ * Signature: (III)V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_DVBSelector_register(JNIEnv* env, jclass cls, jint epfd, jint fd, jint token) {
+	(void)cls;
+	
+	struct epoll_event event;
+	memset(&event, 0, sizeof(event));
+	event.events = EPOLLIN | EPOLLERR | EPOLLHUP;
+	event.data.u32 = (uint32_t)token;
+	if (epoll_ctl(epfd, EPOLL_CTL_ADD, fd, &event))
+		throw_errno(env, "Registering descriptor", errno);
+}
+
+/*
+ * Class:     DVBSelector
+ * Method:    deregister
+ * Signature: (II)V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_DVBSelector_deregister(JNIEnv* env, jclass cls, jint epfd, jint fd) {
+	(void)cls;
+	
+	// descriptors closed already are removed by the kernel
+	if (epoll_ctl(epfd, EPOLL_CTL_DEL, fd, NULL) && errno != EBADF && errno != ENOENT)
+		throw_errno(env, "Deregistering descriptor", errno);
+}
+
+/*
+ * Class:     DVBSelector
+ * Method:    await
+ * Signature: (II[II)I
+ */
+JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_DVBSelector_await(JNIEnv* env, jclass cls, jint epfd, jint evfd, jintArray jtokens, jint timeout) {
+	(void)cls;
+	
+	struct epoll_event events[SELECTOR_MAX_EVENTS];
+	
+	int max = (*env)->GetArrayLength(env, jtokens);
+	if (max > SELECTOR_MAX_EVENTS)
+		max = SELECTOR_MAX_EVENTS;
+	
+	int count = epoll_wait(epfd, events, max, timeout);
+	if (count == -1) {
+		if (errno == EINTR)
+			return 0;
+		throw_errno(env, "Waiting for events", errno);
+		return -1;
+	}
+	
+	jint tokens[SELECTOR_MAX_EVENTS];
+	int found = 0;
+	int i;
+	for (i=0; i<count; i++) {
+		if ((int32_t)events[i].data.u32 == SELECTOR_WAKEUP_TOKEN) {
+			uint64_t value;
+			if (read(evfd, &value, sizeof(value)) < 0 && errno != EAGAIN) {
+				throw_errno(env, "Reading eventfd", errno);
+				return -1;
+			}
+		} else {
+			tokens[found++] = (jint)events[i].data.u32;
+		}
+	}
+	
+	if (found > 0)
+		(*env)->SetIntArrayRegion(env, jtokens, 0, found, tokens);
+	return found;
+}
+
+/*
+ * Class:     DVBSelector
+ * Method:    signal
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_DVBSelector_signal(JNIEnv* env, jclass cls, jint evfd) {
+	(void)cls;
+	
+	uint64_t value = 1;
+	if (write(evfd, &value, sizeof(value)) < 0 && errno != EAGAIN)
+		throw_errno(env, "Writing eventfd", errno);
+}
+
+/*
+ * Class:     DVBSelector
+ * Method:    closeDescriptor
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_DVBSelector_closeDescriptor(JNIEnv* env, jclass cls, jint fd) {
+	(void)cls;
+	
+	if (close(fd))
+		throw_errno(env, "Closing descriptor", errno);
+}
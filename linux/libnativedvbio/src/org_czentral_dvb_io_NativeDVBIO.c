@@ -16,6 +16,7 @@ along with libNativeDVBIO.  If not, see <http://www.gnu.org/licenses/>.
 */
 
 #include <stdlib.h>
+#include <errno.h>
 
 #include <jni.h>
 #include "dvb_resource.h"
@@ -23,17 +24,50 @@ along with libNativeDVBIO.  If not, see <http://www.gnu.org/licenses/>.
 
 #include "org_czentral_dvb_io_NativeDVBIO.h"
 
+// IDs looked up once in JNI_OnLoad (valid as long as the class is loaded)
+static jfieldID resource_id_field;
+static jclass ioexception_class;
+static jclass timeout_exception_class;
+static jclass device_info_class;
+static jmethodID device_info_constructor;
+
+JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM* vm, void* reserved) {
+	(void)reserved;
+	
+	JNIEnv* env;
+	if ((*vm)->GetEnv(vm, (void**)&env, JNI_VERSION_1_4) != JNI_OK)
+		return JNI_ERR;
+	
+	jclass cls = (*env)->FindClass(env, "org/czentral/dvb/io/NativeDVBIO");
+	if (cls == NULL)
+		return JNI_ERR;
+	resource_id_field = (*env)->GetFieldID(env, cls, "resourceID", "J");
+	if (resource_id_field == NULL)
+		return JNI_ERR;
+	
+	cls = (*env)->FindClass(env, "java/io/IOException");
+	if (cls == NULL)
+		return JNI_ERR;
+	ioexception_class = (*env)->NewGlobalRef(env, cls);
+	
+	cls = (*env)->FindClass(env, "java/io/InterruptedIOException");
+	if (cls == NULL)
+		return JNI_ERR;
+	timeout_exception_class = (*env)->NewGlobalRef(env, cls);
+	
+	cls = (*env)->FindClass(env, "org/czentral/dvb/io/NativeDeviceInfo");
+	if (cls == NULL)
+		return JNI_ERR;
+	device_info_class = (*env)->NewGlobalRef(env, cls);
+	device_info_constructor = (*env)->GetMethodID(env, cls, "<init>", "(ILjava/lang/String;Ljava/lang/String;I[IJJ)V");
+	if (device_info_constructor == NULL)
+		return JNI_ERR;
+	
+	return JNI_VERSION_1_4;
+}
+
 void throw_exception(JNIEnv* env, char* errormsg) {
-	jstring msg = (*env)->NewStringUTF(env, errormsg);
-	
-	jclass cls = (*env)->FindClass(env, "java/io/IOException");
-	if (cls != NULL) {
-		jmethodID method = (*env)->GetMethodID(env, cls, "<init>", "(Ljava/lang/String;)V");
-		if (method != NULL) {
-			jobject exception = (*env)->NewObject(env, cls, method, msg);
-			(*env)->Throw(env, exception);
-		}
-	}
+	(*env)->ThrowNew(env, ioexception_class, errormsg);
 }
 
 void throw_dvbres_exception(JNIEnv* env, struct dvb_resource* res) {
@@ -42,31 +76,98 @@ void throw_dvbres_exception(JNIEnv* env, struct dvb_resource* res) {
 	char errormsg[300];
 	sprintf(errormsg, "Error: %s (error code: %d)", res->error_msg, res->error_code);
 	
-	throw_exception(env, errormsg);
+	// timeouts are reported the way java.io does
+	if (res->error_code == ETIMEDOUT)
+		(*env)->ThrowNew(env, timeout_exception_class, errormsg);
+	else
+		throw_exception(env, errormsg);
+}
+
+// Gets the resource of a NativeDVBIO object, takes a reference on it and
+// locks it. Both must be dropped by put_resource(). Throws an exception and
+// returns NULL if the object holds no valid resource.
+struct dvb_resource* get_resource(JNIEnv* env, jobject obj, rescoll_handle* handle) {
+	*handle = (rescoll_handle)(*env)->GetLongField(env, obj, resource_id_field);
+	
+	struct dvb_resource* res = rescoll_get(*handle);
+	if (res == NULL)
+		throw_exception(env, "Invalid resource ID");
+	else
+		pthread_mutex_lock(&res->lock);
+	
+	return res;
+}
+
+// Unlocks a resource and drops the reference taken by get_resource().
+void put_resource(rescoll_handle handle, struct dvb_resource* res) {
+	pthread_mutex_unlock(&res->lock);
+	rescoll_put(handle);
+}
+
+// Copies the tuning parameters (DVBRES_TUNE_COUNT values). Throws an
+// exception and returns -1 if the array is not of that length.
+int get_tuning(JNIEnv* env, jlongArray jtuning, int64_t* tuning) {
+	if (jtuning == NULL || (*env)->GetArrayLength(env, jtuning) != DVBRES_TUNE_COUNT) {
+		throw_exception(env, "Invalid tuning parameters");
+		return -1;
+	}
+	(*env)->GetLongArrayRegion(env, jtuning, 0, DVBRES_TUNE_COUNT, (jlong*)tuning);
+	return 0;
 }
 
 /*
  * Class:     NativeDVBIO
  * Method:    open
- * Signature: (JLjava/lang/String;)V
+ * Signature: ([JLjava/lang/String;[II)V
  */
-JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_open(JNIEnv* env, jobject obj, jlong freq, jstring jdevice) {
-	int index = rescoll_create();
-	struct dvb_resource* res = rescoll_get(index);
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_open(JNIEnv* env, jobject obj, jlongArray jtuning, jstring jdevice, jintArray jpids, jint buffer_size) {
 	
-	int resourceid = index + 1;
-	jclass cls = (*env)->GetObjectClass(env, obj);
-	jfieldID fid = (*env)->GetFieldID(env, cls, "resourceID", "I");
-	(*env)->SetIntField(env, obj, fid, resourceid);
+	int64_t tuning[DVBRES_TUNE_COUNT];
+	if (get_tuning(env, jtuning, tuning))
+		return;
+	
+	// pids to pass (none: the whole multiplex)
+	int pid_count = jpids != NULL ? (*env)->GetArrayLength(env, jpids) : 0;
+	jint jpid_values[pid_count > 0 ? pid_count : 1];
+	uint16_t pids[pid_count > 0 ? pid_count : 1];
+	if (pid_count > 0)
+		(*env)->GetIntArrayRegion(env, jpids, 0, pid_count, jpid_values);
+	int i;
+	for (i=0; i<pid_count; i++) {
+		if (jpid_values[i] < 0 || jpid_values[i] > DVBRES_ALL_PIDS) {
+			throw_exception(env, "Invalid PID");
+			return;
+		}
+		pids[i] = jpid_values[i];
+	}
+	
+	rescoll_handle handle = rescoll_create();
+	struct dvb_resource* res = rescoll_get(handle);
+	if (res == NULL) {
+		throw_exception(env, "Unable to allocate resource");
+		return;
+	}
 	
 	char* device = NULL;
 	if (jdevice != NULL)
 		device = (char*)((*env)->GetStringUTFChars(env, jdevice, NULL));
 	
 	int rc;
-	rc = dvbres_open(res, freq, device);
-	if (rc)
+	rc = dvbres_setbuffersize(res, buffer_size);
+	if (rc == 0)
+		rc = dvbres_open(res, tuning, device, pids, pid_count);
+	if (rc) {
 		throw_dvbres_exception(env, res);
+		
+		// nothing to keep, the object stays closed
+		rescoll_put(handle);
+		rescoll_delete(handle);
+		handle = 0;
+	} else {
+		rescoll_put(handle);
+	}
+	
+	(*env)->SetLongField(env, obj, resource_id_field, (jlong)handle);
 	
 	if (device != NULL)
 		(*env)->ReleaseStringUTFChars(env, jdevice, device);
@@ -78,19 +179,16 @@ JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_open(JNIEnv* env, jo
  * Signature: ()I
  */
 JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_available(JNIEnv* env, jobject obj) {
-	jclass cls = (*env)->GetObjectClass(env, obj);
-	jfieldID fid = (*env)->GetFieldID(env, cls, "resourceID", "I");
-	int resourceid = (*env)->GetIntField(env, obj, fid);
-
-	int index = resourceid - 1;
-	struct dvb_resource* res = rescoll_get(index);
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
 	if (res == NULL)
-		throw_exception(env, "Invalid resource ID");
+		return -1;
 		
 	int rc = dvbres_available(res);
 	if (rc == -1 && res->error_code)
 		throw_dvbres_exception(env, res);
 	
+	put_resource(handle, res);
 	return rc;
 }
 
@@ -100,19 +198,16 @@ JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_available(JNIEnv* en
  * Signature: ()Z
  */
 JNIEXPORT jboolean JNICALL Java_org_czentral_dvb_io_NativeDVBIO_isSignalPresent(JNIEnv* env, jobject obj) {
-	jclass cls = (*env)->GetObjectClass(env, obj);
-	jfieldID fid = (*env)->GetFieldID(env, cls, "resourceID", "I");
-	int resourceid = (*env)->GetIntField(env, obj, fid);
-
-	int index = resourceid - 1;
-	struct dvb_resource* res = rescoll_get(index);
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
 	if (res == NULL)
-		throw_exception(env, "Invalid resource ID");
+		return 0;
 
 	int rc = dvbres_signalpresent(res);
 	if (rc && res->error_code)
 		throw_dvbres_exception(env, res);
 	
+	put_resource(handle, res);
 	return rc != 0;
 }
 
@@ -122,19 +217,16 @@ JNIEXPORT jboolean JNICALL Java_org_czentral_dvb_io_NativeDVBIO_isSignalPresent(
  * Signature: ()Z
  */
 JNIEXPORT jboolean JNICALL Java_org_czentral_dvb_io_NativeDVBIO_isSignalLocked(JNIEnv* env, jobject obj) {
-	jclass cls = (*env)->GetObjectClass(env, obj);
-	jfieldID fid = (*env)->GetFieldID(env, cls, "resourceID", "I");
-	int resourceid = (*env)->GetIntField(env, obj, fid);
-
-	int index = resourceid - 1;
-	struct dvb_resource* res = rescoll_get(index);
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
 	if (res == NULL)
-		throw_exception(env, "Invalid resource ID");
+		return 0;
 
 	int rc = dvbres_signallocked(res);
 	if (rc && res->error_code)
 		throw_dvbres_exception(env, res);
 	
+	put_resource(handle, res);
 	return rc != 0;
 }
 
@@ -144,19 +236,16 @@ JNIEXPORT jboolean JNICALL Java_org_czentral_dvb_io_NativeDVBIO_isSignalLocked(J
  * Signature: ()I
  */
 JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_getSignalStrength(JNIEnv* env, jobject obj) {
-	jclass cls = (*env)->GetObjectClass(env, obj);
-	jfieldID fid = (*env)->GetFieldID(env, cls, "resourceID", "I");
-	int resourceid = (*env)->GetIntField(env, obj, fid);
-
-	int index = resourceid - 1;
-	struct dvb_resource* res = rescoll_get(index);
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
 	if (res == NULL)
-		throw_exception(env, "Invalid resource ID");
+		return -1;
 		
 	int rc = dvbres_getsignalstrength(res);
 	if (rc == -1 && res->error_code)
 		throw_dvbres_exception(env, res);
 	
+	put_resource(handle, res);
 	return rc;
 }
 
@@ -166,88 +255,608 @@ JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_getSignalStrength(JN
  * Signature: ()I
  */
 JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_getSignalQuality(JNIEnv* env, jobject obj) {
-	jclass cls = (*env)->GetObjectClass(env, obj);
-	jfieldID fid = (*env)->GetFieldID(env, cls, "resourceID", "I");
-	int resourceid = (*env)->GetIntField(env, obj, fid);
-
-	int index = resourceid - 1;
-	struct dvb_resource* res = rescoll_get(index);
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
 	if (res == NULL)
-		throw_exception(env, "Invalid resource ID");
+		return -1;
 		
 	int rc = dvbres_getsignalquality(res);
 	if (rc == -1 && res->error_code)
 		throw_dvbres_exception(env, res);
-		
-	printf("qual: %d\n", rc);
 	
+	put_resource(handle, res);
 	return rc;
 }
 
 /*
  * Class:     NativeDVBIO
- * Method:    close
- * Signature: ()V
+ * Method:    readStatistics
+ * Signature: ([J)V
  */
-JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_close(JNIEnv* env, jobject obj) {
-	jclass cls = (*env)->GetObjectClass(env, obj);
-	jfieldID fid = (*env)->GetFieldID(env, cls, "resourceID", "I");
-	int resourceid = (*env)->GetIntField(env, obj, fid);
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_readStatistics(JNIEnv* env, jobject obj, jlongArray jvalues) {
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
+	if (res == NULL)
+		return;
+	
+	int64_t values[DVBRES_STAT_COUNT];
+	int rc = dvbres_readstats(res, values);
+	if (rc == -1 && res->error_code)
+		throw_dvbres_exception(env, res);
+	else
+		(*env)->SetLongArrayRegion(env, jvalues, 0, DVBRES_STAT_COUNT, (jlong*)values);
+	
+	put_resource(handle, res);
+}
 
-	int index = resourceid - 1;
-	struct dvb_resource* res = rescoll_get(index);
+// Closes and forgets a resource. Unknown (already deleted) handles are
+// ignored. Returns non-zero if the resource can not be removed.
+int close_resource(rescoll_handle handle) {
+	struct dvb_resource* res = rescoll_get(handle);
 	if (res == NULL)
-		throw_exception(env, "Invalid resource ID");
+		return 0;
 	
-	if (res->dvr != 0)
-		dvbres_close(res);
-		
-	res = NULL;
-	int rc = rescoll_delete(index);
+	// the threads waiting for data return at once, the devices are closed
+	// and the resource freed when the last of them drops its reference
+	dvbres_shutdown(res);
+	rescoll_put(handle);
+	return rescoll_delete(handle);
+}
+
+/*
+ * Class:     NativeDVBIO
+ * Method:    closeNative
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_closeNative(JNIEnv* env, jobject obj) {
+	
+	// already closed (or never opened)
+	rescoll_handle handle = (rescoll_handle)(*env)->GetLongField(env, obj, resource_id_field);
+	if (handle == 0)
+		return;
+	
+	int rc = close_resource(handle);
+	(*env)->SetLongField(env, obj, resource_id_field, 0);
 	if (rc)
 		throw_exception(env, "Closing removing resource from global collection.");
 }
 
+/*
+ * Class:     NativeDVBIO
+ * Method:    closeResource
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_closeResource(JNIEnv* env, jclass cls, jlong handle) {
+	(void)cls;
+	
+	if (handle != 0 && close_resource((rescoll_handle)handle))
+		throw_exception(env, "Closing removing resource from global collection.");
+}
+
+/*
+ * Class:     NativeDVBIO
+ * Method:    addPid
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_addPid(JNIEnv* env, jobject obj, jint pid) {
+	if (pid < 0 || pid > DVBRES_ALL_PIDS) {
+		throw_exception(env, "Invalid PID");
+		return;
+	}
+	
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
+	if (res == NULL)
+		return;
+	
+	if (dvbres_addpid(res, pid))
+		throw_dvbres_exception(env, res);
+	
+	put_resource(handle, res);
+}
+
+/*
+ * Class:     NativeDVBIO
+ * Method:    removePid
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_removePid(JNIEnv* env, jobject obj, jint pid) {
+	if (pid < 0 || pid > DVBRES_ALL_PIDS) {
+		throw_exception(env, "Invalid PID");
+		return;
+	}
+	
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
+	if (res == NULL)
+		return;
+	
+	if (dvbres_removepid(res, pid))
+		throw_dvbres_exception(env, res);
+	
+	put_resource(handle, res);
+}
+
 /*
  * Class:     NativeDVBIO
  * Method:    read
  * Signature: ([BII)I
  */
 JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_read(JNIEnv* env, jobject obj, jbyteArray jBuffer, jint offset, jint length) {
-	jclass cls = (*env)->GetObjectClass(env, obj);
-	jfieldID fid = (*env)->GetFieldID(env, cls, "resourceID", "I");
-	int resourceid = (*env)->GetIntField(env, obj, fid);
-	
-	int index = resourceid - 1;
-	struct dvb_resource* res = rescoll_get(index);
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
 	if (res == NULL)
-		throw_exception(env, "Invalid resource ID");
+		return -1;
 	
 	char* buffer = (char*)(*env)->GetByteArrayElements(env, jBuffer, NULL);	
 
 	int bytesred = dvbres_read(res, &buffer[offset], length);
 	
-	(*env)->ReleaseByteArrayElements(env, jBuffer, (jbyte*)buffer, 0);
+	(*env)->ReleaseByteArrayElements(env, jBuffer, (jbyte*)buffer, bytesred > 0 ? 0 : JNI_ABORT);
+	
+	if (bytesred == -1 && res->error_code)
+		throw_dvbres_exception(env, res);
+	
+	put_resource(handle, res);
+	return bytesred;
+}
+
+/*
+ * Class:     NativeDVBIO
+ * Method:    readDirect
+ * Signature: (Ljava/nio/ByteBuffer;II)I
+ */
+JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_readDirect(JNIEnv* env, jobject obj, jobject jBuffer, jint offset, jint length) {
+	
+	// the memory of the direct buffer is written by the read() syscall, no
+	// intermediate copy is made
+	char* buffer = (char*)(*env)->GetDirectBufferAddress(env, jBuffer);
+	if (buffer == NULL) {
+		throw_exception(env, "Buffer is not direct (or direct access is not supported)");
+		return -1;
+	}
+	
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
+	if (res == NULL)
+		return -1;
+	
+	int bytesred = dvbres_read(res, &buffer[offset], length);
+	if (bytesred == -1 && res->error_code)
+		throw_dvbres_exception(env, res);
+	
+	put_resource(handle, res);
+	return bytesred;
+}
+
+/*
+ * Class:     NativeDVBIO
+ * Method:    readChunkDirect
+ * Signature: (Ljava/nio/ByteBuffer;IIII)I
+ */
+JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_readChunkDirect(JNIEnv* env, jobject obj, jobject jBuffer, jint offset, jint min_length, jint max_length, jint max_wait) {
+	
+	// the data of many reads of the device is collected by a single call
+	char* buffer = (char*)(*env)->GetDirectBufferAddress(env, jBuffer);
+	if (buffer == NULL) {
+		throw_exception(env, "Buffer is not direct (or direct access is not supported)");
+		return -1;
+	}
+	
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
+	if (res == NULL)
+		return -1;
+	
+	int bytesred = dvbres_readchunk(res, &buffer[offset], min_length, max_length, max_wait);
+	if (bytesred == -1 && res->error_code)
+		throw_dvbres_exception(env, res);
+	
+	put_resource(handle, res);
+	return bytesred;
+}
+
+/*
+ * Class:     NativeDVBIO
+ * Method:    readAvailable
+ * Signature: ([BII)I
+ */
+JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_readAvailable(JNIEnv* env, jobject obj, jbyteArray jBuffer, jint offset, jint length) {
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
+	if (res == NULL)
+		return -1;
+	
+	char* buffer = (char*)(*env)->GetByteArrayElements(env, jBuffer, NULL);	
+	
+	int bytesred = dvbres_readnonblocking(res, &buffer[offset], length);
+	
+	(*env)->ReleaseByteArrayElements(env, jBuffer, (jbyte*)buffer, bytesred > 0 ? 0 : JNI_ABORT);
+	
+	if (bytesred == -1)
+		throw_dvbres_exception(env, res);
+	
+	put_resource(handle, res);
+	return bytesred;
+}
+
+/*
+ * Class:     NativeDVBIO
+ * Method:    readAvailableDirect
+ * Signature: (Ljava/nio/ByteBuffer;II)I
+ */
+JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_readAvailableDirect(JNIEnv* env, jobject obj, jobject jBuffer, jint offset, jint length) {
+	char* buffer = (char*)(*env)->GetDirectBufferAddress(env, jBuffer);
+	if (buffer == NULL) {
+		throw_exception(env, "Buffer is not direct (or direct access is not supported)");
+		return -1;
+	}
+	
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
+	if (res == NULL)
+		return -1;
+	
+	int bytesred = dvbres_readnonblocking(res, &buffer[offset], length);
+	if (bytesred == -1)
+		throw_dvbres_exception(env, res);
 	
+	put_resource(handle, res);
 	return bytesred;
 }
 
+/*
+ * Class:     NativeDVBIO
+ * Method:    setNativeReadTimeout
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_setNativeReadTimeout(JNIEnv* env, jobject obj, jint millis) {
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
+	if (res == NULL)
+		return;
+	
+	dvbres_setreadtimeout(res, millis);
+	
+	put_resource(handle, res);
+}
+
+/*
+ * Class:     NativeDVBIO
+ * Method:    setNativeBufferSize
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_setNativeBufferSize(JNIEnv* env, jobject obj, jint size) {
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
+	if (res == NULL)
+		return;
+	
+	if (dvbres_setbuffersize(res, size))
+		throw_dvbres_exception(env, res);
+	
+	put_resource(handle, res);
+}
+
+/*
+ * Class:     NativeDVBIO
+ * Method:    getOverflowCount
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_org_czentral_dvb_io_NativeDVBIO_getOverflowCount(JNIEnv* env, jobject obj) {
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
+	if (res == NULL)
+		return -1;
+	
+	jlong count = res->overflow_count;
+	
+	put_resource(handle, res);
+	return count;
+}
+
+/*
+ * Class:     NativeDVBIO
+ * Method:    getLostBytes
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_org_czentral_dvb_io_NativeDVBIO_getLostBytes(JNIEnv* env, jobject obj) {
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
+	if (res == NULL)
+		return -1;
+	
+	jlong lost = res->lost_bytes;
+	
+	put_resource(handle, res);
+	return lost;
+}
+
+/*
+ * Class:     NativeDVBIO
+ * Method:    retuneNative
+ * Signature: ([J)V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_retuneNative(JNIEnv* env, jobject obj, jlongArray jtuning) {
+	int64_t tuning[DVBRES_TUNE_COUNT];
+	if (get_tuning(env, jtuning, tuning))
+		return;
+	
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
+	if (res == NULL)
+		return;
+	
+	if (dvbres_retune(res, tuning))
+		throw_dvbres_exception(env, res);
+	
+	put_resource(handle, res);
+}
+
+/*
+ * Class:     NativeDVBIO
+ * Method:    getZapLatency
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_org_czentral_dvb_io_NativeDVBIO_getZapLatency(JNIEnv* env, jobject obj) {
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
+	if (res == NULL)
+		return -1;
+	
+	jlong latency = dvbres_getzaplatency(res);
+	
+	put_resource(handle, res);
+	return latency;
+}
+
+/*
+ * Class:     NativeDVBIO
+ * Method:    getDevicePath
+ * Signature: ()Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_org_czentral_dvb_io_NativeDVBIO_getDevicePath(JNIEnv* env, jobject obj) {
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
+	if (res == NULL)
+		return NULL;
+	
+	jstring path = res->path[0] ? (*env)->NewStringUTF(env, res->path) : NULL;
+	
+	put_resource(handle, res);
+	return path;
+}
+
+// Gets the resource of a handle held by Java (a section filter), takes a
+// reference on it and locks it, like get_resource().
+struct dvb_resource* get_handle_resource(JNIEnv* env, jlong jhandle) {
+	struct dvb_resource* res = rescoll_get((rescoll_handle)jhandle);
+	if (res == NULL)
+		throw_exception(env, "Invalid resource ID");
+	else
+		pthread_mutex_lock(&res->lock);
+	return res;
+}
+
+/*
+ * Class:     NativeDVBIO
+ * Method:    openSections
+ * Signature: ([JLjava/lang/String;I[B[BI)J
+ */
+JNIEXPORT jlong JNICALL Java_org_czentral_dvb_io_NativeDVBIO_openSections(JNIEnv* env, jclass cls, jlongArray jtuning, jstring jdevice, jint pid, jbyteArray jfilter, jbyteArray jmask, jint buffer_size) {
+	(void)cls;
+	
+	// tuning parameters, none: the frontend is left as it is
+	int64_t tuning[DVBRES_TUNE_COUNT];
+	if (jtuning != NULL && get_tuning(env, jtuning, tuning))
+		return 0;
+	
+	int filter_length = (*env)->GetArrayLength(env, jfilter);
+	if (filter_length > DVBRES_FILTER_SIZE || (*env)->GetArrayLength(env, jmask) != filter_length) {
+		throw_exception(env, "Invalid section filter");
+		return 0;
+	}
+	uint8_t filter[DVBRES_FILTER_SIZE];
+	uint8_t mask[DVBRES_FILTER_SIZE];
+	(*env)->GetByteArrayRegion(env, jfilter, 0, filter_length, (jbyte*)filter);
+	(*env)->GetByteArrayRegion(env, jmask, 0, filter_length, (jbyte*)mask);
+	
+	rescoll_handle handle = rescoll_create();
+	struct dvb_resource* res = rescoll_get(handle);
+	if (res == NULL) {
+		throw_exception(env, "Unable to allocate resource");
+		return 0;
+	}
+	
+	char* device = NULL;
+	if (jdevice != NULL)
+		device = (char*)((*env)->GetStringUTFChars(env, jdevice, NULL));
+	
+	int rc = dvbres_setbuffersize(res, buffer_size);
+	if (rc == 0)
+		rc = dvbres_opensections(res, jtuning != NULL ? tuning : NULL, device, pid, filter, mask, filter_length);
+	if (rc) {
+		throw_dvbres_exception(env, res);
+		
+		// nothing to keep
+		rescoll_put(handle);
+		rescoll_delete(handle);
+		handle = 0;
+	} else {
+		rescoll_put(handle);
+	}
+	
+	if (device != NULL)
+		(*env)->ReleaseStringUTFChars(env, jdevice, device);
+	return (jlong)handle;
+}
+
+/*
+ * Class:     NativeDVBIO
+ * Method:    readSection
+ * Signature: (J[BII)I
+ */
+JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_readSection(JNIEnv* env, jclass cls, jlong jhandle, jbyteArray jbuffer, jint offset, jint length) {
+	(void)cls;
+	
+	struct dvb_resource* res = get_handle_resource(env, jhandle);
+	if (res == NULL)
+		return -1;
+	
+	// a section is small, it is copied instead of pinning the array for the
+	// time of the wait
+	char section[DVBRES_MAX_SECTION];
+	int section_length = dvbres_readsection(res, section, sizeof(section));
+	if (section_length == -1)
+		throw_dvbres_exception(env, res);
+	else if (section_length > length)
+		throw_exception(env, "Section buffer too small");
+	else
+		(*env)->SetByteArrayRegion(env, jbuffer, offset, section_length, (jbyte*)section);
+	
+	put_resource((rescoll_handle)jhandle, res);
+	return section_length;
+}
+
+/*
+ * Class:     NativeDVBIO
+ * Method:    setSectionReadTimeout
+ * Signature: (JI)V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_setSectionReadTimeout(JNIEnv* env, jclass cls, jlong jhandle, jint millis) {
+	(void)cls;
+	
+	struct dvb_resource* res = get_handle_resource(env, jhandle);
+	if (res == NULL)
+		return;
+	
+	dvbres_setreadtimeout(res, millis);
+	
+	put_resource((rescoll_handle)jhandle, res);
+}
+
+/*
+ * Class:     NativeDVBIO
+ * Method:    getSectionOverflowCount
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_org_czentral_dvb_io_NativeDVBIO_getSectionOverflowCount(JNIEnv* env, jclass cls, jlong jhandle) {
+	(void)cls;
+	
+	struct dvb_resource* res = get_handle_resource(env, jhandle);
+	if (res == NULL)
+		return -1;
+	
+	jlong count = res->overflow_count;
+	
+	put_resource((rescoll_handle)jhandle, res);
+	return count;
+}
+
+/*
+ * Class:     NativeDVBIO
+ * Method:    getDescriptor
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_getDescriptor(JNIEnv* env, jobject obj) {
+	rescoll_handle handle;
+	struct dvb_resource* res = get_resource(env, obj, &handle);
+	if (res == NULL)
+		return -1;
+	
+	int fd = dvbres_getfd(res);
+	if (fd == -1)
+		throw_dvbres_exception(env, res);
+	
+	put_resource(handle, res);
+	return fd;
+}
+
 /*
  * Class:     NativeDVBIO
  * Method:    listDevices
  * Signature: ([B)I
  */
 JNIEXPORT jstring JNICALL Java_org_czentral_dvb_io_NativeDVBIO_listDevices(JNIEnv* env, jclass cls) {
+	(void)cls;
+	
 	int rc;
 	
 	// ToDo: a non-capping buffer solution	
 	int bufflen = 32000;
 	void* buffer = malloc(bufflen);
 	
+	if (buffer == NULL) {
+		throw_exception(env, "Out of memory");
+		return NULL;
+	}
+	
 	struct dvb_resource res;
 	rc = dvbres_listdevices(&res, buffer, bufflen);
-	if (rc == -1)
+	if (rc == -1) {
+		free(buffer);
+		throw_dvbres_exception(env, &res);
+		return NULL;
+	}
+	
+	jstring list = (*env)->NewStringUTF(env, buffer);
+	free(buffer);
+	return list;
+}
+
+/*
+ * Class:     NativeDVBIO
+ * Method:    queryDevices
+ * Signature: ()[Lorg/czentral/dvb/io/NativeDeviceInfo;
+ */
+JNIEXPORT jobjectArray JNICALL Java_org_czentral_dvb_io_NativeDVBIO_queryDevices(JNIEnv* env, jclass cls) {
+	(void)cls;
+	
+	struct dvb_resource res;
+	int adapters[64];
+	
+	int count = dvbres_listadapters(&res, adapters, sizeof(adapters) / sizeof(int));
+	if (count == -1) {
 		throw_dvbres_exception(env, &res);
+		return NULL;
+	}
+	
+	// adapters without a usable frontend (just appearing, being removed)
+	// are left out
+	struct dvb_device_info infos[count > 0 ? count : 1];
+	int found = 0;
+	int i;
+	for (i=0; i<count; i++) {
+		if (dvbres_getdeviceinfo(&res, adapters[i], &infos[found]) == 0)
+			found++;
+	}
+	
+	jobjectArray result = (*env)->NewObjectArray(env, found, device_info_class, NULL);
+	if (result == NULL)
+		return NULL;
+	
+	for (i=0; i<found; i++) {
+		struct dvb_device_info* info = &infos[i];
+		
+		jstring name = (*env)->NewStringUTF(env, info->name);
+		jstring path = (*env)->NewStringUTF(env, info->path);
+		jintArray delsys = (*env)->NewIntArray(env, info->delsys_count);
+		if (name == NULL || path == NULL || delsys == NULL)
+			return NULL;
+		(*env)->SetIntArrayRegion(env, delsys, 0, info->delsys_count, info->delsys);
+		
+		jobject obj = (*env)->NewObject(env, device_info_class, device_info_constructor,
+				info->adapter, name, path, info->type, delsys,
+				(jlong)info->frequency_min, (jlong)info->frequency_max);
+		if (obj == NULL)
+			return NULL;
+		(*env)->SetObjectArrayElement(env, result, i, obj);
+		
+		(*env)->DeleteLocalRef(env, obj);
+		(*env)->DeleteLocalRef(env, delsys);
+		(*env)->DeleteLocalRef(env, path);
+		(*env)->DeleteLocalRef(env, name);
+	}
 	
-	return (*env)->NewStringUTF(env, buffer);
+	return result;
 }
@@ -12,10 +12,10 @@ extern "C" {
 /*
  * Class:     org_czentral_dvb_io_NativeDVBIO
  * Method:    open
- * Signature: (JLjava/lang/String;)V
+ * Signature: ([JLjava/lang/String;[II)V
  */
 JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_open
-  (JNIEnv *, jobject, jlong, jstring);
+  (JNIEnv *, jobject, jlongArray, jstring, jintArray, jint);
 
 /*
  * Class:     org_czentral_dvb_io_NativeDVBIO
@@ -59,12 +59,36 @@ JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_getSignalQuality
 
 /*
  * Class:     org_czentral_dvb_io_NativeDVBIO
- * Method:    close
+ * Method:    closeNative
  * Signature: ()V
  */
-JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_close
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_closeNative
   (JNIEnv *, jobject);
 
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    closeResource
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_closeResource
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    addPid
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_addPid
+  (JNIEnv *, jobject, jint);
+
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    removePid
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_removePid
+  (JNIEnv *, jobject, jint);
+
 /*
  * Class:     org_czentral_dvb_io_NativeDVBIO
  * Method:    read
@@ -73,6 +97,142 @@ JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_close
 JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_read
   (JNIEnv *, jobject, jbyteArray, jint, jint);
 
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    readDirect
+ * Signature: (Ljava/nio/ByteBuffer;II)I
+ */
+JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_readDirect
+  (JNIEnv *, jobject, jobject, jint, jint);
+
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    readChunkDirect
+ * Signature: (Ljava/nio/ByteBuffer;IIII)I
+ */
+JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_readChunkDirect
+  (JNIEnv *, jobject, jobject, jint, jint, jint, jint);
+
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    readAvailable
+ * Signature: ([BII)I
+ */
+JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_readAvailable
+  (JNIEnv *, jobject, jbyteArray, jint, jint);
+
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    readAvailableDirect
+ * Signature: (Ljava/nio/ByteBuffer;II)I
+ */
+JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_readAvailableDirect
+  (JNIEnv *, jobject, jobject, jint, jint);
+
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    setNativeReadTimeout
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_setNativeReadTimeout
+  (JNIEnv *, jobject, jint);
+
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    setNativeBufferSize
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_setNativeBufferSize
+  (JNIEnv *, jobject, jint);
+
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    getOverflowCount
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_org_czentral_dvb_io_NativeDVBIO_getOverflowCount
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    readStatistics
+ * Signature: ([J)V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_readStatistics
+  (JNIEnv *, jobject, jlongArray);
+
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    getLostBytes
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_org_czentral_dvb_io_NativeDVBIO_getLostBytes
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    retuneNative
+ * Signature: ([J)V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_retuneNative
+  (JNIEnv *, jobject, jlongArray);
+
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    getZapLatency
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_org_czentral_dvb_io_NativeDVBIO_getZapLatency
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    getDevicePath
+ * Signature: ()Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_org_czentral_dvb_io_NativeDVBIO_getDevicePath
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    openSections
+ * Signature: ([JLjava/lang/String;I[B[BI)J
+ */
+JNIEXPORT jlong JNICALL Java_org_czentral_dvb_io_NativeDVBIO_openSections
+  (JNIEnv *, jclass, jlongArray, jstring, jint, jbyteArray, jbyteArray, jint);
+
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    readSection
+ * Signature: (J[BII)I
+ */
+JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_readSection
+  (JNIEnv *, jclass, jlong, jbyteArray, jint, jint);
+
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    setSectionReadTimeout
+ * Signature: (JI)V
+ */
+JNIEXPORT void JNICALL Java_org_czentral_dvb_io_NativeDVBIO_setSectionReadTimeout
+  (JNIEnv *, jclass, jlong, jint);
+
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    getSectionOverflowCount
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_org_czentral_dvb_io_NativeDVBIO_getSectionOverflowCount
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    getDescriptor
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_getDescriptor
+  (JNIEnv *, jobject);
+
 /*
  * Class:     org_czentral_dvb_io_NativeDVBIO
  * Method:    listDevices
@@ -81,6 +241,14 @@ JNIEXPORT jint JNICALL Java_org_czentral_dvb_io_NativeDVBIO_read
 JNIEXPORT jstring JNICALL Java_org_czentral_dvb_io_NativeDVBIO_listDevices
   (JNIEnv *, jclass);
 
+/*
+ * Class:     org_czentral_dvb_io_NativeDVBIO
+ * Method:    queryDevices
+ * Signature: ()[Lorg/czentral/dvb/io/NativeDeviceInfo;
+ */
+JNIEXPORT jobjectArray JNICALL Java_org_czentral_dvb_io_NativeDVBIO_queryDevices
+  (JNIEnv *, jclass);
+
 #ifdef __cplusplus
 }
 #endif